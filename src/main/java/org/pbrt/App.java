@@ -11,9 +11,13 @@ package org.pbrt;
 
 import com.sampullara.cli.*;
 import org.pbrt.core.Api;
+import org.pbrt.core.FileUtil;
 import org.pbrt.core.Options;
 import org.pbrt.core.PBrtTLogger;
 import org.pbrt.core.Parser;
+import org.pbrt.core.Pbrt;
+import org.pbrt.core.Texture;
+import org.pbrt.core.TiledTextureFile;
 
 import java.util.List;
 
@@ -34,6 +38,36 @@ public class App {
     @Argument(description = "Suppress all text output other than error messages.")
     private static Boolean quiet = false;
 
+    @Argument(description = "Limit the memory used by cached texture tiles to the given number of megabytes. Default: 1024.")
+    private static Integer texturecachemb = 1024;
+
+    @Argument(description = "Convert image textures to pre-filtered tiled textures in the given directory the first time they are used, and use those afterwards.")
+    private static String tiledtexturedir = "";
+
+    @Argument(description = "Convert the given image file(s) to pre-filtered tiled textures (.txp) and exit. Writes to the -o filename if there is a single input.")
+    private static Boolean maketiled = false;
+
+    @Argument(description = "With --maketiled, store texels as half floats.")
+    private static Boolean halftexels = false;
+
+    @Argument(description = "Compression of EXR output: none, zip or zips. Default: zip.")
+    private static String exrcompression = "zip";
+
+    @Argument(description = "Store EXR output as half floats rather than full floats; halves the file size, but values are rounded and clamped to +/-65504.")
+    private static Boolean exrhalf = false;
+
+    @Argument(description = "Render the image in tiles of the given size in pixels. Default: 16.")
+    private static Integer tilesize = 16;
+
+    @Argument(description = "Order to render image tiles in: rowmajor, spiral, morton or hilbert. Default: hilbert.")
+    private static String tileorder = "hilbert";
+
+    @Argument(description = "Save a checkpoint of the render in progress every given number of seconds, so that it can be resumed.")
+    private static Float checkpoint = 0f;
+
+    @Argument(description = "Resume the render from its last checkpoint, if there is one.")
+    private static Boolean resume = false;
+
     @Argument(alias = "l", description = "Specify directory that log files should be written to.")
     private static String logdir = "";
 
@@ -74,6 +108,18 @@ public class App {
         options.ImageFile = outfile;
         options.QuickRender = quick;
         options.Quiet = quiet;
+        options.TextureCacheMB = texturecachemb;
+        options.TiledTextureDir = tiledtexturedir;
+        options.ExrCompression = exrcompression;
+        options.ExrHalf = exrhalf;
+        if (tilesize <= 0) {
+            PBrtTLogger.Error("Tile size %d must be positive. Using 16.", tilesize);
+            tilesize = 16;
+        }
+        options.TileSize = tilesize;
+        options.TileOrder = tileorder;
+        options.CheckpointInterval = checkpoint;
+        options.Resume = resume;
 
         options.Cat = cat;
         options.ToPly = toply;
@@ -85,6 +131,19 @@ public class App {
             System.out.format("Matt Pharr, Greg Humphreys, and Wenzel Jakob.\n");
         }
 
+        if (maketiled) {
+            Pbrt.options = options;
+            boolean ok = true;
+            for (String f : parse) {
+                String out = (parse.size() == 1 && !outfile.isEmpty()) ? outfile :
+                        f.substring(0, f.lastIndexOf('.') > 0 ? f.lastIndexOf('.') : f.length()) + TiledTextureFile.Extension;
+                boolean gamma = FileUtil.HasExtension(f, ".tga") || FileUtil.HasExtension(f, ".png");
+                ok &= TiledTextureFile.Convert(f, out, 3, 1, gamma, Texture.ImageWrap.Repeat, halftexels);
+            }
+            System.exit(ok ? 0 : 1);
+            return;
+        }
+
         Api.pbrtInit(options);
 
         if (parse.isEmpty()) {
@@ -25,8 +25,8 @@ public class PerspectiveCamera extends ProjectiveCamera {
         Point2i res = film.fullResolution;
         Point3f pMin = RasterToCamera.xform(new Point3f(0, 0, 0));
         Point3f pMax = RasterToCamera.xform(new Point3f(res.x, res.y, 0));
-        pMin.invScale(pMin.z);
-        pMax.invScale(pMax.z);
+        pMin = pMin.invScale(pMin.z);
+        pMax = pMax.invScale(pMax.z);
         A = Math.abs((pMax.x - pMin.x) * (pMax.y - pMin.y));
     }
 
@@ -188,7 +188,7 @@ public class PerspectiveCamera extends ProjectiveCamera {
         cw.vis = new Light.VisibilityTester(ref, lensIntr);
         cw.wi = lensIntr.p.subtract(ref.p);
         float dist = cw.wi.Length();
-        cw.wi.invScale(dist);
+        cw.wi = cw.wi.invScale(dist);
 
         // Compute PDF for importance arriving at _ref_
 
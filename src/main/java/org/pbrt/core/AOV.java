@@ -0,0 +1,85 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// Arbitrary output variables: per-pixel values other than radiance that a
+// film can record alongside the image, given by name in the film's "aovs"
+// parameter.  They are written as layers "<name>.<channel>" of EXR output.
+public enum AOV {
+    // Hemispherical-directional reflectance of the first surface hit
+    Albedo("albedo", false, "R", "G", "B"),
+    // World-space shading normal of the first surface hit, on the side
+    // facing the camera
+    Normal("normal", false, "X", "Y", "Z"),
+    // Distance from the camera to the first surface hit
+    Depth("depth", true, "Z"),
+    // World-space position of the first surface hit
+    Position("position", true, "X", "Y", "Z"),
+    // Material of the first surface hit, numbered from 1 in the order
+    // materials are created; 0 where there's no surface or material
+    MaterialId("materialid", true, "id");
+
+    AOV(String name, boolean fullFloat, String... channels) {
+        this.name = name;
+        this.fullFloat = fullFloat;
+        this.channels = channels;
+    }
+
+    public static AOV Find(String name) {
+        for (AOV aov : values())
+            if (aov.name.equals(name)) return aov;
+        return null;
+    }
+
+    public final String name;
+    // Whether EXR output stores it as full floats even when the image is
+    // written as half floats
+    public final boolean fullFloat;
+    public final String[] channels;
+
+    // The values of one camera sample for the AOVs a film records.
+    // Integrators set the ones they can; the rest stay zero.
+    public static class Sample {
+        Sample(AOV[] aovs) {
+            offsets = new int[values().length];
+            java.util.Arrays.fill(offsets, -1);
+            int n = 0;
+            for (AOV aov : aovs) {
+                offsets[aov.ordinal()] = n;
+                n += aov.channels.length;
+            }
+            this.values = new float[n];
+        }
+
+        public boolean Wants(AOV aov) { return offsets[aov.ordinal()] >= 0; }
+
+        public void Set(AOV aov, float v) {
+            int o = offsets[aov.ordinal()];
+            if (o >= 0) values[o] = v;
+        }
+        public void Set(AOV aov, float v0, float v1, float v2) {
+            int o = offsets[aov.ordinal()];
+            if (o < 0) return;
+            values[o] = v0;
+            values[o + 1] = v1;
+            values[o + 2] = v2;
+        }
+
+        public float Get(AOV aov, int channel) {
+            int o = offsets[aov.ordinal()];
+            return (o >= 0) ? values[o + channel] : 0;
+        }
+
+        public void Reset() { java.util.Arrays.fill(values, 0); }
+
+        private final int[] offsets;
+        final float[] values;
+    }
+}
@@ -30,7 +30,7 @@ public abstract class Aggregate extends Primitive {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction isect, Material.TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction isect, MemoryArena arena, Material.TransportMode mode, boolean allowMultipleLobes) {
         PBrtTLogger.Error("Aggregate::ComputeScatteringFunctions() method called; should have gone to GeometricPrimitive");
     }
 }
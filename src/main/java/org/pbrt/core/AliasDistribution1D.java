@@ -0,0 +1,132 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import java.util.function.Consumer;
+
+// Discrete sampling of a piecewise-constant function using Walker's alias
+// method with Vose's construction: each of the n bins holds an acceptance
+// probability _q_ and the index of an alias, so SampleDiscrete() is O(1)
+// rather than a binary search of a CDF.  SampleDiscrete() and
+// DiscretePDF() return the same probabilities as Distribution1D.
+public class AliasDistribution1D implements DiscreteDistribution1D {
+
+    public AliasDistribution1D(float[] f) {
+        func = f.clone();
+        int n = f.length;
+        q = new float[n];
+        alias = new int[n];
+
+        // Compute the sum of _func_, in parallel chunks for large inputs
+        double sum;
+        if (n >= parallelThreshold) {
+            final int nChunks = (n + parallelChunk - 1) / parallelChunk;
+            final double[] partial = new double[nChunks];
+            Parallel.ParallelFor((Long c) -> {
+                int start = c.intValue() * parallelChunk, end = Math.min(start + parallelChunk, n);
+                double s = 0;
+                for (int i = start; i < end; ++i) s += func[i];
+                partial[c.intValue()] = s;
+            }, nChunks, 1);
+            sum = 0;
+            for (double s : partial) sum += s;
+        } else {
+            sum = 0;
+            for (int i = 0; i < n; ++i) sum += func[i];
+        }
+        funcInt = (float)(sum / n);
+
+        // Scale probabilities so the average bin holds one unit
+        if (sum == 0) {
+            // Match Distribution1D: choose uniformly, with zero PDFs
+            for (int i = 0; i < n; ++i) {
+                q[i] = 1;
+                alias[i] = i;
+            }
+            return;
+        }
+        final double scale = n / sum;
+        Consumer<Long> scaleChunk = (Long c) -> {
+            int start = c.intValue() * parallelChunk, end = Math.min(start + parallelChunk, n);
+            for (int i = start; i < end; ++i) q[i] = (float)(func[i] * scale);
+        };
+        int nChunks = (n + parallelChunk - 1) / parallelChunk;
+        if (n >= parallelThreshold)
+            Parallel.ParallelFor(scaleChunk, nChunks, 1);
+        else
+            for (long c = 0; c < nChunks; ++c) scaleChunk.accept(c);
+
+        // Pair each under-full bin with an over-full one, using the front of
+        // _work_ as the under stack and the back as the over stack
+        int[] work = new int[n];
+        int nUnder = 0, overStart = n;
+        for (int i = 0; i < n; ++i) {
+            if (q[i] < 1) work[nUnder++] = i;
+            else work[--overStart] = i;
+        }
+        float[] pHat = q.clone();
+        while (nUnder > 0 && overStart < n) {
+            int un = work[--nUnder], ov = work[overStart++];
+            q[un] = pHat[un];
+            alias[un] = ov;
+            // Move the excess of the over-full bin to where it belongs
+            pHat[ov] = (pHat[ov] + pHat[un]) - 1;
+            if (pHat[ov] < 1) work[nUnder++] = ov;
+            else work[--overStart] = ov;
+        }
+        // Whatever remains is full up to round-off
+        while (nUnder > 0) {
+            int i = work[--nUnder];
+            q[i] = 1;
+            alias[i] = i;
+        }
+        while (overStart < n) {
+            int i = work[overStart++];
+            q[i] = 1;
+            alias[i] = i;
+        }
+    }
+
+    @Override
+    public int Count() { return func.length; }
+
+    @Override
+    public float Integral() { return funcInt; }
+
+    @Override
+    public Distribution1D.DiscreteSample SampleDiscrete(float u) {
+        Distribution1D.DiscreteSample dsamp = new Distribution1D.DiscreteSample();
+        int n = func.length;
+        // Pick a bin, then either it or its alias
+        int offset = Math.min((int)(u * n), n - 1);
+        float up = Math.min(u * n - offset, RNG.FloatOneMinusEpsilon);
+        if (up < q[offset]) {
+            dsamp.offset = offset;
+            dsamp.uRemapped = Math.min(up / q[offset], RNG.FloatOneMinusEpsilon);
+        } else {
+            dsamp.offset = alias[offset];
+            dsamp.uRemapped = Math.min((up - q[offset]) / (1 - q[offset]), RNG.FloatOneMinusEpsilon);
+        }
+        dsamp.pdf = (funcInt > 0) ? func[dsamp.offset] / (funcInt * n) : 0;
+        return dsamp;
+    }
+
+    @Override
+    public float DiscretePDF(int index) {
+        assert (index >= 0 && index < Count());
+        return (funcInt > 0) ? func[index] / (funcInt * Count()) : 0;
+    }
+
+    // AliasDistribution1D Private Data
+    private static final int parallelThreshold = 1 << 18, parallelChunk = 1 << 16;
+    private final float[] func, q;
+    private final float funcInt;
+    private final int[] alias;
+}
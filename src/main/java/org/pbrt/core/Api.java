@@ -609,6 +609,10 @@ public class Api {
             sampler = HaltonSampler.Create(paramSet, film.GetSampleBounds());
         else if (Objects.equals(name, "sobol"))
             sampler = SobolSampler.Create(paramSet, film.GetSampleBounds());
+        else if (Objects.equals(name, "paddedsobol"))
+            sampler = PaddedSobolSampler.Create(paramSet);
+        else if (Objects.equals(name, "bluenoise"))
+            sampler = BlueNoiseSampler.Create(paramSet, film.GetSampleBounds());
         else if (Objects.equals(name, "random"))
             sampler = RandomSampler.Create(paramSet);
         else if (Objects.equals(name, "stratified"))
@@ -660,6 +664,7 @@ public class Api {
         renderOptions = new RenderOptions();
         graphicsState = new GraphicsState();
         catIndentCount = 0;
+        Parser.ResetSceneHash();
 
         // General \pbrt Initialization
         //SampledSpectrum.Init();
@@ -1243,11 +1248,18 @@ public class Api {
         if (Pbrt.options.Cat || Pbrt.options.ToPly) {
             System.out.format("%sWorldEnd\n", new String(spaces, 0, catIndentCount));
         } else {
+            // Image textures load in the background while the scene is
+            // parsed; finish them before any rendering work is started
+            ImageTextureFloat.AwaitPendingFloat();
+            ImageTextureSpectrum.AwaitPendingSpectrum();
             Integrator integrator = renderOptions.MakeIntegrator();
             Scene scene = renderOptions.MakeScene();
 
             if ((scene != null) && (integrator != null)) {
+                if ((Pbrt.options.CheckpointInterval > 0 || Pbrt.options.Resume) && !(integrator instanceof SamplerIntegrator))
+                    PBrtTLogger.Warning("Checkpointing and resuming renders isn't supported by this integrator. Ignoring.");
                 integrator.Render(scene);
+                ImageIO.Flush();
             }
 
             //Parallel.MergeWorkerThreadStats();
@@ -1274,6 +1286,7 @@ public class Api {
         namedCoordinateSystems.clear();
         ImageTextureFloat.ClearCacheFloat();
         ImageTextureSpectrum.ClearCacheSpectrum();
+        TextureCache.Reset();
     }
 
     public static void pbrtParseFile(String filename) {
@@ -13,19 +13,36 @@ package org.pbrt.core;
 public class BSDF {
 
     // BSDF Private Data
-    private final Normal3f ns, ng;
-    private final Vector3f ss, ts;
+    private final Normal3f ns = new Normal3f(), ng = new Normal3f();
+    private final Vector3f ss = new Vector3f(), ts = new Vector3f();
     private int nBxDFs = 0;
     private static final int MaxBxDFs = 8;
     public final BxDF[] bxdfs = new BxDF[MaxBxDFs];
+    private MemoryArena arena = null;
 
     // BSDF Public Methods
     public BSDF(SurfaceInteraction si, float eta) {
+        Init(si, eta, null);
+    }
+
+    BSDF() {}
+
+    // (Re)initialize the shading frame; called by _MemoryArena_ when a pooled
+    // _BSDF_ is handed out again.
+    void Init(SurfaceInteraction si, float eta, MemoryArena arena) {
         this.eta = eta;
-        this.ns = new Normal3f(si.shading.n);
-        this.ng = new Normal3f(si.n);
-        this.ss = Vector3f.Normalize(si.shading.dpdu);
-        this.ts = Vector3f.Cross(ns, ss);
+        this.arena = arena;
+        for (int i = 0; i < nBxDFs; ++i) bxdfs[i] = null;
+        nBxDFs = 0;
+        ns.x = si.shading.n.x; ns.y = si.shading.n.y; ns.z = si.shading.n.z;
+        ng.x = si.n.x; ng.y = si.n.y; ng.z = si.n.z;
+        final Vector3f dpdu = si.shading.dpdu;
+        float len = dpdu.Length();
+        float inv = (len != 0) ? 1 / len : 0;
+        ss.x = dpdu.x * inv; ss.y = dpdu.y * inv; ss.z = dpdu.z * inv;
+        ts.x = (float)(((double)ns.y * ss.z) - ((double)ns.z * ss.y));
+        ts.y = (float)(((double)ns.z * ss.x) - ((double)ns.x * ss.z));
+        ts.z = (float)(((double)ns.x * ss.y) - ((double)ns.y * ss.x));
     }
 
     public void Add(BxDF b) {
@@ -43,22 +60,28 @@ public class BSDF {
         return NumComponents(BxDF.BSDF_ALL);
     }
     public Vector3f WorldToLocal(Vector3f v) {
-        return new Vector3f(Vector3f.Dot(v, ss), Vector3f.Dot(v, ts), Normal3f.Dot(v, ns));
+        return WorldToLocal(v, new Vector3f());
+    }
+    public Vector3f WorldToLocal(Vector3f v, Vector3f result) {
+        return result.set(Vector3f.Dot(v, ss), Vector3f.Dot(v, ts), Normal3f.Dot(v, ns));
     }
     public Vector3f LocalToWorld(Vector3f v) {
-        return new Vector3f(ss.x * v.x + ts.x * v.y + ns.x * v.z,
+        return LocalToWorld(v, new Vector3f());
+    }
+    public Vector3f LocalToWorld(Vector3f v, Vector3f result) {
+        return result.set(ss.x * v.x + ts.x * v.y + ns.x * v.z,
                 ss.y * v.x + ts.y * v.y + ns.y * v.z,
                 ss.z * v.x + ts.z * v.y + ns.z * v.z);
     }
     public Spectrum f(Vector3f woW, Vector3f wiW, int flags) {
-        Vector3f wi = WorldToLocal(wiW), wo = WorldToLocal(woW);
-        if (wo.z == 0) return new Spectrum(0);
+        Vector3f wi = WorldToLocal(wiW, AllocVector3f()), wo = WorldToLocal(woW, AllocVector3f());
+        Spectrum f = AllocSpectrum();
+        if (wo.z == 0) return f;
         boolean reflect = Normal3f.Dot(wiW, ng) * Normal3f.Dot(woW, ng) > 0;
-        Spectrum f = new Spectrum(0);
         for (int i = 0; i < nBxDFs; ++i)
             if (bxdfs[i].MatchesFlags(flags) && ((reflect && ((bxdfs[i].type & BxDF.BSDF_REFLECTION) != 0)) ||
                 (!reflect && ((bxdfs[i].type & BxDF.BSDF_TRANSMISSION) != 0))))
-                f = Spectrum.Add(f, bxdfs[i].f(wo, wi));
+                f.addInPlace(bxdfs[i].f(wo, wi));
         return f;
     }
     public Spectrum f(Vector3f woW, Vector3f wiW) {
@@ -89,11 +112,11 @@ public class BSDF {
 
     public BxDF.BxDFSample Sample_f(Vector3f woWorld, Point2f u, int type) {
         // Choose which _BxDF_ to sample
-        BxDF.BxDFSample sample = new BxDF.BxDFSample();
+        BxDF.BxDFSample sample = (arena != null) ? arena.AllocBxDFSample() : new BxDF.BxDFSample();
         sample.pdf = 0;
-        sample.wiWorld = new Vector3f();
+        sample.wiWorld.set(0, 0, 0);
         sample.sampledType = BxDF.BSDF_NONE;
-        sample.f = new Spectrum(0);
+        sample.f.setTo(0);
         int matchingComps = NumComponents(type);
         if (matchingComps == 0) {
             return sample;
@@ -116,13 +139,13 @@ public class BSDF {
         Point2f uRemapped = new Point2f(Math.min(u.at(0) * matchingComps - comp, Pbrt.OneMinusEpsilon), u.at(1));
 
         // Sample chosen _BxDF_
-        Vector3f wi, wo = WorldToLocal(woWorld);
+        Vector3f wi, wo = WorldToLocal(woWorld, AllocVector3f());
         if (wo.z == 0) return sample;
 
         sample.pdf = 0;
         sample.sampledType = bxdf.type;
         BxDF.BxDFSample bsample = bxdf.Sample_f(wo, uRemapped);
-        sample.f = bsample.f;
+        sample.f.setTo(bsample.f);
         wi = bsample.wiWorld;
         sample.pdf = bsample.pdf;
         //Api.logger.trace("For wo = %s, sampled f = %s, pdf = %f, ratio = %f, wi = %s", wo.toString(), sample.f,
@@ -132,7 +155,7 @@ public class BSDF {
             return sample;
         }
 
-        sample.wiWorld = LocalToWorld(wi);
+        LocalToWorld(wi, sample.wiWorld);
 
         // Compute overall PDF with all matching _BxDF_s
         if ((bxdf.type & BxDF.BSDF_SPECULAR) == 0 && matchingComps > 1)
@@ -144,13 +167,14 @@ public class BSDF {
         // Compute value of BSDF for sampled direction
         if ((bxdf.type & BxDF.BSDF_SPECULAR) == 0) {
             boolean reflect = Normal3f.Dot(sample.wiWorld, ng) * Normal3f.Dot(woWorld, ng) > 0;
+            sample.f.setTo(0);
             for (int i = 0; i < nBxDFs; ++i) {
                 if (bxdfs[i].MatchesFlags(type) &&
                         ((reflect && ((bxdfs[i].type & BxDF.BSDF_REFLECTION) != 0)) ||
                                 (!reflect && ((bxdfs[i].type & BxDF.BSDF_TRANSMISSION) != 0)))) {
                     Spectrum bxf = bxdfs[i].f(wo, wi);
                     assert bxf != null;
-                    sample.f = Spectrum.Add(sample.f, bxf);
+                    sample.f.addInPlace(bxf);
                 }
             }
         }
@@ -163,7 +187,7 @@ public class BSDF {
 
     public float Pdf(Vector3f woWorld, Vector3f wiWorld, int flags) {
         if (nBxDFs == 0.f) return 0.f;
-        Vector3f wo = WorldToLocal(woWorld), wi = WorldToLocal(wiWorld);
+        Vector3f wo = WorldToLocal(woWorld, AllocVector3f()), wi = WorldToLocal(wiWorld, AllocVector3f());
         if (wo.z == 0) return 0;
         float pdf = 0;
         int matchingComps = 0;
@@ -178,6 +202,22 @@ public class BSDF {
         return Pdf(wo, wi, BxDF.BSDF_ALL);
     }
 
+    // Stop taking temporaries from the arena.  For BSDFs that outlive the
+    // camera sample that made them and are then used from other threads,
+    // like SPPM's visible points.
+    public void Detach() {
+        arena = null;
+    }
+
+    // Temporaries come from the arena when there is one; they're then only
+    // valid until the arena is reset
+    private Vector3f AllocVector3f() {
+        return (arena != null) ? arena.AllocVector3f() : new Vector3f();
+    }
+    private Spectrum AllocSpectrum() {
+        return (arena != null) ? arena.AllocSpectrum() : new Spectrum(0);
+    }
+
     @Override
     public String toString() {
         StringBuilder s = new StringBuilder(String.format("[ BSDF eta: %f nBxDFs: %d", eta, nBxDFs));
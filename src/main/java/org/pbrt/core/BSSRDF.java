@@ -28,7 +28,7 @@ public abstract class BSSRDF {
         public float pdf;
     }
     public abstract Spectrum S(SurfaceInteraction si, Vector3f wi);
-    public abstract BSSRDFSample Sample_S(Scene scene, float u1, Point2f u2);
+    public abstract BSSRDFSample Sample_S(Scene scene, float u1, Point2f u2, MemoryArena arena);
 
     public static class BSSRDFTable {
         // BSSRDFTable Public Data
@@ -0,0 +1,208 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// Denoiser for low sample count images, guided by the albedo, normal and
+// depth of the first surface seen through each pixel.  It's an
+// edge-avoiding a-trous wavelet filter (Dammertz et al. 2010) with the
+// luminance variance estimated and filtered as in SVGF (Schied et al.
+// 2017), without the temporal part.  The image is divided by the albedo
+// first, so that texture detail isn't blurred, and multiplied by it again
+// at the end.  Each pass of the filter runs over tiles in parallel.
+public class Denoiser {
+
+    // Denoise the interleaved RGB _rgb_ of a _width_ by _height_ image, given
+    // interleaved RGB _albedo_ and XYZ _normal_ and a single channel of
+    // _depth_ (0 where nothing was hit).  Returns the denoised image.
+    public static float[] Denoise(float[] rgb, float[] albedo, float[] normal, float[] depth, int width, int height) {
+        int nPixels = width * height;
+        assert (rgb.length == 3 * nPixels && albedo.length == 3 * nPixels);
+        assert (normal.length == 3 * nPixels && depth.length == nPixels);
+        Denoiser d = new Denoiser(albedo, normal, depth, width, height);
+
+        // Divide out the albedo, where there's one
+        float[] color = new float[3 * nPixels];
+        for (int i = 0; i < 3 * nPixels; ++i)
+            color[i] = rgb[i] / d.albedo[i];
+
+        float[] variance = d.EstimateVariance(color);
+        float[] nextColor = new float[3 * nPixels];
+        float[] nextVariance = new float[nPixels];
+        for (int iteration = 0; iteration < Iterations; ++iteration) {
+            d.Filter(color, variance, nextColor, nextVariance, 1 << iteration);
+            float[] t = color; color = nextColor; nextColor = t;
+            t = variance; variance = nextVariance; nextVariance = t;
+        }
+
+        for (int i = 0; i < 3 * nPixels; ++i)
+            color[i] *= d.albedo[i];
+        nDenoisedPixels.increment(nPixels);
+        return color;
+    }
+
+    private Denoiser(float[] albedo, float[] normal, float[] depth, int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        // Normals averaged over pixels on silhouettes may be short
+        this.normal = normal.clone();
+        for (int i = 0; i < normal.length; i += 3) {
+            float length = (float)Math.sqrt(normal[i] * normal[i] + normal[i + 1] * normal[i + 1] + normal[i + 2] * normal[i + 2]);
+            if (length > 0)
+                for (int c = 0; c < 3; ++c) this.normal[i + c] /= length;
+        }
+        // Albedo channels too small to divide by are left alone
+        this.albedo = new float[albedo.length];
+        for (int i = 0; i < albedo.length; ++i)
+            this.albedo[i] = (albedo[i] > MinAlbedo) ? albedo[i] : 1;
+        // Screen-space depth gradient, from the smaller one-sided difference
+        // so that it isn't taken across silhouettes
+        this.depthGradient = new float[width * height];
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x) {
+                int i = y * width + x;
+                float dx = Math.min(x > 0 ? Math.abs(depth[i] - depth[i - 1]) : Pbrt.Infinity,
+                        x + 1 < width ? Math.abs(depth[i + 1] - depth[i]) : Pbrt.Infinity);
+                float dy = Math.min(y > 0 ? Math.abs(depth[i] - depth[i - width]) : Pbrt.Infinity,
+                        y + 1 < height ? Math.abs(depth[i + width] - depth[i]) : Pbrt.Infinity);
+                depthGradient[i] = Math.max(dx == Pbrt.Infinity ? 0 : dx, dy == Pbrt.Infinity ? 0 : dy);
+            }
+    }
+
+    // Variance of the luminance over a neighborhood of each pixel, taking
+    // only neighbors with similar normal and depth
+    private float[] EstimateVariance(float[] color) {
+        float[] variance = new float[width * height];
+        ForEachTile((x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; ++y)
+                for (int x = x0; x < x1; ++x) {
+                    int p = y * width + x;
+                    float sumW = 0, m1 = 0, m2 = 0;
+                    for (int qy = Math.max(0, y - 2); qy <= Math.min(height - 1, y + 2); ++qy)
+                        for (int qx = Math.max(0, x - 2); qx <= Math.min(width - 1, x + 2); ++qx) {
+                            int q = qy * width + qx;
+                            float w = NormalWeight(p, q) * (float)Math.exp(-DepthDistance(p, q, Math.max(Math.abs(qx - x), Math.abs(qy - y))));
+                            float l = Luminance(color, q);
+                            sumW += w;
+                            m1 += w * l;
+                            m2 += w * l * l;
+                        }
+                    m1 /= sumW;
+                    m2 /= sumW;
+                    variance[p] = Math.max(0, m2 - m1 * m1);
+                }
+        });
+        return variance;
+    }
+
+    // One a-trous pass, with taps _step_ pixels apart
+    private void Filter(float[] color, float[] variance, float[] outColor, float[] outVariance, int step) {
+        float[] blurredVariance = BlurVariance(variance);
+        ForEachTile((x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; ++y)
+                for (int x = x0; x < x1; ++x) {
+                    int p = y * width + x;
+                    float lp = Luminance(color, p);
+                    float invSigmaL = 1 / (SigmaLuminance * (float)Math.sqrt(blurredVariance[p]) + 1e-4f);
+                    float sumW = 0, sumW2Var = 0, r = 0, g = 0, b = 0;
+                    for (int j = -2; j <= 2; ++j) {
+                        int qy = y + j * step;
+                        if (qy < 0 || qy >= height) continue;
+                        for (int i = -2; i <= 2; ++i) {
+                            int qx = x + i * step;
+                            if (qx < 0 || qx >= width) continue;
+                            int q = qy * width + qx;
+                            float w = NormalWeight(p, q);
+                            if (w == 0) continue;
+                            w *= Kernel[i + 2] * Kernel[j + 2] * (float)Math.exp(
+                                    -Math.abs(lp - Luminance(color, q)) * invSigmaL -
+                                    DepthDistance(p, q, step * Math.max(Math.abs(i), Math.abs(j))));
+                            sumW += w;
+                            sumW2Var += w * w * variance[q];
+                            r += w * color[3 * q];
+                            g += w * color[3 * q + 1];
+                            b += w * color[3 * q + 2];
+                        }
+                    }
+                    // The center tap always has a nonzero weight
+                    float invW = 1 / sumW;
+                    outColor[3 * p] = r * invW;
+                    outColor[3 * p + 1] = g * invW;
+                    outColor[3 * p + 2] = b * invW;
+                    outVariance[p] = sumW2Var * invW * invW;
+                }
+        });
+    }
+
+    // 3x3 Gaussian blur of the variance, to steady the luminance weights
+    private float[] BlurVariance(float[] variance) {
+        float[] blurred = new float[width * height];
+        ForEachTile((x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; ++y)
+                for (int x = x0; x < x1; ++x) {
+                    float sum = 0, sumW = 0;
+                    for (int qy = Math.max(0, y - 1); qy <= Math.min(height - 1, y + 1); ++qy)
+                        for (int qx = Math.max(0, x - 1); qx <= Math.min(width - 1, x + 1); ++qx) {
+                            float w = ((qx == x) ? 2 : 1) * ((qy == y) ? 2 : 1);
+                            sum += w * variance[qy * width + qx];
+                            sumW += w;
+                        }
+                    blurred[y * width + x] = sum / sumW;
+                }
+        });
+        return blurred;
+    }
+
+    // Pixels where nothing was hit have no normal, and only match each other
+    private float NormalWeight(int p, int q) {
+        if (p == q) return 1;
+        float dot = normal[3 * p] * normal[3 * q] + normal[3 * p + 1] * normal[3 * q + 1] + normal[3 * p + 2] * normal[3 * q + 2];
+        boolean pHit = depth[p] > 0, qHit = depth[q] > 0;
+        if (!pHit || !qHit) return (pHit == qHit) ? 1 : 0;
+        if (dot <= 0) return 0;
+        // dot^128
+        for (int i = 0; i < 7; ++i) dot *= dot;
+        return dot;
+    }
+
+    // Depth difference relative to how much depth is expected to change
+    // over _distance_ pixels along the surface at _p_
+    private float DepthDistance(int p, int q, int distance) {
+        return Math.abs(depth[p] - depth[q]) / (SigmaDepth * depthGradient[p] * distance + 1e-3f * depth[p] + 1e-6f);
+    }
+
+    private static float Luminance(float[] color, int p) {
+        return 0.212671f * color[3 * p] + 0.715160f * color[3 * p + 1] + 0.072169f * color[3 * p + 2];
+    }
+
+    private interface TileFunc {
+        void accept(int x0, int y0, int x1, int y1);
+    }
+
+    private void ForEachTile(TileFunc func) {
+        int nx = (width + TileSize - 1) / TileSize, ny = (height + TileSize - 1) / TileSize;
+        Parallel.ParallelFor((Long t) -> {
+            int tx = (int)(t % nx), ty = (int)(t / nx);
+            func.accept(tx * TileSize, ty * TileSize, Math.min(width, (tx + 1) * TileSize), Math.min(height, (ty + 1) * TileSize));
+        }, nx * ny, 1);
+    }
+
+    // Denoiser Private Data
+    private static final int Iterations = 5;
+    private static final int TileSize = 64;
+    private static final float SigmaLuminance = 4;
+    private static final float SigmaDepth = 1;
+    private static final float MinAlbedo = 1e-3f;
+    private static final float[] Kernel = { 1.f / 16, 1.f / 4, 3.f / 8, 1.f / 4, 1.f / 16 };
+    private final int width, height;
+    private final float[] albedo, normal, depth, depthGradient;
+
+    private static Stats.Counter nDenoisedPixels = new Stats.Counter("Film/Pixels denoised");
+}
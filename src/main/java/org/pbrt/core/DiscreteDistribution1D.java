@@ -0,0 +1,24 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// A piecewise-constant 1D function that is only sampled discretely, such
+// as the per-light distributions used to choose a light source.
+public interface DiscreteDistribution1D {
+
+    int Count();
+
+    // Average of the function over its _Count()_ bins
+    float Integral();
+
+    Distribution1D.DiscreteSample SampleDiscrete(float u);
+
+    float DiscretePDF(int index);
+}
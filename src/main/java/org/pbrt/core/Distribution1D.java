@@ -9,7 +9,7 @@
 
 package org.pbrt.core;
 
-public class Distribution1D {
+public class Distribution1D implements DiscreteDistribution1D {
 
     // Distribution1D Public Data
     public float[] func, cdf;
@@ -35,6 +35,8 @@ public class Distribution1D {
 
     public int Count() { return func.length; }
 
+    public float Integral() { return funcInt; }
+
     public static class ContSample {
         public float sample;
         public float pdf;
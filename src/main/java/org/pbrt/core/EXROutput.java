@@ -13,116 +13,223 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
-
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+// Scanline OpenEXR writer.  Channels have arbitrary names and are stored
+// as half or full floats, uncompressed or ZIP compressed.  Blocks of
+// scanlines are packed and compressed in parallel a batch at a time and
+// streamed to the file, so only one batch of compressed data is held in
+// memory; the block offset table is filled in at the end.
 public class EXROutput {
 
     public static final int SUCCESS = 0;
     public static final int INVALID_ARGUMENT = -1;
+    public static final int IO_ERROR = -2;
 
     public static final int PIXELTYPE_UINT = 0;
     public static final int PIXELTYPE_HALF = 1;
     public static final int PIXELTYPE_FLOAT = 2;
 
     public static final int COMPRESSIONTYPE_NONE = 0;
+    public static final int COMPRESSIONTYPE_ZIPS = 2;
+    public static final int COMPRESSIONTYPE_ZIP = 3;
+
+    // One channel of an image; the value of pixel (x, y) of the data window
+    // is data[offset + (y * width + x) * stride].
+    public static class Channel {
+        public Channel(String name, int pixelType, float[] data, int offset, int stride) {
+            assert (pixelType == PIXELTYPE_HALF || pixelType == PIXELTYPE_FLOAT);
+            this.name = name;
+            this.pixelType = pixelType;
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+        }
+        public final String name;
+        public final int pixelType;
+        final float[] data;
+        final int offset, stride;
+    }
 
-    private static CharsetEncoder enc = Charset.forName("ISO-8859-1").newEncoder();
+    // Compression type for its name in the options ("none", "zip" or "zips")
+    public static int CompressionType(String name) {
+        if (Objects.equals(name, "none")) return COMPRESSIONTYPE_NONE;
+        if (Objects.equals(name, "zips")) return COMPRESSIONTYPE_ZIPS;
+        if (!Objects.equals(name, "zip"))
+            PBrtTLogger.Warning("EXR compression \"%s\" unknown. Using \"zip\".", name);
+        return COMPRESSIONTYPE_ZIP;
+    }
 
+    // Write the RGB or RGBA image _data_ with the compression and pixel
+    // type from the options
     public static int SaveEXR(float[] data, int width, int height, int components, String filename) {
+        if (components != 3 && components != 4) return INVALID_ARGUMENT;
+        Bounds2i window = new Bounds2i(new Point2i(0, 0), new Point2i(width, height));
+        return SaveEXR(filename, RGBChannels(data, components), window, new Point2i(width, height));
+    }
 
-        if (components == 3 || components == 4) {
-            // OK
-        }
-        else {
-            return INVALID_ARGUMENT;
-        }
+    public static int SaveEXR(String filename, List<Channel> channels, Bounds2i dataWindow, Point2i fullResolution) {
+        int compression = COMPRESSIONTYPE_ZIP;
+        if (Pbrt.options != null) compression = CompressionType(Pbrt.options.ExrCompression);
+        return SaveEXR(filename, channels, dataWindow, fullResolution, compression);
+    }
 
-        Header header = new Header();
-        Image image = new Image();
+    // Channels for interleaved RGB(A) _data_, as full floats unless the
+    // options ask for half floats
+    public static List<Channel> RGBChannels(float[] data, int components) {
+        int type = (Pbrt.options != null && Pbrt.options.ExrHalf) ? PIXELTYPE_HALF : PIXELTYPE_FLOAT;
+        List<Channel> channels = new ArrayList<>();
+        String[] names = { "R", "G", "B", "A" };
+        for (int c = 0; c < components; ++c)
+            channels.add(new Channel(names[c], type, data, c, components));
+        return channels;
+    }
 
-        image.num_channels = components;
+    // Write _channels_ covering _dataWindow_ of an image of _fullResolution_
+    public static int SaveEXR(String filename, List<Channel> channels, Bounds2i dataWindow, Point2i fullResolution, int compression) {
+        int width = dataWindow.pMax.x - dataWindow.pMin.x, height = dataWindow.pMax.y - dataWindow.pMin.y;
+        if (channels.isEmpty() || width <= 0 || height <= 0) return INVALID_ARGUMENT;
+        if (compression != COMPRESSIONTYPE_NONE && compression != COMPRESSIONTYPE_ZIPS && compression != COMPRESSIONTYPE_ZIP)
+            return INVALID_ARGUMENT;
 
-        float[] imageRed = new float[width * height];
-        float[] imageGreen = new float[width * height];
-        float[] imageBlue = new float[width * height];
-        float[] imageAlpha = new float[width * height];
+        // Readers expect channels in alphabetical order
+        Channel[] sorted = channels.toArray(new Channel[0]);
+        java.util.Arrays.sort(sorted, Comparator.comparing((Channel c) -> c.name));
+        for (int c = 1; c < sorted.length; ++c)
+            if (sorted[c].name.equals(sorted[c - 1].name)) return INVALID_ARGUMENT;
 
-        for (int i = 0; i < width * height; i++) {
-            imageRed[i] = data[components * i + 0];
-            imageGreen[i] = data[components * i + 1];
-            imageBlue[i] = data[components * i + 2];
-            if (components == 4) {
-                imageAlpha[i] = data[components * i + 3];
+        Header header = new Header();
+        header.channels = sorted;
+        header.compression = compression;
+        header.data_window = new int[]{ dataWindow.pMin.x, dataWindow.pMin.y, dataWindow.pMax.x - 1, dataWindow.pMax.y - 1 };
+        header.display_window = new int[]{ 0, 0, fullResolution.x - 1, fullResolution.y - 1 };
+        header.screen_window_width = 1;
+
+        int linesPerBlock = (compression == COMPRESSIONTYPE_ZIP) ? 16 : 1;
+        int numBlocks = (height + linesPerBlock - 1) / linesPerBlock;
+        int bytesPerLine = 0;
+        for (Channel c : sorted) bytesPerLine += width * ((c.pixelType == PIXELTYPE_HALF) ? 2 : 4);
+
+        try (FileChannel out = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] headerBytes = PackHeader(header);
+            WriteFully(out, ByteBuffer.wrap(headerBytes));
+            long tablePos = headerBytes.length;
+            long pos = tablePos + 8L * numBlocks;
+            out.position(pos);
+
+            // Pack and compress a batch of blocks in parallel, then append
+            // them in order
+            long[] offsets = new long[numBlocks];
+            int batchSize = 4 * Parallel.MaxThreadIndex();
+            byte[][] blocks = new byte[batchSize][];
+            final int lineBytes = bytesPerLine;
+            for (int first = 0; first < numBlocks; first += batchSize) {
+                final int batchStart = first;
+                int n = Math.min(batchSize, numBlocks - first);
+                Parallel.ParallelFor((Long i) -> {
+                    int b = batchStart + i.intValue();
+                    int y0 = b * linesPerBlock, y1 = Math.min(height, y0 + linesPerBlock);
+                    blocks[i.intValue()] = PackBlock(sorted, width, y0, y1, lineBytes, dataWindow.pMin.y, compression);
+                }, n, 1);
+                for (int i = 0; i < n; ++i) {
+                    offsets[first + i] = pos;
+                    pos += WriteFully(out, ByteBuffer.wrap(blocks[i]));
+                    blocks[i] = null;
+                }
             }
-        }
 
-        image.images = new float[4][];
-        if (components == 4) {
-            image.images[0] = imageAlpha;
-            image.images[1] = imageBlue;
-            image.images[2] = imageGreen;
-            image.images[3] = imageRed;
-        }
-        else {
-            image.images[0] = imageBlue;
-            image.images[1] = imageGreen;
-            image.images[2] = imageRed;
+            ByteBuffer table = ByteBuffer.allocate(8 * numBlocks).order(ByteOrder.LITTLE_ENDIAN);
+            for (long offset : offsets) table.putLong(offset);
+            table.flip();
+            while (table.hasRemaining()) tablePos += out.write(table, tablePos);
+        } catch (IOException e) {
+            PBrtTLogger.Error("Unable to write EXR file \"%s\": %s", filename, e.getMessage());
+            return IO_ERROR;
         }
+        nBlocksWritten.increment(numBlocks);
+        return SUCCESS;
+    }
 
-        image.width = width;
-        image.height = height;
-
-        header.channels = new ChannelInfo[components];
-        for (int c = 0; c < components; c++) {
-            header.channels[c] = new ChannelInfo();
-        }
-        if (components == 4) {
-            header.channels[0].name = "A";
-            header.channels[1].name = "B";
-            header.channels[2].name = "G";
-            header.channels[3].name = "R";
-        }
-        else {
-            header.channels[0].name = "B";
-            header.channels[1].name = "G";
-            header.channels[2].name = "R";
+    // Pixel data of scanlines [y0, y1) as stored in the file: a line
+    // number and size, then each line's channels one after another,
+    // compressed if that makes them smaller
+    private static byte[] PackBlock(Channel[] channels, int width, int y0, int y1, int bytesPerLine, int yOffset, int compression) {
+        int rawSize = (y1 - y0) * bytesPerLine;
+        ByteBuffer raw = ByteBuffer.allocate(rawSize).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = y0; y < y1; ++y)
+            for (Channel c : channels) {
+                int index = c.offset + y * width * c.stride;
+                if (c.pixelType == PIXELTYPE_HALF)
+                    for (int x = 0; x < width; ++x, index += c.stride)
+                        raw.putShort(Pbrt.FloatToHalf(Pbrt.Clamp(c.data[index], -HalfMax, HalfMax)));
+                else
+                    for (int x = 0; x < width; ++x, index += c.stride)
+                        raw.putFloat(c.data[index]);
+            }
+        byte[] pixels = raw.array();
+        if (compression != COMPRESSIONTYPE_NONE) {
+            byte[] compressed = ZipCompress(pixels);
+            if (compressed.length < pixels.length) pixels = compressed;
         }
+        ByteBuffer block = ByteBuffer.allocate(8 + pixels.length).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(yOffset + y0);
+        block.putInt(pixels.length);
+        block.put(pixels);
+        return block.array();
+    }
 
-        header.data_window = new int[]{ 0, 0, width-1, height-1};
-        header.display_window = new int[]{ 0, 0, width-1, height-1};
-
-        header.line_order = 0;
-        header.pixel_aspect_ratio = 1.0f;
-        header.screen_window_width = width;
-        header.screen_window_center[0] = 0;
-        header.screen_window_center[1] = 0;
+    // ZIP compression as OpenEXR does it: split the bytes into even and odd
+    // halves, replace each byte by its difference from the previous one,
+    // and deflate the result
+    private static byte[] ZipCompress(byte[] data) {
+        int length = data.length, half = (length + 1) / 2;
+        byte[] tmp = new byte[length];
+        for (int i = 0; i < half; ++i) tmp[i] = data[2 * i];
+        for (int i = 0; i < length / 2; ++i) tmp[half + i] = data[2 * i + 1];
+        int prev = tmp[0];
+        for (int i = 1; i < length; ++i) {
+            int d = tmp[i];
+            tmp[i] = (byte)(d - prev + (128 + 256));
+            prev = d;
+        }
 
-        return SaveEXRImageToFile(image, header, filename);
+        Deflater deflater = new Deflater();
+        deflater.setInput(tmp);
+        deflater.finish();
+        byte[] out = new byte[length + length / 1000 + 64];
+        int size = 0;
+        while (!deflater.finished() && size < out.length)
+            size += deflater.deflate(out, size, out.length - size);
+        boolean fits = deflater.finished();
+        deflater.end();
+        // Compressed data that doesn't fit is stored uncompressed anyway
+        return fits ? java.util.Arrays.copyOf(out, size) : data;
     }
 
-    private static int SaveEXRImageToFile(Image image, Header header, String filename) {
-        ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
+    private static int WriteFully(FileChannel out, ByteBuffer buf) throws IOException {
+        int n = buf.remaining();
+        while (buf.hasRemaining()) out.write(buf);
+        return n;
+    }
 
-        int ret = SaveEXRImageToMemory(image, header, byteBuffer);
-        if (ret == SUCCESS) {
-            // write byte buffer to file
-            FileOutputStream fos;
-            try {
-                fos = new FileOutputStream(new File(filename));
-                fos.write(byteBuffer.toByteArray());
-                fos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return ret;
+    private static CharsetEncoder Encoder() {
+        return Charset.forName("ISO-8859-1").newEncoder();
     }
 
     private static void writeString(ByteArrayOutputStream byteBuffer, String str) throws IOException {
         byte[] buf = new byte[str.length()+1];
         ByteBuffer bb = ByteBuffer.wrap(buf);
-        enc.encode(CharBuffer.wrap(str), bb, true);
+        Encoder().encode(CharBuffer.wrap(str), bb, true);
         buf[str.length()] = 0;
         byteBuffer.write(buf);
     }
@@ -135,149 +242,65 @@ public class EXROutput {
         byteBuffer.write(b);
     }
 
-    private static byte[] packChannelInfo(Header header) {
+    private static byte[] packChannelInfo(Header header) throws IOException {
         ByteArrayOutputStream channelBytes = new ByteArrayOutputStream();
-        try {
-            for (int c = 0; c < header.channels.length; c++) {
-                writeString(channelBytes, header.channels[c].name);
-                channelBytes.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(header.channels[c].pixel_type).array());
-
-                channelBytes.write(header.channels[c].p_linear);
-                channelBytes.write(header.channels[c].pad);
-
-                channelBytes.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(header.channels[c].x_sampling).array());
-                channelBytes.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(header.channels[c].y_sampling).array());
-            }
-            channelBytes.write(0);
-        }
-        catch (IOException ex) {
-            ex.printStackTrace();
+        for (Channel channel : header.channels) {
+            writeString(channelBytes, channel.name);
+            channelBytes.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(channel.pixelType).array());
+            // pLinear and reserved bytes, then x and y sampling
+            channelBytes.write(new byte[4]);
+            channelBytes.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(1).putInt(1).array());
         }
+        channelBytes.write(0);
         return channelBytes.toByteArray();
     }
 
-    private static int SaveEXRImageToMemory(Image image, Header header, ByteArrayOutputStream byteBuffer) {
-
-        // Write header attributes
-        try {
-            final byte[] magicNumber = { 0x76, 0x2f, 0x31, 0x01};
-            byteBuffer.write(magicNumber);
-
-            final byte[] marker = {2, 0, 0, 0 };
-            byteBuffer.write(marker);
-
-            byte[] channelBytes = packChannelInfo(header);
-            writeAttribute(byteBuffer, "channels", "chlist", channelBytes);
-
-            writeAttribute(byteBuffer, "compression", "compression", ByteBuffer.allocate(1).put((byte)COMPRESSIONTYPE_NONE).array());
-
-            ByteBuffer sizeBuff = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
-            sizeBuff.putInt(header.data_window[0]);
-            sizeBuff.putInt(header.data_window[1]);
-            sizeBuff.putInt(header.data_window[2]);
-            sizeBuff.putInt(header.data_window[3]);
-            writeAttribute(byteBuffer, "dataWindow", "box2i", sizeBuff.array());
-
-            sizeBuff.clear();
-            sizeBuff.putInt(header.display_window[0]);
-            sizeBuff.putInt(header.display_window[1]);
-            sizeBuff.putInt(header.display_window[2]);
-            sizeBuff.putInt(header.display_window[3]);
-
-            writeAttribute(byteBuffer, "displayWindow", "box2i", sizeBuff.array());
-
-            writeAttribute(byteBuffer, "lineOrder", "lineOrder", ByteBuffer.allocate(1).put((byte)header.line_order).array());
-            writeAttribute(byteBuffer, "pixelAspectRatio", "float", ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(header.pixel_aspect_ratio).array());
-
-            ByteBuffer centerBuff = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
-            centerBuff.putFloat(header.screen_window_center[0]);
-            centerBuff.putFloat(header.screen_window_center[1]);
-            writeAttribute(byteBuffer, "screenWindowCenter", "v2f", centerBuff.array());
+    private static byte[] PackHeader(Header header) throws IOException {
+        ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
+        final byte[] magicNumber = { 0x76, 0x2f, 0x31, 0x01};
+        byteBuffer.write(magicNumber);
 
-            writeAttribute(byteBuffer, "screenWindowWidth", "float", ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(header.screen_window_width).array());
+        final byte[] marker = {2, 0, 0, 0 };
+        byteBuffer.write(marker);
 
-            // End of header
-            byteBuffer.write(0);
+        writeAttribute(byteBuffer, "channels", "chlist", packChannelInfo(header));
+        writeAttribute(byteBuffer, "compression", "compression", new byte[] { (byte)header.compression });
 
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        ByteBuffer sizeBuff = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int v : header.data_window) sizeBuff.putInt(v);
+        writeAttribute(byteBuffer, "dataWindow", "box2i", sizeBuff.array());
 
-        int numScanlines = 1;  // always 1 for uncompressed
-        int numBlocks = image.height / numScanlines;
-        int headerSize = byteBuffer.size();
-        long offset = headerSize + numBlocks * 8;
+        sizeBuff.clear();
+        for (int v : header.display_window) sizeBuff.putInt(v);
+        writeAttribute(byteBuffer, "displayWindow", "box2i", sizeBuff.array());
 
-        // Write pixels - half, uncompressed
-        try {
-            // Table of block (line) offsets
-            final int lineSize = image.width * 2 * header.channels.length;
+        writeAttribute(byteBuffer, "lineOrder", "lineOrder", new byte[] { (byte)header.line_order });
+        writeAttribute(byteBuffer, "pixelAspectRatio", "float", ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(header.pixel_aspect_ratio).array());
 
-            for (int y = 0; y < image.height; y++) {
-                byteBuffer.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(offset).array());
-                offset += lineSize;
-            }
+        ByteBuffer centerBuff = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        centerBuff.putFloat(header.screen_window_center[0]);
+        centerBuff.putFloat(header.screen_window_center[1]);
+        writeAttribute(byteBuffer, "screenWindowCenter", "v2f", centerBuff.array());
 
-            for (int y = 0; y < image.height; y++) {
-                byteBuffer.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(y).array());
-                byteBuffer.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(lineSize).array());
-                for (int c = 0; c < header.channels.length; c++) {
-                    for (int x = 0; x < image.width; x++) {
-                        float pixel = image.images[c][y * image.width + x];
-                        short hpixel = toHalf(pixel);
-                        byteBuffer.write(ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort(hpixel).array());
-                    }
-                }
-            }
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        writeAttribute(byteBuffer, "screenWindowWidth", "float", ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(header.screen_window_width).array());
 
-        return SUCCESS;
-    }
-
-    private static class ChannelInfo {
-        String name; // max 256 chars
-        int pixel_type = PIXELTYPE_HALF;
-        int x_sampling = 1;
-        int y_sampling = 1;
-        byte p_linear = 0;
-        byte[] pad = new byte[3];
+        // End of header
+        byteBuffer.write(0);
+        return byteBuffer.toByteArray();
     }
 
     private static class Header {
         float pixel_aspect_ratio = 1;
         int line_order = 0;
+        int compression = COMPRESSIONTYPE_NONE;
         int[] data_window = new int[4];
         int[] display_window = new int[4];
         float[] screen_window_center = new float[2];
         float screen_window_width;
 
-        ChannelInfo[] channels;
+        Channel[] channels;
     }
 
-    private static class Image {
-        float[][] images;
-        int width;
-        int height;
-        int num_channels;
-    }
-
-    @SuppressWarnings ( "FloatingPointEquality" )
-    private static short toHalf(final float v)
-    {
-        if(Float.isNaN(v)) throw new UnsupportedOperationException("NaN to half conversion not supported!");
-        if(v == Float.POSITIVE_INFINITY) return(short)0x7c00;
-        if(v == Float.NEGATIVE_INFINITY) return(short)0xfc00;
-        if(v == 0.0f) return(short)0x0000;
-        if(v == -0.0f) return(short)0x8000;
-        if(v > 65504.0f) return 0x7bff;  // max value supported by half float
-        if(v < -65504.0f) return(short)( 0x7bff | 0x8000 );
-        if(v > 0.0f && v < 5.96046E-8f) return 0x0001;
-        if(v < 0.0f && v > -5.96046E-8f) return(short)0x8001;
-
-        final int f = Float.floatToIntBits(v);
-
-        return(short)((( f>>>16 ) & 0x8000 ) | (((( f & 0x7f800000 ) - 0x38000000 )>>>13 ) & 0x7c00 ) | (( f>>>13 ) & 0x03ff ));
-    }
-}
\ No newline at end of file
+    private static final float HalfMax = 65504.f;
+    private static Stats.Counter nBlocksWritten = new Stats.Counter("Image/EXR blocks written");
+}
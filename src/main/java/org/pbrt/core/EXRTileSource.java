@@ -0,0 +1,217 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import org.pbrt.openexr.BlockCache;
+import org.pbrt.openexr.ExrReader;
+import org.pbrt.openexr.exception.OpenExrException;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// TextureCache source that reads each tile straight from an OpenEXR file,
+// decompressing only the chunks under it, instead of decoding the whole
+// image up front.  The levels of a mipmapped, tiled file are used as
+// they are; further levels are left for the cache to filter.  Only images
+// with power-of-two resolution can be read this way, since others must be
+// resampled as a whole.  Only a bounded number of files are kept open,
+// shared by all sources; a file closed in the meantime is opened again
+// for the next tile read from it.  Decompressed chunks go to one cache
+// shared by all sources.  Reset() closes the files and empties the cache;
+// TextureCache.Reset() calls it at the end of each render.
+public class EXRTileSource implements TextureCache.TileSource {
+
+    // Returns null if _filename_ can't be read tile by tile
+    public static EXRTileSource Open(String filename, int nChannels, float scale, boolean gamma) {
+        ExrReader reader;
+        try {
+            reader = new ExrReader(new File(filename));
+        } catch (OpenExrException e) {
+            return null;
+        }
+        String[] names;
+        if (reader.hasChannel("R") && reader.hasChannel("G") && reader.hasChannel("B"))
+            names = new String[] { "R", "G", "B" };
+        else if (reader.hasChannel("Y"))
+            names = new String[] { "Y" };
+        else
+            names = null;
+        if (names == null || !Pbrt.IsPowerOf2(reader.getWidth()) || !Pbrt.IsPowerOf2(reader.getHeight())) {
+            reader.close();
+            return null;
+        }
+        EXRTileSource source = new EXRTileSource(filename, reader, names, nChannels, scale, gamma);
+        // Keep the file open for the first tiles
+        reader.setBlockCache(blockCache);
+        synchronized (openFiles) {
+            openFiles.put(source, new OpenFile(reader));
+            nFilesOpened.increment();
+            CloseUnused();
+        }
+        return source;
+    }
+
+    private EXRTileSource(String filename, ExrReader reader, String[] names, int nChannels, float scale, boolean gamma) {
+        this.filename = filename;
+        this.names = names;
+        this.nChannels = nChannels;
+        this.scale = scale;
+        this.gamma = gamma;
+        int nLevels = reader.getLevels();
+        this.levelWidth = new int[nLevels];
+        this.levelHeight = new int[nLevels];
+        for (int i = 0; i < nLevels; ++i) {
+            levelWidth[i] = reader.getLevelWidth(i);
+            levelHeight[i] = reader.getLevelHeight(i);
+        }
+    }
+
+    // Number of files currently kept open by all sources
+    public static int OpenFiles() {
+        synchronized (openFiles) {
+            return openFiles.size();
+        }
+    }
+
+    // Bytes of decompressed chunks cached for all sources
+    public static long CachedChunkBytes() {
+        return blockCache.getBytes();
+    }
+
+    // Close every file that isn't being read from and drop all cached
+    // chunks.  Sources still in use open their files again as needed.
+    public static void Reset() {
+        synchronized (openFiles) {
+            Iterator<OpenFile> iter = openFiles.values().iterator();
+            while (iter.hasNext()) {
+                OpenFile file = iter.next();
+                if (file.users == 0) {
+                    iter.remove();
+                    file.reader.close();
+                }
+            }
+        }
+        blockCache.clear();
+    }
+
+    @Override
+    public int Channels() { return nChannels; }
+    @Override
+    public int Width() { return levelWidth[0]; }
+    @Override
+    public int Height() { return levelHeight[0]; }
+
+    @Override
+    public boolean ReadTile(int level, int tx, int ty, float[] tile) {
+        if (level >= levelWidth.length) return false;
+        int w = levelWidth[level], h = levelHeight[level];
+        int tw = Math.min(TextureCache.TileSize, w), th = Math.min(TextureCache.TileSize, h);
+        // Texture space has (0,0) at the lower left, so the tile's rows are
+        // read from the bottom of the image up
+        int nRead = names.length;
+        float[] region = new float[tw * th * nRead];
+        OpenFile file = null;
+        try {
+            file = Acquire();
+            file.reader.readRegion(level, tx * tw, h - (ty + 1) * th, tw, th, names, region, false);
+        } catch (OpenExrException e) {
+            PBrtTLogger.Error("Unable to read tile of \"%s\": %s", filename, e.getMessage());
+            java.util.Arrays.fill(tile, 0);
+            return true;
+        } finally {
+            if (file != null) Release(file);
+        }
+        for (int y = 0; y < th; ++y)
+            for (int x = 0; x < tw; ++x) {
+                int i = ((th - 1 - y) * tw + x) * nRead, o = (y * tw + x) * nChannels;
+                if (nChannels == nRead)
+                    for (int c = 0; c < nChannels; ++c) tile[o + c] = convertIn(region[i + c]);
+                else if (nChannels == 1)
+                    tile[o] = convertIn(0.212671f * region[i] + 0.715160f * region[i + 1] + 0.072169f * region[i + 2]);
+                else
+                    for (int c = 0; c < 3; ++c) tile[o + c] = convertIn(region[i]);
+            }
+        return true;
+    }
+
+    private float convertIn(float v) {
+        return scale * (gamma ? Pbrt.InverseGammaCorrect(v) : v);
+    }
+
+    // Return this source's open file, opening it if need be, and mark it
+    // in use until Release()
+    private OpenFile Acquire() throws OpenExrException {
+        synchronized (openFiles) {
+            OpenFile file = openFiles.get(this);
+            if (file != null) {
+                ++file.users;
+                return file;
+            }
+        }
+        ExrReader reader = new ExrReader(new File(filename));
+        // Rows of texture tiles share the scanline chunks of untiled files
+        reader.setBlockCache(blockCache);
+        synchronized (openFiles) {
+            OpenFile file = openFiles.get(this);
+            if (file != null) {
+                // Another thread opened it first
+                reader.close();
+            } else {
+                file = new OpenFile(reader);
+                openFiles.put(this, file);
+                nFilesOpened.increment();
+            }
+            ++file.users;
+            CloseUnused();
+            return file;
+        }
+    }
+
+    private static void Release(OpenFile file) {
+        synchronized (openFiles) {
+            --file.users;
+            CloseUnused();
+        }
+    }
+
+    // Close the least recently used files that aren't being read from
+    // until no more than MaxOpenFiles are open
+    private static void CloseUnused() {
+        Iterator<OpenFile> iter = openFiles.values().iterator();
+        while (openFiles.size() > MaxOpenFiles && iter.hasNext()) {
+            OpenFile file = iter.next();
+            if (file.users == 0) {
+                iter.remove();
+                file.reader.close();
+            }
+        }
+    }
+
+    private static final class OpenFile {
+        OpenFile(ExrReader reader) { this.reader = reader; }
+        final ExrReader reader;
+        int users = 0;
+    }
+
+    // EXRTileSource Private Data
+    private static final int MaxOpenFiles = 64;
+    private static final long BlockCacheBytes = 32L << 20;
+    // Access-ordered, so iteration starts at the least recently used file
+    private static final LinkedHashMap<EXRTileSource, OpenFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private static final BlockCache blockCache = new BlockCache(BlockCacheBytes);
+    private static Stats.Counter nFilesOpened = new Stats.Counter("Texture/EXR files opened");
+    private final String filename;
+    private final int[] levelWidth, levelHeight;
+    private final String[] names;
+    private final int nChannels;
+    private final float scale;
+    private final boolean gamma;
+}
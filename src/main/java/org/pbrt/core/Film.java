@@ -10,6 +10,10 @@
 
 package org.pbrt.core;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
 public class Film {
 
     // Film Private Data
@@ -24,6 +28,10 @@ public class Film {
     private float filterTable[] = new float[filterTableWidth * filterTableWidth];
     private final float scale;
     private final float maxSampleLuminance;
+    // Filtered sums of each AOV channel over the film, one plane per channel
+    private final int nAOVChannels;
+    private float[][] aovSums;
+    private final boolean denoise;
 
     // FilmTilePixel Declarations
     public class FilmTilePixel {
@@ -45,8 +53,13 @@ public class Film {
             for (int i = 0; i < this.pixels.length; i++) {
                 this.pixels[i] = new FilmTilePixel();
             }
+            this.aovPlanes = new float[nAOVChannels][this.pixels.length];
         }
         public void AddSample(Point2f pFilm, Spectrum L, float sampleWeight) {
+            AddSample(pFilm, L, sampleWeight, null);
+        }
+        // _aovSample_ may be null if the film records no AOVs
+        public void AddSample(Point2f pFilm, Spectrum L, float sampleWeight, AOV.Sample aovSample) {
             if (L.y() > maxSampleLuminance)
                 L.scale(maxSampleLuminance / L.y());
 
@@ -79,9 +92,12 @@ public class Film {
                     float filterWeight = filterTable[offset];
 
                     // Update pixel values with filtered sample contribution
-                    FilmTilePixel pixel = GetPixel(new Point2i(x, y));
+                    int index = (x - pixelBounds.pMin.x) + (y - pixelBounds.pMin.y) * (pixelBounds.pMax.x - pixelBounds.pMin.x);
+                    FilmTilePixel pixel = pixels[index];
                     pixel.contribSum = Spectrum.Add(pixel.contribSum, Spectrum.Scale(L, sampleWeight * filterWeight));
                     pixel.filterWeightSum += filterWeight;
+                    if (aovSample != null)
+                        for (int c = 0; c < aovPlanes.length; ++c) aovPlanes[c][index] += filterWeight * aovSample.values[c];
                 }
             }
         }
@@ -100,14 +116,37 @@ public class Film {
         private int filterTableSize;
         private FilmTilePixel[] pixels;
         private float maxSampleLuminance;
+        // Filtered sums of each AOV channel, one plane per channel
+        private float[][] aovPlanes;
     }
 
     // Film Public Methods
     public Film(Point2i resolution, Bounds2f cropWindow, Filter filter, float diagonal, String filename, float scale, float maxSampleLuminance) {
+        this(resolution, cropWindow, filter, diagonal, new String[] { filename }, new AOV[0], false, scale, maxSampleLuminance);
+    }
+
+    // The image is written to each of _filenames_, in the format given by
+    // its extension; the _aovs_ are recorded too and written to EXR files.
+    // If _denoise_ is set, the image is denoised before it's written, which
+    // needs the albedo, normal and depth AOVs.
+    public Film(Point2i resolution, Bounds2f cropWindow, Filter filter, float diagonal, String[] filenames, AOV[] aovs,
+                boolean denoise, float scale, float maxSampleLuminance) {
         this.fullResolution = resolution;
         this.diagonal = diagonal * 0.001f;
         this.filter = filter;
-        this.filename = filename;
+        this.filename = filenames[0];
+        this.filenames = filenames.clone();
+        if (denoise) {
+            List<AOV> needed = new ArrayList<>(java.util.Arrays.asList(aovs));
+            for (AOV aov : new AOV[] { AOV.Albedo, AOV.Normal, AOV.Depth })
+                if (!needed.contains(aov)) needed.add(aov);
+            aovs = needed.toArray(new AOV[0]);
+        }
+        this.aovs = aovs.clone();
+        this.denoise = denoise;
+        int nChannels = 0;
+        for (AOV aov : aovs) nChannels += aov.channels.length;
+        this.nAOVChannels = nChannels;
         this.scale = scale;
         this.maxSampleLuminance = maxSampleLuminance;
 
@@ -122,7 +161,8 @@ public class Film {
         // Allocate film image storage
         this.pixels = new Pixel[croppedPixelBounds.Area()];
         for (int i = 0; i < this.pixels.length; i++) this.pixels[i] = new Pixel();
-        filmPixelMemory.increment(croppedPixelBounds.Area() * 8*4);
+        this.aovSums = new float[nAOVChannels][this.pixels.length];
+        filmPixelMemory.increment(croppedPixelBounds.Area() * (8 + nAOVChannels) * 4);
 
         // Precompute filter weight table
         int offset = 0;
@@ -139,7 +179,7 @@ public class Film {
     public Bounds2i GetSampleBounds() {
         Vector2f halfPixel = new Vector2f(0.5f, 0.5f);
         Bounds2f floatBounds = new Bounds2f(Point2f.Floor(new Point2f(croppedPixelBounds.pMin).add(halfPixel.subtract(filter.radius))),
-                Point2f.Ceil(new Point2f(croppedPixelBounds.pMax).subtract(halfPixel.add(filter.radius))));
+                Point2f.Ceil(new Point2f(croppedPixelBounds.pMax).subtract(halfPixel.subtract(filter.radius))));
         return new Bounds2i(floatBounds);
     }
 
@@ -160,9 +200,8 @@ public class Film {
         return new FilmTile(tilePixelBounds, filter.radius, filterTable, filterTableWidth, maxSampleLuminance);
     }
 
-    public void MergeFilmTile(FilmTile tile) {
+    public synchronized void MergeFilmTile(FilmTile tile) {
         //Api.logger.trace("Merging film tile %s", tile.pixelBounds.toString());
-        //std::lock_guard<std::mutex> lock(mutex);
         for (int y = tile.GetPixelBounds().pMin.y; y < tile.GetPixelBounds().pMax.y; y++) {
             for (int x = tile.GetPixelBounds().pMin.x; x < tile.GetPixelBounds().pMax.x; x++) {
                 Point2i pixel = new Point2i(x, y);
@@ -175,6 +214,15 @@ public class Film {
                 SetPixel(pixel, mergePixel);
             }
         }
+        // Merge the tile's AOV planes, a row at a time
+        Bounds2i bounds = tile.GetPixelBounds();
+        int tileWidth = bounds.pMax.x - bounds.pMin.x, width = croppedPixelBounds.pMax.x - croppedPixelBounds.pMin.x;
+        for (int c = 0; c < nAOVChannels; ++c)
+            for (int y = bounds.pMin.y; y < bounds.pMax.y; ++y) {
+                int from = (y - bounds.pMin.y) * tileWidth;
+                int to = (bounds.pMin.x - croppedPixelBounds.pMin.x) + (y - croppedPixelBounds.pMin.y) * width;
+                for (int x = 0; x < tileWidth; ++x) aovSums[c][to + x] += tile.aovPlanes[c][from + x];
+            }
     }
 
     public void SetImage(Spectrum[] img) {
@@ -187,6 +235,34 @@ public class Film {
             p.splatXYZ[1].set(0);
             p.splatXYZ[2].set(0);
         }
+        for (float[] plane : aovSums) java.util.Arrays.fill(plane, 0);
+    }
+
+    // Accumulated state of every pixel, for checkpoints: the XYZ sum, the
+    // filter weight sum, the splatted XYZ and the AOV sums, in that order
+    public int StateFloatsPerPixel() { return 7 + nAOVChannels; }
+
+    public synchronized float[] GetPixelState() {
+        float[] state = new float[pixels.length * StateFloatsPerPixel()];
+        for (int i = 0, o = 0; i < pixels.length; ++i) {
+            Pixel p = pixels[i];
+            for (int c = 0; c < 3; ++c) state[o++] = p.xyz[c];
+            state[o++] = p.filterWeightSum;
+            for (int c = 0; c < 3; ++c) state[o++] = p.splatXYZ[c].get();
+            for (int c = 0; c < nAOVChannels; ++c) state[o++] = aovSums[c][i];
+        }
+        return state;
+    }
+
+    public synchronized void SetPixelState(float[] state) {
+        assert (state.length == pixels.length * StateFloatsPerPixel());
+        for (int i = 0, o = 0; i < pixels.length; ++i) {
+            Pixel p = pixels[i];
+            for (int c = 0; c < 3; ++c) p.xyz[c] = state[o++];
+            p.filterWeightSum = state[o++];
+            for (int c = 0; c < 3; ++c) p.splatXYZ[c].set(state[o++]);
+            for (int c = 0; c < nAOVChannels; ++c) aovSums[c][i] = state[o++];
+        }
     }
 
     public void AddSplat(Point2f p, Spectrum v) {
@@ -212,52 +288,108 @@ public class Film {
 
     }
 
-    public void WriteImage(float splatScale) {
+    // Write the image to each of its files.  The film is copied here and
+    // the copy is converted and written in the background, so rendering can
+    // go on; the returned future completes once all files are written.
+    public Future<Boolean> WriteImage(float splatScale) {
+        float[] state = GetPixelState();
+        Future<float[]> rgb = Parallel.Async(() -> ToRGB(state, splatScale));
+        Future<float[]> aovValues = (nAOVChannels > 0) ? Parallel.Async(() -> ToAOVs(state)) : null;
+        Future<float[]> image = denoise ? Parallel.Async(() -> Denoise(Parallel.Await(rgb), Parallel.Await(aovValues))) : rgb;
+        List<Future<Boolean>> writes = new ArrayList<>();
+        for (String name : filenames) {
+            PBrtTLogger.Info("Writing image %s with bounds %s", name, croppedPixelBounds.toString());
+            if (aovValues != null && FileUtil.HasExtension(name, ".exr"))
+                writes.add(ImageIO.WriteAsync(name, () -> WriteLayers(name, Parallel.Await(image),
+                        denoise ? Parallel.Await(rgb) : null, Parallel.Await(aovValues))));
+            else
+                writes.add(ImageIO.WriteAsync(name, image, croppedPixelBounds, fullResolution));
+        }
+        return Parallel.Async(() -> {
+            boolean ok = true;
+            for (Future<Boolean> write : writes) ok &= Parallel.Await(write);
+            return ok;
+        });
+    }
 
-        // Convert image to RGB and compute final pixel values
-        //LOG(INFO) << "Converting image to RGB and computing final weighted pixel values";
+    // Convert pixel state from _GetPixelState()_ to final RGB pixel values
+    private float[] ToRGB(float[] state, float splatScale) {
+        float[] xyz = new float[3];
         float[] pixRGB = new float[3];
         float[] splatRGB = new float[3];
-        float[] rgb = new float[3 * croppedPixelBounds.Area()];
-        int offset = 0;
-        for (int py = croppedPixelBounds.pMin.y; py < croppedPixelBounds.pMax.y; py++) {
-            for (int px = croppedPixelBounds.pMin.x; px < croppedPixelBounds.pMax.x; px++) {
-                Point2i p = new Point2i(px, py);
+        int stride = StateFloatsPerPixel();
+        float[] rgb = new float[3 * (state.length / stride)];
+        for (int o = 0, i = 0; o < rgb.length; o += 3, i += stride) {
+            // Convert pixel XYZ color to RGB and normalize it with the weight sum
+            System.arraycopy(state, i, xyz, 0, 3);
+            Spectrum.XYZToRGB(xyz, pixRGB);
+            float filterWeightSum = state[i + 3];
+            float invWt = (filterWeightSum != 0) ? 1 / filterWeightSum : 0;
+            // Add splat value at pixel, and scale pixel value by _scale_
+            System.arraycopy(state, i + 4, xyz, 0, 3);
+            Spectrum.XYZToRGB(xyz, splatRGB);
+            for (int c = 0; c < 3; ++c) {
+                float v = (filterWeightSum != 0) ? Math.max(0, pixRGB[c] * invWt) : pixRGB[c];
+                rgb[o + c] = (v + splatScale * splatRGB[c]) * scale;
+            }
+        }
+        return rgb;
+    }
 
-                // Convert pixel XYZ color to RGB
-                Pixel pixel = GetPixel(p);
-                pixRGB = Spectrum.XYZToRGB(pixel.xyz, pixRGB);
-                rgb[3 * offset] = pixRGB[0];
-                rgb[3 * offset+1] = pixRGB[1];
-                rgb[3 * offset+2] = pixRGB[2];
-
-                // Normalize pixel with weight sum
-                float filterWeightSum = pixel.filterWeightSum;
-                if (filterWeightSum != 0) {
-                    float invWt = 1 / filterWeightSum;
-                    rgb[3 * offset] = Math.max(0, rgb[3 * offset] * invWt);
-                    rgb[3 * offset + 1] = Math.max(0, rgb[3 * offset + 1] * invWt);
-                    rgb[3 * offset + 2] = Math.max(0, rgb[3 * offset + 2] * invWt);
-                }
+    // Average AOV values of each pixel, interleaved, from _GetPixelState()_
+    private float[] ToAOVs(float[] state) {
+        int stride = StateFloatsPerPixel();
+        float[] values = new float[nAOVChannels * (state.length / stride)];
+        for (int o = 0, i = 0; o < values.length; o += nAOVChannels, i += stride) {
+            float filterWeightSum = state[i + 3];
+            if (filterWeightSum == 0) continue;
+            float invWt = 1 / filterWeightSum;
+            for (int c = 0; c < nAOVChannels; ++c) values[o + c] = state[i + 7 + c] * invWt;
+        }
+        return values;
+    }
 
-                // Add splat value at pixel
-                float[] splatXYZ = {pixel.splatXYZ[0].get(), pixel.splatXYZ[1].get(), pixel.splatXYZ[2].get()};
-                splatRGB = Spectrum.XYZToRGB(splatXYZ, splatRGB);
-                rgb[3 * offset] += splatScale * splatRGB[0];
-                rgb[3 * offset + 1] += splatScale * splatRGB[1];
-                rgb[3 * offset + 2] += splatScale * splatRGB[2];
-
-                // Scale pixel value by _scale_
-                rgb[3 * offset] *= scale;
-                rgb[3 * offset + 1] *= scale;
-                rgb[3 * offset + 2] *= scale;
-                ++offset;
-            }
+    private float[] Denoise(float[] rgb, float[] aovValues) {
+        Vector2i resolution = croppedPixelBounds.Diagonal();
+        return Denoiser.Denoise(rgb, AOVValues(aovValues, AOV.Albedo), AOVValues(aovValues, AOV.Normal),
+                AOVValues(aovValues, AOV.Depth), resolution.x, resolution.y);
+    }
+
+    // The channels of _aov_ alone, interleaved, from _ToAOVs()_ values
+    private float[] AOVValues(float[] aovValues, AOV aov) {
+        int offset = 0;
+        for (AOV a : aovs) {
+            if (a == aov) break;
+            offset += a.channels.length;
         }
+        int n = aov.channels.length;
+        float[] values = new float[n * (aovValues.length / nAOVChannels)];
+        for (int i = 0, o = offset; i < values.length; i += n, o += nAOVChannels)
+            System.arraycopy(aovValues, o, values, i, n);
+        return values;
+    }
 
-        // Write RGB image
-        PBrtTLogger.Info("Writing image %s with bounds %s", filename, croppedPixelBounds.toString());
-        ImageIO.Write(filename, rgb, croppedPixelBounds, fullResolution);
+    // Write the image and its AOVs as layers of one EXR file, with the image
+    // before denoising as a "noisy" layer if there is one; the channels
+    // refer to the interleaved arrays rather than copies of them
+    private boolean WriteLayers(String name, float[] rgb, float[] noisyRGB, float[] aovValues) {
+        List<EXROutput.Channel> channels = EXROutput.RGBChannels(rgb, 3);
+        int type = Pbrt.options.ExrHalf ? EXROutput.PIXELTYPE_HALF : EXROutput.PIXELTYPE_FLOAT;
+        if (noisyRGB != null)
+            for (int c = 0; c < 3; ++c)
+                channels.add(new EXROutput.Channel("noisy." + "RGB".charAt(c), type, noisyRGB, c, 3));
+        int offset = 0;
+        for (AOV aov : aovs)
+            for (String channel : aov.channels)
+                channels.add(new EXROutput.Channel(aov.name + "." + channel, aov.fullFloat ? EXROutput.PIXELTYPE_FLOAT : type,
+                        aovValues, offset++, nAOVChannels));
+        return EXROutput.SaveEXR(name, channels, croppedPixelBounds, fullResolution) == EXROutput.SUCCESS;
+    }
+
+    // A buffer for the AOV values of a camera sample, or null if the film
+    // records none
+    public AOV.Sample NewAOVSample() {
+        return (nAOVChannels > 0) ? new AOV.Sample(aovs) : null;
     }
 
     public void Clear() {
@@ -272,6 +404,7 @@ public class Film {
                 pixel.filterWeightSum = 0;
             }
         }
+        for (float[] plane : aovSums) java.util.Arrays.fill(plane, 0);
     }
 
     // Film Public Data
@@ -279,6 +412,8 @@ public class Film {
     public final float diagonal;
     public Filter filter;
     public final String filename;
+    public final String[] filenames;
+    public final AOV[] aovs;
     public Bounds2i croppedPixelBounds;
 
     public static Film Create(ParamSet paramSet, Filter filter) {
@@ -297,6 +432,11 @@ public class Film {
         else {
             filename = paramSet.FindOneString("filename", "pbrt.exr");
         }
+        // Further filenames write the same image in other formats
+        String[] filenames = { filename };
+        String[] paramsFilenames = paramSet.FindString("filename");
+        if (Pbrt.options.ImageFile.isEmpty() && paramsFilenames != null && paramsFilenames.length > 1)
+            filenames = paramsFilenames;
 
         int xres = paramSet.FindOneInt("xresolution", 1280);
         int yres = paramSet.FindOneInt("yresolution", 720);
@@ -321,7 +461,25 @@ public class Film {
         float scale = paramSet.FindOneFloat("scale", 1);
         float diagonal = paramSet.FindOneFloat("diagonal", 35);
         float maxSampleLuminance = paramSet.FindOneFloat("maxsampleluminance", Pbrt.Infinity);
-        return new Film(new Point2i(xres, yres), crop, filter, diagonal, filename, scale, maxSampleLuminance);
+
+        List<AOV> aovs = new ArrayList<>();
+        String[] aovNames = paramSet.FindString("aovs");
+        if (aovNames != null) {
+            for (String name : aovNames) {
+                AOV aov = AOV.Find(name);
+                if (aov == null)
+                    PBrtTLogger.Error("AOV \"%s\" unknown. Ignoring.", name);
+                else if (!aovs.contains(aov))
+                    aovs.add(aov);
+            }
+            boolean exr = false;
+            for (String name : filenames) exr |= FileUtil.HasExtension(name, ".exr");
+            if (!aovs.isEmpty() && !exr)
+                PBrtTLogger.Warning("AOVs are only written to EXR files, and none of the film's output files is one.");
+        }
+        boolean denoise = paramSet.FindOneBoolean("denoise", false);
+        return new Film(new Point2i(xres, yres), crop, filter, diagonal, filenames, aovs.toArray(new AOV[0]), denoise,
+                scale, maxSampleLuminance);
     }
 
     // Film Private Methods
@@ -0,0 +1,86 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// BlockedArray specialized for texels of one or more interleaved float
+// channels, stored in a primitive array instead of one object per entry,
+// optionally as half floats.  Entries are laid out in square blocks of
+// 2^logBlockSize entries on a side, so that neighbouring texels in both
+// directions are usually close in memory.
+public class FloatBlockedArray {
+
+    public FloatBlockedArray(int uRes, int vRes, int nChannels, int logBlockSize, boolean half, float[] d) {
+        this.uRes = uRes;
+        this.vRes = vRes;
+        this.nChannels = nChannels;
+        this.logBlockSize = logBlockSize;
+        this.blockSize = 1 << logBlockSize;
+        this.uBlocks = RoundUp(uRes) >> logBlockSize;
+
+        int nAlloc = RoundUp(uRes) * RoundUp(vRes) * nChannels;
+        this.data = half ? null : new float[nAlloc];
+        this.halfData = half ? new short[nAlloc] : null;
+        if (d != null) {
+            for (int v = 0; v < vRes; ++v)
+                for (int u = 0; u < uRes; ++u)
+                    for (int c = 0; c < nChannels; ++c)
+                        set(u, v, c, d[(v * uRes + u) * nChannels + c]);
+        }
+    }
+
+    public int RoundUp(int x) {
+        return (x + blockSize - 1) & ~(blockSize - 1);
+    }
+
+    public int uSize() { return uRes; }
+    public int vSize() { return vRes; }
+    public int Channels() { return nChannels; }
+    public boolean IsHalf() { return halfData != null; }
+
+    public int Block(int a) { return a >> logBlockSize; }
+    public int Offset(int a) { return (a & (blockSize - 1)); }
+
+    // Index of the first channel of entry (u, v)
+    public int Index(int u, int v) {
+        final int bu = Block(u), bv = Block(v);
+        final int ou = Offset(u), ov = Offset(v);
+        int offset = blockSize * blockSize * (uBlocks * bv + bu);
+        offset += blockSize * ov + ou;
+        return offset * nChannels;
+    }
+
+    public float at(int u, int v, int c) {
+        return get(Index(u, v) + c);
+    }
+
+    public float get(int index) {
+        return (data != null) ? data[index] : Pbrt.HalfToFloat(halfData[index]);
+    }
+
+    // Values outside the range of half floats are clamped to it
+    public void set(int u, int v, int c, float value) {
+        int index = Index(u, v) + c;
+        if (data != null)
+            data[index] = value;
+        else
+            halfData[index] = Pbrt.FloatToHalf(Pbrt.Clamp(value, -HalfMax, HalfMax));
+    }
+
+    public long MemoryBytes() {
+        return (data != null) ? 16 + 4L * data.length : 16 + 2L * halfData.length;
+    }
+
+    private static final float HalfMax = 65504.f;
+    private final float[] data;
+    private final short[] halfData;
+    private final int uRes, vRes, uBlocks, nChannels;
+    private final int logBlockSize;
+    private final int blockSize;
+}
@@ -63,9 +63,9 @@ public class GeometricPrimitive extends Primitive {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction isect, Material.TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction isect, MemoryArena arena, Material.TransportMode mode, boolean allowMultipleLobes) {
         if (material != null)
-            material.ComputeScatteringFunctions(isect, mode, allowMultipleLobes);
+            material.ComputeScatteringFunctions(isect, arena, mode, allowMultipleLobes);
         assert(Normal3f.Dot(isect.n, isect.shading.n) >= 0);
     }
 }
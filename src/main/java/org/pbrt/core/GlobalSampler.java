@@ -14,7 +14,7 @@ public abstract class GlobalSampler extends Sampler {
 
     // GlobalSampler Private Data
     private int dimension;
-    private int intervalSampleIndex;
+    private long intervalSampleIndex;
     private static final int arrayStartDim = 5;
     private int arrayEndDim;
 
@@ -38,10 +38,7 @@ public abstract class GlobalSampler extends Sampler {
         // Compute 1D array samples for _GlobalSampler_
         for (int i = 0; i < samples1DArraySizes.size(); ++i) {
             int nSamples = samples1DArraySizes.get(i) * samplesPerPixel;
-            for (int j = 0; j < nSamples; ++j) {
-                int index = GetIndexForSample(j);
-                sampleArray1D.get(i)[j] = SampleDimension(index, arrayStartDim + i);
-            }
+            SampleIndices(arrayStartDim + i, 0, nSamples, sampleArray1D.get(i), 0);
         }
 
         // Compute 2D array samples for _GlobalSampler_
@@ -49,9 +46,11 @@ public abstract class GlobalSampler extends Sampler {
         for (int i = 0; i < samples2DArraySizes.size(); ++i) {
             int nSamples = samples2DArraySizes.get(i) * samplesPerPixel;
             for (int j = 0; j < nSamples; ++j) {
-                int idx = GetIndexForSample(j);
-                sampleArray2D.get(i)[j].x = SampleDimension(idx, dim);
-                sampleArray2D.get(i)[j].y = SampleDimension(idx, dim + 1);
+                long idx = GetIndexForSample(j);
+                Point2f[] samples = sampleArray2D.get(i);
+                if (samples[j] == null) samples[j] = new Point2f();
+                samples[j].x = SampleDimension(idx, dim);
+                samples[j].y = SampleDimension(idx, dim + 1);
             }
             dim += 2;
         }
@@ -70,14 +69,59 @@ public abstract class GlobalSampler extends Sampler {
 
     }
     public Point2f Get2D() {
+        return Get2D(new Point2f());
+    }
+
+    @Override
+    public void Get1D(float[] dst, int offset, int n) {
+        while (n > 0) {
+            if (dimension >= arrayStartDim && dimension < arrayEndDim)
+                dimension = arrayEndDim;
+            // Don't run into the dimensions reserved for arrays
+            int count = (dimension < arrayStartDim && arrayEndDim > arrayStartDim)
+                    ? Math.min(n, arrayStartDim - dimension) : n;
+            SampleDimensions(intervalSampleIndex, dimension, count, dst, offset);
+            dimension += count;
+            offset += count;
+            n -= count;
+        }
+    }
+
+    @Override
+    public Point2f Get2D(Point2f dst) {
         if (dimension + 1 >= arrayStartDim && dimension < arrayEndDim)
             dimension = arrayEndDim;
-        Point2f p = new Point2f(SampleDimension(intervalSampleIndex, dimension), SampleDimension(intervalSampleIndex, dimension + 1));
+        dst.x = SampleDimension(intervalSampleIndex, dimension);
+        dst.y = SampleDimension(intervalSampleIndex, dimension + 1);
         dimension += 2;
-        return p;
+        return dst;
+    }
+
+    // Get1D() calls that only follow other Get1D() calls skip the array
+    // dimensions, so the one after _dimension_ of them is at sampler
+    // dimension _dimension_ past the start of the arrays.  The current
+    // sample is left as it is.
+    @Override
+    public void GetSamples1D(int dimension, int firstSample, int n, float[] dst, int offset) {
+        int dim = (dimension < arrayStartDim) ? dimension : dimension + arrayEndDim - arrayStartDim;
+        SampleIndices(dim, firstSample, n, dst, offset);
+    }
+
+    // Batch kernels.  SampleDimensions() stores the values of dimensions
+    // _dimension_ ... _dimension_ + _n_ - 1 for sample _index_, and
+    // SampleIndices() those of sampler dimension _dimension_ for pixel
+    // samples _firstSample_ ... _firstSample_ + _n_ - 1 of the current pixel.
+    // Subclasses override them when the values share work.
+    protected void SampleDimensions(long index, int dimension, int n, float[] dst, int offset) {
+        for (int i = 0; i < n; ++i)
+            dst[offset + i] = SampleDimension(index, dimension + i);
+    }
+    protected void SampleIndices(int dimension, int firstSample, int n, float[] dst, int offset) {
+        for (int i = 0; i < n; ++i)
+            dst[offset + i] = SampleDimension(GetIndexForSample(firstSample + i), dimension);
     }
 
-    public abstract int GetIndexForSample(int sampleNum);
-    public abstract float SampleDimension(int index, int dimension);
+    public abstract long GetIndexForSample(int sampleNum);
+    public abstract float SampleDimension(long index, int dimension);
 
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import java.util.function.Consumer;
+
+// Piecewise-constant 2D distribution sampled by hierarchical warping
+// (Clarberg et al. 2005).  The function is stored as a pyramid of sums, one
+// level per halving of the resolution; a sample descends from the coarsest
+// level, choosing a column and then a row among each cell's children in
+// proportion to their sums and remapping _u_ to the chosen range.  The PDF
+// is identical to that of Distribution2D for the same function, sampling is
+// O(log n) and the whole pyramid takes 4/3 floats per entry.
+public class HierarchicalDistribution2D {
+
+    // The function's resolution must be a power of two in each dimension.
+    // _func_ becomes the finest level of the pyramid and is not copied.
+    public HierarchicalDistribution2D(float[] func, int nu, int nv) {
+        assert (Pbrt.IsPowerOf2(nu) && Pbrt.IsPowerOf2(nv));
+        assert (func.length == nu * nv);
+        int nLevels = 1 + Math.max(Pbrt.Log2Int(nu), Pbrt.Log2Int(nv));
+        this.levels = new float[nLevels][];
+        this.levelWidth = new int[nLevels];
+        this.levelHeight = new int[nLevels];
+        levels[0] = func;
+        levelWidth[0] = nu;
+        levelHeight[0] = nv;
+
+        // Sum 2x2 (or 2x1) blocks into each coarser level
+        for (int l = 1; l < nLevels; ++l) {
+            final int w = Math.max(1, levelWidth[l - 1] / 2), h = Math.max(1, levelHeight[l - 1] / 2);
+            final int fw = levelWidth[l - 1];
+            final int sx = (fw > w) ? 1 : 0, sy = (levelHeight[l - 1] > h) ? 1 : 0;
+            final float[] fine = levels[l - 1], coarse = new float[w * h];
+            Consumer<Long> sumRow = (Long row) -> {
+                int y = row.intValue();
+                int r0 = (y << sy) * fw, r1 = ((y << sy) + sy) * fw;
+                for (int x = 0; x < w; ++x) {
+                    int x0 = x << sx, x1 = x0 + sx;
+                    float s = fine[r0 + x0];
+                    if (sx != 0) s += fine[r0 + x1];
+                    if (sy != 0) {
+                        s += fine[r1 + x0];
+                        if (sx != 0) s += fine[r1 + x1];
+                    }
+                    coarse[y * w + x] = s;
+                }
+            };
+            // Only large levels are worth handing to the thread pool
+            if (w * h >= 65536)
+                Parallel.ParallelFor(sumRow, h, Math.max(1, 16384 / w));
+            else
+                for (long y = 0; y < h; ++y) sumRow.accept(y);
+            levels[l] = coarse;
+            levelWidth[l] = w;
+            levelHeight[l] = h;
+        }
+        this.funcInt = levels[nLevels - 1][0] / (nu * nv);
+    }
+
+    public Distribution2D.ContSample SampleContinuous(Point2f u) {
+        float ux = u.x, uy = u.y;
+        int x = 0, y = 0;
+        Distribution2D.ContSample csamp = new Distribution2D.ContSample();
+        if (funcInt == 0) {
+            csamp.sample = new Point2f(ux, uy);
+            csamp.pdf = 0;
+            return csamp;
+        }
+        for (int l = levels.length - 2; l >= 0; --l) {
+            final float[] f = levels[l];
+            final int w = levelWidth[l];
+            boolean splitX = w > levelWidth[l + 1], splitY = levelHeight[l] > levelHeight[l + 1];
+            int x0 = splitX ? 2 * x : x, y0 = splitY ? 2 * y : y;
+            // Choose the column in proportion to the sums of its children
+            if (splitX) {
+                float left = f[y0 * w + x0], right = f[y0 * w + x0 + 1];
+                if (splitY) {
+                    left += f[(y0 + 1) * w + x0];
+                    right += f[(y0 + 1) * w + x0 + 1];
+                }
+                float pLeft = left / (left + right);
+                if (ux < pLeft)
+                    ux /= pLeft;
+                else {
+                    ux = (ux - pLeft) / (1 - pLeft);
+                    ++x0;
+                }
+                ux = Math.min(ux, RNG.FloatOneMinusEpsilon);
+            }
+            // Then the row within that column
+            if (splitY) {
+                float bottom = f[y0 * w + x0], top = f[(y0 + 1) * w + x0];
+                float pBottom = bottom / (bottom + top);
+                if (uy < pBottom)
+                    uy /= pBottom;
+                else {
+                    uy = (uy - pBottom) / (1 - pBottom);
+                    ++y0;
+                }
+                uy = Math.min(uy, RNG.FloatOneMinusEpsilon);
+            }
+            x = x0;
+            y = y0;
+        }
+        int nu = levelWidth[0], nv = levelHeight[0];
+        csamp.sample = new Point2f(Math.min((x + ux) / nu, RNG.FloatOneMinusEpsilon), Math.min((y + uy) / nv, RNG.FloatOneMinusEpsilon));
+        csamp.pdf = levels[0][y * nu + x] / funcInt;
+        return csamp;
+    }
+
+    public float Pdf(Point2f p) {
+        int nu = levelWidth[0], nv = levelHeight[0];
+        int iu = Pbrt.Clamp((int)(p.x * nu), 0, nu - 1);
+        int iv = Pbrt.Clamp((int)(p.y * nv), 0, nv - 1);
+        return (funcInt > 0) ? levels[0][iv * nu + iu] / funcInt : 0;
+    }
+
+    // HierarchicalDistribution2D Private Data
+    private final float[][] levels;
+    private final int[] levelWidth, levelHeight;
+    private final float funcInt;
+}
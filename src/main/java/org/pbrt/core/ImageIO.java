@@ -11,38 +11,94 @@
 package org.pbrt.core;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import org.pbrt.openexr.*;
 import org.pbrt.openexr.exception.OpenExrException;
 
 public class ImageIO {
     public static void Write(String filename, float[] rgb, Bounds2i outputBounds, Point2i totalResolution) {
+        WriteFile(filename, rgb, outputBounds, totalResolution);
+    }
+
+    // Write the image in the background, once _rgb_ is available.  Writes
+    // to the same file are made in the order they're requested, while
+    // different files are written concurrently.
+    public static Future<Boolean> WriteAsync(String filename, Future<float[]> rgb, Bounds2i outputBounds, Point2i totalResolution) {
+        return WriteAsync(filename, () -> WriteFile(filename, Parallel.Await(rgb), outputBounds, totalResolution));
+    }
+
+    // Run _write_, which writes _filename_, in the background, in order with
+    // the other writes of that file
+    public static Future<Boolean> WriteAsync(String filename, Callable<Boolean> write) {
+        synchronized (pendingWrites) {
+            Future<Boolean> previous = pendingWrites.get(filename);
+            Future<Boolean> ordered = Parallel.Async(() -> {
+                if (previous != null) Parallel.Await(previous);
+                return write.call();
+            });
+            pendingWrites.put(filename, ordered);
+            return ordered;
+        }
+    }
+
+    // Wait for all images being written in the background
+    public static void Flush() {
+        List<Future<Boolean>> writes;
+        synchronized (pendingWrites) {
+            writes = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+        }
+        for (Future<Boolean> write : writes) Parallel.Await(write);
+    }
+
+    private static boolean WriteFile(String filename, float[] rgb, Bounds2i outputBounds, Point2i totalResolution) {
         Vector2i resolution = outputBounds.Diagonal();
         if (FileUtil.HasExtension(filename, ".exr")) {
-            WriteEXR(filename, rgb, resolution.x, resolution.y);
+            return WriteEXR(filename, rgb, outputBounds, totalResolution);
         }
         else if (FileUtil.HasExtension(filename, ".pfm")) {
-            WritePFM(filename, rgb, resolution.x, resolution.y);
+            return WritePFM(filename, rgb, resolution.x, resolution.y);
+        }
+        // 8-bit formats get the sRGB curve, clamped; pixels are stored
+        // straight into the image's raster
+        BufferedImage bimage = new BufferedImage(resolution.x, resolution.y, BufferedImage.TYPE_INT_RGB);
+        int[] argb = ((DataBufferInt)bimage.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < argb.length; ++i) {
+            int r = ToByte(rgb[3 * i]), g = ToByte(rgb[3 * i + 1]), b = ToByte(rgb[3 * i + 2]);
+            argb[i] = (255 << 24) | (r << 16) | (g << 8) | b;
         }
         try {
-            BufferedImage bimage = new BufferedImage(resolution.x, resolution.y, BufferedImage.TYPE_INT_ARGB);
-            for (int y = 0; y < bimage.getHeight(); y++) {
-                for (int x = 0; x < bimage.getWidth(); x++) {
-                    int r = Pbrt.Clamp((int)(rgb[(y * totalResolution.x + x) * 3 + 0] * 255.0f), 0, 255);
-                    int g = Pbrt.Clamp((int)(rgb[(y * totalResolution.x + x) * 3 + 1] * 255.0f), 0, 255);
-                    int b = Pbrt.Clamp((int)(rgb[(y * totalResolution.x + x) * 3 + 2] * 255.0f), 0, 255);
-                    int bgra = (255 << 24) | (r << 16) | (g << 8) | b;
-                    bimage.setRGB(x, y, bgra);
-                }
+            if (!javax.imageio.ImageIO.write(bimage, FileUtil.GetExtension(filename), new File(filename))) {
+                PBrtTLogger.Error("Can't determine image file type from suffix of filename \"%s\"", filename);
+                return false;
             }
-            boolean ok = javax.imageio.ImageIO.write(bimage, FileUtil.GetExtension(filename), new File(filename));
+            return true;
         }
         catch (IOException e) {
-            e.printStackTrace();
+            PBrtTLogger.Error("Unable to write image \"%s\": %s", filename, e.getMessage());
+            return false;
         }
     }
 
+    private static int ToByte(float v) {
+        return Pbrt.Clamp((int)(255 * Pbrt.GammaCorrect(v) + 0.5f), 0, 255);
+    }
+
+    private static final Map<String, Future<Boolean>> pendingWrites = new HashMap<>();
+
     private final static String[] knownFormats;
     static {
         knownFormats = javax.imageio.ImageIO.getReaderFormatNames();
@@ -100,16 +156,72 @@ public class ImageIO {
         }
         return image;
     }
+    // Reads an RGB ("PF") or greyscale ("Pf") PFM; a negative scale in the
+    // header means the floats are little-endian, and its magnitude scales
+    // them.  Rows are stored from the bottom of the image up.
     private static SpectrumImage ReadPFM(String filename) {
-        PBrtTLogger.Warning("PFM image read not implemented.");
-        return null;
+        try {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)));
+            String[] header = new String[4];
+            for (int i = 0; i < header.length; ++i) header[i] = ReadPFMWord(data);
+            int nChannels = header[0].equals("PF") ? 3 : header[0].equals("Pf") ? 1 : 0;
+            if (nChannels == 0) {
+                PBrtTLogger.Error("\"%s\": not a PFM file", filename);
+                return null;
+            }
+            int width = Integer.parseInt(header[1]), height = Integer.parseInt(header[2]);
+            float scale = Float.parseFloat(header[3]);
+            // A single whitespace character separates the header from the data
+            data.get();
+            data.order(scale < 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            scale = Math.abs(scale);
+
+            SpectrumImage image = new SpectrumImage();
+            image.resolution = new Point2i(width, height);
+            image.image = new Spectrum[width * height];
+            for (int y = height - 1; y >= 0; --y)
+                for (int x = 0; x < width; ++x) {
+                    if (nChannels == 1)
+                        image.image[y * width + x] = new Spectrum(scale * data.getFloat());
+                    else {
+                        float r = data.getFloat(), g = data.getFloat(), b = data.getFloat();
+                        image.image[y * width + x] = Spectrum.FromRGB(scale * r, scale * g, scale * b);
+                    }
+                }
+            return image;
+        } catch (IOException | RuntimeException e) {
+            PBrtTLogger.Error("Unable to read PFM file \"%s\": %s", filename, e.toString());
+            return null;
+        }
+    }
+
+    // The next whitespace-separated word of a PFM header
+    private static String ReadPFMWord(ByteBuffer data) {
+        StringBuilder word = new StringBuilder();
+        while (Character.isWhitespace(data.get(data.position()))) data.get();
+        while (!Character.isWhitespace(data.get(data.position()))) word.append((char)data.get());
+        return word.toString();
     }
 
-    private static void WritePFM(String filename, float[] rgb, int x, int y) {
+    // Writes a little-endian PFM, whose rows go from the bottom of the
+    // image to the top
+    private static boolean WritePFM(String filename, float[] rgb, int width, int height) {
+        byte[] header = String.format("PF\n%d %d\n-1\n", width, height).getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer data = ByteBuffer.allocate(header.length + 12 * width * height).order(ByteOrder.LITTLE_ENDIAN);
+        data.put(header);
+        for (int y = height - 1; y >= 0; --y)
+            for (int i = 3 * y * width; i < 3 * (y + 1) * width; ++i) data.putFloat(rgb[i]);
+        try {
+            Files.write(Paths.get(filename), data.array());
+            return true;
+        } catch (IOException e) {
+            PBrtTLogger.Error("Unable to write PFM file \"%s\": %s", filename, e.getMessage());
+            return false;
+        }
     }
 
-    private static void WriteEXR(String filename, float[] rgb, int xRes, int yRes) {
-        EXROutput.SaveEXR(rgb, xRes, yRes, 3, filename);
+    private static boolean WriteEXR(String filename, float[] rgb, Bounds2i outputBounds, Point2i totalResolution) {
+        return EXROutput.SaveEXR(filename, EXROutput.RGBChannels(rgb, 3), outputBounds, totalResolution) == EXROutput.SUCCESS;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// TextureCache source for an image file.  The usual formats can only be
+// decoded whole, so the image is read, flipped, scaled, converted to one
+// (luminance) or three channels and resampled to power-of-two resolution
+// in one go.  The result is kept in the global TextureCache, so it counts
+// against the cache's budget and is evicted with the tiles; the file is
+// read again for the next level-0 tile that is missing once the image has
+// been evicted.  Coarser levels are left for the cache to filter.
+public class ImageTileSource implements TextureCache.TileSource {
+
+    // Source for _filename_; OpenEXR images are read tile by tile when
+    // possible
+    public static TextureCache.TileSource Create(String filename, int nChannels, float scale, boolean gamma, Texture.ImageWrap wrapMode) {
+        if (FileUtil.HasExtension(filename, ".exr")) {
+            EXRTileSource exr = EXRTileSource.Open(filename, nChannels, scale, gamma);
+            if (exr != null) return exr;
+        }
+        return new ImageTileSource(filename, nChannels, scale, gamma, wrapMode);
+    }
+
+    public ImageTileSource(String filename, int nChannels, float scale, boolean gamma, Texture.ImageWrap wrapMode) {
+        assert (nChannels == 1 || nChannels == 3);
+        this.filename = filename;
+        this.nChannels = nChannels;
+        this.scale = scale;
+        this.gamma = gamma;
+        this.wrapMode = wrapMode;
+        this.cache = TextureCache.Global();
+        this.dataKey = cache.NewDataKey();
+        cache.PutData(dataKey, Load());
+    }
+
+    @Override
+    public int Channels() { return nChannels; }
+    @Override
+    public int Width() { return width; }
+    @Override
+    public int Height() { return height; }
+
+    @Override
+    public boolean ReadTile(int level, int tx, int ty, float[] tile) {
+        if (level != 0) return false;
+        float[] image = cache.GetData(dataKey);
+        if (image == null) {
+            synchronized (this) {
+                image = cache.GetData(dataKey);
+                if (image == null) {
+                    PBrtTLogger.Info("Re-reading texture \"%s\"", filename);
+                    image = cache.PutData(dataKey, Load());
+                }
+            }
+        }
+        int tw = Math.min(TextureCache.TileSize, width), th = Math.min(TextureCache.TileSize, height);
+        for (int y = 0; y < th; ++y)
+            System.arraycopy(image, ((ty * th + y) * width + tx * tw) * nChannels, tile, y * tw * nChannels, tw * nChannels);
+        return true;
+    }
+
+    // Read the image and return its texels at power-of-two resolution;
+    // sets _width_ and _height_
+    private float[] Load() {
+        ImageIO.SpectrumImage image = ImageIO.Read(filename);
+        if (image == null || image.image == null) {
+            PBrtTLogger.Warning("Creating a constant grey texture to replace \"%s\".", filename);
+            image = new ImageIO.SpectrumImage();
+            image.resolution = new Point2i(1, 1);
+            image.image = new Spectrum[] { new Spectrum(0.5f) };
+        }
+        final int w = image.resolution.x, h = image.resolution.y;
+        final Spectrum[] pixels = image.image;
+        final float[] converted = new float[w * h * nChannels];
+        // Flip image in y; texture coordinate space has (0,0) at the lower
+        // left corner.
+        MIPMapSpectrum.ParallelRows((Long row) -> {
+            int y = row.intValue();
+            for (int x = 0; x < w; ++x) {
+                Spectrum s = pixels[(h - 1 - y) * w + x];
+                int o = (y * w + x) * nChannels;
+                if (nChannels == 1)
+                    converted[o] = convertIn(s.y());
+                else
+                    for (int c = 0; c < 3; ++c) converted[o + c] = convertIn(s.at(c));
+            }
+        }, h, 8 * w);
+
+        int xRes = w, yRes = h;
+        float[] data = converted;
+        if (!Pbrt.IsPowerOf2(xRes) || !Pbrt.IsPowerOf2(yRes)) {
+            int xPow2 = Pbrt.RoundUpPow2(xRes), yPow2 = Pbrt.RoundUpPow2(yRes);
+            PBrtTLogger.Info("Resampling texture \"%s\" from %dx%d to %dx%d", filename, xRes, yRes, xPow2, yPow2);
+            data = MIPMapSpectrum.Resample(data, xRes, yRes, xPow2, yPow2, nChannels, wrapMode);
+            xRes = xPow2;
+            yRes = yPow2;
+        }
+        width = xRes;
+        height = yRes;
+        return data;
+    }
+
+    private float convertIn(float v) {
+        return scale * (gamma ? Pbrt.InverseGammaCorrect(v) : v);
+    }
+
+    // ImageTileSource Private Data
+    private final String filename;
+    private final int nChannels;
+    private final float scale;
+    private final boolean gamma;
+    private final Texture.ImageWrap wrapMode;
+    private final TextureCache cache;
+    private final long dataKey;
+    private int width, height;
+}
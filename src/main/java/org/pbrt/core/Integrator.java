@@ -14,13 +14,13 @@ public abstract class Integrator {
 
     public abstract void Render(Scene scene);
 
-    public static Distribution1D ComputeLightPowerDistribution(Scene scene) {
+    public static DiscreteDistribution1D ComputeLightPowerDistribution(Scene scene) {
         if (scene.lights.isEmpty()) return null;
         float[] lightPower = new float[scene.lights.size()];
         int i = 0;
         for (Light light : scene.lights)
             lightPower[i++] = light.Power().y();
-        return new Distribution1D(lightPower);
+        return new AliasDistribution1D(lightPower);
     }
 
 }
\ No newline at end of file
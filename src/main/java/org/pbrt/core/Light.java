@@ -101,8 +101,16 @@ public abstract class Light {
         return new Spectrum(0.0f);
     }
     public abstract float Pdf_Li(Interaction ref, Vector3f wi);
+    // Value at the wavelengths of a spectral camera sample of radiance _L_
+    // returned by this light; by default the RGB value is upsampled.
+    public SampledSpectrum SampleEmission(Spectrum L, SampledWavelengths lambda, SampledSpectrum dst) {
+        return lambda.FromRGB(L, Spectrum.SpectrumType.Illuminant, dst);
+    }
     public abstract LeResult Sample_Le(Point2f u1, Point2f u2, float time);
     public abstract PdfResult Pdf_Le(Ray ray, Normal3f nLight);
+    // Bounds on the light's emission for the light BVH, or null for lights
+    // without finite extent (infinite and distant lights).
+    public LightBounds Bounds() { return null; }
 
     // Light Public Data
     public int flags;
@@ -0,0 +1,354 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A bounding volume hierarchy over the scene's lights (Conty Estevez and
+// Kulla 2018, as in pbrt-v4's BVHLightSampler).  Each node stores the
+// LightBounds of the lights below it; a light is chosen for a shading point
+// by walking down from the root and picking a child in proportion to an
+// importance estimate that accounts for distance, emitted power and the
+// orientation of both the lights and the receiving surface.  Sampling and
+// PMF evaluation are O(log n) in the number of lights and need no per-region
+// preprocessing.  Lights without finite bounds (infinite and distant lights)
+// are sampled uniformly alongside the BVH.
+public class LightBVHDistribution extends LightDistribution {
+
+    public LightBVHDistribution(Scene scene) {
+        this.powerDistrib = Integrator.ComputeLightPowerDistribution(scene);
+
+        int nLights = scene.lights.size();
+        this.bitTrail = new long[nLights];
+        this.infinite = new boolean[nLights];
+        List<Integer> infiniteList = new ArrayList<>();
+        List<BVHLight> bvhLights = new ArrayList<>();
+        for (int i = 0; i < nLights; ++i) {
+            bitTrail[i] = -1;
+            LightBounds lb = scene.lights.get(i).Bounds();
+            if (lb == null) {
+                infinite[i] = true;
+                infiniteList.add(i);
+            } else if (lb.phi > 0)
+                bvhLights.add(new BVHLight(i, lb));
+        }
+        this.infiniteLights = new int[infiniteList.size()];
+        for (int i = 0; i < infiniteLights.length; ++i) infiniteLights[i] = infiniteList.get(i);
+
+        // Allocate the flattened node arrays; a binary tree with one light
+        // per leaf has 2n - 1 nodes
+        int maxNodes = Math.max(0, 2 * bvhLights.size() - 1);
+        this.nodeData = new float[maxNodes * NODE_STRIDE];
+        this.nodeChild = new int[maxNodes];
+        this.nodeFlags = new byte[maxNodes];
+        if (!bvhLights.isEmpty()) {
+            BVHLight[] lights = bvhLights.toArray(new BVHLight[0]);
+            BuildBVH(lights, 0, lights.length, 0, 0);
+        }
+        assert (nNodes == maxNodes);
+        this.pInfinite = (float)infiniteLights.length / (float)(infiniteLights.length + (nNodes > 0 ? 1 : 0));
+
+        PBrtTLogger.Info("LightBVHDistribution: %d lights in BVH (%d nodes), %d infinite lights", bvhLights.size(), nNodes, infiniteLights.length);
+    }
+
+    // The BVH depends on the shading point's normal as well as its position,
+    // so callers that only have a point get the power-based distribution.
+    @Override
+    public DiscreteDistribution1D Lookup(Point3f p) {
+        return powerDistrib;
+    }
+
+    @Override
+    public Distribution1D.DiscreteSample Sample(Interaction it, float u) {
+        Distribution1D.DiscreteSample ds = new Distribution1D.DiscreteSample();
+        // Sample an infinite light with probability _pInfinite_
+        if (u < pInfinite) {
+            u /= pInfinite;
+            int index = Math.min((int)(u * infiniteLights.length), infiniteLights.length - 1);
+            ds.offset = infiniteLights[index];
+            ds.pdf = pInfinite / infiniteLights.length;
+            ds.uRemapped = Math.min(u * infiniteLights.length - index, RNG.FloatOneMinusEpsilon);
+            return ds;
+        }
+        if (nNodes == 0) return ds;
+
+        // Traverse the BVH, choosing children by importance
+        u = Math.min((u - pInfinite) / (1 - pInfinite), RNG.FloatOneMinusEpsilon);
+        float pmf = 1 - pInfinite;
+        int node = 0;
+        while (true) {
+            if ((nodeFlags[node] & FLAG_LEAF) == 0) {
+                float ci0 = Importance(node + 1, it.p, it.n);
+                float ci1 = Importance(nodeChild[node], it.p, it.n);
+                if (ci0 == 0 && ci1 == 0) return ds;
+                float p0 = ci0 / (ci0 + ci1);
+                if (u < p0) {
+                    pmf *= p0;
+                    u = Math.min(u / p0, RNG.FloatOneMinusEpsilon);
+                    node = node + 1;
+                } else {
+                    pmf *= 1 - p0;
+                    u = Math.min((u - p0) / (1 - p0), RNG.FloatOneMinusEpsilon);
+                    node = nodeChild[node];
+                }
+            } else {
+                // A single-light tree has not checked the root's importance
+                if (node > 0 || Importance(node, it.p, it.n) > 0) {
+                    ds.offset = nodeChild[node];
+                    ds.pdf = pmf;
+                    ds.uRemapped = u;
+                }
+                return ds;
+            }
+        }
+    }
+
+    @Override
+    public float PMF(Interaction it, int lightIndex) {
+        if (infinite[lightIndex]) return pInfinite / infiniteLights.length;
+        long trail = bitTrail[lightIndex];
+        // Lights with zero power are never sampled
+        if (trail < 0) return 0;
+
+        // Follow the light's path from the root, accumulating the
+        // probability of each branch taken
+        float pmf = 1 - pInfinite;
+        int node = 0;
+        while ((nodeFlags[node] & FLAG_LEAF) == 0) {
+            float ci0 = Importance(node + 1, it.p, it.n);
+            float ci1 = Importance(nodeChild[node], it.p, it.n);
+            if (ci0 == 0 && ci1 == 0) return 0;
+            if ((trail & 1) != 0) {
+                pmf *= ci1 / (ci0 + ci1);
+                node = nodeChild[node];
+            } else {
+                pmf *= ci0 / (ci0 + ci1);
+                node = node + 1;
+            }
+            trail >>>= 1;
+        }
+        return Importance(node, it.p, it.n) > 0 ? pmf : 0;
+    }
+
+    // LightBVHDistribution Private Methods
+    private static final class BVHLight {
+        final int index;
+        final LightBounds bounds;
+        final Point3f centroid;
+        BVHLight(int index, LightBounds bounds) {
+            this.index = index;
+            this.bounds = bounds;
+            this.centroid = bounds.Centroid();
+        }
+    }
+
+    private LightBounds BuildBVH(BVHLight[] lights, int start, int end, long trail, int depth) {
+        assert (depth < 63);
+        if (end - start == 1) {
+            // Initialize leaf node for a single light
+            int node = nNodes++;
+            SetNode(node, lights[start].bounds, true, lights[start].index);
+            bitTrail[lights[start].index] = trail;
+            return lights[start].bounds;
+        }
+
+        // Compute bounds and centroid bounds for the lights
+        Bounds3f bounds = new Bounds3f(), centroidBounds = new Bounds3f();
+        for (int i = start; i < end; ++i) {
+            bounds = Bounds3f.Union(bounds, lights[i].bounds.bounds);
+            centroidBounds = Bounds3f.Union(centroidBounds, lights[i].centroid);
+        }
+
+        // Find the bucketed split with the lowest surface area orientation
+        // heuristic cost
+        float minCost = Pbrt.Infinity;
+        int minCostSplitBucket = -1, minCostSplitDim = -1;
+        final int nBuckets = 12;
+        LightBounds[] bucketBounds = new LightBounds[nBuckets];
+        for (int dim = 0; dim < 3; ++dim) {
+            float cMin = centroidBounds.pMin.at(dim), cMax = centroidBounds.pMax.at(dim);
+            if (cMax == cMin) continue;
+            for (int b = 0; b < nBuckets; ++b) bucketBounds[b] = null;
+            for (int i = start; i < end; ++i) {
+                int b = Bucket(lights[i].centroid.at(dim), cMin, cMax, nBuckets);
+                bucketBounds[b] = (bucketBounds[b] == null) ? lights[i].bounds
+                        : LightBounds.Union(bucketBounds[b], lights[i].bounds);
+            }
+            // Sweep from the left and the right to cost each split that
+            // leaves lights on both sides
+            float[] costBelow = new float[nBuckets - 1];
+            LightBounds b0 = null;
+            for (int i = 0; i < nBuckets - 1; ++i) {
+                if (bucketBounds[i] != null) b0 = (b0 == null) ? bucketBounds[i] : LightBounds.Union(b0, bucketBounds[i]);
+                costBelow[i] = (b0 == null) ? Pbrt.Infinity : EvaluateCost(b0, bounds, dim);
+            }
+            LightBounds b1 = null;
+            for (int i = nBuckets - 1; i >= 1; --i) {
+                if (bucketBounds[i] != null) b1 = (b1 == null) ? bucketBounds[i] : LightBounds.Union(b1, bucketBounds[i]);
+                if (b1 == null) continue;
+                float cost = costBelow[i - 1] + EvaluateCost(b1, bounds, dim);
+                if (cost < minCost) {
+                    minCost = cost;
+                    minCostSplitBucket = i - 1;
+                    minCostSplitDim = dim;
+                }
+            }
+        }
+
+        // Partition lights according to the chosen split
+        int mid;
+        if (minCostSplitDim == -1)
+            mid = (start + end) / 2;
+        else {
+            float cMin = centroidBounds.pMin.at(minCostSplitDim), cMax = centroidBounds.pMax.at(minCostSplitDim);
+            mid = start;
+            for (int i = start; i < end; ++i) {
+                if (Bucket(lights[i].centroid.at(minCostSplitDim), cMin, cMax, nBuckets) <= minCostSplitBucket) {
+                    BVHLight t = lights[mid];
+                    lights[mid++] = lights[i];
+                    lights[i] = t;
+                }
+            }
+            if (mid == start || mid == end) mid = (start + end) / 2;
+        }
+
+        // Allocate the interior node and build the children; the first child
+        // immediately follows its parent
+        int node = nNodes++;
+        LightBounds lb0 = BuildBVH(lights, start, mid, trail, depth + 1);
+        nodeChild[node] = nNodes;
+        LightBounds lb1 = BuildBVH(lights, mid, end, trail | (1L << depth), depth + 1);
+        LightBounds lb = LightBounds.Union(lb0, lb1);
+        SetNode(node, lb, false, nodeChild[node]);
+        return lb;
+    }
+
+    private static int Bucket(float c, float cMin, float cMax, int nBuckets) {
+        int b = (int)(nBuckets * ((c - cMin) / (cMax - cMin)));
+        return Pbrt.Clamp(b, 0, nBuckets - 1);
+    }
+
+    // Surface area orientation heuristic: power times the solid angle
+    // measure of the emission cone times surface area, penalizing splits
+    // along the short axes of elongated bounds.
+    private static float EvaluateCost(LightBounds b, Bounds3f bounds, int dim) {
+        float theta_o = LightBounds.SafeACos(b.cosTheta_o), theta_e = LightBounds.SafeACos(b.cosTheta_e);
+        float theta_w = Math.min(theta_o + theta_e, Pbrt.Pi);
+        float sinTheta_o = LightBounds.SafeSqrt(1 - b.cosTheta_o * b.cosTheta_o);
+        float M_omega = 2 * Pbrt.Pi * (1 - b.cosTheta_o) +
+                Pbrt.Pi / 2 * (2 * theta_w * sinTheta_o - (float)Math.cos(theta_o - 2 * theta_w) -
+                        2 * theta_o * sinTheta_o + b.cosTheta_o);
+        Vector3f d = bounds.Diagonal();
+        float Kr = Math.max(d.x, Math.max(d.y, d.z)) / Math.max(d.at(dim), Pbrt.MachineEpsilon());
+        return b.phi * M_omega * Kr * b.bounds.SurfaceArea();
+    }
+
+    private void SetNode(int node, LightBounds lb, boolean leaf, int childOrLightIndex) {
+        int o = node * NODE_STRIDE;
+        nodeData[o] = lb.bounds.pMin.x;
+        nodeData[o + 1] = lb.bounds.pMin.y;
+        nodeData[o + 2] = lb.bounds.pMin.z;
+        nodeData[o + 3] = lb.bounds.pMax.x;
+        nodeData[o + 4] = lb.bounds.pMax.y;
+        nodeData[o + 5] = lb.bounds.pMax.z;
+        nodeData[o + 6] = lb.w.x;
+        nodeData[o + 7] = lb.w.y;
+        nodeData[o + 8] = lb.w.z;
+        nodeData[o + 9] = lb.phi;
+        nodeData[o + 10] = lb.cosTheta_o;
+        nodeData[o + 11] = lb.cosTheta_e;
+        nodeChild[node] = childOrLightIndex;
+        nodeFlags[node] = (byte)((leaf ? FLAG_LEAF : 0) | (lb.twoSided ? FLAG_TWO_SIDED : 0));
+    }
+
+    // Conservative estimate of the contribution of the lights under _node_
+    // to point _p_ with surface normal _n_ (zero for medium interactions).
+    private float Importance(int node, Point3f p, Normal3f n) {
+        final float[] d = nodeData;
+        int o = node * NODE_STRIDE;
+        // Compute clamped squared distance to the bounds' centre
+        float cx = 0.5f * (d[o] + d[o + 3]), cy = 0.5f * (d[o + 1] + d[o + 4]), cz = 0.5f * (d[o + 2] + d[o + 5]);
+        float ex = d[o + 3] - d[o], ey = d[o + 4] - d[o + 1], ez = d[o + 5] - d[o + 2];
+        float wx = p.x - cx, wy = p.y - cy, wz = p.z - cz;
+        float d2 = wx * wx + wy * wy + wz * wz;
+        float radius2 = 0.25f * (ex * ex + ey * ey + ez * ez);
+        d2 = Math.max(d2, (float)Math.sqrt(radius2));
+
+        // Compute sine and cosine of angle to the emission axis
+        float invLen = (wx == 0 && wy == 0 && wz == 0) ? 0 : 1 / (float)Math.sqrt(wx * wx + wy * wy + wz * wz);
+        wx *= invLen;
+        wy *= invLen;
+        wz *= invLen;
+        float cosTheta_w = d[o + 6] * wx + d[o + 7] * wy + d[o + 8] * wz;
+        if ((nodeFlags[node] & FLAG_TWO_SIDED) != 0) cosTheta_w = Math.abs(cosTheta_w);
+        float sinTheta_w = LightBounds.SafeSqrt(1 - cosTheta_w * cosTheta_w);
+
+        // Compute the angle subtended by the bounds' bounding sphere
+        float cosTheta_b, sinTheta_b;
+        float dc2 = (p.x - cx) * (p.x - cx) + (p.y - cy) * (p.y - cy) + (p.z - cz) * (p.z - cz);
+        if (dc2 < radius2) {
+            cosTheta_b = -1;
+            sinTheta_b = 0;
+        } else {
+            float sin2Theta_b = radius2 / dc2;
+            cosTheta_b = LightBounds.SafeSqrt(1 - sin2Theta_b);
+            sinTheta_b = (float)Math.sqrt(sin2Theta_b);
+        }
+
+        // Bound the angle between the emitters and the direction to _p_
+        float cosTheta_o = d[o + 10];
+        float sinTheta_o = LightBounds.SafeSqrt(1 - cosTheta_o * cosTheta_o);
+        float cosTheta_x = CosSubClamped(sinTheta_w, cosTheta_w, sinTheta_o, cosTheta_o);
+        float sinTheta_x = SinSubClamped(sinTheta_w, cosTheta_w, sinTheta_o, cosTheta_o);
+        float cosThetap = CosSubClamped(sinTheta_x, cosTheta_x, sinTheta_b, cosTheta_b);
+        if (cosThetap <= d[o + 11]) return 0;
+        float importance = d[o + 9] * cosThetap / d2;
+
+        // Account for the cosine at the receiving surface
+        if (n.x != 0 || n.y != 0 || n.z != 0) {
+            float nLen = (float)Math.sqrt(n.x * n.x + n.y * n.y + n.z * n.z);
+            float cosTheta_i = Math.abs(wx * n.x + wy * n.y + wz * n.z) / nLen;
+            float sinTheta_i = LightBounds.SafeSqrt(1 - cosTheta_i * cosTheta_i);
+            importance *= CosSubClamped(sinTheta_i, cosTheta_i, sinTheta_b, cosTheta_b);
+        }
+        return Math.max(importance, 0);
+    }
+
+    // cos(max(0, a - b)) and sin(max(0, a - b)) from the sines and cosines
+    private static float CosSubClamped(float sinA, float cosA, float sinB, float cosB) {
+        if (cosA > cosB) return 1;
+        return cosA * cosB + sinA * sinB;
+    }
+
+    private static float SinSubClamped(float sinA, float cosA, float sinB, float cosB) {
+        if (cosA > cosB) return 0;
+        return sinA * cosB - cosA * sinB;
+    }
+
+    // LightBVHDistribution Private Data
+    private static final int NODE_STRIDE = 12;
+    private static final byte FLAG_LEAF = 1, FLAG_TWO_SIDED = 2;
+
+    private final DiscreteDistribution1D powerDistrib;
+    private final int[] infiniteLights;
+    private final float pInfinite;
+    // Nodes in depth-first order: bounds, emission axis, phi, cosTheta_o
+    // and cosTheta_e per node; _nodeChild_ holds the second child of
+    // interior nodes and the light index of leaves
+    private final float[] nodeData;
+    private final int[] nodeChild;
+    private final byte[] nodeFlags;
+    private int nNodes = 0;
+    // Path from the root to each light's leaf, one bit per level (1 = second
+    // child); -1 for lights not in the BVH
+    private final long[] bitTrail;
+    private final boolean[] infinite;
+}
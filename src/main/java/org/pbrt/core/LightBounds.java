@@ -0,0 +1,79 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// Spatial and directional bounds of the emission of one or more lights, as
+// used by the light BVH (Conty Estevez and Kulla 2018): the lights lie inside
+// _bounds_, emit in directions within _cosTheta_o_ of _w_, and each emitting
+// direction spreads over a further _cosTheta_e_ (e.g. cos(pi/2) for
+// diffuse emitters).  _phi_ is the total emitted power.
+public class LightBounds {
+
+    public Bounds3f bounds;
+    public Vector3f w;
+    public float phi;
+    public float cosTheta_o, cosTheta_e;
+    public boolean twoSided;
+
+    public LightBounds(Bounds3f bounds, Vector3f w, float phi, float cosTheta_o, float cosTheta_e, boolean twoSided) {
+        this.bounds = bounds;
+        this.w = Vector3f.Normalize(w);
+        this.phi = phi;
+        this.cosTheta_o = cosTheta_o;
+        this.cosTheta_e = cosTheta_e;
+        this.twoSided = twoSided;
+    }
+
+    public Point3f Centroid() {
+        return bounds.pMin.add(bounds.pMax).scale(0.5f);
+    }
+
+    public static LightBounds Union(LightBounds a, LightBounds b) {
+        // If one _LightBounds_ has zero power, return the other
+        if (a.phi == 0) return b;
+        if (b.phi == 0) return a;
+
+        // Find the direction cone that bounds both cones
+        float theta_a = SafeACos(a.cosTheta_o), theta_b = SafeACos(b.cosTheta_o);
+        float theta_d = SafeACos(Vector3f.Dot(a.w, b.w));
+        Vector3f w;
+        float cosTheta_o;
+        if (Math.min(theta_d + theta_b, Pbrt.Pi) <= theta_a) {
+            w = a.w;
+            cosTheta_o = a.cosTheta_o;
+        } else if (Math.min(theta_d + theta_a, Pbrt.Pi) <= theta_b) {
+            w = b.w;
+            cosTheta_o = b.cosTheta_o;
+        } else {
+            // Rotate _a.w_ towards _b.w_ to the centre of the merged cone
+            float theta_o = (theta_a + theta_d + theta_b) / 2;
+            Vector3f wr = Vector3f.Cross(a.w, b.w);
+            if (theta_o >= Pbrt.Pi || wr.LengthSquared() == 0) {
+                w = a.w;
+                cosTheta_o = -1;
+            } else {
+                float theta_r = theta_o - theta_a;
+                Vector3f k = Vector3f.Normalize(wr);
+                w = a.w.scale((float)Math.cos(theta_r)).add(Vector3f.Cross(k, a.w).scale((float)Math.sin(theta_r)));
+                cosTheta_o = (float)Math.cos(theta_o);
+            }
+        }
+        return new LightBounds(Bounds3f.Union(a.bounds, b.bounds), w, a.phi + b.phi, cosTheta_o,
+                Math.min(a.cosTheta_e, b.cosTheta_e), a.twoSided || b.twoSided);
+    }
+
+    static float SafeACos(float x) {
+        return (float)Math.acos(Pbrt.Clamp(x, -1, 1));
+    }
+
+    static float SafeSqrt(float x) {
+        return (float)Math.sqrt(Math.max(0, x));
+    }
+}
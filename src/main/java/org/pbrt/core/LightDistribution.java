@@ -13,7 +13,25 @@ package org.pbrt.core;
 import java.util.Objects;
 
 public abstract class LightDistribution {
-    public abstract Distribution1D Lookup(Point3f p);
+    public abstract DiscreteDistribution1D Lookup(Point3f p);
+
+    // Choose a light for shading point _it_; _offset_ of the result is the
+    // index into scene.lights, and a zero _pdf_ means no light can
+    // contribute.  Distributions that only depend on position sample the
+    // DiscreteDistribution1D from Lookup().
+    public Distribution1D.DiscreteSample Sample(Interaction it, float u) {
+        return Lookup(it.p).SampleDiscrete(u);
+    }
+
+    // Probability that Sample() chooses light _lightIndex_ at _it_
+    public float PMF(Interaction it, int lightIndex) {
+        return Lookup(it.p).DiscretePDF(lightIndex);
+    }
+
+    // Optionally precompute whatever the distribution builds lazily for
+    // the points seen by _camera_, so rendering doesn't start with every
+    // thread paying for it; _stride_ is the spacing between the pixels used.
+    public void Prewarm(Camera camera, int stride) {}
 
     public static LightDistribution CreateLightSampleDistribution(String name, Scene scene) {
         if (Objects.equals(name, "uniform") || scene.lights.size() == 1)
@@ -22,6 +40,8 @@ public abstract class LightDistribution {
             return new PowerLightDistribution(scene);
         else if (Objects.equals(name, "spatial"))
             return new SpatialLightDistribution(scene, 64);
+        else if (Objects.equals(name, "bvh"))
+            return new LightBVHDistribution(scene);
         else {
             PBrtTLogger.Error("Light sample distribution type \"%s\" unknown. Using \"spatial\".", name);
             return new SpatialLightDistribution(scene, 64);
@@ -13,133 +13,114 @@ import java.util.ArrayList;
 
 public class MIPMapFloat {
 
-    public MIPMapFloat(Point2i resolution, float[] data, boolean doTri, float maxAniso, Texture.ImageWrap wrapMode, float black){
+    public MIPMapFloat(Point2i resolution, float[] data, boolean doTri, float maxAniso, Texture.ImageWrap wrapMode, float black) {
+        this(resolution, data, doTri, maxAniso, wrapMode, black, false);
+    }
+
+    // With _halfTexels_ the pyramid is stored as half floats, clamped to
+    // the half range.
+    public MIPMapFloat(Point2i resolution, float[] data, boolean doTri, float maxAniso, Texture.ImageWrap wrapMode, float black, boolean halfTexels) {
         this.doTrilinear = doTri;
         this.maxAnisotropy = maxAniso;
         this.wrapMode = wrapMode;
         this.resolution = new Point2i(resolution);
         this.black = black;
+        this.tiles = null;
 
-        Float[] resampledImage = null;
+        float[] texels = data;
         if (!Pbrt.IsPowerOf2(resolution.x) || !Pbrt.IsPowerOf2(resolution.y)) {
             // Resample image to power-of-two resolution
             Point2i resPow2 = new Point2i(Pbrt.RoundUpPow2(resolution.x), Pbrt.RoundUpPow2(resolution.y));
             PBrtTLogger.Info("Resampling MIPMap from %s to %s. Ratio = %f", resolution.toString(), resPow2.toString(), (float)(resPow2.x * resPow2.y) / (float)(resolution.x * resolution.y));
-            // Resample image in $s$ direction
-            MIPMapSpectrum.ResampleWeight[] sWeights = resampleWeights(resolution.x, resPow2.x);
-            resampledImage = new Float[resPow2.x * resPow2.y];
-
-            // Apply _sWeights_ to zoom in $s$ direction
-            for (int t = 0; t < resolution.y; t++) {
-                for (int s = 0; s < resPow2.x; ++s) {
-                    // Compute texel $(s,t)$ in $s$-zoomed image
-                    resampledImage[t * resPow2.x + s] = black;
-                    for (int j = 0; j < 4; ++j) {
-                        int origS = sWeights[s].firstTexel + j;
-                        if (wrapMode == Texture.ImageWrap.Repeat)
-                            origS = Pbrt.Mod(origS, resolution.x);
-                        else if (wrapMode == Texture.ImageWrap.Clamp)
-                            origS = Pbrt.Clamp(origS, 0, resolution.x - 1);
-                        if (origS >= 0 && origS < resolution.x) {
-                            resampledImage[t * resPow2.x + s] += sWeights[s].weight[j] * data[t * resolution.x + origS];
-                        }
-                    }
-                }
-            }
-
-            // Resample image in $t$ direction
-            MIPMapSpectrum.ResampleWeight[] tWeights = resampleWeights(resolution.y, resPow2.y);
-            Float[] workData = new Float[resolution.y * resolution.y];
-            for (int s = 0; s < resPow2.x; s++) {
-                for (int t = 0; t < resPow2.y; ++t) {
-                    workData[t] = black;
-                    for (int j = 0; j < 4; ++j) {
-                        int offset = tWeights[t].firstTexel + j;
-                        if (wrapMode == Texture.ImageWrap.Repeat)
-                            offset = Pbrt.Mod(offset, resolution.y);
-                        else if (wrapMode == Texture.ImageWrap.Clamp)
-                            offset = Pbrt.Clamp(offset, 0, resolution.y - 1);
-                        if (offset >= 0 && offset < resolution.y) {
-                            workData[t] += tWeights[t].weight[j] * resampledImage[offset * resPow2.x + s];
-                        }
-                    }
-                }
-                for (int t = 0; t < resPow2.y; ++t) {
-                    resampledImage[t * resPow2.x + s] = Pbrt.Clamp(workData[t], 0, Pbrt.Infinity);
-                }
-            }
+            texels = MIPMapSpectrum.Resample(data, resolution.x, resolution.y, resPow2.x, resPow2.y, 1, wrapMode);
             resolution = resPow2;
         }
-        else {
-            resampledImage = new Float[resolution.x * resolution.y];
-            for (int s = 0; s < resolution.x; s++) {
-                for (int t = 0; t < resolution.y; t++) {
-                    resampledImage[t * resolution.x + s] = data[t * resolution.x + s];
-                }
-            }
-        }
+
         // Initialize levels of MIPMap from image
         int nLevels = 1 + Pbrt.Log2Int(Math.max(resolution.x, resolution.y));
         this.pyramid = new ArrayList<>(nLevels);
 
         // Initialize most detailed level of MIPMap
-        int logBlockSize = 16;
-        pyramid.add(new BlockedArray(resolution.x, resolution.y, logBlockSize, resampledImage));
+        pyramid.add(new FloatBlockedArray(resolution.x, resolution.y, 1, MIPMapSpectrum.LogBlockSize, halfTexels, texels));
         for (int i = 1; i < nLevels; ++i) {
             // Initialize $i$th MIPMap level from $i-1$st level
             int sRes = Math.max(1, pyramid.get(i - 1).uSize() / 2);
             int tRes = Math.max(1, pyramid.get(i - 1).vSize() / 2);
-            pyramid.add(new BlockedArray(sRes, tRes, logBlockSize, null));
+            FloatBlockedArray level = new FloatBlockedArray(sRes, tRes, 1, MIPMapSpectrum.LogBlockSize, halfTexels, null);
 
-            // Filter four texels from finer level of pyramid
-            for (int t = 0; t < tRes; t++) {
+            // Filter four texels from finer level of pyramid, a row at a time
+            final int fine = i - 1;
+            MIPMapSpectrum.ParallelRows((Long row) -> {
+                int t = row.intValue();
                 for (int s = 0; s < sRes; ++s) {
-                    pyramid.get(i).set(s, t, .25f * (Texel(i - 1, 2 * s, 2 * t) +
-                            Texel(i - 1, 2 * s + 1, 2 * t) +
-                            Texel(i - 1, 2 * s, 2 * t + 1) +
-                            Texel(i - 1, 2 * s + 1, 2 * t + 1)));
+                    level.set(s, t, 0, .25f * (Texel(fine, 2 * s, 2 * t) +
+                            Texel(fine, 2 * s + 1, 2 * t) +
+                            Texel(fine, 2 * s, 2 * t + 1) +
+                            Texel(fine, 2 * s + 1, 2 * t + 1)));
                 }
-            }
+            }, tRes, 4 * sRes);
+            pyramid.add(level);
         }
 
-        // Initialize EWA filter weights if needed
-        if (weightLut[0] == 0) {
-            for (int i = 0; i < WeightLUTSize; ++i) {
-                float alpha = 2;
-                float r2 = (float)i / (float)(WeightLUTSize - 1);
-                weightLut[i] = (float)(Math.exp(-alpha * r2) - Math.exp(-alpha));
-            }
-        }
-        MIPMapSpectrum.mipMapMemory.increment((4 * resolution.x * resolution.y * 4) / 3);
+        InitWeightLut();
+        long bytes = 0;
+        for (FloatBlockedArray level : pyramid) bytes += level.MemoryBytes();
+        MIPMapSpectrum.mipMapMemory.increment(bytes);
     }
 
     public MIPMapFloat(Point2i resolution, float[] data, float black) {
         this(resolution, data, false, 8, Texture.ImageWrap.Repeat, black);
     }
 
+    // MIPMap whose levels are tiles in a TextureCache, filtered and loaded on
+    // demand rather than built here
+    public MIPMapFloat(TextureCache.CachedTexture tiles, boolean doTri, float maxAniso, Texture.ImageWrap wrapMode, float black) {
+        this.doTrilinear = doTri;
+        this.maxAnisotropy = maxAniso;
+        this.wrapMode = wrapMode;
+        this.black = black;
+        this.tiles = tiles;
+        this.resolution = new Point2i(tiles.Width(0), tiles.Height(0));
+        this.pyramid = null;
+        InitWeightLut();
+    }
+
     public int Width() { return resolution.x; }
     public int Height() { return resolution.y; }
-    public int Levels(){ return pyramid.size(); }
-    public Float Texel(int level, int s, int t) {
-        assert(level < pyramid.size());
-        BlockedArray l = pyramid.get(level);
+    public int Levels() { return (tiles != null) ? tiles.Levels() : pyramid.size(); }
+    private int levelWidth(int level) { return (tiles != null) ? tiles.Width(level) : pyramid.get(level).uSize(); }
+    private int levelHeight(int level) { return (tiles != null) ? tiles.Height(level) : pyramid.get(level).vSize(); }
+
+    // Cursor for the tile lookups of one filter footprint
+    private TextureCache.TileCursor cursor() { return (tiles != null) ? tiles.Cursor() : null; }
+
+    public float Texel(int level, int s, int t) {
+        return Texel(cursor(), level, s, t);
+    }
+
+    // Texel $(s,t)$ of _level_; _cursor_ finds its tile when the levels are
+    // cached
+    private float Texel(TextureCache.TileCursor cursor, int level, int s, int t) {
+        assert(level < Levels());
+        int uSize = levelWidth(level), vSize = levelHeight(level);
         // Compute texel $(s,t)$ accounting for boundary conditions
         switch (wrapMode) {
             case Repeat:
-                s = Pbrt.Mod(s, l.uSize());
-                t = Pbrt.Mod(t, l.vSize());
+                s = Pbrt.Mod(s, uSize);
+                t = Pbrt.Mod(t, vSize);
                 break;
             case Clamp:
-                s = Pbrt.Clamp(s, 0, l.uSize() - 1);
-                t = Pbrt.Clamp(t, 0, l.vSize() - 1);
+                s = Pbrt.Clamp(s, 0, uSize - 1);
+                t = Pbrt.Clamp(t, 0, vSize - 1);
                 break;
             case Black: {
-                if (s < 0 || s >= l.uSize() || t < 0 || t >= l.vSize())
+                if (s < 0 || s >= uSize || t < 0 || t >= vSize)
                     return black;
                 break;
             }
         }
-        return (Float)l.at(s, t);
+        if (tiles != null) return tiles.TexelFloat(cursor, level, s, t);
+        return pyramid.get(level).at(s, t, 0);
     }
 
     public float Lookup(Point2f st, float width) {
@@ -149,21 +130,21 @@ public class MIPMapFloat {
         float level = Levels() - 1 + Pbrt.Log2((float)Math.max(width, 1e-8));
 
         // Perform trilinear interpolation at appropriate MIPMap level
+        TextureCache.TileCursor cursor = cursor();
         if (level < 0)
-            return triangle(0, st);
+            return triangle(cursor, 0, st);
         else if (level >= Levels() - 1)
-            return Texel(Levels() - 1, 0, 0);
+            return Texel(cursor, Levels() - 1, 0, 0);
         else {
             int iLevel = (int)Math.floor(level);
             float delta = level - iLevel;
-            return Pbrt.Lerp(delta, triangle(iLevel, st), triangle(iLevel + 1, st));
+            return Pbrt.Lerp(delta, triangle(cursor, iLevel, st), triangle(cursor, iLevel + 1, st));
         }
     }
     public float Lookup(Point2f st) {
         return this.Lookup(st, 0);
     }
 
-
     public float Lookup(Point2f st, Vector2f dst0, Vector2f dst1) {
         if (doTrilinear) {
             float width = Math.max(Math.max(Math.abs(dst0.x), Math.abs(dst0.y)),
@@ -188,63 +169,50 @@ public class MIPMapFloat {
             dst1 = dst1.scale(scale);
             minorLength *= scale;
         }
-        if (minorLength == 0) return triangle(0, st);
+        TextureCache.TileCursor cursor = cursor();
+        if (minorLength == 0) return triangle(cursor, 0, st);
 
         // Choose level of detail for EWA lookup and perform EWA filtering
         float lod = Math.max(0, Levels() - 1 + Pbrt.Log2(minorLength));
         int ilod = (int)Math.floor(lod);
-        return Pbrt.Lerp(lod - ilod, EWA(ilod, st, dst0, dst1),
-                EWA(ilod + 1, st, dst0, dst1));
+        return Pbrt.Lerp(lod - ilod, EWA(cursor, ilod, st, dst0, dst1),
+                EWA(cursor, ilod + 1, st, dst0, dst1));
     }
 
-    private MIPMapSpectrum.ResampleWeight[] resampleWeights(int oldRes, int newRes) {
-        assert(newRes >= oldRes);
-
-        MIPMapSpectrum.ResampleWeight[] wt = new MIPMapSpectrum.ResampleWeight[newRes];
-        float filterwidth = 2;
-        for (int i = 0; i < newRes; ++i) {
-            // Compute image resampling weights for _i_th texel
-            float center = (i + .5f) * oldRes / newRes;
-            wt[i].firstTexel = (int)Math.floor((center - filterwidth) + 0.5);
-            for (int j = 0; j < 4; ++j) {
-                float pos = wt[i].firstTexel + j + .5f;
-                wt[i].weight[j] = Texture.Lanczos((pos - center) / filterwidth, 2);
-            }
-
-            // Normalize filter weights for texel resampling
-            float invSumWts = 1 / (wt[i].weight[0] + wt[i].weight[1] + wt[i].weight[2] + wt[i].weight[3]);
-            for (int j = 0; j < 4; ++j) wt[i].weight[j] *= invSumWts;
+    // Initialize EWA filter weights if needed
+    private static void InitWeightLut() {
+        if (weightLut[0] != 0) return;
+        for (int i = 0; i < WeightLUTSize; ++i) {
+            float alpha = 2;
+            float r2 = (float)i / (float)(WeightLUTSize - 1);
+            weightLut[i] = (float)(Math.exp(-alpha * r2) - Math.exp(-alpha));
         }
-        return wt;
     }
 
-    private float triangle(int level, Point2f st) {
+    private float triangle(TextureCache.TileCursor cursor, int level, Point2f st) {
         level = Pbrt.Clamp(level, 0, Levels() - 1);
-        float s = st.x * pyramid.get(level).uSize() - 0.5f;
-        float t = st.y * pyramid.get(level).vSize() - 0.5f;
+        float s = st.x * levelWidth(level) - 0.5f;
+        float t = st.y * levelHeight(level) - 0.5f;
         int s0 = (int)Math.floor(s), t0 = (int)Math.floor(t);
         float ds = s - s0, dt = t - t0;
-
-        return (1 - ds) * (1 - dt) * Texel(level, s0, t0) +
-                (1 - ds) * dt * Texel(level, s0, t0 + 1) +
-                ds * (1 - dt) * Texel(level, s0 + 1, t0) +
-                ds * dt * Texel(level, s0 + 1, t0 + 1);
+        return (1 - ds) * (1 - dt) * Texel(cursor, level, s0, t0) +
+                (1 - ds) * dt * Texel(cursor, level, s0, t0 + 1) +
+                ds * (1 - dt) * Texel(cursor, level, s0 + 1, t0) +
+                ds * dt * Texel(cursor, level, s0 + 1, t0 + 1);
     }
 
-    private float EWA(int level, Point2f st, Vector2f dst0, Vector2f dst1) {
-        if (level >= Levels()) return Texel(Levels() - 1, 0, 0);
+    private float EWA(TextureCache.TileCursor cursor, int level, Point2f st, Vector2f dst0, Vector2f dst1) {
+        if (level >= Levels()) return Texel(cursor, Levels() - 1, 0, 0);
         // Convert EWA coordinates to appropriate scale for level
-        st.x = st.x * pyramid.get(level).uSize() - 0.5f;
-        st.y = st.y * pyramid.get(level).vSize() - 0.5f;
-        dst0.x *= pyramid.get(level).uSize();
-        dst0.y *= pyramid.get(level).vSize();
-        dst1.x *= pyramid.get(level).uSize();
-        dst1.y *= pyramid.get(level).vSize();
+        int uSize = levelWidth(level), vSize = levelHeight(level);
+        float sc = st.x * uSize - 0.5f, tc = st.y * vSize - 0.5f;
+        float dst0x = dst0.x * uSize, dst0y = dst0.y * vSize;
+        float dst1x = dst1.x * uSize, dst1y = dst1.y * vSize;
 
         // Compute ellipse coefficients to bound EWA filter region
-        float A = dst0.y * dst0.y + dst1.y * dst1.y + 1;
-        float B = -2 * (dst0.x * dst0.y + dst1.x * dst1.y);
-        float C = dst0.x * dst0.x + dst1.x * dst1.x + 1;
+        float A = dst0y * dst0y + dst1y * dst1y + 1;
+        float B = -2 * (dst0x * dst0y + dst1x * dst1y);
+        float C = dst0x * dst0x + dst1x * dst1x + 1;
         float invF = 1 / (A * C - B * B * 0.25f);
         A *= invF;
         B *= invF;
@@ -254,25 +222,24 @@ public class MIPMapFloat {
         float det = -B * B + 4 * A * C;
         float invDet = 1 / det;
         float uSqrt = (float)Math.sqrt(det * C), vSqrt = (float)Math.sqrt(A * det);
-        int s0 = (int)Math.ceil(st.x - 2 * invDet * uSqrt);
-        int s1 = (int)Math.floor(st.x + 2 * invDet * uSqrt);
-        int t0 = (int)Math.ceil(st.y - 2 * invDet * vSqrt);
-        int t1 = (int)Math.floor(st.y + 2 * invDet * vSqrt);
-
+        int s0 = (int)Math.ceil(sc - 2 * invDet * uSqrt);
+        int s1 = (int)Math.floor(sc + 2 * invDet * uSqrt);
+        int t0 = (int)Math.ceil(tc - 2 * invDet * vSqrt);
+        int t1 = (int)Math.floor(tc + 2 * invDet * vSqrt);
 
         // Scan over ellipse bound and compute quadratic equation
-        float sum = black;
+        float sum = 0;
         float sumWts = 0;
         for (int it = t0; it <= t1; ++it) {
-            float tt = it - st.y;
+            float tt = it - tc;
             for (int is = s0; is <= s1; ++is) {
-                float ss = is - st.x;
+                float ss = is - sc;
                 // Compute squared radius and filter texel if inside ellipse
                 float r2 = A * ss * ss + B * ss * tt + C * tt * tt;
                 if (r2 < 1) {
                     int index = Math.min((int)(r2 * WeightLUTSize), WeightLUTSize - 1);
                     float weight = weightLut[index];
-                    sum += Texel(level, is, it) * weight;
+                    sum += Texel(cursor, level, is, it) * weight;
                     sumWts += weight;
                 }
             }
@@ -285,8 +252,9 @@ public class MIPMapFloat {
     private final Texture.ImageWrap wrapMode;
     private final float black;
     private Point2i resolution;
-    ArrayList<BlockedArray> pyramid;
+    ArrayList<FloatBlockedArray> pyramid;
+    private final TextureCache.CachedTexture tiles;
     private static final int WeightLUTSize = 128;
     private static float[] weightLut = new float[WeightLUTSize];
 
-}
\ No newline at end of file
+}
@@ -10,6 +10,7 @@
 package org.pbrt.core;
 
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 public class MIPMapSpectrum {
 
@@ -18,135 +19,133 @@ public class MIPMapSpectrum {
         public float[] weight = { 0, 0, 0, 0 };
     }
 
-    public MIPMapSpectrum(Point2i resolution, Spectrum[] data, boolean doTri, float maxAniso, Texture.ImageWrap wrapMode, Spectrum black){
+    public MIPMapSpectrum(Point2i resolution, Spectrum[] data, boolean doTri, float maxAniso, Texture.ImageWrap wrapMode, Spectrum black) {
+        this(resolution, data, doTri, maxAniso, wrapMode, black, false);
+    }
+
+    // With _halfTexels_ the pyramid is stored as half floats, clamped to
+    // the half range.
+    public MIPMapSpectrum(Point2i resolution, Spectrum[] data, boolean doTri, float maxAniso, Texture.ImageWrap wrapMode, Spectrum black, boolean halfTexels) {
         this.doTrilinear = doTri;
         this.maxAnisotropy = maxAniso;
         this.wrapMode = wrapMode;
         this.resolution = new Point2i(resolution);
         this.black = black;
+        this.tiles = null;
 
-        Spectrum[] resampledImage = null;
+        float[] texels = new float[resolution.x * resolution.y * 3];
+        for (int i = 0; i < resolution.x * resolution.y; ++i)
+            for (int c = 0; c < 3; ++c) texels[3 * i + c] = data[i].at(c);
         if (!Pbrt.IsPowerOf2(resolution.x) || !Pbrt.IsPowerOf2(resolution.y)) {
             // Resample image to power-of-two resolution
             Point2i resPow2 = new Point2i(Pbrt.RoundUpPow2(resolution.x), Pbrt.RoundUpPow2(resolution.y));
             PBrtTLogger.Info("Resampling MIPMap from %s to %s. Ratio = %f", resolution.toString(), resPow2.toString(), (float)(resPow2.x * resPow2.y) / (float)(resolution.x * resolution.y));
-            // Resample image in $s$ direction
-            ResampleWeight[] sWeights = resampleWeights(resolution.x, resPow2.x);
-            resampledImage = new Spectrum[resPow2.x * resPow2.y];
-
-            // Apply _sWeights_ to zoom in $s$ direction
-            for (int t = 0; t < resolution.y; t++) {
-                for (int s = 0; s < resPow2.x; ++s) {
-                    // Compute texel $(s,t)$ in $s$-zoomed image
-                    resampledImage[t * resPow2.x + s] = black;
-                    for (int j = 0; j < 4; ++j) {
-                        int origS = sWeights[s].firstTexel + j;
-                        if (wrapMode == Texture.ImageWrap.Repeat)
-                            origS = Pbrt.Mod(origS, resolution.x);
-                        else if (wrapMode == Texture.ImageWrap.Clamp)
-                            origS = Pbrt.Clamp(origS, 0, resolution.x - 1);
-                        if (origS >= 0 && origS < resolution.x) {
-                            Spectrum pixel = resampledImage[t * resPow2.x + s];
-                            resampledImage[t * resPow2.x + s] = pixel.add(data[t * resolution.x + origS].scale(sWeights[s].weight[j]));
-                        }
-                    }
-                }
-            }
-
-            // Resample image in $t$ direction
-            ResampleWeight[] tWeights = resampleWeights(resolution.y, resPow2.y);
-            Spectrum[] workData = new Spectrum[resolution.y * resolution.y];
-            for (int s = 0; s < resPow2.x; s++) {
-                for (int t = 0; t < resPow2.y; ++t) {
-                    workData[t] = black;
-                    for (int j = 0; j < 4; ++j) {
-                        int offset = tWeights[t].firstTexel + j;
-                        if (wrapMode == Texture.ImageWrap.Repeat)
-                            offset = Pbrt.Mod(offset, resolution.y);
-                        else if (wrapMode == Texture.ImageWrap.Clamp)
-                            offset = Pbrt.Clamp(offset, 0, resolution.y - 1);
-                        if (offset >= 0 && offset < resolution.y) {
-                            Spectrum pixel = resampledImage[offset * resPow2.x + s];
-                            Spectrum workPixel = workData[t];
-                            workData[t] = workPixel.add(pixel.scale(tWeights[t].weight[j]));
-                        }
-                    }
-                }
-                for (int t = 0; t < resPow2.y; ++t) {
-                    Spectrum workPixel = workData[t];
-                    resampledImage[t * resPow2.x + s] = workPixel.clamp(0, Pbrt.Infinity);
-                }
-            }
+            texels = Resample(texels, resolution.x, resolution.y, resPow2.x, resPow2.y, 3, wrapMode);
             resolution = resPow2;
         }
-        else {
-            resampledImage = new Spectrum[resolution.x * resolution.y];
-            for (int s = 0; s < resolution.x; s++) {
-                for (int t = 0; t < resolution.y; t++) {
-                    resampledImage[t * resolution.x + s] = data[t * resolution.x + s];
-                }
-            }
-        }
+
         // Initialize levels of MIPMap from image
         int nLevels = 1 + Pbrt.Log2Int(Math.max(resolution.x, resolution.y));
         this.pyramid = new ArrayList<>(nLevels);
 
         // Initialize most detailed level of MIPMap
-        int logBlockSize = 4;
-        pyramid.add(new BlockedArray(resolution.x, resolution.y, logBlockSize, resampledImage));
+        pyramid.add(new FloatBlockedArray(resolution.x, resolution.y, 3, LogBlockSize, halfTexels, texels));
         for (int i = 1; i < nLevels; ++i) {
             // Initialize $i$th MIPMap level from $i-1$st level
-            int sRes = Math.max(1, pyramid.get(i - 1).uSize() / 2);
-            int tRes = Math.max(1, pyramid.get(i - 1).vSize() / 2);
-            pyramid.add(new BlockedArray(sRes, tRes, logBlockSize, null));
-
-            // Filter four texels from finer level of pyramid
-            for (int t = 0; t < tRes; t++) {
+            final int fine = i - 1;
+            int sRes = Math.max(1, pyramid.get(fine).uSize() / 2);
+            int tRes = Math.max(1, pyramid.get(fine).vSize() / 2);
+            FloatBlockedArray level = new FloatBlockedArray(sRes, tRes, 3, LogBlockSize, halfTexels, null);
+
+            // Filter four texels from finer level of pyramid, a row at a time
+            ParallelRows((Long row) -> {
+                int t = row.intValue();
+                float[] sum = new float[3];
                 for (int s = 0; s < sRes; ++s) {
-                    pyramid.get(i).set(s, t, (Texel(i - 1, 2 * s, 2 * t).add(Texel(i - 1, 2 * s + 1, 2 * t)).add(Texel(i - 1, 2 * s, 2 * t + 1)).add(
-                            Texel(i - 1, 2 * s + 1, 2 * t + 1))).scale(0.25f));
+                    sum[0] = sum[1] = sum[2] = 0;
+                    addTexel(null, fine, 2 * s, 2 * t, .25f, sum);
+                    addTexel(null, fine, 2 * s + 1, 2 * t, .25f, sum);
+                    addTexel(null, fine, 2 * s, 2 * t + 1, .25f, sum);
+                    addTexel(null, fine, 2 * s + 1, 2 * t + 1, .25f, sum);
+                    for (int c = 0; c < 3; ++c) level.set(s, t, c, sum[c]);
                 }
-            }
+            }, tRes, 12 * sRes);
+            pyramid.add(level);
         }
 
-        // Initialize EWA filter weights if needed
-        if (weightLut[0] == 0) {
-            for (int i = 0; i < WeightLUTSize; ++i) {
-                float alpha = 2;
-                float r2 = (float)i / (float)(WeightLUTSize - 1);
-                weightLut[i] = (float)(Math.exp(-alpha * r2) - Math.exp(-alpha));
-            }
-        }
-        mipMapMemory.increment((4 * resolution.x * resolution.y * 4*3) / 3);
+        InitWeightLut();
+        long bytes = 0;
+        for (FloatBlockedArray level : pyramid) bytes += level.MemoryBytes();
+        mipMapMemory.increment(bytes);
     }
 
     public MIPMapSpectrum(Point2i resolution, Spectrum[] data, Spectrum black) {
         this(resolution, data, false, 8, Texture.ImageWrap.Repeat, black);
     }
 
+    // MIPMap whose levels are tiles in a TextureCache, filtered and loaded on
+    // demand rather than built here
+    public MIPMapSpectrum(TextureCache.CachedTexture tiles, boolean doTri, float maxAniso, Texture.ImageWrap wrapMode, Spectrum black) {
+        this.doTrilinear = doTri;
+        this.maxAnisotropy = maxAniso;
+        this.wrapMode = wrapMode;
+        this.black = black;
+        this.tiles = tiles;
+        this.resolution = new Point2i(tiles.Width(0), tiles.Height(0));
+        this.pyramid = null;
+        InitWeightLut();
+    }
+
     public int Width() { return resolution.x; }
     public int Height() { return resolution.y; }
-    public int Levels(){ return pyramid.size(); }
+    public int Levels() { return (tiles != null) ? tiles.Levels() : pyramid.size(); }
+    private int levelWidth(int level) { return (tiles != null) ? tiles.Width(level) : pyramid.get(level).uSize(); }
+    private int levelHeight(int level) { return (tiles != null) ? tiles.Height(level) : pyramid.get(level).vSize(); }
+    // Cursor for the tile lookups of one filter footprint
+    private TextureCache.TileCursor cursor() { return (tiles != null) ? tiles.Cursor() : null; }
+
     public Spectrum Texel(int level, int s, int t) {
-        assert(level < pyramid.size());
-        BlockedArray l = pyramid.get(level);
+        float[] rgb = new float[3];
+        addTexel(cursor(), level, s, t, 1, rgb);
+        return Spectrum.FromRGB(rgb);
+    }
+
+    // Add _weight_ times texel $(s,t)$ of _level_ to _sum_; _cursor_ finds
+    // the texel's tile when the levels are cached
+    private void addTexel(TextureCache.TileCursor cursor, int level, int s, int t, float weight, float[] sum) {
+        assert(level < Levels());
+        int uSize = levelWidth(level), vSize = levelHeight(level);
         // Compute texel $(s,t)$ accounting for boundary conditions
         switch (wrapMode) {
             case Repeat:
-                s = Pbrt.Mod(s, l.uSize());
-                t = Pbrt.Mod(t, l.vSize());
+                s = Pbrt.Mod(s, uSize);
+                t = Pbrt.Mod(t, vSize);
                 break;
             case Clamp:
-                s = Pbrt.Clamp(s, 0, l.uSize() - 1);
-                t = Pbrt.Clamp(t, 0, l.vSize() - 1);
+                s = Pbrt.Clamp(s, 0, uSize - 1);
+                t = Pbrt.Clamp(t, 0, vSize - 1);
                 break;
             case Black: {
-                if (s < 0 || s >= l.uSize() || t < 0 || t >= l.vSize())
-                    return black;
+                if (s < 0 || s >= uSize || t < 0 || t >= vSize) {
+                    for (int c = 0; c < 3; ++c) sum[c] += weight * black.at(c);
+                    return;
+                }
                 break;
             }
         }
-        return (Spectrum)l.at(s, t);
+        if (tiles != null) {
+            TextureCache.Tile tile = tiles.Tile(cursor, level, s >> TextureCache.LogTileSize, t >> TextureCache.LogTileSize);
+            int o = tiles.TexelOffset(level, s, t);
+            if (tiles.Channels() == 1) {
+                float v = tile.get(o);
+                for (int c = 0; c < 3; ++c) sum[c] += weight * v;
+            } else
+                for (int c = 0; c < 3; ++c) sum[c] += weight * tile.get(o + c);
+        } else {
+            FloatBlockedArray l = pyramid.get(level);
+            int o = l.Index(s, t);
+            for (int c = 0; c < 3; ++c) sum[c] += weight * l.get(o + c);
+        }
     }
 
     public Spectrum Lookup(Point2f st, float width) {
@@ -156,15 +155,19 @@ public class MIPMapSpectrum {
         float level = Levels() - 1 + Pbrt.Log2((float)Math.max(width, 1e-8));
 
         // Perform trilinear interpolation at appropriate MIPMap level
+        float[] rgb = new float[3];
+        TextureCache.TileCursor cursor = cursor();
         if (level < 0)
-            return triangle(0, st);
+            triangle(cursor, 0, st, 1, rgb);
         else if (level >= Levels() - 1)
-            return Texel(Levels() - 1, 0, 0);
+            addTexel(cursor, Levels() - 1, 0, 0, 1, rgb);
         else {
             int iLevel = (int)Math.floor(level);
             float delta = level - iLevel;
-            return triangle(iLevel, st).lerp(delta, triangle(iLevel + 1, st));
+            triangle(cursor, iLevel, st, 1 - delta, rgb);
+            triangle(cursor, iLevel + 1, st, delta, rgb);
         }
+        return Spectrum.FromRGB(rgb);
     }
     public Spectrum Lookup(Point2f st) {
         return this.Lookup(st, 0);
@@ -195,15 +198,38 @@ public class MIPMapSpectrum {
             dst1 = dst1.scale(scale);
             minorLength *= scale;
         }
-        if (minorLength == 0) return triangle(0, st);
+        float[] rgb = new float[3];
+        TextureCache.TileCursor cursor = cursor();
+        if (minorLength == 0) {
+            triangle(cursor, 0, st, 1, rgb);
+            return Spectrum.FromRGB(rgb);
+        }
 
         // Choose level of detail for EWA lookup and perform EWA filtering
         float lod = Math.max(0, Levels() - 1 + Pbrt.Log2(minorLength));
         int ilod = (int)Math.floor(lod);
-        return EWA(ilod, st, dst0, dst1).lerp(lod - ilod, EWA(ilod + 1, st, dst0, dst1));
+        EWA(cursor, ilod, st, dst0, dst1, 1 - (lod - ilod), rgb);
+        EWA(cursor, ilod + 1, st, dst0, dst1, lod - ilod, rgb);
+        return Spectrum.FromRGB(rgb);
     }
 
-    private ResampleWeight[] resampleWeights(int oldRes, int newRes) {
+    // Initialize EWA filter weights if needed
+    private static void InitWeightLut() {
+        if (weightLut[0] != 0) return;
+        for (int i = 0; i < WeightLUTSize; ++i) {
+            float alpha = 2;
+            float r2 = (float)i / (float)(WeightLUTSize - 1);
+            weightLut[i] = (float)(Math.exp(-alpha * r2) - Math.exp(-alpha));
+        }
+    }
+
+    // Copy of the EWA filter weights, for files that record them
+    static float[] WeightLUT() {
+        InitWeightLut();
+        return weightLut.clone();
+    }
+
+    static ResampleWeight[] resampleWeights(int oldRes, int newRes) {
         assert(newRes >= oldRes);
 
         ResampleWeight[] wt = new ResampleWeight[newRes];
@@ -225,30 +251,89 @@ public class MIPMapSpectrum {
         return wt;
     }
 
-    private Spectrum triangle(int level, Point2f st) {
+    // Resample _nc_-channel interleaved texels to a larger resolution with
+    // a Lanczos filter, one dimension at a time; rows are independent in
+    // each pass and are resampled in parallel.
+    static float[] Resample(float[] data, int xRes, int yRes, int newX, int newY, int nc, Texture.ImageWrap wrapMode) {
+        // Resample image in $s$ direction
+        ResampleWeight[] sWeights = resampleWeights(xRes, newX);
+        float[] zoomed = new float[newX * yRes * nc];
+        ParallelRows((Long row) -> {
+            int t = row.intValue();
+            for (int s = 0; s < newX; ++s)
+                for (int j = 0; j < 4; ++j) {
+                    int origS = wrapTexel(sWeights[s].firstTexel + j, xRes, wrapMode);
+                    if (origS < 0) continue;
+                    float w = sWeights[s].weight[j];
+                    for (int c = 0; c < nc; ++c)
+                        zoomed[(t * newX + s) * nc + c] += w * data[(t * xRes + origS) * nc + c];
+                }
+        }, yRes, 4 * newX * nc);
+
+        // Resample image in $t$ direction
+        ResampleWeight[] tWeights = resampleWeights(yRes, newY);
+        float[] result = new float[newX * newY * nc];
+        final int rowSize = newX * nc;
+        ParallelRows((Long row) -> {
+            int t = row.intValue();
+            for (int j = 0; j < 4; ++j) {
+                int origT = wrapTexel(tWeights[t].firstTexel + j, yRes, wrapMode);
+                if (origT < 0) continue;
+                float w = tWeights[t].weight[j];
+                for (int i = 0; i < rowSize; ++i)
+                    result[t * rowSize + i] += w * zoomed[origT * rowSize + i];
+            }
+            for (int i = t * rowSize; i < (t + 1) * rowSize; ++i) result[i] = Math.max(0, result[i]);
+        }, newY, 4 * rowSize);
+        return result;
+    }
+
+    // Run _rowFunc_ for rows [0, nRows), in parallel once there is enough
+    // work to pay for it; _rowWork_ is the number of texel operations per row.
+    static void ParallelRows(Consumer<Long> rowFunc, int nRows, int rowWork) {
+        Parallel.ParallelFor(rowFunc, nRows, Math.max(1, 65536 / Math.max(1, rowWork)));
+    }
+
+    // Map a texel index outside [0, res) according to the wrap mode, or
+    // return -1 if it falls on the black border
+    private static int wrapTexel(int i, int res, Texture.ImageWrap wrapMode) {
+        if (wrapMode == Texture.ImageWrap.Repeat)
+            return Pbrt.Mod(i, res);
+        else if (wrapMode == Texture.ImageWrap.Clamp)
+            return Pbrt.Clamp(i, 0, res - 1);
+        return (i >= 0 && i < res) ? i : -1;
+    }
+
+    // Add _weight_ times the bilinearly interpolated value at _st_ to _sum_
+    private void triangle(TextureCache.TileCursor cursor, int level, Point2f st, float weight, float[] sum) {
         level = Pbrt.Clamp(level, 0, Levels() - 1);
-        float s = st.x * pyramid.get(level).uSize() - 0.5f;
-        float t = st.y * pyramid.get(level).vSize() - 0.5f;
+        float s = st.x * levelWidth(level) - 0.5f;
+        float t = st.y * levelHeight(level) - 0.5f;
         int s0 = (int)Math.floor(s), t0 = (int)Math.floor(t);
         float ds = s - s0, dt = t - t0;
 
-        return Texel(level, s0, t0).scale((1 - ds) * (1 - dt)).add(Texel(level, s0, t0 + 1).scale((1 - ds) * dt).add(Texel(level, s0 + 1, t0).scale(ds * (1 - dt)).add(Texel(level, s0 + 1, t0 + 1).scale(ds * dt))));
+        addTexel(cursor, level, s0, t0, weight * (1 - ds) * (1 - dt), sum);
+        addTexel(cursor, level, s0, t0 + 1, weight * (1 - ds) * dt, sum);
+        addTexel(cursor, level, s0 + 1, t0, weight * ds * (1 - dt), sum);
+        addTexel(cursor, level, s0 + 1, t0 + 1, weight * ds * dt, sum);
     }
-    
-    private Spectrum EWA(int level, Point2f st, Vector2f dst0, Vector2f dst1) {
-        if (level >= Levels()) return Texel(Levels() - 1, 0, 0);
+
+    // Add _weight_ times the EWA-filtered value at _st_ to _sum_
+    private void EWA(TextureCache.TileCursor cursor, int level, Point2f st, Vector2f dst0, Vector2f dst1, float weight, float[] sum) {
+        if (level >= Levels()) {
+            addTexel(cursor, Levels() - 1, 0, 0, weight, sum);
+            return;
+        }
         // Convert EWA coordinates to appropriate scale for level
-        st.x = st.x * pyramid.get(level).uSize() - 0.5f;
-        st.y = st.y * pyramid.get(level).vSize() - 0.5f;
-        dst0.x *= pyramid.get(level).uSize();
-        dst0.y *= pyramid.get(level).vSize();
-        dst1.x *= pyramid.get(level).uSize();
-        dst1.y *= pyramid.get(level).vSize();
+        int uSize = levelWidth(level), vSize = levelHeight(level);
+        float sc = st.x * uSize - 0.5f, tc = st.y * vSize - 0.5f;
+        float dst0x = dst0.x * uSize, dst0y = dst0.y * vSize;
+        float dst1x = dst1.x * uSize, dst1y = dst1.y * vSize;
 
         // Compute ellipse coefficients to bound EWA filter region
-        float A = dst0.y * dst0.y + dst1.y * dst1.y + 1;
-        float B = -2 * (dst0.x * dst0.y + dst1.x * dst1.y);
-        float C = dst0.x * dst0.x + dst1.x * dst1.x + 1;
+        float A = dst0y * dst0y + dst1y * dst1y + 1;
+        float B = -2 * (dst0x * dst0y + dst1x * dst1y);
+        float C = dst0x * dst0x + dst1x * dst1x + 1;
         float invF = 1 / (A * C - B * B * 0.25f);
         A *= invF;
         B *= invF;
@@ -258,30 +343,29 @@ public class MIPMapSpectrum {
         float det = -B * B + 4 * A * C;
         float invDet = 1 / det;
         float uSqrt = (float)Math.sqrt(det * C), vSqrt = (float)Math.sqrt(A * det);
-        int s0 = (int)Math.ceil(st.x - 2 * invDet * uSqrt);
-        int s1 = (int)Math.floor(st.x + 2 * invDet * uSqrt);
-        int t0 = (int)Math.ceil(st.y - 2 * invDet * vSqrt);
-        int t1 = (int)Math.floor(st.y + 2 * invDet * vSqrt);
-
+        int s0 = (int)Math.ceil(sc - 2 * invDet * uSqrt);
+        int s1 = (int)Math.floor(sc + 2 * invDet * uSqrt);
+        int t0 = (int)Math.ceil(tc - 2 * invDet * vSqrt);
+        int t1 = (int)Math.floor(tc + 2 * invDet * vSqrt);
 
         // Scan over ellipse bound and compute quadratic equation
-        Spectrum sum = black;
+        float[] ewaSum = new float[3];
         float sumWts = 0;
         for (int it = t0; it <= t1; ++it) {
-            float tt = it - st.y;
+            float tt = it - tc;
             for (int is = s0; is <= s1; ++is) {
-                float ss = is - st.x;
+                float ss = is - sc;
                 // Compute squared radius and filter texel if inside ellipse
                 float r2 = A * ss * ss + B * ss * tt + C * tt * tt;
                 if (r2 < 1) {
                     int index = Math.min((int)(r2 * WeightLUTSize), WeightLUTSize - 1);
-                    float weight = weightLut[index];
-                    sum = sum.add(Texel(level, is, it).scale(weight));
-                    sumWts += weight;
+                    float w = weightLut[index];
+                    addTexel(cursor, level, is, it, w, ewaSum);
+                    sumWts += w;
                 }
             }
         }
-        return sum.scale(1 / sumWts);
+        for (int c = 0; c < 3; ++c) sum[c] += weight * ewaSum[c] / sumWts;
     }
 
     private final boolean doTrilinear;
@@ -289,11 +373,13 @@ public class MIPMapSpectrum {
     private final Texture.ImageWrap wrapMode;
     private final Spectrum black;
     private Point2i resolution;
-    ArrayList<BlockedArray> pyramid;
+    ArrayList<FloatBlockedArray> pyramid;
+    private final TextureCache.CachedTexture tiles;
+    static final int LogBlockSize = 2;
     private static final int WeightLUTSize = 128;
     private static float[] weightLut = new float[WeightLUTSize];
 
     public static Stats.Counter nEWALookups = new Stats.Counter("Texture/EWA lookups");
     public static Stats.Counter nTrilerpLookups = new Stats.Counter("Texture/Trilinear lookups");
     public static Stats.MemoryCounter mipMapMemory = new Stats.MemoryCounter("Memory/Texture MIP maps");
-}
\ No newline at end of file
+}
@@ -17,7 +17,24 @@ public abstract class Material {
         Importance
     }
 
-    public abstract void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes);
+    // Number of the material in creation order, from 1
+    public final int id = nextId.incrementAndGet();
+    private static final java.util.concurrent.atomic.AtomicInteger nextId = new java.util.concurrent.atomic.AtomicInteger();
+
+    public abstract void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes);
+
+    // Scattering functions at the wavelengths of a spectral camera sample.
+    // Materials without a spectral implementation fall back to their RGB
+    // BSDF, whose values are then upsampled; subsurface scattering is
+    // ignored.
+    public SpectralBSDF ComputeSpectralScatteringFunctions(SurfaceInteraction si, SampledWavelengths lambda,
+                                                           MemoryArena arena, TransportMode mode) {
+        if (rgbFallbacks.add(getClass()))
+            PBrtTLogger.Warning("%s has no spectral implementation; its RGB BSDF will be upsampled.", getClass().getSimpleName());
+        ComputeScatteringFunctions(si, arena, mode, true);
+        return (si.bsdf != null) ? SpectralBSDF.Upsampled(si, si.bsdf, lambda, arena) : null;
+    }
+    private static final java.util.Set<Class<?>> rgbFallbacks = java.util.concurrent.ConcurrentHashMap.newKeySet();
 
     public static void Bump(TextureFloat d, SurfaceInteraction si) {
         // Compute offset positions and evaluate displacement texture
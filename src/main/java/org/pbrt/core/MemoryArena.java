@@ -0,0 +1,116 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+// Java stand-in for pbrt's MemoryArena.  Instead of bump-allocating raw
+// memory, the arena keeps pools of the short-lived objects that are created
+// for every path vertex and hands them out again after Reset().  An arena is
+// owned by a single worker (one per tile or per Markov chain) and is never
+// shared between threads.
+public class MemoryArena {
+
+    private static class Pool<T> {
+        Pool(Supplier<T> ctor) {
+            this.ctor = ctor;
+        }
+
+        T Alloc() {
+            if (next == items.size()) items.add(ctor.get());
+            return items.get(next++);
+        }
+
+        void Reset() {
+            next = 0;
+        }
+
+        int Capacity() { return items.size(); }
+
+        private final Supplier<T> ctor;
+        private final ArrayList<T> items = new ArrayList<>();
+        private int next = 0;
+    }
+
+    // MemoryArena Public Methods
+    public MemoryArena() {}
+
+    public BSDF AllocBSDF(SurfaceInteraction si, float eta) {
+        BSDF bsdf = bsdfs.Alloc();
+        bsdf.Init(si, eta, this);
+        return bsdf;
+    }
+
+    public BxDF.BxDFSample AllocBxDFSample() {
+        BxDF.BxDFSample sample = samples.Alloc();
+        sample.pdf = 0;
+        sample.sampledType = BxDF.BSDF_NONE;
+        return sample;
+    }
+
+    public Spectrum AllocSpectrum() {
+        return spectra.Alloc().setTo(0);
+    }
+
+    public Vector3f AllocVector3f() {
+        return vectors.Alloc();
+    }
+
+    // The spectral counterparts, for spectral camera samples
+    public SampledWavelengths AllocSampledWavelengths(float u) {
+        return wavelengths.Alloc().SetUniform(u);
+    }
+
+    public SpectralBSDF AllocSpectralBSDF(SurfaceInteraction si, float eta) {
+        SpectralBSDF bsdf = spectralBsdfs.Alloc();
+        bsdf.Init(si, eta, this);
+        return bsdf;
+    }
+
+    public SpectralBxDF.SpectralSample AllocSpectralSample() {
+        SpectralBxDF.SpectralSample sample = spectralSamples.Alloc();
+        sample.f.setTo(0);
+        sample.pdf = 0;
+        sample.sampledType = BxDF.BSDF_NONE;
+        return sample;
+    }
+
+    public SampledSpectrum AllocSampledSpectrum(float v) {
+        return sampledSpectra.Alloc().setTo(v);
+    }
+
+    public void Reset() {
+        bsdfs.Reset();
+        samples.Reset();
+        spectra.Reset();
+        vectors.Reset();
+        wavelengths.Reset();
+        spectralBsdfs.Reset();
+        spectralSamples.Reset();
+        sampledSpectra.Reset();
+    }
+
+    // Number of pooled objects retained by the arena
+    public int TotalPooled() {
+        return bsdfs.Capacity() + samples.Capacity() + spectra.Capacity() + vectors.Capacity() +
+                wavelengths.Capacity() + spectralBsdfs.Capacity() + spectralSamples.Capacity() + sampledSpectra.Capacity();
+    }
+
+    // MemoryArena Private Data
+    private final Pool<BSDF> bsdfs = new Pool<>(BSDF::new);
+    private final Pool<BxDF.BxDFSample> samples = new Pool<>(BxDF.BxDFSample::new);
+    private final Pool<Spectrum> spectra = new Pool<>(() -> new Spectrum(0));
+    private final Pool<Vector3f> vectors = new Pool<>(Vector3f::new);
+    private final Pool<SampledWavelengths> wavelengths = new Pool<>(SampledWavelengths::new);
+    private final Pool<SpectralBSDF> spectralBsdfs = new Pool<>(SpectralBSDF::new);
+    private final Pool<SpectralBxDF.SpectralSample> spectralSamples = new Pool<>(SpectralBxDF.SpectralSample::new);
+    private final Pool<SampledSpectrum> sampledSpectra = new Pool<>(() -> new SampledSpectrum(0));
+}
@@ -46,6 +46,50 @@ public class Normal3f {
         return new Normal3f(-x, -y, -z);
     }
 
+    // In-place operations; see Vector3f.
+    public Normal3f set(float xx, float yy, float zz) {
+        x = xx;
+        y = yy;
+        z = zz;
+        return this;
+    }
+    public Normal3f set(Normal3f n) {
+        return set(n.x, n.y, n.z);
+    }
+    public Normal3f set(Vector3f v) {
+        return set(v.x, v.y, v.z);
+    }
+
+    // this += n
+    public Normal3f increment(Normal3f n) {
+        assert (!n.HasNaNs());
+        x += n.x;
+        y += n.y;
+        z += n.z;
+        return this;
+    }
+
+    // this += n * s
+    public Normal3f fma(Normal3f n, float s) {
+        assert (!n.HasNaNs());
+        x += n.x * s;
+        y += n.y * s;
+        z += n.z * s;
+        return this;
+    }
+
+    public Normal3f scaleInPlace(float s) {
+        x *= s;
+        y *= s;
+        z *= s;
+        return this;
+    }
+
+    public Normal3f normalizeInPlace() {
+        float inv = 1.0f / Length();
+        return scaleInPlace(inv);
+    }
+
 
     public Normal3f add(Normal3f n) {
         assert (!n.HasNaNs());
@@ -17,6 +17,22 @@ public class Options {
     public boolean Cat = false;
     public boolean ToPly = false;
     public String ImageFile;
+    // Memory budget of the shared texture tile cache
+    public long TextureCacheMB = 1024;
+    // Directory of pre-filtered tiled textures converted from image files
+    public String TiledTextureDir = "";
+    // Compression of EXR output ("none", "zip" or "zips") and whether its
+    // channels are stored as (lossy) half floats rather than full floats
+    public String ExrCompression = "zip";
+    public boolean ExrHalf = false;
+    // Size in pixels of the image tiles rendered in parallel, and the order
+    // they're rendered in ("rowmajor", "spiral", "morton" or "hilbert")
+    public int TileSize = 16;
+    public String TileOrder = "hilbert";
+    // Seconds between checkpoints of the render in progress (0 disables
+    // them) and whether to resume from the last checkpoint
+    public float CheckpointInterval = 0;
+    public boolean Resume = false;
     // x0, x1, y0, y1
     public float[][] CropWindow = { {0, 1}, {0, 1}};
 }
\ No newline at end of file
@@ -11,6 +11,7 @@ package org.pbrt.core;
 
 import java.util.ArrayList;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 public class Parallel {
@@ -18,44 +19,25 @@ public class Parallel {
     public static void ParallelFor(Consumer<Long> func, long count, int chunkSize) {
 
         // Run iterations immediately if _count_ is small
-        if (MaxThreadIndex() == 1 || count < chunkSize) {
+        if (count < chunkSize || MaxThreadIndex() == 1) {
             for (long i = 0; i < count; ++i) func.accept(i);
             return;
         }
 
-        ExecutorService pool = Executors.newFixedThreadPool(MaxThreadIndex());
-
         final long numChunks = (count + chunkSize - 1) / chunkSize;
 
-        ArrayList<Future> futures = new ArrayList();
+        ArrayList<Runnable> tasks = new ArrayList<>();
         for (long i = 0; i < numChunks; i++) {
             final long startIndex = i * chunkSize;
             final long endIndex = Math.min(startIndex+chunkSize, count);
             Runnable task1D = () -> {
-                //System.out.format("Iteration: %d to %d\n", startIndex, endIndex);
                 for (long ii = startIndex; ii < endIndex; ii++) {
                     func.accept(ii);
                 }
             };
-            Future future = pool.submit(task1D);
-            futures.add(future);
-        }
-
-        for (Future ff : futures) {
-            try {
-                ff.get();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
-        try {
-            pool.shutdown();
-            pool.awaitTermination(1000, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            e.printStackTrace();
+            tasks.add(task1D);
         }
+        RunAll(tasks);
     }
 
     public static void ParallelFor2D(Consumer<Point2i> func, Point2i count) {
@@ -66,43 +48,121 @@ public class Parallel {
             return;
         }
 
-        ExecutorService pool = Executors.newFixedThreadPool(MaxThreadIndex());
-
-        final long chunkSize = 1;
         final long numChunks = count.x * count.y;
 
-        ArrayList<Future> futures = new ArrayList();
+        ArrayList<Runnable> tasks = new ArrayList<>();
         for (long i = 0; i < numChunks; i++) {
-            final long startIndex = i * chunkSize;
-            final long endIndex = startIndex+chunkSize;
-            Runnable task2D = () -> {
-                for (long ii = startIndex; ii < endIndex; ii++) {
-                    func.accept(new Point2i((int)(ii % count.x), (int)(ii / count.x)));
+            final long index = i;
+            Runnable task2D = () -> func.accept(new Point2i((int)(index % count.x), (int)(index / count.x)));
+            tasks.add(task2D);
+        }
+        RunAll(tasks);
+    }
+
+    // Run _tasks_ on the shared worker pool and wait for all of them.  When
+    // called from one of the pool's own workers, e.g. by a loop nested in
+    // another loop, the tasks are forked and the caller helps run them
+    // while it waits, so nesting neither deadlocks nor starts new threads;
+    // loops started from other threads, such as texture loaders running
+    // on the _Async()_ pool, share the same workers.  If any task throws,
+    // the tasks that haven't started yet are skipped and, once the others
+    // have finished, the first exception is rethrown to the caller, as it
+    // would be if the loop had run on the calling thread.
+    private static void RunAll(ArrayList<Runnable> work) {
+        ForkJoinPool pool = WorkerPool();
+        boolean nested = ForkJoinTask.getPool() == pool;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(work.size());
+        for (Runnable run : work) {
+            ForkJoinTask<?> task = ForkJoinTask.adapt(() -> {
+                if (failure.get() != null) return;
+                try {
+                    run.run();
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
                 }
-            };
-            Future future = pool.submit(task2D);
-            futures.add(future);
+            });
+            tasks.add(task);
+            if (nested) task.fork();
+            else pool.execute(task);
         }
+        for (ForkJoinTask<?> task : tasks) task.join();
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException) throw (RuntimeException)e;
+        if (e != null) throw (Error)e;
+    }
 
-        for (Future ff : futures) {
-            try {
-                ff.get();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
+    // The pool is sized from the current options and made again if the
+    // thread count changes between renders.
+    private static synchronized ForkJoinPool WorkerPool() {
+        int nThreads = MaxThreadIndex();
+        if (workerPool == null || workerPool.getParallelism() != nThreads) {
+            if (workerPool != null) workerPool.shutdown();
+            workerPool = new ForkJoinPool(nThreads);
+        }
+        return workerPool;
+    }
+
+    // Run _func_ on a shared pool of worker threads, so that work such as
+    // loading a texture can overlap with parsing the rest of the scene.
+    // With a single thread it runs immediately.
+    public static <T> Future<T> Async(Callable<T> func) {
+        if (MaxThreadIndex() == 1) {
+            FutureTask<T> task = new FutureTask<>(func);
+            task.run();
+            return task;
         }
+        return AsyncPool().submit(func);
+    }
+
+    // Wait for the result of _Async()_, rethrowing anything it threw.  A
+    // worker of the shared pool that has to wait tells the pool it is
+    // blocked, so that another thread can run the tasks the result may
+    // depend on, such as the parallel loops of a texture loader.
+    public static <T> T Await(Future<T> future) {
         try {
-            pool.shutdown();
-            pool.awaitTermination(1000, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (!future.isDone() && ForkJoinTask.inForkJoinPool()) {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    public boolean block() throws InterruptedException {
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            // Rethrown by the get() below
+                        }
+                        return true;
+                    }
+                    public boolean isReleasable() {
+                        return future.isDone();
+                    }
+                });
+            }
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error) throw (Error)e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static synchronized ExecutorService AsyncPool() {
+        if (asyncPool == null) {
+            asyncPool = Executors.newFixedThreadPool(MaxThreadIndex(), (Runnable r) -> {
+                Thread thread = new Thread(r, "pbrt-async");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return asyncPool;
     }
 
+    private static ExecutorService asyncPool;
+    private static ForkJoinPool workerPool;
+
     public static int MaxThreadIndex() {
-        return (Pbrt.options.NumThreads == 0) ? NumSystemCores() : Pbrt.options.NumThreads;
+        return (Pbrt.options == null || Pbrt.options.NumThreads <= 0) ? NumSystemCores() : Pbrt.options.NumThreads;
     }
 
     public static int NumSystemCores() {
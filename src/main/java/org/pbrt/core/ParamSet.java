@@ -117,10 +117,12 @@ public class ParamSet {
     public void AddSampledSpectrumFiles(String name, String[] filenames, int nValues) {
         EraseSpectrum(name);
         Spectrum[] s = new Spectrum[nValues];
+        TabulatedSpectrum[] t = new TabulatedSpectrum[nValues];
         for (int i = 0; i < nValues; ++i) {
             String fn = FileUtil.AbsolutePath(FileUtil.ResolveFilename(filenames[i]));
             if (cachedSpectra.containsKey(fn)) {
                 s[i] = cachedSpectra.get(fn);
+                t[i] = cachedMeasuredSpectra.get(fn);
                 continue;
             }
 
@@ -128,6 +130,7 @@ public class ParamSet {
             if (vals == null) {
                 PBrtTLogger.Warning("Unable to read SPD file \"%s\".  Using black distribution.", fn);
                 s[i] = new Spectrum(0);
+                t[i] = TabulatedSpectrum.Constant(0);
             }
             else {
                 if (vals.length % 2 != 0) {
@@ -139,12 +142,15 @@ public class ParamSet {
                     v[j] = vals[2 * j + 1];
                 }
                 s[i] = Spectrum.FromSampled(wls, v);
+                t[i] = TabulatedSpectrum.FromSampled(wls, v);
             }
             cachedSpectra.put(fn, s[i]);
+            cachedMeasuredSpectra.put(fn, t[i]);
         }
 
         ParamSetItem<Spectrum> psi = new ParamSetItem<>(name, s);
         spectra.add(psi);
+        measuredSpectra.add(new ParamSetItem<>(name, t));
     }
 
     public void AddSampledSpectrum(String name, Float[] values) {
@@ -160,6 +166,7 @@ public class ParamSet {
         Spectrum[] s = new Spectrum[1];
         s[0] = Spectrum.FromSampled(wl, v);
         spectra.add(new ParamSetItem<>(name, s));
+        measuredSpectra.add(new ParamSetItem<>(name, new TabulatedSpectrum[] { TabulatedSpectrum.FromSampled(wl, v) }));
     }
 
     public boolean EraseInt(String name) {
@@ -243,6 +250,7 @@ public class ParamSet {
     }
 
     public boolean EraseSpectrum(String name) {
+        measuredSpectra.removeIf(item -> Objects.equals(item.Name, name));
         for (int i = 0; i < spectra.size(); ++i) {
             if (Objects.equals(spectra.get(i).Name, name)) {
                 spectra.remove(i);
@@ -362,6 +370,16 @@ public class ParamSet {
         return d;
     }
 
+    // The measurements a spectrum parameter was given as, tabulated for
+    // spectral rendering, or null if it was given some other way
+    public TabulatedSpectrum FindOneMeasuredSpectrum(String name) {
+        for (ParamSetItem<TabulatedSpectrum> cur : measuredSpectra) {
+            if (Objects.equals(cur.Name, name) && cur.Values.length == 1)
+                return cur.Values[0];
+        }
+        return null;
+    }
+
     public String FindOneString(String name, String d) {
         for (ParamSetItem<String> cur : strings) {
             if (Objects.equals(cur.Name, name) && cur.Values.length == 1) {
@@ -557,6 +575,7 @@ public class ParamSet {
         vector3fs.clear();
         normals.clear();
         spectra.clear();
+        measuredSpectra.clear();
         strings.clear();
         textures.clear();
     }
@@ -740,6 +759,7 @@ public class ParamSet {
         this.vector3fs = new ArrayList<>(ps.vector3fs);
         this.normals = new ArrayList<>(ps.normals);
         this.spectra = new ArrayList<>(ps.spectra);
+        this.measuredSpectra = new ArrayList<>(ps.measuredSpectra);
         this.strings = new ArrayList<>(ps.strings);
         this.textures = new ArrayList<>(ps.textures);
     }
@@ -757,8 +777,10 @@ public class ParamSet {
     private ArrayList<ParamSetItem<Vector3f>> vector3fs = new ArrayList<>(1);
     private ArrayList<ParamSetItem<Normal3f>> normals = new ArrayList<>(1);
     private ArrayList<ParamSetItem<Spectrum>> spectra = new ArrayList<>(1);
+    private ArrayList<ParamSetItem<TabulatedSpectrum>> measuredSpectra = new ArrayList<>(1);
     private ArrayList<ParamSetItem<String>> strings = new ArrayList<>(1);
     private ArrayList<ParamSetItem<String>> textures = new ArrayList<>(1);
 
     private static HashMap<String, Spectrum> cachedSpectra = new HashMap<>();
+    private static HashMap<String, TabulatedSpectrum> cachedMeasuredSpectra = new HashMap<>();
 }
\ No newline at end of file
@@ -10,6 +10,10 @@
 
 package org.pbrt.core;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Objects;
 import org.apache.commons.lang3.NotImplementedException;
@@ -65,6 +69,7 @@ public class Parser {
     public static final int WORLDEND = 85;
 
     public static boolean ParseFile(String filename) {
+        HashFile(filename);
         try {
             Yylex scanner = new Yylex( new java.io.FileReader(filename) );
             /*
@@ -84,6 +89,35 @@ public class Parser {
         return true;
     }
 
+    // Hash of the contents of the scene files parsed so far, included files
+    // too, so that a render checkpoint can tell a changed scene apart.
+    // Files the scene refers to, like meshes and textures, aren't part of it.
+    // It's only computed when checkpoints are written or resumed from.
+    public static long SceneHash() { return sceneHash; }
+
+    // Start a new hash, for the files of the next render
+    public static void ResetSceneHash() { sceneHash = InitialSceneHash; }
+
+    // Add the contents of _filename_ to the hash, a buffer at a time
+    private static void HashFile(String filename) {
+        if (Pbrt.options == null || (Pbrt.options.CheckpointInterval <= 0 && !Pbrt.options.Resume)) return;
+        long hash = sceneHash, length = 0;
+        try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+            byte[] buf = new byte[HashBufferSize];
+            for (int n; (n = in.read(buf)) > 0; length += n)
+                for (int i = 0; i < n; ++i) hash = (hash ^ (buf[i] & 0xff)) * 0x100000001b3L;
+        } catch (IOException | RuntimeException e) {
+            // Reported when the file is parsed
+            return;
+        }
+        sceneHash = Pbrt.MixBits(hash ^ length);
+    }
+
+    private static final int HashBufferSize = 1 << 16;
+
+    private static final long InitialSceneHash = 0xcbf29ce484222325L;
+    private static long sceneHash = InitialSceneHash;
+
     public static class PbrtParameter {
 
         public String type;
@@ -125,11 +159,21 @@ public class Parser {
                 }
             }
             else if (Objects.equals(param.type, "bool")) {
-                if (param.value instanceof ArrayList) {
-                    final ArrayList<Boolean> blist = (ArrayList<Boolean>)param.value;
+                // Values may be given as the strings "true" and "false"
+                if (param.value instanceof ArrayList || param.value instanceof String || param.value instanceof Boolean) {
+                    final ArrayList<Object> blist = new ArrayList<>();
+                    if (param.value instanceof ArrayList) blist.addAll((ArrayList<Object>)param.value);
+                    else blist.add(param.value);
                     Boolean[] barray = new Boolean[blist.size()];
                     for (int i = 0; i < barray.length; i++) {
-                        barray[i] = blist.get(i);
+                        Object v = blist.get(i);
+                        if (v instanceof Boolean) barray[i] = (Boolean)v;
+                        else if (Objects.equals(v, "true")) barray[i] = true;
+                        else {
+                            if (!Objects.equals(v, "false"))
+                                PBrtTLogger.Error("Value \"%s\" unknown for Boolean parameter \"%s\". Using \"false\".", v, param.name);
+                            barray[i] = false;
+                        }
                     }
                     pset.AddBoolean(param.name, barray);
                 }
@@ -629,6 +673,7 @@ public class Parser {
     private void parseInclude(ArrayList<TokenValue> command) {
         assert(command.size() == 2);
         String filename = command.get(1).value;
+        HashFile(filename);
         try {
             scanner.yyreset(new java.io.FileReader(filename));
         }
@@ -118,6 +118,16 @@ public class Pbrt
         return Integer.numberOfTrailingZeros(x);
     }
         
+    // Thoroughly mix the bits of _v_; a 64-bit hash finalizer
+    public static long MixBits(long v) {
+        v ^= (v >>> 31);
+        v *= 0x7fb5d329728ea185L;
+        v ^= (v >>> 27);
+        v *= 0x81dadef4bc2dd44dL;
+        v ^= (v >>> 33);
+        return v;
+    }
+
     public static int FindInterval(int size, Predicate<Integer> pred) {
         int first = 0, len = size;
         while (len > 0) {
@@ -187,6 +197,41 @@ public class Pbrt
         return Float.intBitsToFloat(ui);
     }
 
+    // IEEE 754 half-precision conversion, rounding to nearest even
+    public static short FloatToHalf(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int val = bits & 0x7fffffff;
+        // NaN and infinity; magnitudes of 65536 and up overflow to infinity
+        if (val > 0x7f800000) return (short)(sign | 0x7e00);
+        if (val >= 0x47800000) return (short)(sign | 0x7c00);
+        if (val < 0x38800000) {
+            // Result is denormalized, or zero below $2^{-25}$
+            if (val < 0x33000000) return (short)sign;
+            int shift = 126 - (val >>> 23);
+            int m = (val & 0x7fffff) | 0x800000;
+            int h = m >>> shift, rem = m & ((1 << shift) - 1), halfway = 1 << (shift - 1);
+            if (rem > halfway || (rem == halfway && (h & 1) != 0)) ++h;
+            return (short)(sign | h);
+        }
+        // Rebias the exponent; a carry out of the mantissa rounds up into
+        // the exponent, and into infinity above 65504
+        int h = (val - 0x38000000) >>> 13, rem = val & 0x1fff;
+        if (rem > 0x1000 || (rem == 0x1000 && (h & 1) != 0)) ++h;
+        return (short)(sign | h);
+    }
+
+    public static float HalfToFloat(short h) {
+        int sign = (h & 0x8000) << 16;
+        int exp = (h >>> 10) & 0x1f, mant = h & 0x3ff;
+        if (exp == 0) {
+            float v = mant * 0x1p-24f;
+            return (sign != 0) ? -v : v;
+        }
+        if (exp == 31) return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+        return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+    }
+
     public static double NextFloatUp(double v, int delta) {
         if (Double.isInfinite(v) && v > 0.0) return v;
         if (v == -0.0) v = 0.0;
@@ -58,6 +58,41 @@ public class PixelSampler extends Sampler {
             return new Point2f(rng.UniformFloat(), rng.UniformFloat());
     }
 
+    // The samples for the whole pixel are computed in StartPixel(), so the
+    // bulk methods are copies out of the per-pixel tables
+    @Override
+    public void Get1D(float[] dst, int offset, int n) {
+        assert (currentPixelSampleIndex < samplesPerPixel);
+        int i = 0;
+        for (; i < n && current1DDimension < samples1D.length; ++i)
+            dst[offset + i] = samples1D[current1DDimension++][currentPixelSampleIndex];
+        for (; i < n; ++i)
+            dst[offset + i] = rng.UniformFloat();
+    }
+
+    @Override
+    public void GetSamples1D(int dimension, int firstSample, int n, float[] dst, int offset) {
+        assert (firstSample + n <= samplesPerPixel);
+        if (dimension < samples1D.length)
+            System.arraycopy(samples1D[dimension], firstSample, dst, offset, n);
+        else
+            for (int i = 0; i < n; ++i) dst[offset + i] = rng.UniformFloat();
+    }
+
+    @Override
+    public Point2f Get2D(Point2f dst) {
+        assert (currentPixelSampleIndex < samplesPerPixel);
+        if (current2DDimension < samples2D.length) {
+            Point2f p = samples2D[current2DDimension++][currentPixelSampleIndex];
+            dst.x = p.x;
+            dst.y = p.y;
+        } else {
+            dst.x = rng.UniformFloat();
+            dst.y = rng.UniformFloat();
+        }
+        return dst;
+    }
+
     @Override
     public Sampler Clone(int seed) {
         return new PixelSampler(this.samples1D[0].length, this.samples1D.length);
@@ -47,17 +47,39 @@ public class Point3f {
         assert (!p.HasNaNs());
         return new Point3f(x + p.x, y + p.y, z + p.z);
     }
-    public void increment(Vector3f v) {
+    public Point3f increment(Vector3f v) {
         assert !v.HasNaNs();
         x += v.x;
         y += v.y;
         z += v.z;
+        return this;
     }
-    public void increment(Point3f p) {
+    public Point3f increment(Point3f p) {
         assert !p.HasNaNs();
         x += p.x;
         y += p.y;
         z += p.z;
+        return this;
+    }
+
+    // In-place operations; see Vector3f.
+    public Point3f set(float xx, float yy, float zz) {
+        x = xx;
+        y = yy;
+        z = zz;
+        return this;
+    }
+    public Point3f set(Point3f p) {
+        return set(p.x, p.y, p.z);
+    }
+
+    // this += v * s
+    public Point3f fma(Vector3f v, float s) {
+        assert !v.HasNaNs();
+        x += v.x * s;
+        y += v.y * s;
+        z += v.z * s;
+        return this;
     }
 
     public Vector3f subtract(Point3f p) {
@@ -88,7 +110,7 @@ public class Point3f {
     public void set(int i, float v) {
         assert (i >= 0 && i <= 2);
         if (i == 0) x = v;
-        if (i == 1) y = v;
+        else if (i == 1) y = v;
         else z = v;
     }
     public boolean equal(Point3f p) {
@@ -113,11 +135,12 @@ public class Point3f {
     }
 
     public static float Distance(Point3f p1, Point3f p2) {
-        return (p1.subtract(p2)).Length();
+        return (float)Math.sqrt(DistanceSquared(p1, p2));
     }
 
     public static float DistanceSquared(Point3f p1, Point3f p2) {
-        return (p1.subtract(p2)).LengthSquared();
+        float dx = p1.x - p2.x, dy = p1.y - p2.y, dz = p1.z - p2.z;
+        return dx * dx + dy * dy + dz * dz;
     }
 
     public static Point3f Lerp(float t, Point3f p0, Point3f p1) {
@@ -150,18 +173,17 @@ public class Point3f {
 
     public static Point3f OffsetRayOrigin(Point3f p,  Vector3f pError,
                                 Normal3f n,  Vector3f w) {
-        float d = Normal3f.Dot(Normal3f.Abs(n), pError);
-        Vector3f offset = new Vector3f(n.scale(d));
-        if (Normal3f.Dot(w, n) < 0) offset = offset.negate();
-        Point3f po = p.add(offset);
+        float d = Math.abs(n.x) * pError.x + Math.abs(n.y) * pError.y + Math.abs(n.z) * pError.z;
+        if (Normal3f.Dot(w, n) < 0) d = -d;
+        float ox = d * n.x, oy = d * n.y, oz = d * n.z;
         // Round offset point _po_ away from _p_
-        for (int i = 0; i < 3; ++i) {
-            if (offset.at(i) > 0)
-                po.set(i, Math.nextUp(po.at(i)));
-            else if (offset.at(i) < 0)
-                po.set(i, Math.nextDown(po.at(i)));
-        }
-        return po;
+        return new Point3f(RoundAway(p.x + ox, ox), RoundAway(p.y + oy, oy), RoundAway(p.z + oz, oz));
+    }
+
+    private static float RoundAway(float v, float offset) {
+        if (offset > 0) return Math.nextUp(v);
+        if (offset < 0) return Math.nextDown(v);
+        return v;
     }
 
 }
\ No newline at end of file
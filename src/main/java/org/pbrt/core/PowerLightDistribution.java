@@ -17,9 +17,9 @@ public class PowerLightDistribution extends LightDistribution {
     }
 
     @Override
-    public Distribution1D Lookup(Point3f p) {
+    public DiscreteDistribution1D Lookup(Point3f p) {
         return distrib;
     }
 
-    private Distribution1D distrib;
+    private DiscreteDistribution1D distrib;
 }
\ No newline at end of file
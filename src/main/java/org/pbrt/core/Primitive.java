@@ -17,5 +17,5 @@ public abstract class Primitive {
     public abstract boolean IntersectP(Ray r);
     public abstract AreaLight GetAreaLight();
     public abstract Material GetMaterial();
-    public abstract void ComputeScatteringFunctions(SurfaceInteraction isect, Material.TransportMode mode, boolean allowMultipleLobes);
+    public abstract void ComputeScatteringFunctions(SurfaceInteraction isect, MemoryArena arena, Material.TransportMode mode, boolean allowMultipleLobes);
 }
\ No newline at end of file
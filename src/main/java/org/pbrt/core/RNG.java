@@ -9,34 +9,107 @@
 
 package org.pbrt.core;
 
-import java.util.Random;
-
+// PCG32 random number generator (O'Neill, pcg-random.org), matching pbrt's
+// RNG bit for bit.  Java has no unsigned integers; the 64-bit state is kept in
+// a long and the 32-bit outputs are returned as ints holding the unsigned
+// bits, so use Integer.toUnsignedLong() where the numeric value matters.
 public class RNG {
 
-    private Random random;
-
     public static final double DoubleOneMinusEpsilon = 0x1.fffffffffffffp-1;
     public static final float FloatOneMinusEpsilon = 0x1.fffffep-1f;
 
     private static final long PCG32_DEFAULT_STATE = 0x853c49e6748fea9bL;
+    private static final long PCG32_DEFAULT_STREAM = 0xda3e39cb94b95bdbL;
+    private static final long PCG32_MULT = 0x5851f42d4c957f2dL;
 
     // RNG Public Methods
     public RNG() {
-        this.random = new Random(PCG32_DEFAULT_STATE);
+        this.state = PCG32_DEFAULT_STATE;
+        this.inc = PCG32_DEFAULT_STREAM;
     }
     public RNG(long sequenceIndex) {
-        this.random = new Random(sequenceIndex);
+        SetSequence(sequenceIndex);
     }
-    public void SetSequence(long sequenceIndex) {
-        random.setSeed(sequenceIndex);
+    public RNG(RNG rng) {
+        this.state = rng.state;
+        this.inc = rng.inc;
+    }
+
+    // Select one of 2^63 independent streams
+    public void SetSequence(long initseq) {
+        state = 0;
+        inc = (initseq << 1) | 1;
+        UniformUInt32();
+        state += PCG32_DEFAULT_STATE;
+        UniformUInt32();
     }
+
     public int UniformUInt32() {
-        return random.nextInt();
+        long oldstate = state;
+        state = oldstate * PCG32_MULT + inc;
+        int xorshifted = (int)(((oldstate >>> 18) ^ oldstate) >>> 27);
+        int rot = (int)(oldstate >>> 59);
+        return Integer.rotateRight(xorshifted, rot);
     }
+
+    // Uniformly distributed value in [0, b), for b interpreted as unsigned
     public int UniformUInt32(int b) {
-        return random.nextInt(b);
+        int threshold = Integer.remainderUnsigned(-b, b);
+        while (true) {
+            int r = UniformUInt32();
+            if (Integer.compareUnsigned(r, threshold) >= 0) return Integer.remainderUnsigned(r, b);
+        }
+    }
+
+    public long UniformUInt64() {
+        long hi = Integer.toUnsignedLong(UniformUInt32());
+        return (hi << 32) | Integer.toUnsignedLong(UniformUInt32());
     }
+
     public float UniformFloat() {
-        return Math.min(Pbrt.OneMinusEpsilon, random.nextFloat());
+        return Math.min(FloatOneMinusEpsilon, Integer.toUnsignedLong(UniformUInt32()) * 0x1p-32f);
+    }
+
+    // Uniform double in [0, 1) with the full 53 bits of precision
+    public double UniformDouble() {
+        return (UniformUInt64() >>> 11) * 0x1p-53;
+    }
+
+    // Skip ahead (or back, for negative _idelta_) in O(log idelta) time
+    public void Advance(long idelta) {
+        long curMult = PCG32_MULT, curPlus = inc, accMult = 1, accPlus = 0;
+        long delta = idelta;
+        while (delta != 0) {
+            if ((delta & 1) != 0) {
+                accMult *= curMult;
+                accPlus = accPlus * curMult + curPlus;
+            }
+            curPlus = (curMult + 1) * curPlus;
+            curMult *= curMult;
+            delta >>>= 1;
+        }
+        state = accMult * state + accPlus;
+    }
+
+    // Number of steps from _other_ to this generator; both must use the same
+    // sequence
+    public long Distance(RNG other) {
+        assert (inc == other.inc);
+        long curMult = PCG32_MULT, curPlus = inc, curState = other.state;
+        long theBit = 1, distance = 0;
+        while (state != curState) {
+            if ((state & theBit) != (curState & theBit)) {
+                curState = curState * curMult + curPlus;
+                distance |= theBit;
+            }
+            assert ((state & theBit) == (curState & theBit));
+            theBit <<= 1;
+            curPlus = (curMult + 1) * curPlus;
+            curMult *= curMult;
+        }
+        return distance;
     }
-}
\ No newline at end of file
+
+    // RNG Private Data
+    private long state, inc;
+}
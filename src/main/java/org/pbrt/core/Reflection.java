@@ -49,7 +49,7 @@ public class Reflection {
         Spectrum eta2 = eta.multiply(eta);
         Spectrum etak2 = etak.multiply(etak);
 
-        Spectrum t0 = eta2.subtract(etak2.subtract(new Spectrum(sinThetaI2)));
+        Spectrum t0 = eta2.subtract(etak2).subtract(new Spectrum(sinThetaI2));
         Spectrum a2plusb2 = Spectrum.Sqrt(t0.multiply(t0).add(eta2.multiply(etak2).scale(4)));
         Spectrum t1 = a2plusb2.add(new Spectrum(cosThetaI2));
         Spectrum a = Spectrum.Sqrt((a2plusb2.add(t0)).scale(0.5f));
@@ -58,11 +58,36 @@ public class Reflection {
 
         Spectrum t3 = (a2plusb2.scale(cosThetaI2)).add(new Spectrum(sinThetaI2 * sinThetaI2));
         Spectrum t4 = t2.scale(sinThetaI2);
-        Spectrum Rp = Rs.multiply((t3.add(t4)).divide(t3.add(t4)));
+        Spectrum Rp = Rs.multiply((t3.subtract(t4)).divide(t3.add(t4)));
 
         return (Rp.add(Rs)).scale(0.5f);
     }
 
+    // FrConductor() at a single wavelength
+    public static float FrConductor(float cosThetaI, float etai, float etat, float k) {
+        cosThetaI = Pbrt.Clamp(cosThetaI, -1, 1);
+        float eta = etat / etai;
+        float etak = k / etai;
+
+        float cosThetaI2 = cosThetaI * cosThetaI;
+        float sinThetaI2 = 1 - cosThetaI2;
+        float eta2 = eta * eta;
+        float etak2 = etak * etak;
+
+        float t0 = eta2 - etak2 - sinThetaI2;
+        float a2plusb2 = (float)Math.sqrt(t0 * t0 + 4 * eta2 * etak2);
+        float t1 = a2plusb2 + cosThetaI2;
+        float a = (float)Math.sqrt(0.5f * (a2plusb2 + t0));
+        float t2 = 2 * cosThetaI * a;
+        float Rs = (t1 - t2) / (t1 + t2);
+
+        float t3 = cosThetaI2 * a2plusb2 + sinThetaI2 * sinThetaI2;
+        float t4 = t2 * sinThetaI2;
+        float Rp = Rs * (t3 - t4) / (t3 + t4);
+
+        return 0.5f * (Rp + Rs);
+    }
+
     // BSDF Inline Functions
     public static float CosTheta(Vector3f w) {
         return w.z;
@@ -122,7 +147,7 @@ public class Reflection {
         // Handle total internal reflection for transmission
         if (sin2ThetaT >= 1) return null;
         float cosThetaT = (float)Math.sqrt(1 - sin2ThetaT);
-        return (wi.negate().add(new Vector3f(n).scale(eta * cosThetaI - cosThetaT))).scale(eta);
+        return wi.negate().scale(eta).add(new Vector3f(n).scale(eta * cosThetaI - cosThetaT));
     }
 
     public static boolean SameHemisphere(Vector3f w, Vector3f wp) {
@@ -0,0 +1,183 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Future;
+
+// Periodic checkpoint of a render in progress, so that a render that is
+// killed can be resumed.  A checkpoint holds the film's accumulated pixel
+// state and the number of work items (e.g. image tiles) whose results are
+// in it.  A resumed render only finishes with exactly the same image if the
+// renderer adds work items to the film in a fixed order and renders each
+// one deterministically, independently of the others and of thread
+// scheduling; anything built lazily while rendering, like per-voxel light
+// distributions, must come out the same whichever thread builds it.  A
+// fingerprint of the render's settings and of the contents of the scene
+// files guards against resuming from the checkpoint of a different render;
+// changes to the meshes, textures and other files the scene refers to
+// aren't detected.
+//
+// The file is the magic number, version, fingerprint, number of completed
+// work items and number of floats, followed by the film state, all
+// little-endian.  Checkpoints are written in the background to a
+// temporary file that then replaces the previous checkpoint.
+public class RenderCheckpoint {
+
+    public RenderCheckpoint(Film film, long fingerprint) {
+        this.filename = film.filename + ".checkpoint";
+        this.fingerprint = fingerprint;
+        this.interval = (long)(Pbrt.options.CheckpointInterval * 1e9);
+        this.lastSave = System.nanoTime();
+    }
+
+    public String Filename() { return filename; }
+
+    // If resuming is enabled and there is a matching checkpoint, restore the
+    // film from it and return the number of completed work items; otherwise
+    // return 0.
+    public int Restore(Film film) {
+        if (!Pbrt.options.Resume) return 0;
+        Path path = Paths.get(filename);
+        if (!Files.exists(path)) {
+            PBrtTLogger.Warning("No checkpoint \"%s\" to resume from. Starting from the beginning.", filename);
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = Read(channel, 0, HeaderBytes);
+            if (header.getInt() != Magic || header.getInt() != Version)
+                throw new IOException("not a checkpoint file");
+            if (header.getLong() != fingerprint) {
+                PBrtTLogger.Warning("Checkpoint \"%s\" was written by a different render. Starting from the beginning.", filename);
+                return 0;
+            }
+            int completed = header.getInt();
+            int nFloats = header.getInt();
+            if (nFloats != film.croppedPixelBounds.Area() * film.StateFloatsPerPixel() || completed < 0)
+                throw new IOException("film state doesn't match the film");
+            float[] state = new float[nFloats];
+            long position = HeaderBytes;
+            for (int o = 0; o < nFloats; ) {
+                int n = Math.min(nFloats - o, BlockFloats);
+                Read(channel, position, 4 * n).asFloatBuffer().get(state, o, n);
+                o += n;
+                position += 4L * n;
+            }
+            film.SetPixelState(state);
+            PBrtTLogger.Info("Resuming from checkpoint \"%s\" with %d work items done", filename, completed);
+            return completed;
+        } catch (IOException e) {
+            PBrtTLogger.Error("Unable to read checkpoint \"%s\": %s. Starting from the beginning.", filename, e.getMessage());
+            return 0;
+        }
+    }
+
+    // Whether it's time for another checkpoint and the last one has been
+    // written
+    public boolean Due() {
+        if (interval <= 0 || System.nanoTime() - lastSave < interval) return false;
+        return pending == null || pending.isDone();
+    }
+
+    // Save the film state with _completed_ work items in it.  The state is
+    // copied here, so the caller must not let other threads add to the film
+    // during the call; it is written in the background.
+    public void Save(Film film, int completed) {
+        float[] state = film.GetPixelState();
+        lastSave = System.nanoTime();
+        lastCompleted = completed;
+        pending = Parallel.Async(() -> Write(state, completed));
+    }
+
+    // Once a render has failed, save a last checkpoint with the _completed_
+    // work items the film holds, if there are more than in the previous
+    // one, and wait for it to be written; the file is kept so the render
+    // can be resumed.  No other thread may add to the film any more.
+    public void Fail(Film film, int completed) {
+        if (interval > 0 && completed > lastCompleted) Save(film, completed);
+        if (pending != null) Parallel.Await(pending);
+        pending = null;
+    }
+
+    // Wait for any checkpoint being written and remove the checkpoint file,
+    // once the render has finished
+    public void Finish() {
+        if (pending != null) Parallel.Await(pending);
+        pending = null;
+        try {
+            Files.deleteIfExists(Paths.get(filename));
+        } catch (IOException e) {
+            PBrtTLogger.Warning("Unable to remove checkpoint \"%s\": %s", filename, e.getMessage());
+        }
+    }
+
+    private boolean Write(float[] state, int completed) {
+        Path path = Paths.get(filename).toAbsolutePath();
+        Path temp = Paths.get(path + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocate(4 * BlockFloats).order(ByteOrder.LITTLE_ENDIAN);
+                buf.putInt(Magic).putInt(Version).putLong(fingerprint).putInt(completed).putInt(state.length);
+                for (int o = 0; o <= state.length; ) {
+                    int n = Math.min(state.length - o, buf.remaining() / 4);
+                    buf.asFloatBuffer().put(state, o, n);
+                    buf.position(buf.position() + 4 * n);
+                    o += n;
+                    buf.flip();
+                    while (buf.hasRemaining()) channel.write(buf);
+                    buf.clear();
+                    if (o == state.length) break;
+                }
+                channel.force(false);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            nCheckpoints.increment();
+            return true;
+        } catch (IOException e) {
+            PBrtTLogger.Error("Unable to write checkpoint \"%s\": %s", filename, e.getMessage());
+            return false;
+        }
+    }
+
+    private static ByteBuffer Read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining())
+            if (channel.read(buf, position + buf.position()) < 0) throw new IOException("truncated file");
+        buf.flip();
+        return buf;
+    }
+
+    // RenderCheckpoint Private Data
+    private static final int Magic = 0x4b434250; // "PBCK"
+    private static final int Version = 1;
+    private static final int HeaderBytes = 24;
+    private static final int BlockFloats = 1 << 18;
+    private final String filename;
+    private final long fingerprint;
+    private final long interval;
+    private long lastSave;
+    private int lastCompleted = 0;
+    private Future<Boolean> pending;
+
+    private static Stats.Counter nCheckpoints = new Stats.Counter("Render/Checkpoints written");
+}
@@ -0,0 +1,137 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// Spectral values at the SampledWavelengths carried by a single camera
+// sample.  The four samples are stored in scalar fields, like the RGB
+// coefficients of Spectrum, so spectral transport costs about as much per
+// operation as RGB transport.
+public final class SampledSpectrum {
+
+    public static final int nSamples = SampledWavelengths.nSamples;
+
+    private float v0, v1, v2, v3;
+
+    public SampledSpectrum(float v) {
+        v0 = v1 = v2 = v3 = v;
+    }
+    public SampledSpectrum(SampledSpectrum s) {
+        v0 = s.v0;
+        v1 = s.v1;
+        v2 = s.v2;
+        v3 = s.v3;
+    }
+
+    public float at(int i) {
+        assert (i >= 0 && i < nSamples);
+        switch (i) {
+            case 0: return v0;
+            case 1: return v1;
+            case 2: return v2;
+            default: return v3;
+        }
+    }
+    public void set(int i, float v) {
+        assert (i >= 0 && i < nSamples);
+        switch (i) {
+            case 0: v0 = v; break;
+            case 1: v1 = v; break;
+            case 2: v2 = v; break;
+            default: v3 = v; break;
+        }
+    }
+
+    public SampledSpectrum setTo(SampledSpectrum s) {
+        v0 = s.v0;
+        v1 = s.v1;
+        v2 = s.v2;
+        v3 = s.v3;
+        return this;
+    }
+    public SampledSpectrum setTo(float v) {
+        v0 = v1 = v2 = v3 = v;
+        return this;
+    }
+
+    // this += s
+    public SampledSpectrum addInPlace(SampledSpectrum s) {
+        v0 += s.v0;
+        v1 += s.v1;
+        v2 += s.v2;
+        v3 += s.v3;
+        return this;
+    }
+
+    // this *= s
+    public SampledSpectrum multiplyInPlace(SampledSpectrum s) {
+        v0 *= s.v0;
+        v1 *= s.v1;
+        v2 *= s.v2;
+        v3 *= s.v3;
+        return this;
+    }
+
+    // this *= a
+    public SampledSpectrum scaleInPlace(float a) {
+        v0 *= a;
+        v1 *= a;
+        v2 *= a;
+        v3 *= a;
+        return this;
+    }
+
+    // this *= f * scale
+    public SampledSpectrum mulScaleInPlace(SampledSpectrum f, float scale) {
+        v0 *= f.v0 * scale;
+        v1 *= f.v1 * scale;
+        v2 *= f.v2 * scale;
+        v3 *= f.v3 * scale;
+        return this;
+    }
+
+    // this += a * b
+    public SampledSpectrum mulAdd(SampledSpectrum a, SampledSpectrum b) {
+        v0 += a.v0 * b.v0;
+        v1 += a.v1 * b.v1;
+        v2 += a.v2 * b.v2;
+        v3 += a.v3 * b.v3;
+        return this;
+    }
+
+    // this += a * (b * scale)
+    public SampledSpectrum mulAdd(SampledSpectrum a, SampledSpectrum b, float scale) {
+        v0 += a.v0 * (b.v0 * scale);
+        v1 += a.v1 * (b.v1 * scale);
+        v2 += a.v2 * (b.v2 * scale);
+        v3 += a.v3 * (b.v3 * scale);
+        return this;
+    }
+
+    public boolean isBlack() {
+        return v0 == 0 && v1 == 0 && v2 == 0 && v3 == 0;
+    }
+
+    public boolean hasNaNs() {
+        return Float.isNaN(v0) || Float.isNaN(v1) || Float.isNaN(v2) || Float.isNaN(v3);
+    }
+
+    public float maxComponentValue() {
+        return Math.max(Math.max(v0, v1), Math.max(v2, v3));
+    }
+
+    public float average() {
+        return (v0 + v1 + v2 + v3) / nSamples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[ %f, %f, %f, %f ]", v0, v1, v2, v3);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// Hero-wavelength sampling for spectral rendering.  Each camera sample
+// carries nSamples wavelengths: a uniformly sampled hero wavelength and
+// companions spaced evenly across [sampledLambdaStart, sampledLambdaEnd],
+// wrapping around at the end.  The CIE matching functions and the RGB
+// upsampling basis are evaluated once per wavelength when the sample is
+// created, so textures evaluated in RGB can be upsampled per hit for the
+// cost of a handful of multiply-adds.
+public class SampledWavelengths {
+
+    public static final int nSamples = 4;
+    public static final float lambdaMin = Spectrum.sampledLambdaStart;
+    public static final float lambdaMax = Spectrum.sampledLambdaEnd;
+
+    public static SampledWavelengths SampleUniform(float u) {
+        return new SampledWavelengths().SetUniform(u);
+    }
+
+    // Resample these wavelengths as SampleUniform() does, so that a pooled
+    // instance can be reused for the next camera sample
+    SampledWavelengths SetUniform(float u) {
+        // Sample the hero wavelength and place the others at equal spacing
+        lambda[0] = Pbrt.Lerp(u, lambdaMin, lambdaMax);
+        float delta = (lambdaMax - lambdaMin) / nSamples;
+        for (int i = 1; i < nSamples; ++i) {
+            lambda[i] = lambda[i - 1] + delta;
+            if (lambda[i] > lambdaMax)
+                lambda[i] = lambdaMin + (lambda[i] - lambdaMax);
+        }
+        for (int i = 0; i < nSamples; ++i) {
+            pdf[i] = 1 / (lambdaMax - lambdaMin);
+            Init(i);
+        }
+        return this;
+    }
+
+    public float Lambda(int i) { return lambda[i]; }
+    public float Pdf(int i) { return pdf[i]; }
+
+    // Keep only the hero wavelength, e.g. after wavelength-dependent
+    // refraction; the others no longer follow the same path.
+    public void TerminateSecondary() {
+        if (SecondaryTerminated()) return;
+        for (int i = 1; i < nSamples; ++i) pdf[i] = 0;
+        pdf[0] /= nSamples;
+    }
+    public boolean SecondaryTerminated() {
+        for (int i = 1; i < nSamples; ++i)
+            if (pdf[i] != 0) return false;
+        return true;
+    }
+
+    // Index into Spectrum's 5nm sampled-spectrum bins for wavelength _i_
+    int SpectralBin(int i) {
+        return binIndex[i];
+    }
+
+    // Upsample an RGB triple to these wavelengths (Smits 1999).  Illuminants
+    // are additionally multiplied by a white spectrum that maps back to RGB
+    // (1,1,1), so RGB light sources keep their RGB-mode colour.
+    public SampledSpectrum FromRGB(float r, float g, float b, Spectrum.SpectrumType type, SampledSpectrum dst) {
+        for (int i = 0; i < nSamples; ++i) {
+            float v = SmitsEval(r, g, b, basis[i]);
+            if (type == Spectrum.SpectrumType.Illuminant) v *= illumWhite[i];
+            dst.set(i, Math.max(v, 0));
+        }
+        return dst;
+    }
+    public SampledSpectrum FromRGB(Spectrum s, Spectrum.SpectrumType type, SampledSpectrum dst) {
+        return FromRGB(s.at(0), s.at(1), s.at(2), type, dst);
+    }
+
+    // The same upsampling at a single wavelength, for tabulating scene
+    // constants when they are loaded
+    static float FromRGB(float r, float g, float b, Spectrum.SpectrumType type, float l) {
+        float[] s = new float[7];
+        SmitsBasis(l, s);
+        float v = SmitsEval(r, g, b, s);
+        if (type == Spectrum.SpectrumType.Illuminant)
+            v *= SmitsEval(illumWhiteRGB[0], illumWhiteRGB[1], illumWhiteRGB[2], s);
+        return Math.max(v, 0);
+    }
+
+    public float[] ToXYZ(SampledSpectrum L, float[] xyz) {
+        float x = 0, y = 0, z = 0;
+        for (int i = 0; i < nSamples; ++i) {
+            if (pdf[i] == 0) continue;
+            float v = L.at(i) / pdf[i];
+            x += xBar[i] * v;
+            y += yBar[i] * v;
+            z += zBar[i] * v;
+        }
+        float scale = 1 / (nSamples * Spectrum.CIE_Y_integral);
+        xyz[0] = x * scale;
+        xyz[1] = y * scale;
+        xyz[2] = z * scale;
+        return xyz;
+    }
+
+    public Spectrum ToRGB(SampledSpectrum L) {
+        float[] xyz = ToXYZ(L, new float[3]);
+        return Spectrum.FromXYZ(xyz);
+    }
+
+    // RGB of a reflectance at these wavelengths, under the white illuminant
+    // that _FromRGB()_ uses, so that RGB reflectances round-trip
+    public Spectrum ReflectanceToRGB(SampledSpectrum r) {
+        SampledSpectrum L = new SampledSpectrum(0);
+        for (int i = 0; i < nSamples; ++i) L.set(i, r.at(i) * illumWhite[i]);
+        return ToRGB(L);
+    }
+
+    // SampledWavelengths Private Methods
+    SampledWavelengths() {}
+
+    private void Init(int i) {
+        float l = lambda[i];
+        xBar[i] = CIE(Spectrum.CIE_X, l);
+        yBar[i] = CIE(Spectrum.CIE_Y, l);
+        zBar[i] = CIE(Spectrum.CIE_Z, l);
+        SmitsBasis(l, basis[i]);
+        illumWhite[i] = SmitsEval(illumWhiteRGB[0], illumWhiteRGB[1], illumWhiteRGB[2], basis[i]);
+        binIndex[i] = Pbrt.Clamp((int)((l - lambdaMin) / (lambdaMax - lambdaMin) * Spectrum.nSpectralSamples),
+                0, Spectrum.nSpectralSamples - 1);
+    }
+
+    // CIE tables are tabulated at 1nm from CIE_lambda[0]
+    private static float CIE(float[] table, float l) {
+        float x = l - Spectrum.CIE_lambda[0];
+        int i = Pbrt.Clamp((int)x, 0, Spectrum.nCIESamples - 2);
+        return Pbrt.Lerp(x - i, table[i], table[i + 1]);
+    }
+
+    // Smits' basis spectra are tabulated in ten equal bins over 380-720nm;
+    // interpolate linearly between bin centres.
+    private static void SmitsBasis(float l, float[] b) {
+        float x = (l - smitsLambdaStart) / smitsBinWidth - 0.5f;
+        int i = Pbrt.Clamp((int)Math.floor(x), 0, smitsBins - 2);
+        float t = Pbrt.Clamp(x - i, 0, 1);
+        for (int k = 0; k < 7; ++k)
+            b[k] = Pbrt.Lerp(t, smitsBasis[k][i], smitsBasis[k][i + 1]);
+    }
+
+    private static float SmitsEval(float r, float g, float b, float[] s) {
+        // Basis order: white, cyan, magenta, yellow, red, green, blue
+        float v;
+        if (r <= g && r <= b) {
+            v = r * s[0];
+            if (g <= b) v += (g - r) * s[1] + (b - g) * s[6];
+            else v += (b - r) * s[1] + (g - b) * s[5];
+        } else if (g <= r && g <= b) {
+            v = g * s[0];
+            if (r <= b) v += (r - g) * s[2] + (b - r) * s[6];
+            else v += (b - g) * s[2] + (r - b) * s[4];
+        } else {
+            v = b * s[0];
+            if (r <= g) v += (r - b) * s[3] + (g - r) * s[5];
+            else v += (g - b) * s[3] + (r - g) * s[4];
+        }
+        return v;
+    }
+
+    // RGB of a spectrum, evaluated on a 1nm grid over the sampled range
+    private static float[] SpectrumToRGB(float r, float g, float b) {
+        float[] s = new float[7];
+        float[] xyz = {0, 0, 0};
+        for (int l = (int)lambdaMin; l <= (int)lambdaMax; ++l) {
+            SmitsBasis(l, s);
+            float v = SmitsEval(r, g, b, s);
+            xyz[0] += CIE(Spectrum.CIE_X, l) * v;
+            xyz[1] += CIE(Spectrum.CIE_Y, l) * v;
+            xyz[2] += CIE(Spectrum.CIE_Z, l) * v;
+        }
+        for (int c = 0; c < 3; ++c) xyz[c] /= Spectrum.CIE_Y_integral;
+        return Spectrum.FromXYZ(xyz).toRGB();
+    }
+
+    // Find the Smits coefficients of a spectrum whose RGB is (1,1,1); the
+    // map is close to diagonal, so a few fixed-point steps suffice.
+    private static float[] ComputeIllumWhite() {
+        float[] k = {1, 1, 1};
+        for (int iter = 0; iter < 16; ++iter) {
+            float[] rgb = SpectrumToRGB(k[0], k[1], k[2]);
+            for (int c = 0; c < 3; ++c) k[c] /= rgb[c];
+        }
+        return k;
+    }
+
+    // SampledWavelengths Private Data
+    private final float[] lambda = new float[nSamples];
+    private final float[] pdf = new float[nSamples];
+    private final float[] xBar = new float[nSamples], yBar = new float[nSamples], zBar = new float[nSamples];
+    private final float[][] basis = new float[nSamples][7];
+    private final float[] illumWhite = new float[nSamples];
+    private final int[] binIndex = new int[nSamples];
+
+    private static final float smitsLambdaStart = 380, smitsBinWidth = 34;
+    private static final int smitsBins = 10;
+    private static final float[][] smitsBasis = {
+            // white
+            {1.0000f, 1.0000f, 0.9999f, 0.9993f, 0.9992f, 0.9998f, 1.0000f, 1.0000f, 1.0000f, 1.0000f},
+            // cyan
+            {0.9710f, 0.9426f, 1.0007f, 1.0007f, 1.0007f, 1.0007f, 0.1564f, 0.0000f, 0.0000f, 0.0000f},
+            // magenta
+            {1.0000f, 1.0000f, 0.9685f, 0.2229f, 0.0000f, 0.0458f, 0.8369f, 1.0000f, 1.0000f, 0.9959f},
+            // yellow
+            {0.0001f, 0.0000f, 0.1088f, 0.6651f, 1.0000f, 1.0000f, 0.9996f, 0.9586f, 0.9685f, 0.9840f},
+            // red
+            {0.1012f, 0.0515f, 0.0000f, 0.0000f, 0.0000f, 0.0000f, 0.8325f, 1.0149f, 1.0149f, 1.0149f},
+            // green
+            {0.0000f, 0.0000f, 0.0273f, 0.7937f, 1.0000f, 0.9418f, 0.1719f, 0.0000f, 0.0000f, 0.0025f},
+            // blue
+            {1.0000f, 1.0000f, 0.8916f, 0.3323f, 0.0000f, 0.0000f, 0.0003f, 0.0369f, 0.0483f, 0.0496f},
+    };
+    private static final float[] illumWhiteRGB = ComputeIllumWhite();
+}
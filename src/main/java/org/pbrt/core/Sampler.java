@@ -43,12 +43,51 @@ public abstract class Sampler {
     }
     public abstract float Get1D();
     public abstract Point2f Get2D();
+
+    // Bulk sample generation.  Each method returns exactly the values the
+    // equivalent Get1D() or Get2D() calls would; the defaults make those
+    // calls, and samplers that can share work between the values override
+    // them with batch kernels.
+
+    // Store the next _n_ 1D dimensions of the current sample in
+    // dst[offset] ... dst[offset + n - 1], as _n_ calls to Get1D() would
+    // return them, and advance the sample past them
+    public void Get1D(float[] dst, int offset, int n) {
+        for (int i = 0; i < n; ++i)
+            dst[offset + i] = Get1D();
+    }
+
+    // Store the next 2D sample in _dst_ and return it
+    public Point2f Get2D(Point2f dst) {
+        Point2f p = Get2D();
+        dst.x = p.x;
+        dst.y = p.y;
+        return dst;
+    }
+
+    // Store in dst[offset + i] the value that the Get1D() call made after
+    // _dimension_ other Get1D() calls returns in pixel sample _firstSample_
+    // + i of the current pixel, for i in [0, n).  The current sample may be
+    // restarted, as by SetSampleNumber(), so call this before drawing any
+    // of its dimensions.  Values past the dimensions a sampler precomputes
+    // for the pixel are random, here as in Get1D().
+    public void GetSamples1D(int dimension, int firstSample, int n, float[] dst, int offset) {
+        int sampleNum = currentPixelSampleIndex;
+        for (int i = 0; i < n; ++i) {
+            SetSampleNumber(firstSample + i);
+            for (int d = 0; d < dimension; ++d) Get1D();
+            dst[offset + i] = Get1D();
+        }
+        SetSampleNumber(sampleNum);
+    }
+
     public Camera.CameraSample GetCameraSample(Point2i pRaster) {
         Camera.CameraSample cs = new Camera.CameraSample();
-        Point2f pRasterf = new Point2f(pRaster);
-        cs.pFilm = pRasterf.add(Get2D());
+        Get2D(cs.pFilm);
+        cs.pFilm.x += pRaster.x;
+        cs.pFilm.y += pRaster.y;
         cs.time = Get1D();
-        cs.pLens = Get2D();
+        Get2D(cs.pLens);
         return cs;
     }
     public void Request1DArray(int n) {
@@ -59,11 +98,13 @@ public abstract class Sampler {
     public void Request2DArray(int n) {
         assert (RoundCount(n) == n);
         samples2DArraySizes.add(n);
-        sampleArray2D.add(new Point2f[n * samplesPerPixel]);
+        Point2f[] samples = new Point2f[n * samplesPerPixel];
+        for (int i = 0; i < samples.length; ++i) samples[i] = new Point2f();
+        sampleArray2D.add(samples);
     }
     public int RoundCount(int n) { return n; }
 
-    float[] Get1DArray(int n) {
+    public float[] Get1DArray(int n) {
         if (array1DOffset == sampleArray1D.size()) return null;
         assert (samples1DArraySizes.get(array1DOffset) == n);
         assert (currentPixelSampleIndex < samplesPerPixel);
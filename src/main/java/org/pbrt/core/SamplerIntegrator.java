@@ -30,13 +30,30 @@ public abstract class SamplerIntegrator extends Integrator {
         // Compute number of tiles, _nTiles_, to use for parallel rendering
         Bounds2i sampleBounds = camera.film.GetSampleBounds();
         Vector2i sampleExtent = sampleBounds.Diagonal();
-        int tileSize = 16;
+        int tileSize = Pbrt.options.TileSize;
         Point2i nTiles = new Point2i((sampleExtent.x + tileSize - 1) / tileSize, (sampleExtent.y + tileSize - 1) / tileSize);
+        final Point2i[] tiles = TileOrder.Create(Pbrt.options.TileOrder, nTiles);
 
         ProgressReporter reporter = new ProgressReporter(nTiles.x * nTiles.y, "Rendering");
 
-        Consumer<Point2i> renderFunc = (Point2i tile) -> {
-            // Render section of image corresponding to _tile_
+        // Finished tiles are merged into the film in rendering order, so that the
+        // image doesn't depend on the order the threads finish them in and a
+        // checkpoint can record the film as a count of merged tiles
+        final Film film = camera.film;
+        final Film.FilmTile[] finishedTiles = new Film.FilmTile[tiles.length];
+        final RenderCheckpoint checkpoint = new RenderCheckpoint(film, Fingerprint(sampleBounds, tileSize, Pbrt.options.TileOrder));
+        final int resumedTiles = Math.min(checkpoint.Restore(film), finishedTiles.length);
+        final int[] nextTile = { resumedTiles };
+        reporter.Update(resumedTiles);
+
+        Consumer<Long> renderFunc = (Long index) -> {
+            // Render section of image corresponding to the _tileIndex_th tile
+            int tileIndex = index.intValue();
+            if (tileIndex < resumedTiles) return;
+            Point2i tile = tiles[tileIndex];
+
+            // Allocate _MemoryArena_ for tile
+            MemoryArena arena = new MemoryArena();
 
             // Get sampler instance for tile
             int seed = tile.y * nTiles.x + tile.x;
@@ -50,8 +67,9 @@ public abstract class SamplerIntegrator extends Integrator {
             Bounds2i tileBounds = new Bounds2i(new Point2i(x0, y0), new Point2i(x1, y1));
             //Api.logger.info("Starting image tile %s\n", tileBounds.toString());
 
-            // Get _FilmTile_ for tile
+            // Get _FilmTile_ for tile, and a buffer for AOVs if it records any
             Film.FilmTile filmTile = camera.film.GetFilmTile(tileBounds);
+            AOV.Sample aovSample = camera.film.NewAOVSample();
 
             // Loop over pixels in tile to render them
             for (int py = tileBounds.pMin.y; py < tileBounds.pMax.y; py++) {
@@ -78,9 +96,12 @@ public abstract class SamplerIntegrator extends Integrator {
                         ray.ScaleDifferentials(1 / (float) Math.sqrt((float) tileSampler.samplesPerPixel));
                         nCameraRays.increment();
 
-                        // Evaluate radiance along camera ray
+                        // Evaluate radiance along camera ray, and AOVs if
+                        // the film records any
+                        if (aovSample != null) aovSample.Reset();
                         Spectrum L = new Spectrum(0);
-                        if (rayWeight > 0) L = Li(ray, scene, tileSampler, 0);
+                        if (rayWeight > 0)
+                            L = (aovSample != null) ? Li(ray, scene, tileSampler, arena, aovSample) : Li(ray, scene, tileSampler, arena, 0);
 
                         // Issue warning if unexpected radiance value returned
                         if (L.hasNaNs()) {
@@ -99,31 +120,132 @@ public abstract class SamplerIntegrator extends Integrator {
                         //System.out.format("Camera sample: (%f,%f) L: (%f,%f,%f)\n", cameraSample.pFilm.x, cameraSample.pFilm.y, L.at(0), L.at(1), L.at(2));
 
                         // Add camera ray's contribution to image
-                        filmTile.AddSample(cameraSample.pFilm, L, rayWeight);
+                        filmTile.AddSample(cameraSample.pFilm, L, rayWeight, aovSample);
+
+                        // Free _MemoryArena_ memory from computing image sample
+                        // value
+                        arena.Reset();
 
                     } while (tileSampler.StartNextSample());
                 }
             }
             //Api.logger.info("Finished image tile, %s", tileBounds.toString());
 
-            // Merge image tile into _Film_
-            camera.film.MergeFilmTile(filmTile);
+            // Merge image tile, and any that were waiting for it, into _Film_
+            synchronized (finishedTiles) {
+                finishedTiles[tileIndex] = filmTile;
+                while (nextTile[0] < finishedTiles.length && finishedTiles[nextTile[0]] != null) {
+                    film.MergeFilmTile(finishedTiles[nextTile[0]]);
+                    finishedTiles[nextTile[0]++] = null;
+                }
+                if (checkpoint.Due()) checkpoint.Save(film, nextTile[0]);
+            }
             reporter.Update(1);
         };
-        Parallel.ParallelFor2D(renderFunc, nTiles);
+        try {
+            Parallel.ParallelFor(renderFunc, tiles.length, TileOrder.ChunkSize(tiles.length));
+        } catch (RuntimeException | Error e) {
+            // A tile failed, so the render does too; the tiles merged so far
+            // are kept in the checkpoint to resume from
+            reporter.Exit();
+            checkpoint.Fail(film, nextTile[0]);
+            throw e;
+        }
 
         reporter.Done();
 
         PBrtTLogger.Info("Rendering finished");
         reporter.Exit();
 
-        // Save final image after rendering
-        camera.film.WriteImage(1);
+        // Save final image after rendering, keeping the checkpoint until it's written
+        Parallel.Await(camera.film.WriteImage(1));
+        checkpoint.Finish();
+    }
+
+    // Hash of the settings and scene files that determine what each tile
+    // renders, to check that a checkpoint belongs to this render
+    private long Fingerprint(Bounds2i sampleBounds, int tileSize, String tileOrder) {
+        long hash = Pbrt.MixBits(getClass().getName().hashCode());
+        hash = Pbrt.MixBits(hash ^ sampler.getClass().getName().hashCode());
+        hash = Pbrt.MixBits(hash ^ sampler.samplesPerPixel);
+        int[] values = { sampleBounds.pMin.x, sampleBounds.pMin.y, sampleBounds.pMax.x, sampleBounds.pMax.y,
+                pixelBounds.pMin.x, pixelBounds.pMin.y, pixelBounds.pMax.x, pixelBounds.pMax.y, tileSize };
+        for (int v : values) hash = Pbrt.MixBits(hash ^ v);
+        hash = Pbrt.MixBits(hash ^ tileOrder.hashCode());
+        hash = Pbrt.MixBits(hash ^ Parser.SceneHash());
+        return Pbrt.MixBits(hash ^ camera.film.filename.hashCode());
+    }
+
+    // Radiance along camera ray _ray_, also setting the camera sample's
+    // AOVs in _aovs_.  Integrators that find the first surface hit anyway
+    // override this to set them from it with SetSurfaceAOVs(); otherwise
+    // ComputeAOVs() traces _ray_ a second time.
+    public Spectrum Li(RayDifferential ray, Scene scene, Sampler sampler, MemoryArena arena, AOV.Sample aovs) {
+        ComputeAOVs(ray, scene, arena, aovs);
+        return Li(ray, scene, sampler, arena, 0);
+    }
+
+    // Set AOVs of a camera sample from the first surface _ray_ hits,
+    // passing through medium boundaries, which have no material.
+    // Integrators can override this to publish AOVs of their own.
+    protected void ComputeAOVs(RayDifferential ray, Scene scene, MemoryArena arena, AOV.Sample aovs) {
+        SurfaceInteraction isect = scene.Intersect(new Ray(ray));
+        while (isect != null && isect.primitive.GetMaterial() == null)
+            isect = scene.Intersect(isect.SpawnRay(ray.d));
+        if (isect != null) SetSurfaceAOVs(ray, isect, arena, aovs);
+    }
+
+    // Set AOVs of a camera sample from _isect_, the first surface camera ray
+    // _ray_ hits.  Its BSDF is only computed here if the albedo is wanted
+    // and the caller hasn't computed it already.
+    protected static void SetSurfaceAOVs(RayDifferential ray, SurfaceInteraction isect, MemoryArena arena, AOV.Sample aovs) {
+        if (!SetGeometryAOVs(ray, isect, aovs)) return;
+        if (aovs.Wants(AOV.Albedo)) {
+            if (isect.bsdf == null) isect.ComputeScatteringFunctions(ray, arena);
+            if (isect.bsdf != null) {
+                float[] rgb = isect.bsdf.rho(isect.wo, AlbedoSamples.length, AlbedoSamples).toRGB();
+                aovs.Set(AOV.Albedo, rgb[0], rgb[1], rgb[2]);
+            }
+        }
+    }
+
+    // The same for spectral rendering, with the albedo estimated from the
+    // _SpectralBSDF_ being traced at the sampled wavelengths; _bsdf_ may be
+    // null where there's no surface to scatter from
+    protected static void SetSurfaceAOVs(RayDifferential ray, SurfaceInteraction isect, SpectralBSDF bsdf,
+                                         SampledWavelengths lambda, AOV.Sample aovs) {
+        if (!SetGeometryAOVs(ray, isect, aovs)) return;
+        if (aovs.Wants(AOV.Albedo) && bsdf != null) {
+            SampledSpectrum r = bsdf.rho(isect.wo, AlbedoSamples.length, AlbedoSamples, new SampledSpectrum(0));
+            float[] rgb = lambda.ReflectanceToRGB(r).toRGB();
+            aovs.Set(AOV.Albedo, rgb[0], rgb[1], rgb[2]);
+        }
     }
 
-    public abstract Spectrum Li(RayDifferential ray, Scene scene, Sampler sampler, int depth);
+    // Set the AOVs that don't depend on the BSDF; returns whether the
+    // surface has a material
+    private static boolean SetGeometryAOVs(RayDifferential ray, SurfaceInteraction isect, AOV.Sample aovs) {
+        aovs.Set(AOV.Depth, Point3f.Distance(ray.o, isect.p));
+        aovs.Set(AOV.Position, isect.p.x, isect.p.y, isect.p.z);
+        Normal3f n = Normal3f.Faceforward(isect.shading.n, isect.wo);
+        aovs.Set(AOV.Normal, n.x, n.y, n.z);
+        Material material = isect.primitive.GetMaterial();
+        if (material == null) return false;
+        aovs.Set(AOV.MaterialId, material.id);
+        return true;
+    }
+
+    // Fixed samples for estimating albedo, so it doesn't use the sampler's
+    // dimensions
+    private static final Point2f[] AlbedoSamples = new Point2f[16];
+    static {
+        for (int i = 0; i < AlbedoSamples.length; ++i) AlbedoSamples[i] = new Point2f();
+        Sampling.StratifiedSample2D(AlbedoSamples, 4, 4, null, false);
+    }
 
-    public Spectrum SpecularReflect(RayDifferential ray, SurfaceInteraction isect, Scene scene, Sampler sampler, int depth) {
+    public abstract Spectrum Li(RayDifferential ray, Scene scene, Sampler sampler, MemoryArena arena, int depth);
+
+    public Spectrum SpecularReflect(RayDifferential ray, SurfaceInteraction isect, Scene scene, Sampler sampler, MemoryArena arena, int depth) {
         // Compute specular reflection direction _wi_ and BSDF value
         Vector3f wo = isect.wo, wi;
         float pdf;
@@ -144,21 +266,25 @@ public abstract class SamplerIntegrator extends Integrator {
                 rd.rxOrigin = isect.p.add(isect.dpdx);
                 rd.ryOrigin = isect.p.add(isect.dpdy);
                 // Compute differential reflected directions
-                Normal3f dndx = isect.shading.dndu.scale(isect.dudx).add(isect.shading.dndv.scale(isect.dvdx));
-                Normal3f dndy = isect.shading.dndu.scale(isect.dudy).add(isect.shading.dndv.scale(isect.dvdy));
-                Vector3f dwodx = (ray.rxDirection.negate()).subtract(wo),
-                         dwody = (ray.ryDirection.negate()).subtract(wo);
+                Normal3f dndx = new Normal3f(isect.shading.dndu).scaleInPlace(isect.dudx).fma(isect.shading.dndv, isect.dvdx);
+                Normal3f dndy = new Normal3f(isect.shading.dndu).scaleInPlace(isect.dudy).fma(isect.shading.dndv, isect.dvdy);
+                Vector3f dwodx = new Vector3f(ray.rxDirection).negateInPlace().decrement(wo),
+                         dwody = new Vector3f(ray.ryDirection).negateInPlace().decrement(wo);
                 float dDNdx = Normal3f.Dot(dwodx, ns) + Normal3f.Dot(wo, dndx);
                 float dDNdy = Normal3f.Dot(dwody, ns) + Normal3f.Dot(wo, dndy);
-                rd.rxDirection = wi.subtract(dwodx).add((new Vector3f(dndx.scale(Normal3f.Dot(wo, ns)).add(ns.scale(dDNdx)))).scale(2));
-                rd.ryDirection = wi.subtract(dwody).add((new Vector3f(dndy.scale(Normal3f.Dot(wo, ns)).add(ns.scale(dDNdy)))).scale(2));
+                float woDotNs = Normal3f.Dot(wo, ns);
+                // Reuse _dndx_/_dndy_ for the normal terms once the dot products are taken
+                dndx.scaleInPlace(woDotNs).fma(ns, dDNdx);
+                dndy.scaleInPlace(woDotNs).fma(ns, dDNdy);
+                rd.rxDirection = new Vector3f(wi).decrement(dwodx).fma(dndx, 2);
+                rd.ryDirection = new Vector3f(wi).decrement(dwody).fma(dndy, 2);
             }
-            return f.multiply((Li(rd, scene, sampler, depth + 1)).scale(Normal3f.AbsDot(wi, ns) / pdf));
+            return f.multiply((Li(rd, scene, sampler, arena, depth + 1)).scale(Normal3f.AbsDot(wi, ns) / pdf));
         } else
             return new Spectrum(0);
     }
 
-    public Spectrum SpecularTransmit(RayDifferential ray, SurfaceInteraction isect, Scene scene, Sampler sampler, int depth) {
+    public Spectrum SpecularTransmit(RayDifferential ray, SurfaceInteraction isect, Scene scene, Sampler sampler, MemoryArena arena, int depth) {
         Vector3f wo = isect.wo, wi;
         float pdf;
         final Point3f p = isect.p;
@@ -182,10 +308,10 @@ public abstract class SamplerIntegrator extends Integrator {
                 Vector3f w = wo.negate();
                 if (Normal3f.Dot(wo, ns) < 0) eta = 1.f / eta;
 
-                Normal3f dndx = isect.shading.dndu.scale(isect.dudx).add(isect.shading.dndv.scale(isect.dvdx));
-                Normal3f dndy = isect.shading.dndu.scale(isect.dudy).add(isect.shading.dndv.scale(isect.dvdy));
-                Vector3f dwodx = (ray.rxDirection.negate()).subtract(wo),
-                        dwody = (ray.ryDirection.negate()).subtract(wo);
+                Normal3f dndx = new Normal3f(isect.shading.dndu).scaleInPlace(isect.dudx).fma(isect.shading.dndv, isect.dvdx);
+                Normal3f dndy = new Normal3f(isect.shading.dndu).scaleInPlace(isect.dudy).fma(isect.shading.dndv, isect.dvdy);
+                Vector3f dwodx = new Vector3f(ray.rxDirection).negateInPlace().decrement(wo),
+                        dwody = new Vector3f(ray.ryDirection).negateInPlace().decrement(wo);
                 float dDNdx = Normal3f.Dot(dwodx, ns) + Normal3f.Dot(wo, dndx);
                 float dDNdy = Normal3f.Dot(dwody, ns) + Normal3f.Dot(wo, dndy);
 
@@ -193,10 +319,12 @@ public abstract class SamplerIntegrator extends Integrator {
                 float dmudx = (eta - (eta * eta * Normal3f.Dot(w, ns)) / Normal3f.Dot(wi, ns)) * dDNdx;
                 float dmudy = (eta - (eta * eta * Normal3f.Dot(w, ns)) / Normal3f.Dot(wi, ns)) * dDNdy;
 
-                rd.rxDirection = wi.add(dwodx.scale(eta).subtract(new Vector3f(dndx.scale(mu).add(ns.scale(dmudx)))));
-                rd.ryDirection = wi.add(dwody.scale(eta).subtract(new Vector3f(dndy.scale(mu).add(ns.scale(dmudy)))));
+                dndx.scaleInPlace(mu).fma(ns, dmudx);
+                dndy.scaleInPlace(mu).fma(ns, dmudy);
+                rd.rxDirection = dwodx.scaleInPlace(eta).decrement(dndx).increment(wi);
+                rd.ryDirection = dwody.scaleInPlace(eta).decrement(dndy).increment(wi);
             }
-            L = f.multiply(Li(rd, scene, sampler, depth + 1).scale(Normal3f.AbsDot(wi, ns) / pdf));
+            L = f.multiply(Li(rd, scene, sampler, arena, depth + 1).scale(Normal3f.AbsDot(wi, ns) / pdf));
         }
         return L;
     }
@@ -213,19 +341,32 @@ public abstract class SamplerIntegrator extends Integrator {
                 // Use a single sample for illumination from _light_
                 Point2f uLight = sampler.Get2D();
                 Point2f uScattering = sampler.Get2D();
-                L = L.add(EstimateDirect(it, uScattering, light, uLight, scene, sampler, handleMedia, false));
+                L.addInPlace(EstimateDirect(it, uScattering, light, uLight, scene, sampler, handleMedia, false));
             } else {
                 // Estimate direct lighting using sample arrays
                 Spectrum Ld = new Spectrum(0);
                 for (int k = 0; k < nSamples; ++k)
-                    Ld = Ld.add(EstimateDirect(it, uScatteringArray[k], light, uLightArray[k], scene, sampler, handleMedia, false));
-                L = L.add(Ld.scale(1.0f/ nSamples));
+                    Ld.addInPlace(EstimateDirect(it, uScatteringArray[k], light, uLightArray[k], scene, sampler, handleMedia, false));
+                L.mulAdd(Ld, 1.0f / nSamples);
             }
         }
         return L;
     }
 
-    public static Spectrum UniformSampleOneLight(Interaction it, Scene scene, Sampler sampler, boolean handleMedia, Distribution1D lightDistrib) {
+    // Variant of UniformSampleOneLight() for distributions such as the light
+    // BVH whose choice depends on the whole interaction, not just its point.
+    public static Spectrum UniformSampleOneLight(Interaction it, Scene scene, Sampler sampler, boolean handleMedia, LightDistribution lightDistribution) {
+        if (scene.lights.isEmpty()) return new Spectrum(0);
+        Distribution1D.DiscreteSample ds = lightDistribution.Sample(it, sampler.Get1D());
+        if (ds.pdf == 0) return new Spectrum(0);
+        final Light light = scene.lights.get(ds.offset);
+        Point2f uLight = sampler.Get2D();
+        Point2f uScattering = sampler.Get2D();
+        return EstimateDirect(it, uScattering, light, uLight,
+                scene, sampler, handleMedia, false).scaleInPlace(1.0f / ds.pdf);
+    }
+
+    public static Spectrum UniformSampleOneLight(Interaction it, Scene scene, Sampler sampler, boolean handleMedia, DiscreteDistribution1D lightDistrib) {
         // Randomly choose a single light to sample, _light_
         int nLights = scene.lights.size();
         if (nLights == 0) return new Spectrum(0);
@@ -244,7 +385,7 @@ public abstract class SamplerIntegrator extends Integrator {
         Point2f uLight = sampler.Get2D();
         Point2f uScattering = sampler.Get2D();
         return EstimateDirect(it, uScattering, light, uLight,
-                scene, sampler, handleMedia, false).scale(1.0f / lightPdf);
+                scene, sampler, handleMedia, false).scaleInPlace(1.0f / lightPdf);
     }
 
     public static Spectrum EstimateDirect(Interaction it, Point2f uScattering, Light light, Point2f uLight,
@@ -270,7 +411,7 @@ public abstract class SamplerIntegrator extends Integrator {
             if (it.IsSurfaceInteraction()) {
                 // Evaluate BSDF for light sampling strategy
                 final SurfaceInteraction isect = (SurfaceInteraction)it;
-                f = isect.bsdf.f(isect.wo, wi, bsdfFlags).scale(Normal3f.AbsDot(wi, isect.shading.n));
+                f = isect.bsdf.f(isect.wo, wi, bsdfFlags).scaleInPlace(Normal3f.AbsDot(wi, isect.shading.n));
                 scatteringPdf = isect.bsdf.Pdf(isect.wo, wi, bsdfFlags);
                 //Api.logger.trace("  surf f*dot: %s, scatteringPdf: %f", f, scatteringPdf);
             } else {
@@ -298,10 +439,10 @@ public abstract class SamplerIntegrator extends Integrator {
                 // Add light's contribution to reflected radiance
                 if (!Li.isBlack()) {
                     if (Light.IsDeltaLight(light.flags))
-                        Ld = Ld.add(f.multiply(Li.scale(1 / lightPdf)));
+                        Ld.mulAdd(f, Li, 1 / lightPdf);
                     else {
                         float weight = Sampling.PowerHeuristic(1, lightPdf, 1, scatteringPdf);
-                        Ld = Ld.add(f.multiply(Li.scale(weight / lightPdf)));
+                        Ld.mulAdd(f, Li, weight / lightPdf);
                     }
                 }
             }
@@ -323,7 +464,7 @@ public abstract class SamplerIntegrator extends Integrator {
                 f = bs.f;
                 wi = bs.wiWorld;
                 scatteringPdf = bs.pdf;
-                f = f.scale(Normal3f.AbsDot(wi, isect.shading.n));
+                f.scaleInPlace(Normal3f.AbsDot(wi, isect.shading.n));
                 sampledSpecular = (sampledType & BxDF.BSDF_SPECULAR) != 0;
             } else {
                 // Sample scattered direction for medium interactions
@@ -365,13 +506,82 @@ public abstract class SamplerIntegrator extends Integrator {
                     Li = lightIsect.Le(wi.negate());
                 } else
                     Li = light.Le(new RayDifferential(ray));
-                if (!Li.isBlack()) Ld = Ld.add(f.multiply(Li.multiply(Tr.scale(weight / scatteringPdf))));
+                if (!Li.isBlack()) Ld.mulAdd(f, Li.multiply(Tr.scale(weight / scatteringPdf)));
+            }
+        }
+        return Ld;
+    }
+
+    // Spectral variants of UniformSampleOneLight() and EstimateDirect(), for
+    // surface interactions without participating media.  The spectra they
+    // return come from _arena_.
+    public static SampledSpectrum UniformSampleOneLight(SurfaceInteraction it, SpectralBSDF bsdf, SampledWavelengths lambda,
+                                                        Scene scene, Sampler sampler, LightDistribution lightDistribution,
+                                                        MemoryArena arena) {
+        if (scene.lights.isEmpty()) return arena.AllocSampledSpectrum(0);
+        Distribution1D.DiscreteSample ds = lightDistribution.Sample(it, sampler.Get1D());
+        if (ds.pdf == 0) return arena.AllocSampledSpectrum(0);
+        final Light light = scene.lights.get(ds.offset);
+        Point2f uLight = sampler.Get2D();
+        Point2f uScattering = sampler.Get2D();
+        return EstimateDirect(it, bsdf, lambda, uScattering, light, uLight, scene, arena).scaleInPlace(1.0f / ds.pdf);
+    }
+
+    public static SampledSpectrum EstimateDirect(SurfaceInteraction it, SpectralBSDF bsdf, SampledWavelengths lambda,
+                                                 Point2f uScattering, Light light, Point2f uLight, Scene scene,
+                                                 MemoryArena arena) {
+        int bsdfFlags = BxDF.BSDF_ALL & ~BxDF.BSDF_SPECULAR;
+        SampledSpectrum Ld = arena.AllocSampledSpectrum(0);
+        SampledSpectrum f = arena.AllocSampledSpectrum(0), Li = arena.AllocSampledSpectrum(0);
+        // Sample light source with multiple importance sampling
+        Light.LiResult lis = light.Sample_Li(it, uLight);
+        Vector3f wi = lis.wi;
+        float lightPdf = lis.pdf, scatteringPdf;
+        if (lightPdf > 0 && !lis.spectrum.isBlack()) {
+            // Evaluate BSDF for light sampling strategy
+            bsdf.f(it.wo, wi, bsdfFlags, f).scaleInPlace(Normal3f.AbsDot(wi, it.shading.n));
+            scatteringPdf = bsdf.Pdf(it.wo, wi, bsdfFlags);
+            if (!f.isBlack() && lis.vis.Unoccluded(scene)) {
+                // Add light's contribution to reflected radiance
+                light.SampleEmission(lis.spectrum, lambda, Li);
+                if (Light.IsDeltaLight(light.flags))
+                    Ld.mulAdd(f, Li, 1 / lightPdf);
+                else {
+                    float weight = Sampling.PowerHeuristic(1, lightPdf, 1, scatteringPdf);
+                    Ld.mulAdd(f, Li, weight / lightPdf);
+                }
+            }
+        }
+
+        // Sample BSDF with multiple importance sampling
+        if (!Light.IsDeltaLight(light.flags)) {
+            SpectralBxDF.SpectralSample bs = bsdf.Sample_f(it.wo, uScattering, bsdfFlags);
+            wi = bs.wi;
+            scatteringPdf = bs.pdf;
+            bs.f.scaleInPlace(Normal3f.AbsDot(wi, it.shading.n));
+            if (!bs.f.isBlack() && scatteringPdf > 0) {
+                // Account for light contributions along sampled direction _wi_
+                lightPdf = light.Pdf_Li(it, wi);
+                if (lightPdf == 0) return Ld;
+                float weight = Sampling.PowerHeuristic(1, scatteringPdf, 1, lightPdf);
+
+                // Add light contribution from material sampling
+                Ray ray = it.SpawnRay(wi);
+                SurfaceInteraction lightIsect = scene.Intersect(ray);
+                Spectrum Le = new Spectrum(0);
+                if (lightIsect != null) {
+                    if (lightIsect.primitive.GetAreaLight() == light)
+                        Le = lightIsect.Le(wi.negate());
+                } else
+                    Le = light.Le(new RayDifferential(ray));
+                if (!Le.isBlack())
+                    Ld.mulAdd(bs.f, light.SampleEmission(Le, lambda, Li), weight / scatteringPdf);
             }
         }
         return Ld;
     }
 
-    public static Distribution1D ComputeLightPowerDistribution(Scene scene) {
+    public static DiscreteDistribution1D ComputeLightPowerDistribution(Scene scene) {
         if (scene.lights.isEmpty()) return null;
         float[] lightPower = new float[scene.lights.size()];
         int i = 0;
@@ -379,7 +589,7 @@ public abstract class SamplerIntegrator extends Integrator {
             lightPower[i] =light.Power().y();
             i++;
         }
-        return new Distribution1D(lightPower);
+        return new AliasDistribution1D(lightPower);
     }
 
     protected Camera camera;
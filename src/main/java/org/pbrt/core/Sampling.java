@@ -52,17 +52,17 @@ public class Sampling {
         // Generate LHS samples along diagonal
         int nSamples = endIndex - startIndex;
         float invNSamples = 1 / (float)nSamples;
-        for (int i = startIndex; i < endIndex; ++i) {
+        for (int i = 0; i < nSamples; ++i) {
                 float sj = (i + (rng.UniformFloat())) * invNSamples;
-                samples[i] = Math.min(sj, Pbrt.OneMinusEpsilon);
+                samples[startIndex + i] = Math.min(sj, Pbrt.OneMinusEpsilon);
         }
 
         // Permute LHS samples in each dimension
-        for (int j = startIndex; j < endIndex; ++j) {
+        for (int j = 0; j < nSamples; ++j) {
             int other = j + rng.UniformUInt32(nSamples - j);
-            float temp = samples[j];
-            samples[j] = samples[other];
-            samples[other] = temp;
+            float temp = samples[startIndex + j];
+            samples[startIndex + j] = samples[startIndex + other];
+            samples[startIndex + other] = temp;
         }
         return samples;
     }
@@ -75,20 +75,24 @@ public class Sampling {
         // Generate LHS samples along diagonal
         int nSamples = endIndex - startIndex;
         float invNSamples = 1 / (float)nSamples;
-        for (int i = startIndex; i < endIndex; ++i) {
-            float sj = (i + (rng.UniformFloat())) * invNSamples;
-            samples[i].x = Math.min(sj, Pbrt.OneMinusEpsilon);
-        }
-        for (int i = startIndex; i < endIndex; ++i) {
+        for (int i = 0; i < nSamples; ++i) {
             float sj = (i + (rng.UniformFloat())) * invNSamples;
-            samples[i].y = Math.min(sj, Pbrt.OneMinusEpsilon);
+            samples[startIndex + i].x = Math.min(sj, Pbrt.OneMinusEpsilon);
+            sj = (i + (rng.UniformFloat())) * invNSamples;
+            samples[startIndex + i].y = Math.min(sj, Pbrt.OneMinusEpsilon);
         }
         // Permute LHS samples in each dimension
-        for (int j = startIndex; j < endIndex; ++j) {
-            int other = j + rng.UniformUInt32(nSamples - j);
-            Point2f temp = samples[j];
-            samples[j] = samples[other];
-            samples[other] = temp;
+        for (int j = 0; j < nSamples; ++j) {
+            int other = startIndex + j + rng.UniformUInt32(nSamples - j);
+            float temp = samples[startIndex + j].x;
+            samples[startIndex + j].x = samples[other].x;
+            samples[other].x = temp;
+        }
+        for (int j = 0; j < nSamples; ++j) {
+            int other = startIndex + j + rng.UniformUInt32(nSamples - j);
+            float temp = samples[startIndex + j].y;
+            samples[startIndex + j].y = samples[other].y;
+            samples[other].y = temp;
         }
         return samples;
     }
@@ -196,6 +200,19 @@ public class Sampling {
         return samp;
     }
 
+    public static short[] ShuffleS(short[] samp, int startIndex, int endIndex, int nDimensions, RNG rng) {
+        int count = endIndex-startIndex;
+        for (int i = startIndex; i < endIndex; ++i) {
+            int other = i + rng.UniformUInt32(count - (i - startIndex));
+            for (int j = 0; j < nDimensions; ++j) {
+                final short temp = samp[nDimensions * i + j];
+                samp[nDimensions * i + j] = samp[nDimensions * other + j];
+                samp[nDimensions * other + j] = temp;
+            }
+        }
+        return samp;
+    }
+
     public static Vector3f CosineSampleHemisphere(Point2f u) {
         Point2f d = ConcentricSampleDisk(u);
         float z = (float)Math.sqrt(Math.max(0, 1 - d.x * d.x - d.y * d.y));
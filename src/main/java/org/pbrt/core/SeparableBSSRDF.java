@@ -30,11 +30,11 @@ public abstract class SeparableBSSRDF extends BSSRDF {
     }
 
     @Override
-    public BSSRDFSample Sample_S(Scene scene, float u1, Point2f u2) {
+    public BSSRDFSample Sample_S(Scene scene, float u1, Point2f u2, MemoryArena arena) {
         BSSRDFSample bs = Sample_Sp(scene, u1, u2);
         if (!bs.s.isBlack()) {
             // Initialize material model at sampled surface interaction
-            bs.si.bsdf = new BSDF(bs.si, 1);
+            bs.si.bsdf = arena.AllocBSDF(bs.si, 1);
             bs.si.bsdf.Add(new SeparableBSSRDFAdapter(this));
             bs.si.wo = new Vector3f(bs.si.shading.n);
         }
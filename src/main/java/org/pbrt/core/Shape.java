@@ -42,6 +42,9 @@ public abstract class Shape {
     }
 
     public abstract float Area();
+    // World-space geometric normal, for shapes whose normal is the same
+    // everywhere on the surface; null otherwise.
+    public Normal3f ConstantNormal() { return null; }
     // Sample a point on the surface of the shape and return the PDF with
     // respect to area on the surface.
     public abstract SampleResult Sample(Point2f u);
@@ -27,7 +27,7 @@ public final class SobolMatrices {
             byte[] buf = new byte[4];
             for (int i = 0; i < NumSobolDimensions * SobolMatrixSize; i++) {
                 fis.read(buf);    
-                SobolMatrices32[i] = (buf[0]) | (buf[1] << 8) | (buf[2] << 16) | (buf[3] << 24);
+                SobolMatrices32[i] = (buf[0] & 0xff) | ((buf[1] & 0xff) << 8) | ((buf[2] & 0xff) << 16) | (buf[3] << 24);
             }
             fis.close();
 
@@ -35,8 +35,8 @@ public final class SobolMatrices {
             fis = new FileInputStream("sobel64.dat");
             for (int i = 0; i < NumSobolDimensions * SobolMatrixSize; i++) {
                 fis.read(buf64);
-                SobolMatrices64[i] = ((long)buf64[0]) | ((long)buf64[1] << 8) | ((long)buf64[2] << 16) | ((long)buf64[3] << 24) |
-                        ((long)buf64[4] << 32) | ((long)buf64[5] << 40) | ((long)buf64[6] << 48) | ((long)buf64[7] << 56);
+                SobolMatrices64[i] = (buf64[0] & 0xffL) | ((buf64[1] & 0xffL) << 8) | ((buf64[2] & 0xffL) << 16) | ((buf64[3] & 0xffL) << 24) |
+                        ((buf64[4] & 0xffL) << 32) | ((buf64[5] & 0xffL) << 40) | ((buf64[6] & 0xffL) << 48) | ((long)buf64[7] << 56);
             }
             fis.close();
         }
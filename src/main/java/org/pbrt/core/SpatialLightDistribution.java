@@ -10,8 +10,8 @@
 
 package org.pbrt.core;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class SpatialLightDistribution extends LightDistribution {
 
@@ -39,18 +39,13 @@ public class SpatialLightDistribution extends LightDistribution {
 
         hashTableSize = 4 * nVoxels[0] * nVoxels[1] * nVoxels[2];
         hashTable = new HashEntry[hashTableSize];
-        for (int i = 0; i < hashTableSize; ++i) {
-            hashTable[i] = new HashEntry();
-            hashTable[i].packedPos = new AtomicLong();
-            hashTable[i].packedPos.set(invalidPackedPos);
-            hashTable[i].distribution = new AtomicReference(null);
-        }
+        for (int i = 0; i < hashTableSize; ++i) hashTable[i] = new HashEntry();
 
         PBrtTLogger.Info("SpatialLightDistribution: scene bounds %s, voxel res (%d, %d, %d)", b.toString(), nVoxels[0], nVoxels[1], nVoxels[2]);
     }
 
     @Override
-    public Distribution1D Lookup(Point3f p) {
+    public DiscreteDistribution1D Lookup(Point3f p) {
         looksPerDistrib.incrementDenom(1); // nLookups
 
         // First, compute integer voxel coordinates for the given point |p|
@@ -79,7 +74,8 @@ public class SpatialLightDistribution extends LightDistribution {
         hash ^= (hash >>> 27);
         hash *= 0x81dadef4bc2dd44dL;
         hash ^= (hash >>> 33);
-        hash %= hashTableSize;
+        // The hash is an unsigned 64-bit value
+        hash = Long.remainderUnsigned(hash, hashTableSize);
         assert (hash >= 0);
 
         // Now, see if the hash table already has an entry for the voxel. We'll
@@ -95,20 +91,16 @@ public class SpatialLightDistribution extends LightDistribution {
             if (entryPackedPos == packedPos) {
                 // Yes! Most of the time, there should already by a light
                 // sampling distribution available.
-                Distribution1D dist = entry.distribution.get();
+                DiscreteDistribution1D dist = entry.distribution.getNow(null);
                 if (dist == null) {
                     // Rarely, another thread will have already done a lookup
                     // at this point, found that there isn't a sampling
                     // distribution, and will already be computing the
-                    // distribution for the point.  In this case, we spin until
-                    // the sampling distribution is ready.  We assume that this
-                    // is a rare case, so don't do anything more sophisticated
-                    // than spinning.
-                    while ((dist = entry.distribution.get()) == null)
-                        // spin :-(. If we were fancy, we'd have any threads
-                        // that hit this instead help out with computing the
-                        // distribution for the voxel...
-                        ;
+                    // distribution for the point.  Wait for it rather than
+                    // computing it again; a worker of the shared pool that
+                    // waits lets another thread take its place meanwhile.
+                    nWaits.increment();
+                    dist = Parallel.Await(entry.distribution);
                 }
                 // We have a valid sampling distribution.
                 nProbesPerLookup.ReportValue(nProbes);
@@ -131,12 +123,20 @@ public class SpatialLightDistribution extends LightDistribution {
                     // Success; we've claimed this position for this voxel's
                     // distribution. Now compute the sampling distribution and
                     // add it to the hash table. As long as packedPos has been
-                    // set but the entry's distribution pointer is nullptr, any
+                    // set but the entry's distribution isn't complete, any
                     // other threads looking up the distribution for this voxel
-                    // will spin wait until the distribution pointer is
-                    // written.
-                    Distribution1D dist = ComputeDistribution(pi);
-                    entry.distribution.set(dist);
+                    // wait for this one.  It only depends on the voxel, so
+                    // every lookup sees the same distribution whichever
+                    // thread computes it.
+                    DiscreteDistribution1D dist;
+                    try {
+                        dist = ComputeDistribution(pi);
+                    } catch (RuntimeException | Error e) {
+                        // Don't leave the threads waiting for it hanging
+                        entry.distribution.completeExceptionally(e);
+                        throw e;
+                    }
+                    entry.distribution.complete(dist);
                     nProbesPerLookup.ReportValue(nProbes);
                     return dist;
                 }
@@ -144,7 +144,39 @@ public class SpatialLightDistribution extends LightDistribution {
         }
     }
 
-    private Distribution1D ComputeDistribution(Point3i pi) {
+    // Compute the distributions for the voxels containing the first
+    // intersections of camera rays through every _stride_th pixel, one
+    // image row per parallel task.
+    @Override
+    public void Prewarm(Camera camera, int stride) {
+        Bounds2i pixelBounds = camera.film.croppedPixelBounds;
+        final int x0 = pixelBounds.pMin.x, y0 = pixelBounds.pMin.y;
+        final int nx = (pixelBounds.pMax.x - x0 + stride - 1) / stride;
+        final int ny = (pixelBounds.pMax.y - y0 + stride - 1) / stride;
+        Parallel.ParallelFor((Long row) -> {
+            Camera.CameraSample cs = new Camera.CameraSample();
+            cs.time = 0.5f;
+            cs.pLens.x = cs.pLens.y = 0.5f;
+            for (int ix = 0; ix < nx; ++ix) {
+                cs.pFilm.x = x0 + ix * stride + 0.5f;
+                cs.pFilm.y = y0 + row.intValue() * stride + 0.5f;
+                Camera.CameraRay cr = camera.GenerateRay(cs);
+                if (cr.weight == 0) continue;
+                SurfaceInteraction isect = scene.Intersect(cr.ray);
+                if (isect != null) Lookup(isect.p);
+            }
+        }, ny, 1);
+    }
+
+    // The number of voxels whose distribution has been computed so far
+    public int NumDistributions() {
+        int n = 0;
+        for (HashEntry entry : hashTable)
+            if (entry.distribution.isDone() && !entry.distribution.isCompletedExceptionally()) ++n;
+        return n;
+    }
+
+    private DiscreteDistribution1D ComputeDistribution(Point3i pi) {
         nCreated.increment();
         looksPerDistrib.incrementDenom(1); // nDistributions;
 
@@ -160,28 +192,26 @@ public class SpatialLightDistribution extends LightDistribution {
         // sample (ignoring visibility between the point in the voxel and the
         // point on the light source) as an approximation to how much the light
         // is likely to contribute to illumination in the voxel.
-        int nSamples = 128;
-        float[] lightContrib = new float[scene.lights.size()];
+        int nLights = scene.lights.size();
+        float[] lightContrib = new float[nLights];
+        Interaction intr = new Interaction(new Point3f(), new Normal3f(), new Vector3f(), new Vector3f(1, 0, 0), 0 /* time */, new MediumInterface());
+        Point2f u = new Point2f();
         for (int i = 0; i < nSamples; ++i) {
-            Point3f po = voxelBounds.Lerp(new Point3f(LowDiscrepancy.RadicalInverse(0, i), LowDiscrepancy.RadicalInverse(1, i), LowDiscrepancy.RadicalInverse(2, i)));
-            Interaction intr = new Interaction(po, new Normal3f(), new Vector3f(), new Vector3f(1, 0, 0), 0 /* time */, new MediumInterface());
+            final int o = 5 * i;
+            intr.p = voxelBounds.Lerp(new Point3f(haltonPoints[o], haltonPoints[o + 1], haltonPoints[o + 2]));
 
             // Use the next two Halton dimensions to sample a point on the
             // light source.
-            Point2f u = new Point2f(LowDiscrepancy.RadicalInverse(3, i), LowDiscrepancy.RadicalInverse(4, i));
-            for (int j = 0; j < scene.lights.size(); ++j) {
+            u.x = haltonPoints[o + 3];
+            u.y = haltonPoints[o + 4];
+            for (int j = 0; j < nLights; ++j) {
                 Light.LiResult liResult = scene.lights.get(j).Sample_Li(intr, u);
-                float pdf = liResult.pdf;
-                Vector3f wi = liResult.wi;
-                Light.VisibilityTester vis = liResult.vis;
-                Spectrum Li = liResult.spectrum;
-
-                if (pdf > 0) {
+                if (liResult.pdf > 0) {
                     // TODO: look at tracing shadow rays / computing beam
                     // transmittance.  Probably shouldn't give those full weight
                     // but instead e.g. have an occluded shadow ray scale down
                     // the contribution by 10 or something.
-                    lightContrib[j] += Li.y() / pdf;
+                    lightContrib[j] += liResult.spectrum.y() / liResult.pdf;
                 }
             }
         }
@@ -192,7 +222,7 @@ public class SpatialLightDistribution extends LightDistribution {
         // a minimum (small) weight and ensure that all lights are given at
         // least the corresponding probability.
         float sumContrib = 0;
-        for (float c : lightContrib) sumContrib += c;
+        for (int i = 0; i < lightContrib.length; ++i) sumContrib += lightContrib[i];
         float avgContrib = sumContrib / (nSamples * lightContrib.length);
         float minContrib = (avgContrib > 0) ? .001f * avgContrib : 1;
         for (int i = 0; i < lightContrib.length; ++i) {
@@ -202,7 +232,17 @@ public class SpatialLightDistribution extends LightDistribution {
         //Api.logger.info("Initialized light distribution in voxel pi= %s, avgContrib = %f", pi.toString(), avgContrib);
 
         // Compute a sampling distribution from the accumulated contributions.
-        return new Distribution1D(lightContrib);
+        return new AliasDistribution1D(lightContrib);
+    }
+
+    // The first five dimensions of the Halton sequence, used for the
+    // points in each voxel (three dimensions) and the light samples (two).
+    private static final int nSamples = 128;
+    private static final float[] haltonPoints = new float[5 * nSamples];
+    static {
+        for (int i = 0; i < nSamples; ++i)
+            for (int d = 0; d < 5; ++d)
+                haltonPoints[5 * i + d] = LowDiscrepancy.RadicalInverse(d, i);
     }
 
     private final Scene scene;
@@ -214,14 +254,15 @@ public class SpatialLightDistribution extends LightDistribution {
     // locks, using atomic operations. (See the Lookup() method
     // implementation for details.)
     private static class HashEntry {
-        AtomicLong packedPos;
-        AtomicReference<Distribution1D> distribution;
+        final AtomicLong packedPos = new AtomicLong(invalidPackedPos);
+        final CompletableFuture<DiscreteDistribution1D> distribution = new CompletableFuture<>();
     }
     private HashEntry[] hashTable;
     private int hashTableSize;
 
     private static Stats.Counter nCreated = new Stats.Counter("SpatialLightDistribution/Distributions created");
     private static Stats.Ratio looksPerDistrib = new Stats.Ratio("SpatialLightDistribution/Lookups per distribution");
+    private static Stats.Counter nWaits = new Stats.Counter("SpatialLightDistribution/Lookups that waited for a distribution");
     private static Stats.IntegerDistribution nProbesPerLookup = new Stats.IntegerDistribution("SpatialLightDistribution/Hash probes per lookup");
 
 }
\ No newline at end of file
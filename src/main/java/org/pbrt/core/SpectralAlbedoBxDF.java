@@ -0,0 +1,49 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// A lobe whose shape doesn't depend on wavelength, scaled by a per-wavelength
+// albedo: f(wo, wi) = R(lambda) * lobe.f(wo, wi).  The lobe is an RGB BxDF
+// created with unit albedo, e.g. LambertianReflection or OrenNayar.
+public class SpectralAlbedoBxDF extends SpectralBxDF {
+
+    public SpectralAlbedoBxDF(BxDF lobe, SampledSpectrum R) {
+        super(lobe.type);
+        this.lobe = lobe;
+        this.R = R;
+    }
+
+    @Override
+    public SampledSpectrum f(Vector3f wo, Vector3f wi, SampledSpectrum dst) {
+        return dst.setTo(R).scaleInPlace(lobe.f(wo, wi).at(0));
+    }
+
+    @Override
+    public void Sample_f(Vector3f wo, Point2f u, SpectralSample sample) {
+        BxDF.BxDFSample bs = lobe.Sample_f(wo, u);
+        sample.wi = bs.wiWorld;
+        sample.pdf = bs.pdf;
+        sample.sampledType = type;
+        sample.f.setTo(R).scaleInPlace(bs.f.at(0));
+    }
+
+    @Override
+    public float Pdf(Vector3f wo, Vector3f wi) {
+        return lobe.Pdf(wo, wi);
+    }
+
+    @Override
+    public String toString() {
+        return "[ SpectralAlbedoBxDF R: " + R.toString() + " lobe: " + lobe.toString() + " ]";
+    }
+
+    private final BxDF lobe;
+    private final SampledSpectrum R;
+}
@@ -0,0 +1,178 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// The spectral counterpart of BSDF: the same shading frame and component
+// selection, over SpectralBxDFs evaluated at one set of SampledWavelengths.
+public class SpectralBSDF {
+
+    // SpectralBSDF Private Data
+    private final Normal3f ns = new Normal3f(), ng = new Normal3f();
+    private final Vector3f ss = new Vector3f(), ts = new Vector3f();
+    private int nBxDFs = 0;
+    private static final int MaxBxDFs = 8;
+    private final SpectralBxDF[] bxdfs = new SpectralBxDF[MaxBxDFs];
+    private MemoryArena arena = null;
+
+    // SpectralBSDF Public Methods
+    public SpectralBSDF(SurfaceInteraction si, float eta) {
+        Init(si, eta, null);
+    }
+
+    SpectralBSDF() {}
+
+    // (Re)initialize the shading frame, as BSDF.Init() does
+    void Init(SurfaceInteraction si, float eta, MemoryArena arena) {
+        this.eta = eta;
+        this.arena = arena;
+        for (int i = 0; i < nBxDFs; ++i) bxdfs[i] = null;
+        nBxDFs = 0;
+        ns.x = si.shading.n.x; ns.y = si.shading.n.y; ns.z = si.shading.n.z;
+        ng.x = si.n.x; ng.y = si.n.y; ng.z = si.n.z;
+        final Vector3f dpdu = si.shading.dpdu;
+        float len = dpdu.Length();
+        float inv = (len != 0) ? 1 / len : 0;
+        ss.x = dpdu.x * inv; ss.y = dpdu.y * inv; ss.z = dpdu.z * inv;
+        ts.x = (float)(((double)ns.y * ss.z) - ((double)ns.z * ss.y));
+        ts.y = (float)(((double)ns.z * ss.x) - ((double)ns.x * ss.z));
+        ts.z = (float)(((double)ns.x * ss.y) - ((double)ns.y * ss.x));
+    }
+
+    // Wrap the RGB BSDF of a material without a spectral implementation
+    public static SpectralBSDF Upsampled(SurfaceInteraction si, BSDF bsdf, SampledWavelengths lambda, MemoryArena arena) {
+        SpectralBSDF sbsdf = (arena != null) ? arena.AllocSpectralBSDF(si, bsdf.eta) : new SpectralBSDF(si, bsdf.eta);
+        for (int i = 0; i < bsdf.NumComponents(); ++i)
+            sbsdf.Add(new UpsampledBxDF(bsdf.bxdfs[i], lambda));
+        return sbsdf;
+    }
+
+    public void Add(SpectralBxDF b) {
+        assert(nBxDFs < MaxBxDFs);
+        bxdfs[nBxDFs++] = b;
+    }
+
+    public int NumComponents(int flags) {
+        int num = 0;
+        for (int i = 0; i < nBxDFs; ++i)
+            if (bxdfs[i].MatchesFlags(flags)) ++num;
+        return num;
+    }
+    public Vector3f WorldToLocal(Vector3f v) {
+        return WorldToLocal(v, new Vector3f());
+    }
+    public Vector3f WorldToLocal(Vector3f v, Vector3f result) {
+        return result.set(Vector3f.Dot(v, ss), Vector3f.Dot(v, ts), Normal3f.Dot(v, ns));
+    }
+    public Vector3f LocalToWorld(Vector3f v) {
+        return LocalToWorld(v, new Vector3f());
+    }
+    public Vector3f LocalToWorld(Vector3f v, Vector3f result) {
+        return result.set(ss.x * v.x + ts.x * v.y + ns.x * v.z,
+                ss.y * v.x + ts.y * v.y + ns.y * v.z,
+                ss.z * v.x + ts.z * v.y + ns.z * v.z);
+    }
+
+    public SampledSpectrum f(Vector3f woW, Vector3f wiW, int flags, SampledSpectrum dst) {
+        Vector3f wi = WorldToLocal(wiW, AllocVector3f()), wo = WorldToLocal(woW, AllocVector3f());
+        dst.setTo(0);
+        if (wo.z == 0) return dst;
+        boolean reflect = Normal3f.Dot(wiW, ng) * Normal3f.Dot(woW, ng) > 0;
+        SampledSpectrum fi = AllocSampledSpectrum();
+        for (int i = 0; i < nBxDFs; ++i)
+            if (bxdfs[i].MatchesFlags(flags) && ((reflect && ((bxdfs[i].type & BxDF.BSDF_REFLECTION) != 0)) ||
+                    (!reflect && ((bxdfs[i].type & BxDF.BSDF_TRANSMISSION) != 0))))
+                dst.addInPlace(bxdfs[i].f(wo, wi, fi));
+        return dst;
+    }
+
+    public SpectralBxDF.SpectralSample Sample_f(Vector3f woWorld, Point2f u, int type) {
+        SpectralBxDF.SpectralSample sample = (arena != null) ? arena.AllocSpectralSample() : new SpectralBxDF.SpectralSample();
+        // Choose which _SpectralBxDF_ to sample
+        int matchingComps = NumComponents(type);
+        if (matchingComps == 0) return sample;
+        int comp = Math.min((int)Math.floor(u.x * matchingComps), matchingComps - 1);
+        SpectralBxDF bxdf = null;
+        int count = comp;
+        for (int i = 0; i < nBxDFs; ++i)
+            if (bxdfs[i].MatchesFlags(type) && count-- == 0) {
+                bxdf = bxdfs[i];
+                break;
+            }
+        assert(bxdf != null);
+
+        // Remap _SpectralBxDF_ sample _u_ to $[0,1)^2$
+        Point2f uRemapped = new Point2f(Math.min(u.x * matchingComps - comp, Pbrt.OneMinusEpsilon), u.y);
+
+        // Sample chosen _SpectralBxDF_
+        Vector3f wo = WorldToLocal(woWorld, AllocVector3f());
+        if (wo.z == 0) return sample;
+        bxdf.Sample_f(wo, uRemapped, sample);
+        if (sample.pdf == 0) {
+            sample.sampledType = BxDF.BSDF_NONE;
+            return sample;
+        }
+        Vector3f wi = sample.wi;
+        sample.wi = LocalToWorld(wi, AllocVector3f());
+
+        // Compute overall PDF with all matching _SpectralBxDF_s
+        if ((bxdf.type & BxDF.BSDF_SPECULAR) == 0 && matchingComps > 1)
+            for (int i = 0; i < nBxDFs; ++i)
+                if (bxdfs[i] != bxdf && bxdfs[i].MatchesFlags(type))
+                    sample.pdf += bxdfs[i].Pdf(wo, wi);
+        if (matchingComps > 1) sample.pdf /= matchingComps;
+
+        // Compute value of BSDF for sampled direction
+        if ((bxdf.type & BxDF.BSDF_SPECULAR) == 0)
+            f(woWorld, sample.wi, type, sample.f);
+        return sample;
+    }
+
+    public SampledSpectrum rho(Vector3f woWorld, int nSamples, Point2f[] samples, SampledSpectrum dst) {
+        Vector3f wo = WorldToLocal(woWorld);
+        dst.setTo(0);
+        SampledSpectrum r = new SampledSpectrum(0);
+        for (int i = 0; i < nBxDFs; ++i)
+            dst.addInPlace(bxdfs[i].rho(wo, nSamples, samples, r));
+        return dst;
+    }
+
+    public float Pdf(Vector3f woWorld, Vector3f wiWorld, int flags) {
+        if (nBxDFs == 0) return 0;
+        Vector3f wo = WorldToLocal(woWorld, AllocVector3f()), wi = WorldToLocal(wiWorld, AllocVector3f());
+        if (wo.z == 0) return 0;
+        float pdf = 0;
+        int matchingComps = 0;
+        for (int i = 0; i < nBxDFs; ++i)
+            if (bxdfs[i].MatchesFlags(flags)) {
+                ++matchingComps;
+                pdf += bxdfs[i].Pdf(wo, wi);
+            }
+        return matchingComps > 0 ? pdf / matchingComps : 0;
+    }
+
+    // Temporaries come from the arena when there is one, as for BSDF
+    private Vector3f AllocVector3f() {
+        return (arena != null) ? arena.AllocVector3f() : new Vector3f();
+    }
+    private SampledSpectrum AllocSampledSpectrum() {
+        return (arena != null) ? arena.AllocSampledSpectrum(0) : new SampledSpectrum(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(String.format("[ SpectralBSDF eta: %f nBxDFs: %d", eta, nBxDFs));
+        for (int i = 0; i < nBxDFs; ++i)
+            s.append(String.format("\n  bxdfs[%d]: ", i)).append(bxdfs[i].toString());
+        return s + " ]";
+    }
+
+    // SpectralBSDF Public Data
+    public float eta;
+}
@@ -0,0 +1,50 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// A BxDF evaluated at the SampledWavelengths of one camera sample, for
+// spectral rendering.  It is otherwise used like BxDF, in the local shading
+// frame and through a SpectralBSDF.
+public abstract class SpectralBxDF {
+
+    // SpectralBxDF Public Data
+    public final int type;
+
+    // SpectralBxDF Interface
+    public SpectralBxDF(int type) {
+        this.type = type;
+    }
+    public boolean MatchesFlags(int t) { return (type & t) == type; }
+    public abstract SampledSpectrum f(Vector3f wo, Vector3f wi, SampledSpectrum dst);
+
+    public static class SpectralSample {
+        public final SampledSpectrum f = new SampledSpectrum(0);
+        public Vector3f wi = new Vector3f();
+        public float pdf = 0;
+        public int sampledType = BxDF.BSDF_NONE;
+    }
+
+    // Sample an incident direction into _sample_; a zero pdf means none
+    public abstract void Sample_f(Vector3f wo, Point2f u, SpectralSample sample);
+    public abstract float Pdf(Vector3f wo, Vector3f wi);
+
+    // Hemispherical-directional reflectance, estimated with one sample for
+    // each of _u_
+    public SampledSpectrum rho(Vector3f wo, int nSamples, Point2f[] u, SampledSpectrum dst) {
+        dst.setTo(0);
+        for (int i = 0; i < nSamples; ++i) {
+            SpectralSample sample = new SpectralSample();
+            Sample_f(wo, u[i], sample);
+            if (sample.pdf > 0)
+                dst.addInPlace(sample.f.scaleInPlace(Reflection.AbsCosTheta(sample.wi) / sample.pdf));
+        }
+        return dst.scaleInPlace(1f / nSamples);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// FresnelSpecular with a per-wavelength index of refraction.  When the
+// index varies with wavelength the refracted directions differ, so the
+// path continues with the hero wavelength only.
+public class SpectralFresnelSpecular extends SpectralBxDF {
+
+    public SpectralFresnelSpecular(SampledSpectrum R, SampledSpectrum T, float etaA, SampledSpectrum etaB,
+                                   Material.TransportMode mode, SampledWavelengths lambda) {
+        super(BxDF.BSDF_REFLECTION | BxDF.BSDF_TRANSMISSION | BxDF.BSDF_SPECULAR);
+        this.R = R;
+        this.T = T;
+        this.etaA = etaA;
+        this.etaB = etaB;
+        this.mode = mode;
+        this.lambda = lambda;
+        float e = etaB.at(0);
+        this.dispersive = etaB.at(1) != e || etaB.at(2) != e || etaB.at(3) != e;
+    }
+
+    @Override
+    public SampledSpectrum f(Vector3f wo, Vector3f wi, SampledSpectrum dst) {
+        return dst.setTo(0);
+    }
+
+    @Override
+    public void Sample_f(Vector3f wo, Point2f u, SpectralSample sample) {
+        if (dispersive) lambda.TerminateSecondary();
+        Sample(wo, u, sample);
+    }
+
+    // Estimating the reflectance, e.g. for the albedo AOV, keeps all of the
+    // wavelengths, since no path follows the sampled directions
+    @Override
+    public SampledSpectrum rho(Vector3f wo, int nSamples, Point2f[] u, SampledSpectrum dst) {
+        dst.setTo(0);
+        for (int i = 0; i < nSamples; ++i) {
+            SpectralSample sample = new SpectralSample();
+            Sample(wo, u[i], sample);
+            if (sample.pdf > 0)
+                dst.addInPlace(sample.f.scaleInPlace(Reflection.AbsCosTheta(sample.wi) / sample.pdf));
+        }
+        return dst.scaleInPlace(1f / nSamples);
+    }
+
+    private void Sample(Vector3f wo, Point2f u, SpectralSample sample) {
+        float eta = etaB.at(0);
+        float F = Reflection.FrDielectric(Reflection.CosTheta(wo), etaA, eta);
+        if (u.x < F) {
+            // Compute specular reflection for _SpectralFresnelSpecular_
+            sample.wi = new Vector3f(-wo.x, -wo.y, wo.z);
+            sample.sampledType = BxDF.BSDF_SPECULAR | BxDF.BSDF_REFLECTION;
+            sample.pdf = F;
+            sample.f.setTo(R).scaleInPlace(F / Reflection.AbsCosTheta(sample.wi));
+        } else {
+            // Compute specular transmission for _SpectralFresnelSpecular_
+            boolean entering = Reflection.CosTheta(wo) > 0;
+            float etaI = entering ? etaA : eta;
+            float etaT = entering ? eta : etaA;
+            Vector3f refract = Reflection.Refract(wo, Normal3f.Faceforward(new Normal3f(0, 0, 1), wo), etaI / etaT);
+            if (refract == null) {
+                sample.pdf = 0;
+                return;
+            }
+            float ft = 1 - F;
+            // Account for non-symmetry with transmission to different medium
+            if (mode == Material.TransportMode.Radiance)
+                ft *= (etaI * etaI) / (etaT * etaT);
+            sample.wi = refract;
+            sample.sampledType = BxDF.BSDF_SPECULAR | BxDF.BSDF_TRANSMISSION;
+            sample.pdf = 1 - F;
+            sample.f.setTo(T).scaleInPlace(ft / Reflection.AbsCosTheta(refract));
+        }
+    }
+
+    @Override
+    public float Pdf(Vector3f wo, Vector3f wi) {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[ SpectralFresnelSpecular R: " + R.toString() + " T: " + T.toString() +
+                String.format(" etaA: %f etaB: ", etaA) + etaB.toString() +
+                " mode : " + mode.toString() + " ]";
+    }
+
+    private final SampledSpectrum R, T;
+    private final float etaA;
+    private final SampledSpectrum etaB;
+    private final boolean dispersive;
+    private final Material.TransportMode mode;
+    private final SampledWavelengths lambda;
+}
@@ -0,0 +1,76 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// MicrofacetReflection with a FresnelConductor, evaluated at the sampled
+// wavelengths: the microfacet distribution is shared by all of them and the
+// Fresnel term uses each wavelength's own eta and k, so measured metal
+// spectra aren't reduced to RGB.
+public class SpectralMicrofacetConductor extends SpectralBxDF {
+
+    public SpectralMicrofacetConductor(MicrofacetDistribution distribution, float etaI, SampledSpectrum etaT, SampledSpectrum k) {
+        super(BxDF.BSDF_REFLECTION | BxDF.BSDF_GLOSSY);
+        this.distribution = distribution;
+        this.etaI = etaI;
+        this.etaT = etaT;
+        this.k = k;
+    }
+
+    @Override
+    public SampledSpectrum f(Vector3f wo, Vector3f wi, SampledSpectrum dst) {
+        float cosThetaO = Reflection.AbsCosTheta(wo), cosThetaI = Reflection.AbsCosTheta(wi);
+        Vector3f wh = wi.add(wo);
+        // Handle degenerate cases for microfacet reflection
+        if (cosThetaI == 0 || cosThetaO == 0) return dst.setTo(0);
+        if (wh.x == 0 && wh.y == 0 && wh.z == 0) return dst.setTo(0);
+        wh = Vector3f.Normalize(wh);
+        // As for MicrofacetReflection, _wh_ is taken in the hemisphere of the
+        // surface normal for the Fresnel term
+        float cosThetaH = Vector3f.Dot(wi, Vector3f.Faceforward(wh, new Vector3f(0, 0, 1)));
+        float scale = distribution.D(wh) * distribution.G(wo, wi) / (4 * cosThetaI * cosThetaO);
+        for (int i = 0; i < SampledSpectrum.nSamples; ++i)
+            dst.set(i, scale * Reflection.FrConductor(cosThetaH, etaI, etaT.at(i), k.at(i)));
+        return dst;
+    }
+
+    @Override
+    public void Sample_f(Vector3f wo, Point2f u, SpectralSample sample) {
+        // Sample microfacet orientation $\wh$ and reflected direction $\wi$
+        sample.pdf = 0;
+        if (wo.z == 0) return;
+        Vector3f wh = distribution.Sample_wh(wo, u);
+        if (Vector3f.Dot(wo, wh) < 0) return;   // Should be rare
+        Vector3f wi = Reflection.Reflect(wo, wh);
+        if (!Reflection.SameHemisphere(wo, wi)) return;
+
+        // Compute PDF of _wi_ for microfacet reflection
+        sample.wi = wi;
+        sample.pdf = distribution.Pdf(wo, wh) / (4 * Vector3f.Dot(wo, wh));
+        sample.sampledType = type;
+        f(wo, wi, sample.f);
+    }
+
+    @Override
+    public float Pdf(Vector3f wo, Vector3f wi) {
+        if (!Reflection.SameHemisphere(wo, wi)) return 0;
+        Vector3f wh = Vector3f.Normalize(wo.add(wi));
+        return distribution.Pdf(wo, wh) / (4 * Vector3f.Dot(wo, wh));
+    }
+
+    @Override
+    public String toString() {
+        return "[ SpectralMicrofacetConductor distribution: " + distribution.toString() +
+                String.format(" etaI: %f etaT: ", etaI) + etaT.toString() + " k: " + k.toString() + " ]";
+    }
+
+    private final MicrofacetDistribution distribution;
+    private final float etaI;
+    private final SampledSpectrum etaT, k;
+}
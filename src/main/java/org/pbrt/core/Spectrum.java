@@ -17,20 +17,33 @@ import java.io.PrintStream;
 public final class Spectrum {
 
     public static final int nSamples = 3;
-    private final float[] c = { 0, 0, 0 };
+
+    // RGB coefficients are kept in scalar fields rather than a float[] so a
+    // Spectrum is a single small object and component access needs no bounds
+    // checks; at()/set() remain for code that loops over the samples.
+    private float r, g, b;
 
     public static final int sampledLambdaStart = 400;
     public static final int sampledLambdaEnd = 700;
     public static final int nSpectralSamples = 60;
 
+    // How an RGB value is upsampled for spectral rendering
+    public enum SpectrumType { Reflectance, Illuminant }
 
     public Spectrum(float v) {
-        for (int i = 0; i < c.length; i++) {
-            c[i] = v;
-        }
+        r = v;
+        g = v;
+        b = v;
     }
     public Spectrum(Spectrum s) {
-        System.arraycopy(s.c, 0, this.c, 0, this.c.length);
+        r = s.r;
+        g = s.g;
+        b = s.b;
+    }
+    private Spectrum(float r, float g, float b) {
+        this.r = r;
+        this.g = g;
+        this.b = b;
     }
 
     public static int numSamples() {
@@ -38,189 +51,228 @@ public final class Spectrum {
     }
 
     public void print(PrintStream ps) {
-        ps.print("[ ");
-        for (int i = 0; i < c.length; i++) {
-            ps.printf("%f", c[i]);
-            if (i != c.length - 1) ps.printf(", ");
-        }
-        ps.print("]");
+        ps.printf("[ %f, %f, %f]", r, g, b);
     }
 
     public Spectrum lerp(float t, Spectrum v1) {
         assert (!v1.hasNaNs());
-        Spectrum rs = new Spectrum(0);
-        for (int i = 0; i < c.length; i++) {
-            rs.c[i] = Pbrt.Lerp(t, c[i], v1.c[i]);
-        }
-        return rs;
+        return new Spectrum(Pbrt.Lerp(t, r, v1.r), Pbrt.Lerp(t, g, v1.g), Pbrt.Lerp(t, b, v1.b));
     }
 
     public Spectrum add(Spectrum addend) {
         assert (!addend.hasNaNs());
-        Spectrum rs = new Spectrum(0);
-        for (int i = 0; i < addend.c.length; ++i) {
-            rs.c[i] = c[i] + addend.c[i];
-        }
-        return rs;
+        return new Spectrum(r + addend.r, g + addend.g, b + addend.b);
     }
 
     public void accum(Spectrum addend) {
-        assert (!addend.hasNaNs());
-        for (int i = 0; i < c.length; ++i) {
-            this.c[i] += addend.c[i];
-        }
+        addInPlace(addend);
     }
     public Spectrum subtract(Spectrum subtrahend) {
         assert !subtrahend.hasNaNs();
-        Spectrum rs = new Spectrum(0);
-        for (int i = 0; i < subtrahend.c.length; ++i) {
-            rs.c[i] = c[i] - subtrahend.c[i];
-        }
-        return rs;
+        return new Spectrum(r - subtrahend.r, g - subtrahend.g, b - subtrahend.b);
     }
     public Spectrum multiply(Spectrum multiplicand) {
         assert !multiplicand.hasNaNs();
-        Spectrum rs = new Spectrum(0);
-        for (int i = 0; i < multiplicand.c.length; i++) {
-            rs.c[i] = c[i] * multiplicand.c[i];
-        }
-        return rs;
+        return new Spectrum(r * multiplicand.r, g * multiplicand.g, b * multiplicand.b);
     }
     public Spectrum scale(float scalar) {
-        Spectrum rs = new Spectrum(0);
-        for (int i = 0; i < c.length; ++i) {
-            rs.c[i] = c[i] * scalar;
-        }
+        Spectrum rs = new Spectrum(r * scalar, g * scalar, b * scalar);
         assert !rs.hasNaNs();
         return rs;
     }
 
     public Spectrum divide(Spectrum divisor) {
         assert (!divisor.hasNaNs());
-        Spectrum rs = new Spectrum(0.0f);
-        for (int i = 0; i < c.length; ++i) {
-            assert divisor.c[i] != 0.0f;
-            rs.c[i] = this.c[i] / divisor.c[i];
-        }
-        return rs;
+        assert divisor.r != 0 && divisor.g != 0 && divisor.b != 0;
+        return new Spectrum(r / divisor.r, g / divisor.g, b / divisor.b);
     }
 
     public Spectrum clamp(float low, float high) {
-        Spectrum rs = new Spectrum(0.0f);
-        for (int i = 0; i < c.length; ++i) {
-            rs.c[i] = Pbrt.Clamp(c[i], low, high);
-        }
+        Spectrum rs = new Spectrum(Pbrt.Clamp(r, low, high), Pbrt.Clamp(g, low, high), Pbrt.Clamp(b, low, high));
         assert !rs.hasNaNs();
         return rs;
     }
 
+    // In-place arithmetic.  These overwrite this spectrum and return it so
+    // that integrator inner loops can update their running throughput and
+    // radiance without allocating a temporary per operation.  Only use them
+    // on spectra the caller owns; values returned from lights, textures or
+    // materials may be shared.
+
+    public Spectrum setTo(Spectrum s) {
+        r = s.r;
+        g = s.g;
+        b = s.b;
+        return this;
+    }
+    public Spectrum setTo(float v) {
+        r = v;
+        g = v;
+        b = v;
+        return this;
+    }
+
+    // this += s
+    public Spectrum addInPlace(Spectrum s) {
+        assert (!s.hasNaNs());
+        r += s.r;
+        g += s.g;
+        b += s.b;
+        return this;
+    }
+
+    // this -= s
+    public Spectrum subtractInPlace(Spectrum s) {
+        assert (!s.hasNaNs());
+        r -= s.r;
+        g -= s.g;
+        b -= s.b;
+        return this;
+    }
+
+    // this *= s
+    public Spectrum multiplyInPlace(Spectrum s) {
+        assert (!s.hasNaNs());
+        r *= s.r;
+        g *= s.g;
+        b *= s.b;
+        return this;
+    }
+
+    // this *= a
+    public Spectrum scaleInPlace(float a) {
+        r *= a;
+        g *= a;
+        b *= a;
+        assert !hasNaNs();
+        return this;
+    }
+
+    // this /= s
+    public Spectrum divideInPlace(Spectrum s) {
+        assert (!s.hasNaNs());
+        assert s.r != 0 && s.g != 0 && s.b != 0;
+        r /= s.r;
+        g /= s.g;
+        b /= s.b;
+        return this;
+    }
+
+    // this += a * b
+    public Spectrum mulAdd(Spectrum a, Spectrum s) {
+        assert (!a.hasNaNs() && !s.hasNaNs());
+        r += a.r * s.r;
+        g += a.g * s.g;
+        b += a.b * s.b;
+        return this;
+    }
+
+    // this += a * (b * scale)
+    public Spectrum mulAdd(Spectrum a, Spectrum s, float scale) {
+        assert (!a.hasNaNs() && !s.hasNaNs());
+        r += a.r * (s.r * scale);
+        g += a.g * (s.g * scale);
+        b += a.b * (s.b * scale);
+        return this;
+    }
+
+    // this += a * scale
+    public Spectrum mulAdd(Spectrum a, float scale) {
+        assert (!a.hasNaNs());
+        r += a.r * scale;
+        g += a.g * scale;
+        b += a.b * scale;
+        return this;
+    }
+
+    // this *= f * scale; the throughput update beta *= f * AbsDot(wi, n) / pdf
+    public Spectrum mulScaleInPlace(Spectrum f, float scale) {
+        assert (!f.hasNaNs());
+        r *= f.r * scale;
+        g *= f.g * scale;
+        b *= f.b * scale;
+        assert !hasNaNs();
+        return this;
+    }
+
     public static Spectrum Add(Spectrum s1, Spectrum s2) {
         assert !s1.hasNaNs();
         assert !s2.hasNaNs();
-        Spectrum cs = new Spectrum(0);
-        for (int i = 0; i < s1.c.length; ++i) {
-            cs.c[i] = s1.c[i] + s2.c[i];
-        }
-        return cs;
+        return new Spectrum(s1.r + s2.r, s1.g + s2.g, s1.b + s2.b);
     }
     public static Spectrum Subtract(Spectrum s1, Spectrum s2) {
         assert !s1.hasNaNs();
         assert !s2.hasNaNs();
-        Spectrum cs = new Spectrum(0);
-        for (int i = 0; i < s1.c.length; ++i) {
-            cs.c[i] = s1.c[i] - s2.c[i];
-        }
-        return cs;
+        return new Spectrum(s1.r - s2.r, s1.g - s2.g, s1.b - s2.b);
     }
     public static Spectrum Divide(Spectrum s1, Spectrum s2) {
         assert (!s1.hasNaNs());
         assert (!s2.hasNaNs());
-        Spectrum cs = new Spectrum(0);
-        for (int i = 0; i < s1.c.length; i++) {
-            assert s2.c[i] != 0.0f;
-            cs.c[i] = s1.c[i] / s2.c[i];
-        }
-        return cs;
+        assert s2.r != 0 && s2.g != 0 && s2.b != 0;
+        return new Spectrum(s1.r / s2.r, s1.g / s2.g, s1.b / s2.b);
     }
     public static Spectrum Multiply(Spectrum s1, Spectrum s2) {
         assert (!s1.hasNaNs());
         assert (!s2.hasNaNs());
-        Spectrum cs = new Spectrum(0);
-        for (int i = 0; i < s1.c.length; i++) {
-            cs.c[i] = s1.c[i] * s2.c[i];
-        }
-        return cs;
+        return new Spectrum(s1.r * s2.r, s1.g * s2.g, s1.b * s2.b);
     }
 
     public static Spectrum Scale(Spectrum s, float a) {
-        Spectrum ss = new Spectrum(0);
-        for (int i = 0; i < s.c.length; ++i) {
-            ss.c[i] = s.c[i] * a;
-        }
-        return ss;
+        return new Spectrum(s.r * a, s.g * a, s.b * a);
     }
 
     public void invScale(float a) {
         assert (a != 0.0f);
-        for (int i = 0; i < c.length; ++i) {
-            this.c[i] /= a;
-        }
+        r /= a;
+        g /= a;
+        b /= a;
     }
     public Spectrum negate() {
-        Spectrum ret = new Spectrum(0.0f);
-        for (int i = 0; i < c.length; ++i) {
-            ret.c[i] = -c[i];
-        }
-        return ret;
+        return new Spectrum(-r, -g, -b);
     }
 
     public boolean equal(Spectrum s2) {
-        for (int i = 0; i < c.length; ++i) {
-            if (c[i] != s2.c[i]) return false;
-        }
-        return true;
+        return r == s2.r && g == s2.g && b == s2.b;
     }
     public boolean notEqual(Spectrum s2) {
         return !equal(s2);
     }
 
     public boolean isBlack() {
-        for (float aC : c) {
-            if (aC != 0) return false;
-        }
-        return true;
+        return r == 0 && g == 0 && b == 0;
     }
 
     public float y() {
-        final float[] YWeight = {0.212671f, 0.715160f, 0.072169f};
-        return YWeight[0] * c[0] + YWeight[1] * c[1] + YWeight[2] * c[2];
+        return 0.212671f * r + 0.715160f * g + 0.072169f * b;
     }
 
     public boolean hasNaNs() {
-        for (float aC : c) {
-            if (Float.isNaN(aC)) return true;
-        }
-        return false;
+        return Float.isNaN(r) || Float.isNaN(g) || Float.isNaN(b);
     }
 
     public void set(int i, float v) {
-        assert (i >= 0 && i < c.length);
-        c[i] = v;
+        assert (i >= 0 && i < nSamples);
+        switch (i) {
+            case 0: r = v; break;
+            case 1: g = v; break;
+            default: b = v; break;
+        }
     }
     public float at(int i) {
-        assert (i >= 0 && i < c.length);
-        return c[i];
+        assert (i >= 0 && i < nSamples);
+        switch (i) {
+            case 0: return r;
+            case 1: return g;
+            default: return b;
+        }
     }
 
     public float maxComponentValue() {
-        float m = c[0];
-        for (int i = 1; i < c.length; ++i)
-            m = Math.max(m, c[i]);
-        return m;
+        return Math.max(r, Math.max(g, b));
     }
 
     public boolean write(PrintStream f) {
-        for (float aC : c) f.printf("%f ", aC);
+        f.printf("%f %f %f ", r, g, b);
         return true;
     }
     public boolean read(InputStream f) {
@@ -229,57 +281,52 @@ public final class Spectrum {
 
 
     public static Spectrum FromRGB(float[] rgb) {
-        Spectrum s = new Spectrum(0.0f);
-        s.c[0] = rgb[0];
-        s.c[1] = rgb[1];
-        s.c[2] = rgb[2];
+        Spectrum s = new Spectrum(rgb[0], rgb[1], rgb[2]);
         assert (!s.hasNaNs());
         return s;
     }
 
     public static Spectrum FromRGB(float r, float g, float b) {
-        Spectrum s = new Spectrum(0.0f);
-        s.c[0] = r;
-        s.c[1] = g;
-        s.c[2] = b;
+        Spectrum s = new Spectrum(r, g, b);
         assert (!s.hasNaNs());
         return s;
     }
 
     public static Spectrum FromRGB(int argb) {
-        Spectrum s = new Spectrum(0);
-        s.c[0] = ((argb & 0xff0000) >>> 16) / 255.0f;
-        s.c[1] = ((argb & 0x00ff00) >>> 8) / 255.0f;
-        s.c[2] = ((argb & 0x0000ff) >>> 0) / 255.0f;
-        return s;
+        return new Spectrum(((argb & 0xff0000) >>> 16) / 255.0f,
+                ((argb & 0x00ff00) >>> 8) / 255.0f,
+                ((argb & 0x0000ff) >>> 0) / 255.0f);
     }
 
     public float[] toRGB() {
-        float[] rgb = new float[nSamples];
-        rgb[0] = c[0];
-        rgb[1] = c[1];
-        rgb[2] = c[2];
-        return rgb;
+        return new float[] { r, g, b };
     }
 
     public float[] toXYZ() {
         float[] xyz = new float[3];
-        return RGBToXYZ(c, xyz);
+        return toXYZ(xyz);
+    }
+
+    // Writes the XYZ coefficients into the caller-supplied array
+    public float[] toXYZ(float[] xyz) {
+        xyz[0] = 0.412453f * r + 0.357580f * g + 0.180423f * b;
+        xyz[1] = 0.212671f * r + 0.715160f * g + 0.072169f * b;
+        xyz[2] = 0.019334f * r + 0.119193f * g + 0.950227f * b;
+        return xyz;
     }
 
     @Override
     public String toString() {
-        return String.format("[ %f, %f, %f ]", this.c[0], this.c[1], this.c[2]);
+        return String.format("[ %f, %f, %f ]", r, g, b);
     }
 
     public static Spectrum FromXYZ(float[] xyz) {
-        Spectrum r = new Spectrum(0.0f);
-        XYZToRGB(xyz, r.c);
-        return r;
+        return FromXYZ(xyz[0], xyz[1], xyz[2]);
     }
     public static Spectrum FromXYZ(float x, float y, float z) {
-        float[] xyz = {x, y, z};
-        return FromXYZ(xyz);
+        return new Spectrum(3.240479f * x - 1.537150f * y - 0.498535f * z,
+                -0.969256f * x + 1.875991f * y + 0.041556f * z,
+                0.055648f * x - 0.204043f * y + 1.057311f * z);
     }
 
     public static Spectrum FromSampled(float[] lambda, float[] v) {
@@ -305,28 +352,19 @@ public final class Spectrum {
     }
 
     public static Spectrum Sqrt(Spectrum s) {
-        Spectrum ret = new Spectrum(0.0f);
-        for (int i = 0; i < s.c.length; ++i) {
-            ret.c[i] = (float)Math.sqrt(s.c[i]);
-        }
+        Spectrum ret = new Spectrum((float)Math.sqrt(s.r), (float)Math.sqrt(s.g), (float)Math.sqrt(s.b));
         assert !ret.hasNaNs();
         return ret;
     }
 
     public static Spectrum Pow(Spectrum s, float e) {
-        Spectrum ret = new Spectrum(0.0f);
-        for (int i = 0; i < s.c.length; ++i) {
-            ret.c[i] = (float)Math.pow(s.c[i], e);
-        }
+        Spectrum ret = new Spectrum((float)Math.pow(s.r, e), (float)Math.pow(s.g, e), (float)Math.pow(s.b, e));
         assert !ret.hasNaNs();
         return ret;
     }
 
     public static Spectrum Exp(Spectrum s) {
-        Spectrum ret = new Spectrum(0.0f);
-        for (int i = 0; i < s.c.length; ++i) {
-            ret.c[i] = (float)Math.exp(s.c[i]);
-        }
+        Spectrum ret = new Spectrum((float)Math.exp(s.r), (float)Math.exp(s.g), (float)Math.exp(s.b));
         assert !ret.hasNaNs();
         return ret;
     }
@@ -33,7 +33,7 @@ public class Stats {
 
         StatRegisterer statRegisterer;
         private final String title;
-        ThreadLocal<Long> var = new ThreadLocal<>();
+        ThreadLocal<Long> var = ThreadLocal.withInitial(() -> 0L);
 
         @Override
         public void accept(StatsAccumulator accum) {
@@ -62,7 +62,7 @@ public class Stats {
 
         StatRegisterer statRegisterer;
         private final String title;
-        ThreadLocal<Long> var = new ThreadLocal<>();
+        ThreadLocal<Long> var = ThreadLocal.withInitial(() -> 0L);
 
         @Override
         public void accept(StatsAccumulator accum) {
@@ -97,8 +97,8 @@ public class Stats {
 
         StatRegisterer statRegisterer;
         private final String title;
-        ThreadLocal<Long> numVar = new ThreadLocal<>();
-        ThreadLocal<Long> denomVar = new ThreadLocal<>();
+        ThreadLocal<Long> numVar = ThreadLocal.withInitial(() -> 0L);
+        ThreadLocal<Long> denomVar = ThreadLocal.withInitial(() -> 0L);
 
         @Override
         public void accept(StatsAccumulator accum) {
@@ -129,8 +129,8 @@ public class Stats {
 
         StatRegisterer statRegisterer;
         private final String title;
-        ThreadLocal<Long> numVar = new ThreadLocal<>();
-        ThreadLocal<Long> denomVar = new ThreadLocal<>();
+        ThreadLocal<Long> numVar = ThreadLocal.withInitial(() -> 0L);
+        ThreadLocal<Long> denomVar = ThreadLocal.withInitial(() -> 0L);
 
         @Override
         public void accept(StatsAccumulator accum) {
@@ -167,10 +167,10 @@ public class Stats {
 
         StatRegisterer statRegisterer;
         private final String title;
-        ThreadLocal<Long> sumVar = new ThreadLocal<>();
-        ThreadLocal<Long> countVar = new ThreadLocal<>();
-        ThreadLocal<Long> minVar = new ThreadLocal<>();
-        ThreadLocal<Long> maxVar = new ThreadLocal<>();
+        ThreadLocal<Long> sumVar = ThreadLocal.withInitial(() -> 0L);
+        ThreadLocal<Long> countVar = ThreadLocal.withInitial(() -> 0L);
+        ThreadLocal<Long> minVar = ThreadLocal.withInitial(() -> Long.MAX_VALUE);
+        ThreadLocal<Long> maxVar = ThreadLocal.withInitial(() -> Long.MIN_VALUE);
 
         @Override
         public void accept(StatsAccumulator accum) {
@@ -207,10 +207,10 @@ public class Stats {
 
         StatRegisterer statRegisterer;
         private final String title;
-        ThreadLocal<Double> sumVar = new ThreadLocal<>();
-        ThreadLocal<Long> countVar = new ThreadLocal<>();
-        ThreadLocal<Double> minVar = new ThreadLocal<>();
-        ThreadLocal<Double> maxVar = new ThreadLocal<>();
+        ThreadLocal<Double> sumVar = ThreadLocal.withInitial(() -> 0.0);
+        ThreadLocal<Long> countVar = ThreadLocal.withInitial(() -> 0L);
+        ThreadLocal<Double> minVar = ThreadLocal.withInitial(() -> Double.MAX_VALUE);
+        ThreadLocal<Double> maxVar = ThreadLocal.withInitial(() -> Double.MIN_VALUE);
 
         @Override
         public void accept(StatsAccumulator accum) {
@@ -93,12 +93,19 @@ public class SurfaceInteraction extends Interaction {
         shading.dndv = dndvs;
     }
 
-    public void ComputeScatteringFunctions(RayDifferential ray) {
-        ComputeScatteringFunctions(ray,false, Material.TransportMode.Radiance);
+    public void ComputeScatteringFunctions(RayDifferential ray, MemoryArena arena) {
+        ComputeScatteringFunctions(ray, arena, false, Material.TransportMode.Radiance);
     }
-    public void ComputeScatteringFunctions(RayDifferential ray, boolean allowMultipleLobes, Material.TransportMode mode) {
+    public void ComputeScatteringFunctions(RayDifferential ray, MemoryArena arena, boolean allowMultipleLobes, Material.TransportMode mode) {
         ComputeDifferentials(ray);
-        primitive.ComputeScatteringFunctions(this, mode, allowMultipleLobes);
+        primitive.ComputeScatteringFunctions(this, arena, mode, allowMultipleLobes);
+    }
+    // Spectral counterpart of ComputeScatteringFunctions(); returns null for
+    // surfaces without a material, such as medium boundaries.
+    public SpectralBSDF ComputeSpectralScatteringFunctions(RayDifferential ray, SampledWavelengths lambda, MemoryArena arena, Material.TransportMode mode) {
+        ComputeDifferentials(ray);
+        Material material = primitive.GetMaterial();
+        return (material != null) ? material.ComputeSpectralScatteringFunctions(this, lambda, arena, mode) : null;
     }
     public void ComputeDifferentials(RayDifferential ray) {
         if (ray.hasDifferentials) {
@@ -0,0 +1,63 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// A spectrum tabulated in nSpectralSamples bins over [sampledLambdaStart,
+// sampledLambdaEnd].  Scene constants such as constant textures and area
+// light emission are upsampled into one of these when the scene is loaded,
+// or averaged from their measurements when they were given as such, so
+// spectral rendering only has to look them up.
+public final class TabulatedSpectrum {
+
+    public static TabulatedSpectrum FromRGB(Spectrum s, Spectrum.SpectrumType type) {
+        float[] v = new float[Spectrum.nSpectralSamples];
+        float r = s.at(0), g = s.at(1), b = s.at(2);
+        for (int i = 0; i < Spectrum.nSpectralSamples; ++i) {
+            // Average the upsampled spectrum over the bin at 1nm steps
+            float lambda0 = Pbrt.Lerp((float)i / Spectrum.nSpectralSamples, Spectrum.sampledLambdaStart, Spectrum.sampledLambdaEnd);
+            float lambda1 = Pbrt.Lerp((float)(i + 1) / Spectrum.nSpectralSamples, Spectrum.sampledLambdaStart, Spectrum.sampledLambdaEnd);
+            int n = 0;
+            for (float l = lambda0 + 0.5f; l < lambda1; l += 1, ++n)
+                v[i] += SampledWavelengths.FromRGB(r, g, b, type, l);
+            v[i] /= n;
+        }
+        return new TabulatedSpectrum(v);
+    }
+
+    // Average of the piecewise-linear spectrum through the samples over
+    // each bin; _lambda_ must be sorted, as for Spectrum.FromSampled()
+    public static TabulatedSpectrum FromSampled(float[] lambda, float[] v) {
+        float[] t = new float[Spectrum.nSpectralSamples];
+        for (int i = 0; i < Spectrum.nSpectralSamples; ++i) {
+            float lambda0 = Pbrt.Lerp((float)i / Spectrum.nSpectralSamples, Spectrum.sampledLambdaStart, Spectrum.sampledLambdaEnd);
+            float lambda1 = Pbrt.Lerp((float)(i + 1) / Spectrum.nSpectralSamples, Spectrum.sampledLambdaStart, Spectrum.sampledLambdaEnd);
+            t[i] = Spectrum.AverageSpectrumSamples(lambda, v, lambda0, lambda1);
+        }
+        return new TabulatedSpectrum(t);
+    }
+
+    public static TabulatedSpectrum Constant(float c) {
+        float[] v = new float[Spectrum.nSpectralSamples];
+        java.util.Arrays.fill(v, c);
+        return new TabulatedSpectrum(v);
+    }
+
+    public SampledSpectrum Sample(SampledWavelengths lambda, SampledSpectrum dst) {
+        for (int i = 0; i < SampledWavelengths.nSamples; ++i)
+            dst.set(i, values[lambda.SpectralBin(i)]);
+        return dst;
+    }
+
+    private TabulatedSpectrum(float[] values) {
+        this.values = values;
+    }
+
+    private final float[] values;
+}
@@ -37,6 +37,20 @@ public class Texture<T> {
             return (wrapMode != t2.wrapMode) ? -1 : 0;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TexInfo)) return false;
+            TexInfo t2 = (TexInfo)o;
+            return Objects.equals(filename, t2.filename) && doTrilinear == t2.doTrilinear && maxAniso == t2.maxAniso &&
+                    wrapMode == t2.wrapMode && scale == t2.scale && gamma == t2.gamma;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filename, doTrilinear, maxAniso, wrapMode, scale, gamma);
+        }
+
         public String filename;
         public boolean doTrilinear;
         public float maxAniso;
@@ -0,0 +1,371 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Shared cache of texture tiles, in the spirit of OpenImageIO's
+// ImageCache.  Each registered texture is a MIP pyramid split into square
+// tiles of TileSize^2 texels stored as interleaved floats, or half floats
+// for sources that supply them; tiles are read from the texture's
+// TileSource on first use, or box-filtered from the level below when the
+// source has no data for a level.  The total size of the resident tiles is
+// kept under a global budget by evicting the least recently used tiles.
+// The tile table is split into independently locked stripes, so lookups
+// from different threads rarely contend, and each thread remembers the
+// last few tiles it used in a TileCursor.
+public class TextureCache {
+
+    public static final int LogTileSize = 6;
+    public static final int TileSize = 1 << LogTileSize;
+
+    // Supplier of the texels of a texture.  Level 0 is width x height
+    // texels, both powers of two, and each further level halves them down
+    // to 1x1.  Tiles are min(TileSize, level width) texels wide and
+    // min(TileSize, level height) high, stored row by row with _Channels()_
+    // interleaved floats per texel.
+    public interface TileSource {
+        int Channels();
+        int Width();
+        int Height();
+        // Fill _tile_ with tile (tx, ty) of _level_ and return true, or
+        // return false if the level should be filtered from the one below.
+        boolean ReadTile(int level, int tx, int ty, float[] tile);
+        // Sources whose texels are half floats return true here and supply
+        // their tiles through ReadTileHalf() instead, so the cache keeps
+        // them, and the tiles it filters from them, at half the size.
+        default boolean Half() { return false; }
+        default boolean ReadTileHalf(int level, int tx, int ty, short[] tile) { return false; }
+    }
+
+    // The texels of a resident tile, in the layout described above
+    public static final class Tile {
+        Tile(float[] texels) {
+            this.texels = texels;
+            this.halfTexels = null;
+        }
+        Tile(short[] halfTexels) {
+            this.texels = null;
+            this.halfTexels = halfTexels;
+        }
+
+        public float get(int i) {
+            return (texels != null) ? texels[i] : Pbrt.HalfToFloat(halfTexels[i]);
+        }
+        public int Size() { return (texels != null) ? texels.length : halfTexels.length; }
+        public boolean IsHalf() { return halfTexels != null; }
+
+        long Bytes() {
+            return (texels != null) ? 16 + 4L * texels.length : 16 + 2L * halfTexels.length;
+        }
+
+        private final float[] texels;
+        private final short[] halfTexels;
+    }
+
+    // The tiles a thread used last.  The texels of a filter footprint lie
+    // in a few neighbouring tiles of one or two levels, so a lookup gets
+    // its thread's cursor once, with CachedTexture.Cursor(), and resolves
+    // each texel's tile through it without going to the shared table.
+    // Tiles are kept in one slot per parity of level and tile coordinates.
+    public static final class TileCursor {
+        private TileCursor() {
+            Arrays.fill(keys, -1);
+        }
+
+        private final long[] keys = new long[CursorSlots];
+        private final Tile[] tiles = new Tile[CursorSlots];
+    }
+
+    public TextureCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < NumStripes; ++i) stripes[i] = new Stripe();
+    }
+
+    public static TextureCache Global() {
+        TextureCache cache = global;
+        if (cache == null) {
+            synchronized (TextureCache.class) {
+                if (global == null) {
+                    long mb = (Pbrt.options != null) ? Pbrt.options.TextureCacheMB : new Options().TextureCacheMB;
+                    global = new TextureCache(mb << 20);
+                }
+                cache = global;
+            }
+        }
+        return cache;
+    }
+
+    // Drop the global cache and everything in it, along with the files
+    // and chunks EXR sources keep; the next call to Global() creates a new
+    // cache sized from the current options.
+    public static synchronized void Reset() {
+        if (global != null) global.Clear();
+        global = null;
+        EXRTileSource.Reset();
+    }
+
+    public CachedTexture Register(TileSource source) {
+        return new CachedTexture(this, nextId.getAndIncrement(), source);
+    }
+
+    public long BytesResident() { return bytesResident.get(); }
+    public long MaxBytes() { return maxBytes; }
+    public long TileLookups() { return lookups.sum(); }
+    public long TileHits() { return hits.sum(); }
+
+    // A TileSource that can only produce its tiles from a whole decoded
+    // image keeps that image in the cache under a key from NewDataKey(),
+    // so it is charged to the budget and evicted like a tile.  PutData()
+    // returns the data already stored under _key_, if any.
+    public long NewDataKey() {
+        return ((long)nextId.getAndIncrement() << 32) | (DataLevel << 27);
+    }
+    public float[] GetData(long key) {
+        Tile data = Get(key);
+        return (data != null) ? data.texels : null;
+    }
+    public float[] PutData(long key, float[] data) { return Put(key, new Tile(data)).texels; }
+
+    public void Clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Tile tile : stripe.tiles.values()) ReleaseBytes(tile);
+                stripe.tiles.clear();
+            }
+        }
+    }
+
+    // One texture's tiles in the cache.  Texel coordinates must already be
+    // inside the level, i.e. wrapped by the caller.
+    public static class CachedTexture {
+
+        private CachedTexture(TextureCache cache, int id, TileSource source) {
+            assert (Pbrt.IsPowerOf2(source.Width()) && Pbrt.IsPowerOf2(source.Height()));
+            this.cache = cache;
+            this.id = id;
+            this.source = source;
+            this.nChannels = source.Channels();
+            int nLevels = 1 + Pbrt.Log2Int(Math.max(source.Width(), source.Height()));
+            this.width = new int[nLevels];
+            this.height = new int[nLevels];
+            this.tilesX = new int[nLevels];
+            for (int i = 0; i < nLevels; ++i) {
+                width[i] = Math.max(1, source.Width() >> i);
+                height[i] = Math.max(1, source.Height() >> i);
+                tilesX[i] = (width[i] + TileSize - 1) >> LogTileSize;
+            }
+        }
+
+        public int Levels() { return width.length; }
+        public int Width(int level) { return width[level]; }
+        public int Height(int level) { return height[level]; }
+        public int Channels() { return nChannels; }
+
+        // The calling thread's cursor, for the texel lookups of one filter
+        // footprint
+        public TileCursor Cursor() { return cache.cursor.get(); }
+
+        public float Texel(int level, int s, int t, int c) {
+            return Tile(Cursor(), level, s >> LogTileSize, t >> LogTileSize).get(TexelOffset(level, s, t) + c);
+        }
+
+        public Spectrum TexelSpectrum(TileCursor cursor, int level, int s, int t) {
+            Tile tile = Tile(cursor, level, s >> LogTileSize, t >> LogTileSize);
+            int o = TexelOffset(level, s, t);
+            if (nChannels == 1) return new Spectrum(tile.get(o));
+            return Spectrum.FromRGB(tile.get(o), tile.get(o + 1), tile.get(o + 2));
+        }
+
+        public float TexelFloat(TileCursor cursor, int level, int s, int t) {
+            Tile tile = Tile(cursor, level, s >> LogTileSize, t >> LogTileSize);
+            int o = TexelOffset(level, s, t);
+            if (nChannels == 1) return tile.get(o);
+            return 0.212671f * tile.get(o) + 0.715160f * tile.get(o + 1) + 0.072169f * tile.get(o + 2);
+        }
+
+        // Offset of texel (s, t)'s first channel within its tile
+        public int TexelOffset(int level, int s, int t) {
+            int tw = Math.min(TileSize, width[level]), th = Math.min(TileSize, height[level]);
+            return ((t & (th - 1)) * tw + (s & (tw - 1))) * nChannels;
+        }
+
+        public Tile Tile(int level, int tx, int ty) {
+            return Tile(Cursor(), level, tx, ty);
+        }
+
+        // Tile (tx, ty) of _level_, from _cursor_ if it holds it.  Only the
+        // lookups that go to the shared table are counted in the cache's
+        // statistics.
+        public Tile Tile(TileCursor cursor, int level, int tx, int ty) {
+            long key = ((long)id << 32) | ((long)level << 27) | (ty * tilesX[level] + tx);
+            int slot = (tx & 1) | (ty & 1) << 1 | (level & 1) << 2;
+            if (cursor.keys[slot] == key) return cursor.tiles[slot];
+            cache.lookups.increment();
+            Tile tile = cache.Get(key);
+            if (tile != null)
+                cache.hits.increment();
+            else
+                tile = cache.Put(key, LoadTile(level, tx, ty));
+            cursor.keys[slot] = key;
+            cursor.tiles[slot] = tile;
+            return tile;
+        }
+
+        private Tile LoadTile(int level, int tx, int ty) {
+            int tw = Math.min(TileSize, width[level]), th = Math.min(TileSize, height[level]);
+            if (source.Half()) {
+                short[] halfTile = new short[tw * th * nChannels];
+                if (source.ReadTileHalf(level, tx, ty, halfTile)) {
+                    nTilesRead.increment();
+                    return new Tile(halfTile);
+                }
+            } else {
+                float[] tile = new float[tw * th * nChannels];
+                if (source.ReadTile(level, tx, ty, tile)) {
+                    nTilesRead.increment();
+                    return new Tile(tile);
+                }
+            }
+            assert (level > 0);
+            // Average the 2x2 (or 2x1) finer texels under each texel.  The
+            // tile covers at most 2x2 tiles of the finer level; look each of
+            // them up once and keep it for the whole tile.
+            int fl = level - 1;
+            int ds = (width[fl] > width[level]) ? 1 : 0, dt = (height[fl] > height[level]) ? 1 : 0;
+            float scale = 1.f / ((1 << ds) * (1 << dt));
+            int s0 = tx * tw, t0 = ty * th;
+            int ftx0 = (s0 << ds) >> LogTileSize, fty0 = (t0 << dt) >> LogTileSize;
+            float[] tile = new float[tw * th * nChannels];
+            Tile[] fine = new Tile[4];
+            TileCursor cursor = Cursor();
+            for (int y = 0; y < th; ++y) {
+                for (int x = 0; x < tw; ++x) {
+                    int o = (y * tw + x) * nChannels;
+                    for (int j = 0; j <= dt; ++j)
+                        for (int i = 0; i <= ds; ++i) {
+                            int fs = ((s0 + x) << ds) + i, ft = ((t0 + y) << dt) + j;
+                            int f = 2 * ((ft >> LogTileSize) - fty0) + (fs >> LogTileSize) - ftx0;
+                            if (fine[f] == null) fine[f] = Tile(cursor, fl, fs >> LogTileSize, ft >> LogTileSize);
+                            int fo = TexelOffset(fl, fs, ft);
+                            for (int c = 0; c < nChannels; ++c) tile[o + c] += fine[f].get(fo + c);
+                        }
+                    for (int c = 0; c < nChannels; ++c) tile[o + c] *= scale;
+                }
+            }
+            nTilesFiltered.increment();
+            if (!source.Half()) return new Tile(tile);
+            short[] halfTile = new short[tile.length];
+            for (int i = 0; i < tile.length; ++i) halfTile[i] = Pbrt.FloatToHalf(tile[i]);
+            return new Tile(halfTile);
+        }
+
+        private final TextureCache cache;
+        private final int id;
+        private final TileSource source;
+        private final int nChannels;
+        private final int[] width, height, tilesX;
+    }
+
+    private Tile Get(long key) {
+        Stripe stripe = stripes[StripeIndex(key)];
+        synchronized (stripe) {
+            return stripe.tiles.get(key);
+        }
+    }
+
+    // Tiles are loaded without holding any lock, since filtering a tile
+    // looks up tiles in other stripes; if two threads load the same tile,
+    // the first one inserted wins.
+    private Tile Put(long key, Tile tile) {
+        Stripe stripe = stripes[StripeIndex(key)];
+        synchronized (stripe) {
+            Tile prev = stripe.tiles.putIfAbsent(key, tile);
+            if (prev != null) return prev;
+        }
+        long bytes = tile.Bytes();
+        tileMemory.increment(bytes);
+        if (bytesResident.addAndGet(bytes) > maxBytes) Evict();
+        return tile;
+    }
+
+    // Drop the least recently used tile of successive stripes until the
+    // resident size is back under budget.  This approximates a global LRU
+    // order without a lock around the whole cache.
+    private void Evict() {
+        int nEmpty = 0;
+        while (bytesResident.get() > maxBytes && nEmpty < NumStripes) {
+            Stripe stripe = stripes[evictClock.getAndIncrement() & (NumStripes - 1)];
+            Tile victim = null;
+            synchronized (stripe) {
+                Iterator<Map.Entry<Long, Tile>> iter = stripe.tiles.entrySet().iterator();
+                if (iter.hasNext()) {
+                    victim = iter.next().getValue();
+                    iter.remove();
+                }
+            }
+            if (victim == null)
+                ++nEmpty;
+            else {
+                nEmpty = 0;
+                ReleaseBytes(victim);
+                nTilesEvicted.increment();
+            }
+        }
+    }
+
+    private void ReleaseBytes(Tile tile) {
+        long bytes = tile.Bytes();
+        tileMemory.increment(-bytes);
+        bytesResident.addAndGet(-bytes);
+    }
+
+    private static int StripeIndex(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 58) & (NumStripes - 1);
+    }
+
+    private static final class Stripe {
+        // Access-ordered, so iteration starts at the least recently used tile
+        final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    // TextureCache Private Data
+    private static final int NumStripes = 64;
+    private static final int CursorSlots = 8;
+    // Level field of data keys; textures never have this many levels
+    private static final long DataLevel = 31;
+    private static volatile TextureCache global;
+    private final long maxBytes;
+    private final Stripe[] stripes = new Stripe[NumStripes];
+    private final AtomicLong bytesResident = new AtomicLong(0);
+    private final AtomicInteger evictClock = new AtomicInteger(0);
+    private final AtomicInteger nextId = new AtomicInteger(0);
+    private final ThreadLocal<TileCursor> cursor = ThreadLocal.withInitial(TileCursor::new);
+    private final LongAdder lookups = new LongAdder(), hits = new LongAdder();
+
+    // Report the global cache's hit rate since the last report, over the
+    // lookups that went past the threads' cursors
+    private static Stats.StatRegisterer tileLookups = new Stats.StatRegisterer((Stats.StatsAccumulator accum) -> {
+        TextureCache cache = global;
+        if (cache != null)
+            accum.ReportPercentage("Texture/Tile cache hits", cache.hits.sumThenReset(), cache.lookups.sumThenReset());
+    });
+    private static Stats.Counter nTilesRead = new Stats.Counter("Texture/Tiles read");
+    private static Stats.Counter nTilesFiltered = new Stats.Counter("Texture/Tiles filtered from finer level");
+    private static Stats.Counter nTilesEvicted = new Stats.Counter("Texture/Tiles evicted");
+    private static Stats.MemoryCounter tileMemory = new Stats.MemoryCounter("Memory/Texture tiles resident");
+}
@@ -33,6 +33,10 @@ public class TextureParams {
         this.materialParams = materialParams;
     }
     public TextureSpectrum GetSpectrumTexture(String name, Spectrum def) {
+        return GetSpectrumTexture(name, def, null);
+    }
+    // _measuredDef_ is the default's measurements, if it has them
+    public TextureSpectrum GetSpectrumTexture(String name, Spectrum def, TabulatedSpectrum measuredDef) {
         String texname = geomParams.FindTexture(name);
         if (Objects.equals(texname, "")) texname = materialParams.FindTexture(name);
         if (!Objects.equals(texname, "")) {
@@ -43,7 +47,7 @@ public class TextureParams {
         }
         Spectrum val = materialParams.FindOneSpectrum(name, def);
         val = geomParams.FindOneSpectrum(name, val);
-        return new ConstantTextureSpectrum(val);
+        return new ConstantTextureSpectrum(val, FindMeasuredSpectrum(name, measuredDef));
     }
     public TextureSpectrum GetSpectrumTextureOrNull(String name) {
         String texname = geomParams.FindTexture(name);
@@ -58,7 +62,7 @@ public class TextureParams {
         }
         Spectrum[] val = geomParams.FindSpectrum(name);
         if (val == null) val = materialParams.FindSpectrum(name);
-        if (val != null) return new ConstantTextureSpectrum(val[0]);
+        if (val != null) return new ConstantTextureSpectrum(val[0], FindMeasuredSpectrum(name, null));
         return null;
     }
     public TextureFloat GetFloatTexture(String name, float def) {
@@ -116,6 +120,13 @@ public class TextureParams {
     public Spectrum FindSpectrum(String name, Spectrum def) {
         return geomParams.FindOneSpectrum(name, materialParams.FindOneSpectrum(name, def));
     }
+    // The measurements of the spectrum parameter _name_, from the same
+    // parameter list as FindSpectrum() takes its value from
+    public TabulatedSpectrum FindMeasuredSpectrum(String name, TabulatedSpectrum def) {
+        if (geomParams.FindSpectrum(name) != null) return geomParams.FindOneMeasuredSpectrum(name);
+        if (materialParams.FindSpectrum(name) != null) return materialParams.FindOneMeasuredSpectrum(name);
+        return def;
+    }
     public void ReportUnused() {
         geomParams.ReportUnused();
         materialParams.ReportUnused();
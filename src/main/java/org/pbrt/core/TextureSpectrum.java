@@ -13,4 +13,10 @@ public abstract class TextureSpectrum {
 
     public abstract Spectrum Evaluate(SurfaceInteraction si);
 
+    // Value at the wavelengths of a spectral camera sample; by default the
+    // RGB value is upsampled at each lookup.
+    public SampledSpectrum Evaluate(SurfaceInteraction si, SampledWavelengths lambda, SampledSpectrum dst) {
+        return lambda.FromRGB(Evaluate(si), Spectrum.SpectrumType.Reflectance, dst);
+    }
+
 }
\ No newline at end of file
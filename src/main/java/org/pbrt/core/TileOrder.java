@@ -0,0 +1,112 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Orders in which the image tiles of a render are handed to the worker
+// threads.  Along a spiral, Morton or Hilbert curve, the tiles being
+// rendered at any one time are close together in the image, so they tend
+// to use the same geometry and texture tiles and the caches hold up better
+// than when the threads are spread along a row of tiles.
+public class TileOrder {
+
+    public static final String RowMajor = "rowmajor";
+    public static final String Spiral = "spiral";
+    public static final String Morton = "morton";
+    public static final String Hilbert = "hilbert";
+
+    public static boolean IsValid(String order) {
+        return RowMajor.equals(order) || Spiral.equals(order) || Morton.equals(order) || Hilbert.equals(order);
+    }
+
+    // The tiles of an _nTiles_ grid, each once, in the given _order_
+    public static Point2i[] Create(String order, Point2i nTiles) {
+        if (!IsValid(order)) {
+            PBrtTLogger.Warning("Tile order \"%s\" unknown. Using \"%s\".", order, Hilbert);
+            order = Hilbert;
+        }
+        List<Point2i> tiles = new ArrayList<>(nTiles.x * nTiles.y);
+        if (RowMajor.equals(order)) {
+            for (int y = 0; y < nTiles.y; ++y)
+                for (int x = 0; x < nTiles.x; ++x) tiles.add(new Point2i(x, y));
+        } else if (Spiral.equals(order)) {
+            AddSpiral(tiles, nTiles);
+        } else {
+            // Walk the curve over the enclosing power-of-two square,
+            // skipping positions outside the grid
+            int n = Pbrt.RoundUpPow2(Math.max(1, Math.max(nTiles.x, nTiles.y)));
+            for (int d = 0; d < n * n; ++d) {
+                Point2i p = Morton.equals(order) ? MortonPoint(d) : HilbertPoint(n, d);
+                if (p.x < nTiles.x && p.y < nTiles.y) tiles.add(p);
+            }
+        }
+        assert (tiles.size() == nTiles.x * nTiles.y);
+        return tiles.toArray(new Point2i[0]);
+    }
+
+    // Number of consecutive tiles each worker takes at a time: enough that
+    // a worker's tiles are neighbors, few enough to balance the load
+    public static int ChunkSize(int nTiles) {
+        return Pbrt.Clamp(nTiles / (16 * Parallel.MaxThreadIndex()), 1, 16);
+    }
+
+    // Outwards from the center tile, one ring at a time
+    private static void AddSpiral(List<Point2i> tiles, Point2i nTiles) {
+        int x = (nTiles.x - 1) / 2, y = (nTiles.y - 1) / 2;
+        int[] dx = { 1, 0, -1, 0 }, dy = { 0, 1, 0, -1 };
+        int total = nTiles.x * nTiles.y;
+        if (total == 0) return;
+        tiles.add(new Point2i(x, y));
+        for (int leg = 0; tiles.size() < total; ++leg) {
+            int length = leg / 2 + 1, dir = leg % 4;
+            for (int i = 0; i < length; ++i) {
+                x += dx[dir];
+                y += dy[dir];
+                if (x >= 0 && x < nTiles.x && y >= 0 && y < nTiles.y) tiles.add(new Point2i(x, y));
+            }
+        }
+    }
+
+    private static Point2i MortonPoint(int d) {
+        return new Point2i(CompactBits(d), CompactBits(d >>> 1));
+    }
+
+    // The even bits of _v_, packed together
+    private static int CompactBits(int v) {
+        v &= 0x55555555;
+        v = (v | (v >>> 1)) & 0x33333333;
+        v = (v | (v >>> 2)) & 0x0f0f0f0f;
+        v = (v | (v >>> 4)) & 0x00ff00ff;
+        v = (v | (v >>> 8)) & 0x0000ffff;
+        return v;
+    }
+
+    // Position _d_ along the Hilbert curve over an _n_ by _n_ grid, _n_ a
+    // power of two
+    private static Point2i HilbertPoint(int n, int d) {
+        int x = 0, y = 0;
+        for (int s = 1; s < n; s *= 2) {
+            int rx = 1 & (d / 2), ry = 1 & (d ^ rx);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x; x = y; y = t;
+            }
+            x += s * rx;
+            y += s * ry;
+            d /= 4;
+        }
+        return new Point2i(x, y);
+    }
+}
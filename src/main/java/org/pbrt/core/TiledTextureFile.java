@@ -0,0 +1,360 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+// Pre-filtered, tiled texture file (.txp).  The file holds every level of
+// a texture's MIP pyramid, already converted (scaled, gamma corrected and
+// resampled to power-of-two resolution) and split into the TextureCache's
+// tiles, as float or half texels.  It is memory-mapped when opened, so a
+// render neither decodes nor filters the image, only the tiles it touches
+// are ever read, and concurrent renders share the pages.
+//
+// Layout, little-endian: a header with the magic number, version, level-0
+// resolution, channel count, texel type, log2 of the tile size, level
+// count, and the wrap mode, gamma flag and scale used for conversion; the
+// EWA filter weight table the pyramid was made for; the file offset of
+// every tile, level by level and row by row; then the tile data.
+public class TiledTextureFile implements TextureCache.TileSource {
+
+    public static final String Extension = ".txp";
+
+    public static boolean IsTiledTexture(String filename) {
+        return FileUtil.HasExtension(filename, Extension);
+    }
+
+    // Open _filename_; texels are multiplied by _scale_ as they are read.
+    // Returns null, after reporting an error, if the file can't be used.
+    public static TiledTextureFile Open(String filename, float scale) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return new TiledTextureFile(filename, channel, scale);
+        } catch (IOException e) {
+            PBrtTLogger.Error("Unable to read tiled texture \"%s\": %s", filename, e.getMessage());
+            return null;
+        }
+    }
+
+    private TiledTextureFile(String filename, FileChannel channel, float scale) throws IOException {
+        this.filename = filename;
+        this.scale = scale;
+        ByteBuffer header = ReadFully(channel, 0, HeaderBytes);
+        if (header.getInt() != Magic) throw new IOException("not a tiled texture file");
+        int version = header.getInt();
+        if (version != Version) throw new IOException("unsupported version " + version);
+        width = header.getInt();
+        height = header.getInt();
+        nChannels = header.getInt();
+        half = header.getInt() != 0;
+        int logTileSize = header.getInt();
+        int nLevels = header.getInt();
+        int wrap = header.getInt();
+        gamma = header.getInt() != 0;
+        conversionScale = header.getFloat();
+        int lutSize = header.getInt();
+        if (!Pbrt.IsPowerOf2(width) || !Pbrt.IsPowerOf2(height) || (nChannels != 1 && nChannels != 3) ||
+                nLevels != 1 + Pbrt.Log2Int(Math.max(width, height)) || wrap < 0 || wrap >= Texture.ImageWrap.values().length)
+            throw new IOException("corrupt header");
+        if (logTileSize != TextureCache.LogTileSize)
+            throw new IOException(String.format("tile size %d doesn't match the texture cache's %d", 1 << logTileSize, TextureCache.TileSize));
+        wrapMode = Texture.ImageWrap.values()[wrap];
+
+        // The pyramid was filtered with the EWA weights of the renderer that
+        // wrote it; lookups use the current ones
+        ByteBuffer lut = ReadFully(channel, HeaderBytes, 4L * lutSize);
+        float[] weights = MIPMapSpectrum.WeightLUT();
+        boolean sameLut = (lutSize == weights.length);
+        for (int i = 0; sameLut && i < lutSize; ++i)
+            sameLut = Math.abs(lut.getFloat() - weights[i]) < 1e-6f;
+        if (!sameLut)
+            PBrtTLogger.Warning("Tiled texture \"%s\" was written for a different EWA filter.", filename);
+
+        // Read the tile offset table and map the tile data, in segments of
+        // whole tiles no larger than a MappedByteBuffer can address
+        levelTile = new int[nLevels + 1];
+        tilesX = new int[nLevels];
+        for (int i = 0; i < nLevels; ++i) {
+            int w = Math.max(1, width >> i), h = Math.max(1, height >> i);
+            tilesX[i] = (w + TextureCache.TileSize - 1) >> TextureCache.LogTileSize;
+            levelTile[i + 1] = levelTile[i] + tilesX[i] * ((h + TextureCache.TileSize - 1) >> TextureCache.LogTileSize);
+        }
+        int nTiles = levelTile[nLevels];
+        long tableStart = HeaderBytes + 4L * lutSize;
+        ByteBuffer table = ReadFully(channel, tableStart, 8L * nTiles);
+        tileSegment = new int[nTiles];
+        tileOffset = new int[nTiles];
+        ArrayList<MappedByteBuffer> mapped = new ArrayList<>();
+        long fileSize = channel.size();
+        long segStart = 0, segEnd = 0;
+        int firstInSeg = 0;
+        for (int i = 0; i < nTiles; ++i) {
+            long offset = table.getLong();
+            long bytes = TileBytes(TileLevel(i));
+            if (offset < tableStart + 8L * nTiles || offset + bytes > fileSize)
+                throw new IOException("corrupt tile table");
+            if (i > firstInSeg && (offset < segStart || Math.max(segEnd, offset + bytes) - segStart > MaxSegmentBytes)) {
+                mapped.add(Map(channel, segStart, segEnd));
+                firstInSeg = i;
+            }
+            if (i == firstInSeg) {
+                segStart = offset;
+                segEnd = offset;
+            }
+            tileSegment[i] = mapped.size();
+            tileOffset[i] = (int)(offset - segStart);
+            segEnd = Math.max(segEnd, offset + bytes);
+        }
+        mapped.add(Map(channel, segStart, segEnd));
+        segments = mapped.toArray(new MappedByteBuffer[0]);
+    }
+
+    @Override
+    public int Channels() { return nChannels; }
+    @Override
+    public int Width() { return width; }
+    @Override
+    public int Height() { return height; }
+    public int Levels() { return tilesX.length; }
+    public boolean IsHalf() { return half; }
+    public Texture.ImageWrap WrapMode() { return wrapMode; }
+    public boolean Gamma() { return gamma; }
+    public float ConversionScale() { return conversionScale; }
+    public String Filename() { return filename; }
+
+    // Half tiles are cached as they are stored
+    @Override
+    public boolean Half() { return half; }
+
+    @Override
+    public boolean ReadTileHalf(int level, int tx, int ty, short[] tile) {
+        if (!half) return false;
+        TileData(level, tx, ty).asShortBuffer().get(tile);
+        if (scale != 1)
+            for (int i = 0; i < tile.length; ++i)
+                tile[i] = Pbrt.FloatToHalf(Pbrt.Clamp(scale * Pbrt.HalfToFloat(tile[i]), -HalfMax, HalfMax));
+        return true;
+    }
+
+    @Override
+    public boolean ReadTile(int level, int tx, int ty, float[] tile) {
+        ByteBuffer buf = TileData(level, tx, ty);
+        if (half) {
+            for (int i = 0; i < tile.length; ++i) tile[i] = Pbrt.HalfToFloat(buf.getShort());
+        } else
+            buf.asFloatBuffer().get(tile);
+        if (scale != 1)
+            for (int i = 0; i < tile.length; ++i) tile[i] *= scale;
+        return true;
+    }
+
+    // Write the whole pyramid of _source_ to _filename_, filtering the
+    // levels it doesn't supply.  _scale_, _gamma_ and _wrapMode_ record how
+    // the source's texels were converted.  The file is written under a
+    // temporary name and renamed, so other processes never see it partly
+    // written.
+    public static boolean Write(String filename, TextureCache.TileSource source, boolean half,
+                                float scale, boolean gamma, Texture.ImageWrap wrapMode) {
+        // Levels are generated through a private cache, so filtering a level
+        // finds the one below it still resident
+        TextureCache cache = new TextureCache(Math.max(64L << 20, (Pbrt.options != null ? Pbrt.options.TextureCacheMB : 0) << 20));
+        TextureCache.CachedTexture texture = cache.Register(source);
+        int nLevels = texture.Levels();
+        int nTiles = 0;
+        for (int i = 0; i < nLevels; ++i)
+            nTiles += TilesX(texture.Width(i)) * TilesX(texture.Height(i));
+        float[] lut = MIPMapSpectrum.WeightLUT();
+        long dataStart = HeaderBytes + 4L * lut.length + 8L * nTiles;
+
+        Path path = Paths.get(filename).toAbsolutePath();
+        Path temp = null;
+        try {
+            temp = Paths.get(path + String.format(".%x.tmp", Thread.currentThread().getId() ^ System.nanoTime()));
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                ByteBuffer header = ByteBuffer.allocate((int)dataStart).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(Magic).putInt(Version).putInt(source.Width()).putInt(source.Height());
+                header.putInt(source.Channels()).putInt(half ? 1 : 0).putInt(TextureCache.LogTileSize).putInt(nLevels);
+                header.putInt(wrapMode.ordinal()).putInt(gamma ? 1 : 0).putFloat(scale).putInt(lut.length);
+                for (float w : lut) header.putFloat(w);
+                long offset = dataStart;
+                for (int i = 0; i < nLevels; ++i) {
+                    long bytes = (long)Math.min(TextureCache.TileSize, texture.Width(i)) *
+                            Math.min(TextureCache.TileSize, texture.Height(i)) * source.Channels() * (half ? 2 : 4);
+                    for (int t = TilesX(texture.Width(i)) * TilesX(texture.Height(i)); t > 0; --t) {
+                        header.putLong(offset);
+                        offset += bytes;
+                    }
+                }
+                header.flip();
+                while (header.hasRemaining()) channel.write(header);
+
+                ByteBuffer buf = null;
+                for (int i = 0; i < nLevels; ++i) {
+                    for (int ty = 0; ty < TilesX(texture.Height(i)); ++ty)
+                        for (int tx = 0; tx < TilesX(texture.Width(i)); ++tx) {
+                            TextureCache.Tile tile = texture.Tile(i, tx, ty);
+                            int bytes = tile.Size() * (half ? 2 : 4);
+                            if (buf == null || buf.capacity() < bytes)
+                                buf = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+                            buf.clear();
+                            for (int j = 0; j < tile.Size(); ++j) {
+                                float v = tile.get(j);
+                                if (half)
+                                    buf.putShort(Pbrt.FloatToHalf(Pbrt.Clamp(v, -HalfMax, HalfMax)));
+                                else
+                                    buf.putFloat(v);
+                            }
+                            buf.flip();
+                            while (buf.hasRemaining()) channel.write(buf);
+                        }
+                }
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            PBrtTLogger.Error("Unable to write tiled texture \"%s\": %s", filename, e.getMessage());
+            if (temp != null) {
+                try { Files.deleteIfExists(temp); } catch (IOException ignored) { }
+            }
+            return false;
+        } finally {
+            cache.Clear();
+        }
+    }
+
+    // Convert the image _filename_ to a tiled texture _outFilename_
+    public static boolean Convert(String filename, String outFilename, int nChannels, float scale, boolean gamma,
+                                  Texture.ImageWrap wrapMode, boolean half) {
+        TextureCache.TileSource source = ImageTileSource.Create(filename, nChannels, scale, gamma, wrapMode);
+        return Write(outFilename, source, half, scale, gamma, wrapMode);
+    }
+
+    // Tile source for an image texture: tiled texture files are mapped as
+    // they are, other images are read through the tiled texture cache
+    // directory if one is set, or directly.
+    public static TextureCache.TileSource SourceFor(String filename, int nChannels, float scale, boolean gamma,
+                                                   Texture.ImageWrap wrapMode) {
+        if (IsTiledTexture(filename)) {
+            TiledTextureFile file = Open(filename, scale);
+            if (file != null) {
+                if (gamma && !file.Gamma())
+                    PBrtTLogger.Warning("Ignoring \"gamma\" for tiled texture \"%s\"; its levels are already filtered. Convert it with gamma correction instead.", filename);
+                if (wrapMode != file.WrapMode())
+                    PBrtTLogger.Warning("Tiled texture \"%s\" was resampled for wrap mode \"%s\".", filename, file.WrapMode().toString().toLowerCase());
+                return file;
+            }
+            // Fall through to report the file as an unreadable image
+        }
+        String cacheDir = (Pbrt.options != null) ? Pbrt.options.TiledTextureDir : null;
+        if (cacheDir != null && !cacheDir.isEmpty() && !IsTiledTexture(filename) && new File(filename).exists())
+            return FromCache(cacheDir, filename, nChannels, scale, gamma, wrapMode);
+        return ImageTileSource.Create(filename, nChannels, scale, gamma, wrapMode);
+    }
+
+    // Source for the image _filename_ converted with the given parameters,
+    // through a tiled texture kept in _cacheDir_.  The cached file is named
+    // after the image and a hash of its path, size, modification time and
+    // the conversion parameters, so an edited image is converted again; it
+    // is written the first time the image is used.
+    public static TextureCache.TileSource FromCache(String cacheDir, String filename, int nChannels, float scale,
+                                                   boolean gamma, Texture.ImageWrap wrapMode) {
+        File image = new File(filename);
+        long hash = Pbrt.MixBits(image.getAbsolutePath().hashCode());
+        hash = Pbrt.MixBits(hash ^ image.length());
+        hash = Pbrt.MixBits(hash ^ image.lastModified());
+        hash = Pbrt.MixBits(hash ^ ((long)Float.floatToIntBits(scale) << 8 | nChannels << 4 | (gamma ? 1 : 0) << 2 | wrapMode.ordinal()));
+        String cached = Paths.get(cacheDir, String.format("%s-%016x%s", image.getName(), hash, Extension)).toString();
+
+        if (new File(cached).exists()) {
+            TiledTextureFile file = Open(cached, 1);
+            if (file != null && file.Channels() == nChannels) return file;
+        }
+        TextureCache.TileSource source = ImageTileSource.Create(filename, nChannels, scale, gamma, wrapMode);
+        if (!new File(cacheDir).isDirectory() && !new File(cacheDir).mkdirs()) {
+            PBrtTLogger.Warning("Unable to create texture cache directory \"%s\".", cacheDir);
+            return source;
+        }
+        if (Write(cached, source, false, scale, gamma, wrapMode)) {
+            PBrtTLogger.Info("Wrote tiled texture \"%s\" for \"%s\"", cached, filename);
+            TiledTextureFile file = Open(cached, 1);
+            if (file != null) return file;
+        }
+        return source;
+    }
+
+    // The stored texels of tile (tx, ty) of _level_
+    private ByteBuffer TileData(int level, int tx, int ty) {
+        int index = levelTile[level] + ty * tilesX[level] + tx;
+        // Duplicate the segment so that concurrent reads don't share a position
+        ByteBuffer buf = segments[tileSegment[index]].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(tileOffset[index]);
+        return buf;
+    }
+
+    private int TileLevel(int index) {
+        int level = 0;
+        while (index >= levelTile[level + 1]) ++level;
+        return level;
+    }
+
+    private long TileBytes(int level) {
+        return (long)Math.min(TextureCache.TileSize, Math.max(1, width >> level)) *
+                Math.min(TextureCache.TileSize, Math.max(1, height >> level)) * nChannels * (half ? 2 : 4);
+    }
+
+    private static int TilesX(int res) {
+        return (res + TextureCache.TileSize - 1) >> TextureCache.LogTileSize;
+    }
+
+    private static MappedByteBuffer Map(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer seg = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        seg.order(ByteOrder.LITTLE_ENDIAN);
+        return seg;
+    }
+
+    private static ByteBuffer ReadFully(FileChannel channel, long position, long size) throws IOException {
+        if (position + size > channel.size() || size > Integer.MAX_VALUE) throw new IOException("truncated file");
+        ByteBuffer buf = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining())
+            if (channel.read(buf, position + buf.position()) < 0) throw new IOException("truncated file");
+        buf.flip();
+        return buf;
+    }
+
+    // TiledTextureFile Private Data
+    private static final int Magic = 0x58544250; // "PBTX"
+    private static final int Version = 1;
+    private static final int HeaderBytes = 48;
+    private static final long MaxSegmentBytes = 1L << 30;
+    private static final float HalfMax = 65504.f;
+    private final String filename;
+    private final float scale;
+    private final int width, height, nChannels;
+    private final boolean half, gamma;
+    private final float conversionScale;
+    private final Texture.ImageWrap wrapMode;
+    private final int[] levelTile, tilesX;
+    private final int[] tileSegment, tileOffset;
+    private final MappedByteBuffer[] segments;
+}
@@ -84,6 +84,11 @@ public class Transform {
     }
 
     public Point3f xform(Point3f p) {
+        return xform(p, new Point3f());
+    }
+
+    // Transform _p_ into _ret_ and return it; _ret_ may be _p_ itself
+    public Point3f xform(Point3f p, Point3f ret) {
         float x = p.x, y = p.y, z = p.z;
         float xp = m.m[0][0] * x + m.m[0][1] * y + m.m[0][2] * z + m.m[0][3];
         float yp = m.m[1][0] * x + m.m[1][1] * y + m.m[1][2] * z + m.m[1][3];
@@ -91,47 +96,67 @@ public class Transform {
         float wp = m.m[3][0] * x + m.m[3][1] * y + m.m[3][2] * z + m.m[3][3];
         assert (wp != 0);
         if (wp == 1)
-            return new Point3f(xp, yp, zp);
-        else
-            return new Point3f(xp, yp, zp).invScale(wp);
+            return ret.set(xp, yp, zp);
+        else {
+            float inv = 1.0f / wp;
+            return ret.set(inv * xp, inv * yp, inv * zp);
+        }
     }
 
     public Vector3f xform(Vector3f v) {
+        return xform(v, new Vector3f());
+    }
+
+    // Transform _v_ into _ret_ and return it; _ret_ may be _v_ itself
+    public Vector3f xform(Vector3f v, Vector3f ret) {
         float x = v.x, y = v.y, z = v.z;
-        return new Vector3f(m.m[0][0] * x + m.m[0][1] * y + m.m[0][2] * z,
+        return ret.set(m.m[0][0] * x + m.m[0][1] * y + m.m[0][2] * z,
                 m.m[1][0] * x + m.m[1][1] * y + m.m[1][2] * z,
                 m.m[2][0] * x + m.m[2][1] * y + m.m[2][2] * z);
     }
 
     public Normal3f xform(Normal3f n) {
+        return xform(n, new Normal3f());
+    }
+
+    // Transform _n_ into _ret_ and return it; _ret_ may be _n_ itself
+    public Normal3f xform(Normal3f n, Normal3f ret) {
         float x = n.x, y = n.y, z = n.z;
-        return new Normal3f(mInv.m[0][0] * x + mInv.m[1][0] * y + mInv.m[2][0] * z,
-        mInv.m[0][1] * x + mInv.m[1][1] * y + mInv.m[2][1] * z,
+        return ret.set(mInv.m[0][0] * x + mInv.m[1][0] * y + mInv.m[2][0] * z,
+                mInv.m[0][1] * x + mInv.m[1][1] * y + mInv.m[2][1] * z,
                 mInv.m[0][2] * x + mInv.m[1][2] * y + mInv.m[2][2] * z);
-
     }
+
     public Ray xform(Ray r) {
-        Vector3f oError = absError(r.o);
-        Point3f o = xform(r.o);
-        Vector3f d = xform(r.d);
+        return xform(r, new Ray());
+    }
+
+    // Transform _r_ into _ret_ and return it; _ret_ may be _r_ itself
+    public Ray xform(Ray r, Ray ret) {
+        float oErrX = absErrorX(r.o), oErrY = absErrorY(r.o), oErrZ = absErrorZ(r.o);
+        Point3f o = xform(r.o, ret.o);
+        Vector3f d = xform(r.d, ret.d);
         // Offset ray origin to edge of error bounds and compute _tMax_
         float lengthSquared = d.LengthSquared();
         float tMax = r.tMax;
         if (lengthSquared > 0) {
-            float dt = Vector3f.Dot(Vector3f.Abs(d), oError) / lengthSquared;
-            o.increment(d.scale(dt));
+            float dt = (Math.abs(d.x) * oErrX + Math.abs(d.y) * oErrY + Math.abs(d.z) * oErrZ) / lengthSquared;
+            o.fma(d, dt);
             tMax -= dt;
         }
-        return new Ray(o, d, tMax, r.time, r.medium);
+        ret.tMax = tMax;
+        ret.time = r.time;
+        ret.medium = r.medium;
+        return ret;
     }
     public RayDifferential xform(RayDifferential r) {
-        Ray tr = xform(new Ray(r.o, r.d, r.tMax, r.time, r.medium));
-        RayDifferential ret = new RayDifferential(tr.o, tr.d, tr.tMax, tr.time, tr.medium);
+        RayDifferential ret = new RayDifferential();
+        xform((Ray)r, ret);
         ret.hasDifferentials = r.hasDifferentials;
-        ret.rxOrigin = xform(r.rxOrigin);
-        ret.ryOrigin = xform(r.ryOrigin);
-        ret.rxDirection = xform(r.rxDirection);
-        ret.ryDirection = xform(r.ryDirection);
+        if (r.rxOrigin != null) ret.rxOrigin = xform(r.rxOrigin);
+        if (r.ryOrigin != null) ret.ryOrigin = xform(r.ryOrigin);
+        if (r.rxDirection != null) ret.rxDirection = xform(r.rxDirection);
+        if (r.ryDirection != null) ret.ryDirection = xform(r.ryDirection);
         return ret;
 
     }
@@ -158,53 +183,78 @@ public class Transform {
     }
 
     public SurfaceInteraction xform(SurfaceInteraction si) {
-        SurfaceInteraction ret = new SurfaceInteraction();
+        return xform(si, new SurfaceInteraction());
+    }
+
+    // Transform _si_ into _ret_ and return it.  _ret_ may be _si_ itself, in
+    // which case the interaction's own vectors are overwritten rather than
+    // reallocated.
+    public SurfaceInteraction xform(SurfaceInteraction si, SurfaceInteraction ret) {
+        if (ret == si) Unalias(si);
         // Transform _p_ and _pError_ in _SurfaceInteraction_
-        ret.p = xform(si.p);
         ret.pError = absError(si.p, si.pError);
+        ret.p = xform(si.p, ret.p);
         // Transform remaining members of _SurfaceInteraction_
-        ret.n = Normal3f.Normalize(xform(si.n));
-        ret.wo = Vector3f.Normalize(xform(si.wo));
+        ret.n = xform(si.n, ret.n).normalizeInPlace();
+        ret.wo = xform(si.wo, ret.wo).normalizeInPlace();
         ret.time = si.time;
         ret.mediumInterface = si.mediumInterface;
         ret.uv = si.uv;
         ret.shape = si.shape;
-        ret.dpdu = xform(si.dpdu);
-        ret.dpdv = xform(si.dpdv);
-        ret.dndu = xform(si.dndu);
-        ret.dndv = xform(si.dndv);
-        ret.shading.n = Normal3f.Normalize(xform(si.shading.n));
-        ret.shading.dpdu = xform(si.shading.dpdu);
-        ret.shading.dpdv = xform(si.shading.dpdv);
-        ret.shading.dndu = xform(si.shading.dndu);
-        ret.shading.dndv = xform(si.shading.dndv);
+        ret.dpdu = xform(si.dpdu, ret.dpdu);
+        ret.dpdv = xform(si.dpdv, ret.dpdv);
+        ret.dndu = xform(si.dndu, ret.dndu);
+        ret.dndv = xform(si.dndv, ret.dndv);
+        ret.shading.n = xform(si.shading.n, ret.shading.n).normalizeInPlace();
+        ret.shading.dpdu = xform(si.shading.dpdu, ret.shading.dpdu);
+        ret.shading.dpdv = xform(si.shading.dpdv, ret.shading.dpdv);
+        ret.shading.dndu = xform(si.shading.dndu, ret.shading.dndu);
+        ret.shading.dndv = xform(si.shading.dndv, ret.shading.dndv);
         ret.dudx = si.dudx;
         ret.dvdx = si.dvdx;
         ret.dudy = si.dudy;
         ret.dvdy = si.dvdy;
-        ret.dpdx = xform(si.dpdx);
-        ret.dpdy = xform(si.dpdy);
+        ret.dpdx = xform(si.dpdx, ret.dpdx);
+        ret.dpdy = xform(si.dpdy, ret.dpdy);
         ret.bsdf = si.bsdf;
         ret.bssrdf = si.bssrdf;
         ret.primitive = si.primitive;
-        ret.shading.n = Normal3f.Faceforward(ret.shading.n, ret.n);
+        if (Normal3f.Dot(ret.shading.n, ret.n) < 0) ret.shading.n.flip();
         ret.faceIndex = si.faceIndex;
         return ret;
     }
 
+    // Shapes may use one object for several members of a
+    // _SurfaceInteraction_ (_Triangle_ shares a _Normal3f_ between _n_ and
+    // _shading.n_).  Transforming in place would then transform that object
+    // once per member, so each such member gets its own copy first.
+    private static void Unalias(SurfaceInteraction si) {
+        if (si.dpdv == si.dpdu) si.dpdv = new Vector3f(si.dpdv);
+        if (si.dndv == si.dndu) si.dndv = new Normal3f(si.dndv);
+        if (si.shading.n == si.n) si.shading.n = new Normal3f(si.shading.n);
+        SurfaceInteraction.Shading sh = si.shading;
+        if (sh.dpdu == si.dpdu || sh.dpdu == si.dpdv) sh.dpdu = new Vector3f(sh.dpdu);
+        if (sh.dpdv == si.dpdu || sh.dpdv == si.dpdv || sh.dpdv == sh.dpdu) sh.dpdv = new Vector3f(sh.dpdv);
+        if (sh.dndu == si.dndu || sh.dndu == si.dndv) sh.dndu = new Normal3f(sh.dndu);
+        if (sh.dndv == si.dndu || sh.dndv == si.dndv || sh.dndv == sh.dndu) sh.dndv = new Normal3f(sh.dndv);
+        if (si.dpdy == si.dpdx) si.dpdy = new Vector3f(si.dpdy);
+    }
+
     public Vector3f absError(Point3f p) {
-        float x = p.x, y = p.y, z = p.z;
-        // Compute absolute error for transformed point
-        float xAbsSum = (Math.abs(m.m[0][0] * x) + Math.abs(m.m[0][1] * y) +
-                Math.abs(m.m[0][2] * z) + Math.abs(m.m[0][3]));
-        float yAbsSum = (Math.abs(m.m[1][0] * x) + Math.abs(m.m[1][1] * y) +
-                Math.abs(m.m[1][2] * z) + Math.abs(m.m[1][3]));
-        float zAbsSum = (Math.abs(m.m[2][0] * x) + Math.abs(m.m[2][1] * y) +
-                Math.abs(m.m[2][2] * z) + Math.abs(m.m[2][3]));
-        float g3 = Pbrt.gamma(3);
-        return new Vector3f(xAbsSum * g3, yAbsSum * g3, zAbsSum * g3);
+        return new Vector3f(absErrorX(p), absErrorY(p), absErrorZ(p));
     }
 
+    // Per-component absolute error for transformed point, without allocating
+    private float absErrorComponent(int row, Point3f p) {
+        float[] r = m.m[row];
+        float absSum = (Math.abs(r[0] * p.x) + Math.abs(r[1] * p.y) +
+                Math.abs(r[2] * p.z) + Math.abs(r[3]));
+        return absSum * Pbrt.gamma(3);
+    }
+    public float absErrorX(Point3f p) { return absErrorComponent(0, p); }
+    public float absErrorY(Point3f p) { return absErrorComponent(1, p); }
+    public float absErrorZ(Point3f p) { return absErrorComponent(2, p); }
+
     public Vector3f absError(Point3f pt, Vector3f ptError) {
         float x = pt.x, y = pt.y, z = pt.z;
         float g3 = Pbrt.gamma(3);
@@ -36,7 +36,7 @@ public class TransformedPrimitive extends Primitive {
         r.tMax = ray.tMax;
         // Transform instance's intersection data to world space
         if (!InterpolatedPrimToWorld.IsIdentity())
-            isect = InterpolatedPrimToWorld.xform(isect);
+            InterpolatedPrimToWorld.xform(isect, isect);
         assert (Normal3f.Dot(isect.n, isect.shading.n) >= 0);
         return isect;
     }
@@ -59,7 +59,7 @@ public class TransformedPrimitive extends Primitive {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction isect, Material.TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction isect, MemoryArena arena, Material.TransportMode mode, boolean allowMultipleLobes) {
         PBrtTLogger.Error("TransformedPrimitive::ComputeScatteringFunctions() shouldn't be called");
     }
 }
\ No newline at end of file
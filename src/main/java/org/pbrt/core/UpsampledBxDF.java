@@ -0,0 +1,52 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.core;
+
+// Fallback for materials without a spectral implementation: the RGB BxDF
+// is evaluated as usual and its values are upsampled as a reflectance.
+public class UpsampledBxDF extends SpectralBxDF {
+
+    public UpsampledBxDF(BxDF bxdf, SampledWavelengths lambda) {
+        super(bxdf.type);
+        this.bxdf = bxdf;
+        this.lambda = lambda;
+    }
+
+    @Override
+    public SampledSpectrum f(Vector3f wo, Vector3f wi, SampledSpectrum dst) {
+        return lambda.FromRGB(bxdf.f(wo, wi), Spectrum.SpectrumType.Reflectance, dst);
+    }
+
+    @Override
+    public void Sample_f(Vector3f wo, Point2f u, SpectralSample sample) {
+        BxDF.BxDFSample bs = bxdf.Sample_f(wo, u);
+        if (bs == null) {
+            sample.pdf = 0;
+            return;
+        }
+        sample.wi = bs.wiWorld;
+        sample.pdf = bs.pdf;
+        sample.sampledType = (bs.sampledType != BxDF.BSDF_NONE) ? bs.sampledType : type;
+        lambda.FromRGB(bs.f, Spectrum.SpectrumType.Reflectance, sample.f);
+    }
+
+    @Override
+    public float Pdf(Vector3f wo, Vector3f wi) {
+        return bxdf.Pdf(wo, wi);
+    }
+
+    @Override
+    public String toString() {
+        return "[ UpsampledBxDF bxdf: " + bxdf.toString() + " ]";
+    }
+
+    private final BxDF bxdf;
+    private final SampledWavelengths lambda;
+}
@@ -57,11 +57,88 @@ public class Vector3f {
         return new Vector3f(x + n.x, y + n.y, z + n.z);
     }
 
-    public void increment(Vector3f v) {
+    // In-place operations.  These overwrite this vector and return it so
+    // they can be chained on a scratch vector instead of allocating a new
+    // Vector3f per arithmetic step.
+
+    public Vector3f set(float xx, float yy, float zz) {
+        x = xx;
+        y = yy;
+        z = zz;
+        return this;
+    }
+    public Vector3f set(Vector3f v) {
+        return set(v.x, v.y, v.z);
+    }
+    public Vector3f set(Normal3f n) {
+        return set(n.x, n.y, n.z);
+    }
+
+    // this += v
+    public Vector3f increment(Vector3f v) {
         assert !v.HasNaNs();
         x += v.x;
         y += v.y;
         z += v.z;
+        return this;
+    }
+    public Vector3f increment(Normal3f n) {
+        assert !n.HasNaNs();
+        x += n.x;
+        y += n.y;
+        z += n.z;
+        return this;
+    }
+
+    // this -= v
+    public Vector3f decrement(Vector3f v) {
+        assert !v.HasNaNs();
+        x -= v.x;
+        y -= v.y;
+        z -= v.z;
+        return this;
+    }
+    public Vector3f decrement(Normal3f n) {
+        assert !n.HasNaNs();
+        x -= n.x;
+        y -= n.y;
+        z -= n.z;
+        return this;
+    }
+
+    // this += v * s
+    public Vector3f fma(Vector3f v, float s) {
+        assert !v.HasNaNs();
+        x += v.x * s;
+        y += v.y * s;
+        z += v.z * s;
+        return this;
+    }
+    public Vector3f fma(Normal3f n, float s) {
+        assert !n.HasNaNs();
+        x += n.x * s;
+        y += n.y * s;
+        z += n.z * s;
+        return this;
+    }
+
+    public Vector3f scaleInPlace(float s) {
+        x *= s;
+        y *= s;
+        z *= s;
+        return this;
+    }
+
+    public Vector3f negateInPlace() {
+        x = -x;
+        y = -y;
+        z = -z;
+        return this;
+    }
+
+    public Vector3f normalizeInPlace() {
+        float len = Length();
+        return scaleInPlace((len != 0) ? 1.0f / len : 0);
     }
 
     public Vector3f subtract(Vector3f v) {
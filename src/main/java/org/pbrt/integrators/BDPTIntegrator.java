@@ -12,9 +12,9 @@ package org.pbrt.integrators;
 
 import org.pbrt.core.*;
 import org.pbrt.core.PBrtTLogger;
-import org.pbrt.filters.BoxFilter;
 
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.function.Consumer;
 
 public class BDPTIntegrator extends Integrator {
@@ -46,31 +46,32 @@ public class BDPTIntegrator extends Integrator {
         Film film = camera.film;
         final Bounds2i sampleBounds = film.GetSampleBounds();
         final Vector2i sampleExtent = sampleBounds.Diagonal();
-        final int tileSize = 16;
+        final int tileSize = Pbrt.options.TileSize;
         final int nXTiles = (sampleExtent.x + tileSize - 1) / tileSize;
         final int nYTiles = (sampleExtent.y + tileSize - 1) / tileSize;
+        final Point2i[] tiles = TileOrder.Create(Pbrt.options.TileOrder, new Point2i(nXTiles, nYTiles));
 
         ProgressReporter reporter = new ProgressReporter(nXTiles * nYTiles, "Rendering");
 
         // Allocate buffers for debug visualization
         final int bufferCount = (1 + maxDepth) * (6 + maxDepth) / 2;
-        Film[] weightFilms = new Film[bufferCount];
+        SplatBuffer[] weightFilms = new SplatBuffer[bufferCount];
         if (visualizeStrategies || visualizeWeights) {
             for (int depth = 0; depth <= maxDepth; ++depth) {
                 for (int s = 0; s <= depth + 2; ++s) {
                     int t = depth + 2 - s;
                     if (t == 0 || (s == 1 && t == 1)) continue;
 
-                    String filename = String.format("bdpt_d%02i_s%02i_t%02i.exr", depth, s, t);
-
-                    weightFilms[BufferIndex(s, t)] = new Film(film.fullResolution, new Bounds2f(new Point2f(0, 0), new Point2f(1, 1)),
-                            BoxFilter.Create(new ParamSet()), film.diagonal * 1000, filename, 1, Pbrt.Infinity);
+                    String filename = String.format("bdpt_d%02d_s%02d_t%02d.exr", depth, s, t);
+                    weightFilms[BufferIndex(s, t)] = new SplatBuffer(film.fullResolution, filename);
                 }
             }
         }
 
         // Render and write the output image to disk
         if (scene.lights.size() > 0) {
+            // Subpath storage is reused by every tile a worker thread renders
+            ThreadLocal<Vertex.PathBuffers> pathBuffers = ThreadLocal.withInitial(() -> new Vertex.PathBuffers(maxDepth));
 
             Consumer<Point2i> renderFunc = (Point2i tile) -> {
                 // Render a single tile using BDPT
@@ -82,6 +83,13 @@ public class BDPTIntegrator extends Integrator {
                 int y1 = Math.min(y0 + tileSize, sampleBounds.pMax.y);
                 Bounds2i tileBounds = new Bounds2i(new Point2i(x0, y0), new Point2i(x1, y1));
                 Film.FilmTile filmTile = camera.film.GetFilmTile(tileBounds);
+                MemoryArena arena = new MemoryArena();
+                Vertex.PathBuffers buffers = pathBuffers.get();
+                Vertex[] cameraVertices = buffers.cameraVertices;
+                Vertex[] lightVertices = buffers.lightVertices;
+                Point2f[] pFilmNew = new Point2f[1];
+                float[] misWeight = new float[1];
+                Spectrum L = new Spectrum(0);
                 for (int py = tileBounds.pMin.y; py < tileBounds.pMax.y; py++) {
                     for (int px = tileBounds.pMin.x; px < tileBounds.pMax.x; px++) {
                         Point2i pPixel = new Point2i(px, py);
@@ -93,9 +101,7 @@ public class BDPTIntegrator extends Integrator {
                             Point2f pFilm = (new Point2f(pPixel)).add(tileSampler.Get2D());
 
                             // Trace the camera subpath
-                            Vertex[] cameraVertices = new Vertex[maxDepth + 2];
-                            Vertex[] lightVertices = new Vertex[maxDepth + 1];
-                            int nCamera = Vertex.GenerateCameraSubpath(scene, tileSampler, maxDepth + 2, camera,
+                            int nCamera = Vertex.GenerateCameraSubpath(scene, tileSampler, arena, maxDepth + 2, camera,
                                     pFilm, cameraVertices);
                             // Get a distribution for sampling the light at the
                             // start of the light subpath. Because the light path
@@ -104,13 +110,14 @@ public class BDPTIntegrator extends Integrator {
                             // path is unlikely to be a good strategy. We use the
                             // PowerLightDistribution by default here, which
                             // doesn't use the point passed to it.
-                            final Distribution1D lightDistr = lightDistribution.Lookup(cameraVertices[0].p());
+                            final DiscreteDistribution1D lightDistr = lightDistribution.Lookup(cameraVertices[0].p());
                             // Now trace the light subpath
-                            int nLight = Vertex.GenerateLightSubpath(scene, tileSampler, maxDepth + 1,
+                            int nLight = Vertex.GenerateLightSubpath(scene, tileSampler, arena, maxDepth + 1,
                                     cameraVertices[0].time(), lightDistr, lightToIndex, lightVertices);
+                            buffers.Prepare(nCamera, nLight);
 
                             // Execute all BDPT connection strategies
-                            Spectrum L = new Spectrum(0);
+                            L.setTo(0);
                             for (int t = 1; t <= nCamera; ++t) {
                                 for (int s = 0; s <= nLight; ++s) {
                                     int depth = t + s - 2;
@@ -119,10 +126,9 @@ public class BDPTIntegrator extends Integrator {
                                         continue;
                                     // Execute the $(s, t)$ connection strategy and
                                     // update _L_
-                                    Point2f[] pFilmNew = new Point2f[1];
-                                    pFilmNew[0] = new Point2f(pFilm);
-                                    float[] misWeight = new float[1];
-                                    Spectrum Lpath = Vertex.ConnectBDPT(scene, lightVertices, cameraVertices, s, t,
+                                    // _pFilmNew_ is only replaced, never modified, by the $t=1$ strategy
+                                    pFilmNew[0] = pFilm;
+                                    Spectrum Lpath = Vertex.ConnectBDPT(scene, buffers, s, t,
                                             lightDistr, lightToIndex, camera, tileSampler, pFilmNew, misWeight);
                                     //VLOG(2) << "Connect bdpt s: " << s <<", t: " << t << ", Lpath: " << Lpath << ", misWeight: " << misWeight;
                                     if (visualizeStrategies || visualizeWeights) {
@@ -133,13 +139,14 @@ public class BDPTIntegrator extends Integrator {
                                         weightFilms[BufferIndex(s, t)].AddSplat(pFilmNew[0], value);
                                     }
                                     if (t != 1)
-                                        L = L.add(Lpath);
+                                        L.addInPlace(Lpath);
                                     else
                                         film.AddSplat(pFilmNew[0], Lpath);
                                 }
                             }
                             //VLOG(2) << "Add film sample pFilm: " << pFilm << ", L: " << L << ", (y: " << L.y() << ")";
                             filmTile.AddSample(pFilm, L, 1);
+                            arena.Reset();
 
                         } while (tileSampler.StartNextSample());
                     }
@@ -147,16 +154,16 @@ public class BDPTIntegrator extends Integrator {
                 film.MergeFilmTile(filmTile);
                 reporter.Update(1);
             };
-            Parallel.ParallelFor2D(renderFunc, new Point2i(nXTiles, nYTiles));
+            Parallel.ParallelFor((Long i) -> renderFunc.accept(tiles[i.intValue()]), tiles.length, TileOrder.ChunkSize(tiles.length));
 
             reporter.Done();
         }
-        film.WriteImage(1.0f / sampler.samplesPerPixel);
+        Parallel.Await(film.WriteImage(1.0f / sampler.samplesPerPixel));
 
         // Write buffers for debug visualization
         if (visualizeStrategies || visualizeWeights) {
             final float invSampleCount = 1.0f / sampler.samplesPerPixel;
-            for (Film weightFilm : weightFilms) if (weightFilm != null) weightFilm.WriteImage(invSampleCount);
+            for (SplatBuffer weightFilm : weightFilms) if (weightFilm != null) weightFilm.Write(invSampleCount);
         }
     }
 
@@ -200,4 +207,41 @@ public class BDPTIntegrator extends Integrator {
         return s + above * (5 + above) / 2;
     }
 
+    // Per-strategy image for debug visualization: an RGB triple per pixel,
+    // accumulated atomically, rather than a full Film per strategy.
+    private static class SplatBuffer {
+        SplatBuffer(Point2i resolution, String filename) {
+            this.resolution = resolution;
+            this.filename = filename;
+            this.rgb = new AtomicIntegerArray(3 * resolution.x * resolution.y);
+        }
+
+        void AddSplat(Point2f p, Spectrum v) {
+            int x = (int)Math.floor(p.x), y = (int)Math.floor(p.y);
+            if (x < 0 || y < 0 || x >= resolution.x || y >= resolution.y) return;
+            if (v.hasNaNs() || Float.isInfinite(v.y())) return;
+            int offset = 3 * (y * resolution.x + x);
+            for (int c = 0; c < 3; ++c) {
+                float value = v.at(c);
+                if (value == 0) continue;
+                int oldBits, newBits;
+                do {
+                    oldBits = rgb.get(offset + c);
+                    newBits = Float.floatToIntBits(Float.intBitsToFloat(oldBits) + value);
+                } while (!rgb.compareAndSet(offset + c, oldBits, newBits));
+            }
+        }
+
+        void Write(float scale) {
+            float[] image = new float[rgb.length()];
+            for (int i = 0; i < image.length; ++i)
+                image[i] = scale * Float.intBitsToFloat(rgb.get(i));
+            ImageIO.Write(filename, image, new Bounds2i(new Point2i(0, 0), resolution), resolution);
+        }
+
+        private final Point2i resolution;
+        private final String filename;
+        private final AtomicIntegerArray rgb;
+    }
+
 }
\ No newline at end of file
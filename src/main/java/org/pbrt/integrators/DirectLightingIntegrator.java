@@ -26,7 +26,7 @@ public class DirectLightingIntegrator extends SamplerIntegrator {
     }
 
     @Override
-    public Spectrum Li(RayDifferential ray, Scene scene, Sampler sampler, int depth) {
+    public Spectrum Li(RayDifferential ray, Scene scene, Sampler sampler, MemoryArena arena, int depth) {
         Spectrum L = new Spectrum(0);
         // Find closest ray intersection or return background radiance
         SurfaceInteraction isect = scene.Intersect(ray);
@@ -36,9 +36,9 @@ public class DirectLightingIntegrator extends SamplerIntegrator {
         }
 
         // Compute scattering functions for surface interaction
-        isect.ComputeScatteringFunctions(ray);
+        isect.ComputeScatteringFunctions(ray, arena);
         if (isect.bsdf == null)
-            return Li(new RayDifferential(isect.SpawnRay(ray.d)), scene, sampler, depth);
+            return Li(new RayDifferential(isect.SpawnRay(ray.d)), scene, sampler, arena, depth);
         Vector3f wo = isect.wo;
         // Compute emitted light if ray hit an area light source
         L = L.add(isect.Le(wo));
@@ -47,13 +47,13 @@ public class DirectLightingIntegrator extends SamplerIntegrator {
             if (strategy == LightStrategy.UniformSampleAll)
                 L = L.add(UniformSampleAllLights(isect, scene, sampler, nLightSamples, false));
             else
-                L = L.add(UniformSampleOneLight(isect, scene, sampler, false, null));
+                L = L.add(UniformSampleOneLight(isect, scene, sampler, false, (DiscreteDistribution1D)null));
         }
         if (depth + 1 < maxDepth) {
             Vector3f wi;
             // Trace rays for specular reflection and refraction
-            L = L.add(SpecularReflect(ray, isect, scene, sampler, depth));
-            L = L.add(SpecularTransmit(ray, isect, scene, sampler, depth));
+            L = L.add(SpecularReflect(ray, isect, scene, sampler, arena, depth));
+            L = L.add(SpecularTransmit(ray, isect, scene, sampler, arena, depth));
         }
         return L;
     }
@@ -35,7 +35,7 @@ public class MLTIntegrator extends Integrator {
 
     @Override
     public void Render(Scene scene) {
-        Distribution1D lightDistr = ComputeLightPowerDistribution(scene);
+        DiscreteDistribution1D lightDistr = ComputeLightPowerDistribution(scene);
 
         // Compute a reverse mapping from light pointers to offsets into the
         // scene lights vector (and, equivalently, offsets into
@@ -54,20 +54,22 @@ public class MLTIntegrator extends Integrator {
 
             Consumer<Long> bootFunc = (Long li) -> {
                 int i = Math.toIntExact(li);
+                MemoryArena arena = new MemoryArena();
                 // Generate _i_th bootstrap sample
                 for (int depth = 0; depth <= maxDepth; ++depth) {
                     int rngIndex = i * (maxDepth + 1) + depth;
                     MLTSampler sampler = new MLTSampler(mutationsPerPixel, rngIndex, sigma, largeStepProbability, nSampleStreams);
                     Point2f[] pRaster = new Point2f[1];
-                    bootstrapWeights[rngIndex] = L(scene, lightDistr, lightToIndex, sampler, depth, pRaster).y();
+                    bootstrapWeights[rngIndex] = L(scene, arena, lightDistr, lightToIndex, sampler, depth, pRaster).y();
+                    arena.Reset();
                 }
                 if ((i + 1 % 256) == 0) progress.Update(1);
             };
             Parallel.ParallelFor(bootFunc, nBootstrap, chunkSize);
             progress.Done();
         }
-        Distribution1D bootstrap = new Distribution1D(bootstrapWeights);
-        float b = bootstrap.funcInt * (maxDepth + 1);
+        DiscreteDistribution1D bootstrap = new AliasDistribution1D(bootstrapWeights);
+        float b = bootstrap.Integral() * (maxDepth + 1);
 
         // Run _nChains_ Markov chains in parallel
         Film film = camera.film;
@@ -89,17 +91,18 @@ public class MLTIntegrator extends Integrator {
                 int depth = bootstrapIndex % (maxDepth + 1);
 
                 // Initialize local variables for selected state
+                MemoryArena arena = new MemoryArena();
                 MLTSampler sampler = new MLTSampler(mutationsPerPixel, bootstrapIndex, sigma, largeStepProbability, nSampleStreams);
                 Point2f[] pCurrent = new Point2f[1];
                 pCurrent[0] = new Point2f();
-                Spectrum LCurrent = L(scene, lightDistr, lightToIndex, sampler, depth, pCurrent);
+                Spectrum LCurrent = L(scene, arena, lightDistr, lightToIndex, sampler, depth, pCurrent);
 
                 // Run the Markov chain for _nChainMutations_ steps
                 for (long j = 0; j < nChainMutations; ++j) {
                     sampler.StartIteration();
                     Point2f[] pProposed = new Point2f[1];
                     pProposed[0] = new Point2f();
-                    Spectrum LProposed = L(scene, lightDistr, lightToIndex, sampler, depth, pProposed);
+                    Spectrum LProposed = L(scene, arena, lightDistr, lightToIndex, sampler, depth, pProposed);
                     // Compute acceptance probability for proposed sample
                     float accept = Math.min(1, LProposed.y() / LCurrent.y());
 
@@ -117,6 +120,7 @@ public class MLTIntegrator extends Integrator {
                     } else
                         sampler.Reject();
                     acceptedMutationsPerc.incrementDenom(1); // ++totalMutations;
+                    arena.Reset();
                     if ((i * nTotalMutations / nChains + j) % progressFrequency == 0)
                         progress.Update(1);
                 }
@@ -126,10 +130,10 @@ public class MLTIntegrator extends Integrator {
         }
 
         // Store final image computed with MLT
-        camera.film.WriteImage(b / mutationsPerPixel);
+        Parallel.Await(camera.film.WriteImage(b / mutationsPerPixel));
     }
 
-    public Spectrum L(Scene scene, Distribution1D lightDistr, HashMap<Light, Integer> lightToIndex, MLTSampler sampler, int depth, Point2f[] pRaster) {
+    public Spectrum L(Scene scene, MemoryArena arena, DiscreteDistribution1D lightDistr, HashMap<Light, Integer> lightToIndex, MLTSampler sampler, int depth, Point2f[] pRaster) {
         sampler.StartStream(cameraStreamIndex);
         // Determine the number of available strategies and pick a specific one
         int s, t, nStrategies;
@@ -147,13 +151,13 @@ public class MLTIntegrator extends Integrator {
         Vertex[] cameraVertices = new Vertex[t];
         Bounds2f sampleBounds = new Bounds2f(camera.film.GetSampleBounds());
         pRaster[0] = sampleBounds.Lerp(sampler.Get2D());
-        if (Vertex.GenerateCameraSubpath(scene, sampler, t, camera, pRaster[0], cameraVertices) != t)
+        if (Vertex.GenerateCameraSubpath(scene, sampler, arena, t, camera, pRaster[0], cameraVertices) != t)
         return new Spectrum(0);
 
         // Generate a light subpath with exactly _s_ vertices
         sampler.StartStream(lightStreamIndex);
         Vertex[] lightVertices = new Vertex[s];
-        if (Vertex.GenerateLightSubpath(scene, sampler, s, cameraVertices[0].time(), lightDistr, lightToIndex, lightVertices) != s)
+        if (Vertex.GenerateLightSubpath(scene, sampler, arena, s, cameraVertices[0].time(), lightDistr, lightToIndex, lightVertices) != s)
         return new Spectrum(0);
 
         // Execute connection strategy and return the radiance estimate
@@ -117,7 +117,7 @@ public class MLTSampler extends Sampler {
     private RNG rng;
     private final float sigma, largeStepProbability;
     private final int streamCount;
-    private ArrayList<PrimarySample> X;
+    private ArrayList<PrimarySample> X = new ArrayList<>();
     private long currentIteration = 0;
     private boolean largeStep = true;
     private long lastLargeStepIteration = 0;
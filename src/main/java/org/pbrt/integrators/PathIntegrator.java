@@ -16,14 +16,35 @@ import org.pbrt.core.PBrtTLogger;
 public class PathIntegrator extends SamplerIntegrator{
 
     public PathIntegrator(int maxDepth, Camera camera, Sampler sampler, Bounds2i pixelBounds, float rrThreshold, String lightSampleStrategy) {
+        this(maxDepth, camera, sampler, pixelBounds, rrThreshold, lightSampleStrategy, 0);
+    }
+
+    public PathIntegrator(int maxDepth, Camera camera, Sampler sampler, Bounds2i pixelBounds, float rrThreshold,
+                          String lightSampleStrategy, int prewarmStride) {
+        this(maxDepth, camera, sampler, pixelBounds, rrThreshold, lightSampleStrategy, prewarmStride, false);
+    }
+
+    // With _spectral_ set, each camera sample traces its path at four
+    // sampled wavelengths and the result is converted to RGB at the end
+    public PathIntegrator(int maxDepth, Camera camera, Sampler sampler, Bounds2i pixelBounds, float rrThreshold,
+                          String lightSampleStrategy, int prewarmStride, boolean spectral) {
         super(camera, sampler, pixelBounds);
         this.maxDepth = maxDepth;
         this.rrThreshold = rrThreshold;
         this.lightSampleStrategy = lightSampleStrategy;
+        this.prewarmStride = prewarmStride;
+        this.spectral = spectral;
+    }
+
+    @Override
+    public Spectrum Li(RayDifferential r, Scene scene, Sampler sampler, MemoryArena arena, int depth) {
+        return Li(r, scene, sampler, arena, (AOV.Sample)null);
     }
 
+    // The AOVs are set from the path's first vertex
     @Override
-    public Spectrum Li(RayDifferential r, Scene scene, Sampler sampler, int depth) {
+    public Spectrum Li(RayDifferential r, Scene scene, Sampler sampler, MemoryArena arena, AOV.Sample aovs) {
+        if (spectral) return LiSpectral(r, scene, sampler, arena, aovs);
         Spectrum L = new Spectrum(0), beta = new Spectrum(1);
         RayDifferential ray = new RayDifferential(r);
         boolean specularBounce = false;
@@ -48,20 +69,24 @@ public class PathIntegrator extends SamplerIntegrator{
             if ((bounces == 0) || specularBounce) {
                 // Add emitted light at path vertex or from the environment
                 if (isect != null) {
-                    L = L.add(beta.multiply(isect.Le(ray.d.negate())));
+                    L.mulAdd(beta, isect.Le(ray.d.negate()));
                     //Api.logger.trace("Added Le -> L = %s", L.toString());
                 } else {
                     for (Light light : scene.infiniteLights)
-                    L = L.add(beta.multiply(light.Le(ray)));
+                    L.mulAdd(beta, light.Le(ray));
                     //Api.logger.trace("Added infinite area lights -> L = %s", L.toString());
                 }
             }
 
             // Terminate path if ray escaped or _maxDepth_ was reached
-            if (isect == null || bounces >= maxDepth) break;
+            if (isect == null || bounces >= maxDepth) {
+                if (aovs != null && isect != null && isect.primitive.GetMaterial() != null)
+                    SetSurfaceAOVs(r, isect, arena, aovs);
+                break;
+            }
 
             // Compute scattering functions and skip over medium boundaries
-            isect.ComputeScatteringFunctions(ray, true, Material.TransportMode.Radiance);
+            isect.ComputeScatteringFunctions(ray, arena, true, Material.TransportMode.Radiance);
             if (isect.bsdf == null) {
                 //Api.logger.trace("Skipping intersection due to null bsdf");
                 ray = new RayDifferential(isect.SpawnRay(ray.d));
@@ -69,17 +94,21 @@ public class PathIntegrator extends SamplerIntegrator{
                 continue;
             }
 
-            final Distribution1D distrib = lightDistribution.Lookup(isect.p);
+            // The AOVs come from the first surface that isn't a medium boundary
+            if (aovs != null) {
+                SetSurfaceAOVs(r, isect, arena, aovs);
+                aovs = null;
+            }
 
             // Sample illumination from lights to find path contribution.
             // (But skip this for perfectly specular BSDFs.)
             if (isect.bsdf.NumComponents(BxDF.BSDF_ALL & ~BxDF.BSDF_SPECULAR) > 0) {
                 pathStats.incrementDenom(1); // totalPaths
-                Spectrum Ld = beta.multiply(UniformSampleOneLight(isect, scene, sampler, false, distrib));
+                Spectrum Ld = UniformSampleOneLight(isect, scene, sampler, false, lightDistribution).multiplyInPlace(beta);
                 //Api.logger.trace("Sampled direct lighting Ld = %s", Ld.toString());
                 if (Ld.isBlack()) pathStats.incrementNumer(1); // zeroRadiancePaths
                 assert (Ld.y() >= 0);
-                L = L.add(Ld);
+                L.addInPlace(Ld);
             }
 
             // Sample BSDF to get new path direction
@@ -92,7 +121,7 @@ public class PathIntegrator extends SamplerIntegrator{
 
             //Api.logger.trace("Sampled BSDF, f = %s, pdf = %f", f.toString(), pdf);
             if (f.isBlack() || pdf == 0) break;
-            beta = beta.multiply(f.scale(Normal3f.AbsDot(wi, isect.shading.n) / pdf));
+            beta.mulScaleInPlace(f, Normal3f.AbsDot(wi, isect.shading.n) / pdf);
 
             //Api.logger.trace("Updated beta = %s", beta.toString());
             assert (beta.y() >= 0);
@@ -110,17 +139,17 @@ public class PathIntegrator extends SamplerIntegrator{
             // Account for subsurface scattering, if applicable
             if ((isect.bssrdf != null) && ((flags & BxDF.BSDF_TRANSMISSION) != 0)) {
                 // Importance sample the BSSRDF
-                BSSRDF.BSSRDFSample sample = isect.bssrdf.Sample_S(scene, sampler.Get1D(), sampler.Get2D());
+                BSSRDF.BSSRDFSample sample = isect.bssrdf.Sample_S(scene, sampler.Get1D(), sampler.Get2D(), arena);
                 SurfaceInteraction pi = sample.si;
                 Spectrum S = sample.s;
                 pdf = sample.pdf;
 
                 assert(!Float.isInfinite(beta.y()));
                 if (S.isBlack() || pdf == 0) break;
-                beta = beta.multiply(S.scale(1/ pdf));
+                beta.mulScaleInPlace(S, 1 / pdf);
 
                 // Account for the direct subsurface scattering component
-                L = L.add(beta.multiply(UniformSampleOneLight(pi, scene, sampler, false, lightDistribution.Lookup(pi.p))));
+                L.mulAdd(beta, UniformSampleOneLight(pi, scene, sampler, false, lightDistribution));
 
                 // Account for the indirect subsurface scattering component
                 BxDF.BxDFSample bxsample = pi.bsdf.Sample_f(pi.wo, sampler.Get2D(), BxDF.BSDF_ALL);
@@ -130,7 +159,7 @@ public class PathIntegrator extends SamplerIntegrator{
                 flags = bxsample.sampledType;
 
                 if (ff.isBlack() || pdf == 0) break;
-                beta = beta.multiply(ff.scale(Normal3f.AbsDot(wi, pi.shading.n) / pdf));
+                beta.mulScaleInPlace(ff, Normal3f.AbsDot(wi, pi.shading.n) / pdf);
                 assert (!Float.isInfinite(beta.y()));
                 specularBounce = (flags & BxDF.BSDF_SPECULAR) != 0;
                 ray = new RayDifferential(pi.SpawnRay(wi));
@@ -138,11 +167,12 @@ public class PathIntegrator extends SamplerIntegrator{
 
             // Possibly terminate the path with Russian roulette.
             // Factor out radiance scaling due to refraction in rrBeta.
-            Spectrum rrBeta = beta.scale(etaScale);
-            if (rrBeta.maxComponentValue() < rrThreshold && bounces > 3) {
-                float q = Math.max(.05f, 1 - rrBeta.maxComponentValue());
+            // (etaScale is positive, so max(beta * etaScale) == max(beta) * etaScale.)
+            float rrBetaMax = beta.maxComponentValue() * etaScale;
+            if (rrBetaMax < rrThreshold && bounces > 3) {
+                float q = Math.max(.05f, 1 - rrBetaMax);
                 if (sampler.Get1D() < q) break;
-                beta = beta.scale(1 /(1 - q));
+                beta.scaleInPlace(1 /(1 - q));
                 assert (!Float.isInfinite(beta.y()));
             }
         }
@@ -150,9 +180,90 @@ public class PathIntegrator extends SamplerIntegrator{
         return L;
     }
 
+    // Li() at the wavelengths sampled for this camera sample.  Media and
+    // subsurface scattering aren't handled.
+    private Spectrum LiSpectral(RayDifferential r, Scene scene, Sampler sampler, MemoryArena arena, AOV.Sample aovs) {
+        // The wavelengths and spectra are pooled in _arena_, which is reset
+        // after each camera sample
+        SampledWavelengths lambda = arena.AllocSampledWavelengths(sampler.Get1D());
+        SampledSpectrum L = arena.AllocSampledSpectrum(0), beta = arena.AllocSampledSpectrum(1), Le = arena.AllocSampledSpectrum(0);
+        RayDifferential ray = new RayDifferential(r);
+        boolean specularBounce = false;
+        int bounces;
+        float etaScale = 1;
+
+        for (bounces = 0;; ++bounces) {
+            // Intersect _ray_ with scene and store intersection in _isect_
+            SurfaceInteraction isect = scene.Intersect(ray);
+
+            // Possibly add emitted light at intersection
+            if ((bounces == 0) || specularBounce) {
+                if (isect != null) {
+                    AreaLight area = isect.primitive.GetAreaLight();
+                    if (area != null)
+                        L.mulAdd(beta, area.SampleEmission(isect.Le(ray.d.negate()), lambda, Le));
+                } else {
+                    for (Light light : scene.infiniteLights)
+                        L.mulAdd(beta, light.SampleEmission(light.Le(ray), lambda, Le));
+                }
+            }
+
+            // Terminate path if ray escaped or _maxDepth_ was reached
+            if (isect == null || bounces >= maxDepth) {
+                if (aovs != null && isect != null && isect.primitive.GetMaterial() != null)
+                    SetSurfaceAOVs(r, isect, isect.ComputeSpectralScatteringFunctions(ray, lambda, arena,
+                            Material.TransportMode.Radiance), lambda, aovs);
+                break;
+            }
+
+            // Compute scattering functions and skip over medium boundaries
+            SpectralBSDF bsdf = isect.ComputeSpectralScatteringFunctions(ray, lambda, arena, Material.TransportMode.Radiance);
+            if (bsdf == null) {
+                ray = new RayDifferential(isect.SpawnRay(ray.d));
+                bounces--;
+                continue;
+            }
+
+            // The AOVs come from the first surface that isn't a medium
+            // boundary, and from the same _SpectralBSDF_, so recording them
+            // leaves the shading frame and the path unchanged
+            if (aovs != null) {
+                SetSurfaceAOVs(r, isect, bsdf, lambda, aovs);
+                aovs = null;
+            }
+
+            // Sample illumination from lights to find path contribution.
+            // (But skip this for perfectly specular BSDFs.)
+            if (bsdf.NumComponents(BxDF.BSDF_ALL & ~BxDF.BSDF_SPECULAR) > 0)
+                L.mulAdd(beta, UniformSampleOneLight(isect, bsdf, lambda, scene, sampler, lightDistribution, arena));
+
+            // Sample BSDF to get new path direction
+            Vector3f wo = ray.d.negate();
+            SpectralBxDF.SpectralSample bs = bsdf.Sample_f(wo, sampler.Get2D(), BxDF.BSDF_ALL);
+            if (bs.f.isBlack() || bs.pdf == 0) break;
+            beta.mulScaleInPlace(bs.f, Normal3f.AbsDot(bs.wi, isect.shading.n) / bs.pdf);
+            specularBounce = (bs.sampledType & BxDF.BSDF_SPECULAR) != 0;
+            if (((bs.sampledType & BxDF.BSDF_SPECULAR) != 0) && ((bs.sampledType & BxDF.BSDF_TRANSMISSION) != 0)) {
+                float eta = bsdf.eta;
+                etaScale *= (Normal3f.Dot(wo, isect.n) > 0) ? (eta * eta) : 1 / (eta * eta);
+            }
+            ray = new RayDifferential(isect.SpawnRay(bs.wi));
+
+            // Possibly terminate the path with Russian roulette
+            float rrBetaMax = beta.maxComponentValue() * etaScale;
+            if (rrBetaMax < rrThreshold && bounces > 3) {
+                float q = Math.max(.05f, 1 - rrBetaMax);
+                if (sampler.Get1D() < q) break;
+                beta.scaleInPlace(1 /(1 - q));
+            }
+        }
+        pathLength.ReportValue(bounces);
+        return lambda.ToRGB(L);
+    }
+
     public void Preprocess(Scene scene, Sampler sampler) {
         lightDistribution = LightDistribution.CreateLightSampleDistribution(lightSampleStrategy, scene);
-
+        if (prewarmStride > 0) lightDistribution.Prewarm(camera, prewarmStride);
     }
 
     public static PathIntegrator Create(ParamSet params, Sampler sampler, Camera camera) {
@@ -172,12 +283,16 @@ public class PathIntegrator extends SamplerIntegrator{
         }
         float rrThreshold = params.FindOneFloat("rrthreshold", 1);
         String lightStrategy = params.FindOneString("lightsamplestrategy", "spatial");
-        return new PathIntegrator(maxDepth, camera, sampler, pixelBounds, rrThreshold, lightStrategy);
+        int prewarmStride = params.FindOneInt("lightprewarmstride", 0);
+        boolean spectral = params.FindOneBoolean("spectral", false);
+        return new PathIntegrator(maxDepth, camera, sampler, pixelBounds, rrThreshold, lightStrategy, prewarmStride, spectral);
     }
 
     private final int maxDepth;
     private final float rrThreshold;
     private final String lightSampleStrategy;
+    private final int prewarmStride;
+    private final boolean spectral;
     private LightDistribution lightDistribution;
 
     private static Stats.Percent pathStats = new Stats.Percent("Integrator/Zero-radiance paths");
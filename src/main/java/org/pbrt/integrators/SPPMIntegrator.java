@@ -13,6 +13,7 @@ package org.pbrt.integrators;
 import org.pbrt.core.*;
 import org.pbrt.samplers.HaltonSampler;
 
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -35,11 +36,14 @@ public class SPPMIntegrator extends Integrator {
         Bounds2i pixelBounds = camera.film.croppedPixelBounds;
         int nPixels = pixelBounds.Area();
         SPPMPixel[] pixels = new SPPMPixel[nPixels];
-        for (int i = 0; i < nPixels; ++i) pixels[i].radius = initialSearchRadius;
+        for (int i = 0; i < nPixels; ++i) {
+            pixels[i] = new SPPMPixel();
+            pixels[i].radius = initialSearchRadius;
+        }
         final float invSqrtSPP = 1 / (float)Math.sqrt(nIterations);
         pixelMemoryBytes.increment(nPixels * SPPMPixel.sizeof());
         // Compute _lightDistr_ for sampling lights proportional to power
-        Distribution1D lightDistr = ComputeLightPowerDistribution(scene);
+        DiscreteDistribution1D lightDistr = ComputeLightPowerDistribution(scene);
 
         // Perform _nIterations_ of SPPM integration
         HaltonSampler sampler = new HaltonSampler(nIterations, pixelBounds);
@@ -49,6 +53,8 @@ public class SPPMIntegrator extends Integrator {
         final int tileSize = 16;
         Point2i nTiles = new Point2i((pixelExtent.x + tileSize - 1) / tileSize, (pixelExtent.y + tileSize - 1) / tileSize);
         ProgressReporter progress = new ProgressReporter(2 * nIterations, "Rendering");
+        // The image being written in the background, if any
+        Future<Boolean> pendingWrite = null;
         for (int iter = 0; iter < nIterations; ++iter) {
             // Generate SPPM visible points
             //std::vector<MemoryArena> perThreadArenas(MaxThreadIndex());
@@ -58,6 +64,9 @@ public class SPPMIntegrator extends Integrator {
                     // Follow camera paths for _tile_ in image for SPPM
                     int tileIndex = tile.y * nTiles.x + tile.x;
                     Sampler tileSampler = sampler.Clone(tileIndex);
+                    // Visible points keep their _BSDF_s for the whole
+                    // iteration, so the tile arena is never reset
+                    MemoryArena arena = new MemoryArena();
 
                     // Compute _tileBounds_ for SPPM tile
                     int x0 = pixelBounds.pMin.x + tile.x * tileSize;
@@ -99,7 +108,7 @@ public class SPPMIntegrator extends Integrator {
                                 // Process SPPM camera ray intersection
 
                                 // Compute BSDF at SPPM camera ray intersection
-                                isect.ComputeScatteringFunctions(ray, true, Material.TransportMode.Radiance);
+                                isect.ComputeScatteringFunctions(ray, arena, true, Material.TransportMode.Radiance);
                                 if (isect.bsdf == null) {
                                     ray = new RayDifferential(isect.SpawnRay(ray.d));
                                     --depth;
@@ -112,12 +121,15 @@ public class SPPMIntegrator extends Integrator {
                                 Vector3f wo = ray.d.negate();
                                 if (depth == 0 || specularBounce)
                                     pixel.Ld = pixel.Ld.add(beta.multiply(isect.Le(wo)));
-                                pixel.Ld = pixel.Ld.add(beta.multiply(SamplerIntegrator.UniformSampleOneLight(isect, scene, tileSampler, false, null)));
+                                pixel.Ld = pixel.Ld.add(beta.multiply(SamplerIntegrator.UniformSampleOneLight(isect, scene, tileSampler, false, (DiscreteDistribution1D)null)));
 
                                 // Possibly create visible point and end camera path
                                 boolean isDiffuse = bsdf.NumComponents(BxDF.BSDF_DIFFUSE | BxDF.BSDF_REFLECTION | BxDF.BSDF_TRANSMISSION) > 0;
                                 boolean isGlossy = bsdf.NumComponents(BxDF.BSDF_GLOSSY | BxDF.BSDF_REFLECTION | BxDF.BSDF_TRANSMISSION) > 0;
                                 if (isDiffuse || (isGlossy && depth == maxDepth - 1)) {
+                                    // The photon pass evaluates the BSDF from
+                                    // many threads
+                                    bsdf.Detach();
                                     pixel.vp = new SPPMPixel.VisiblePoint(isect.p, wo, bsdf, beta);
                                     break;
                                 }
@@ -154,6 +166,7 @@ public class SPPMIntegrator extends Integrator {
             // Allocate grid for SPPM visible points
             final int hashSize = nPixels;
             AtomicReference<SPPMPixelListNode>[] grid = new AtomicReference[hashSize];
+            for (int i = 0; i < hashSize; ++i) grid[i] = new AtomicReference<>(null);
             {
                 // Compute grid bounds for SPPM visible points
                 float maxRadius = 0;
@@ -211,10 +224,10 @@ public class SPPMIntegrator extends Integrator {
             {
                 int localIter = iter;
                 final Bounds3f localGridBounds = gridBounds;
-                //std::vector<MemoryArena> photonShootArenas(MaxThreadIndex());
+                ThreadLocal<MemoryArena> photonShootArenas = ThreadLocal.withInitial(MemoryArena::new);
                 Consumer<Long> traceFunc = (Long li) -> {
                     int photonIndex = Math.toIntExact(li);
-                    //MemoryArena &arena = photonShootArenas[ThreadIndex];
+                    MemoryArena arena = photonShootArenas.get();
                     // Follow photon path for _photonIndex_
                     long haltonIndex = (long)localIter * (long)photonsPerIteration + photonIndex;
                     int haltonDim = 0;
@@ -279,7 +292,7 @@ public class SPPMIntegrator extends Integrator {
                         // Sample new photon ray direction
 
                         // Compute BSDF at photon intersection point
-                        isect.ComputeScatteringFunctions(photonRay, true, Material.TransportMode.Importance);
+                        isect.ComputeScatteringFunctions(photonRay, arena, true, Material.TransportMode.Importance);
                         if (isect.bsdf == null) {
                             --depth;
                             photonRay = new RayDifferential(isect.SpawnRay(photonRay.d));
@@ -308,7 +321,7 @@ public class SPPMIntegrator extends Integrator {
                         beta = bnew.scale(1 / (1 - q));
                         photonRay = new RayDifferential(isect.SpawnRay(wi));
                     }
-                    //arena.Reset();
+                    arena.Reset();
                 };
                 Parallel.ParallelFor(traceFunc, photonsPerIteration, 8192);
                 progress.Update(1);
@@ -359,10 +372,12 @@ public class SPPMIntegrator extends Integrator {
                         image[offset++] = L;
                     }
                 }
+                if (pendingWrite != null) Parallel.Await(pendingWrite);
                 camera.film.SetImage(image);
-                camera.film.WriteImage(1);
+                pendingWrite = camera.film.WriteImage(1);
                 // Write SPPM radius image, if requested
-                if (!System.getenv("SPPM_RADIUS").isEmpty()) {
+                String radiusEnv = System.getenv("SPPM_RADIUS");
+                if (radiusEnv != null && !radiusEnv.isEmpty()) {
                     float[] rimg = new float[3 * pixelBounds.Area()];
                     float minrad = 1e30f, maxrad = 0;
                     for (int y = pixelBounds.pMin.y; y < pixelBounds.pMax.y; ++y) {
@@ -388,6 +403,7 @@ public class SPPMIntegrator extends Integrator {
                 }
             }
         }
+        if (pendingWrite != null) Parallel.Await(pendingWrite);
         progress.Done();
     }
 
@@ -419,6 +435,7 @@ public class SPPMIntegrator extends Integrator {
         // SPPMPixel Public Methods
         public SPPMPixel() {
             this.M.set(0);
+            for (int i = 0; i < Phi.length; ++i) Phi[i] = new AtomicFloat(0);
         }
 
         // SPPMPixel Public Data
@@ -433,6 +450,7 @@ public class SPPMIntegrator extends Integrator {
             // VisiblePoint Public Methods
             public VisiblePoint() {
                 this.bsdf = null;
+                this.beta = new Spectrum(0);
             }
             public VisiblePoint(Point3f p, Vector3f wo, BSDF bsdf, Spectrum beta) {
                 this.p = p;
@@ -450,7 +468,7 @@ public class SPPMIntegrator extends Integrator {
         AtomicFloat[] Phi = new AtomicFloat[Spectrum.nSamples];
         AtomicInteger M = new AtomicInteger(0);
         float N = 0;
-        Spectrum tau;
+        Spectrum tau = new Spectrum(0);
     }
 
     private static class SPPMPixelListNode {
@@ -470,9 +488,8 @@ public class SPPMIntegrator extends Integrator {
     }
 
     private static int hash(Point3i p, int hashSize) {
-        return ((p.x * 73856093) ^ (p.y * 19349663) ^
-                (p.z * 83492791)) %
-                hashSize;
+        // The hash is an unsigned 32-bit value
+        return Integer.remainderUnsigned((p.x * 73856093) ^ (p.y * 19349663) ^ (p.z * 83492791), hashSize);
     }
 
 }
\ No newline at end of file
@@ -13,7 +13,6 @@ import org.pbrt.core.*;
 import org.pbrt.core.PBrtTLogger;
 
 import java.util.HashMap;
-import java.util.function.Function;
 
 public class Vertex {
 
@@ -30,18 +29,18 @@ public class Vertex {
             return 1;
     }
 
-    public static float InfiniteLightDensity(Scene scene, Distribution1D lightDistr,
+    public static float InfiniteLightDensity(Scene scene, DiscreteDistribution1D lightDistr,
                                              HashMap<Light, Integer> lightToDistrIndex, Vector3f w) {
         float pdf = 0;
         for (Light light : scene.infiniteLights) {
             assert (lightToDistrIndex.containsKey(light));
             int index = lightToDistrIndex.get(light);
-            pdf += light.Pdf_Li(new Interaction(), w.negate()) * lightDistr.func[index];
+            pdf += light.Pdf_Li(new Interaction(), w.negate()) * lightDistr.DiscretePDF(index);
         }
-        return pdf / (lightDistr.funcInt * lightDistr.Count());
+        return pdf;
     }
 
-    public static int GenerateCameraSubpath(Scene scene, Sampler sampler, int maxDepth, Camera camera, Point2f pFilm, Vertex[] path) {
+    public static int GenerateCameraSubpath(Scene scene, Sampler sampler, MemoryArena arena, int maxDepth, Camera camera, Point2f pFilm, Vertex[] path) {
         if (maxDepth == 0) return 0;
         // Sample initial ray for camera subpath
         Camera.CameraSample cameraSample = new Camera.CameraSample();
@@ -54,15 +53,15 @@ public class Vertex {
         ray.ScaleDifferentials(1 / (float)Math.sqrt(sampler.samplesPerPixel));
 
         // Generate first vertex on camera subpath and start random walk
-        path[0] = CreateCamera(camera, ray, beta);
+        Slot(path, 0).InitCamera(camera, ray, beta);
         Camera.CameraPdf cp = camera.Pdf_We(ray);
         float pdfPos = cp.pdfPos, pdfDir = cp.pdfDir;
 
         //VLOG(2) << "Starting camera subpath. Ray: " << ray << ", beta " << beta << ", pdfPos " << pdfPos << ", pdfDir " << pdfDir;
-        return RandomWalk(scene, ray, sampler, beta, pdfDir, maxDepth - 1, Material.TransportMode.Radiance, path, 1) + 1;
+        return RandomWalk(scene, ray, sampler, arena, beta, pdfDir, maxDepth - 1, Material.TransportMode.Radiance, path, 1) + 1;
     }
 
-    public static int GenerateLightSubpath(Scene scene, Sampler sampler, int maxDepth, float time, Distribution1D lightDistr,
+    public static int GenerateLightSubpath(Scene scene, Sampler sampler, MemoryArena arena, int maxDepth, float time, DiscreteDistribution1D lightDistr,
                                            HashMap<Light, Integer> lightToIndex, Vertex[] path) {
         if (maxDepth == 0) return 0;
         // Sample initial ray for light subpath
@@ -79,10 +78,10 @@ public class Vertex {
         if (pdfPos == 0 || pdfDir == 0 || Le.isBlack()) return 0;
 
         // Generate first vertex on light subpath and start random walk
-        path[0] = Vertex.CreateLight(light, ray, nLight, Le, pdfPos * lightPdf);
+        Slot(path, 0).InitLight(light, ray, nLight, Le, pdfPos * lightPdf);
         Spectrum beta = Le.scale(Normal3f.AbsDot(nLight, ray.d) / (lightPdf * pdfPos * pdfDir));
         //VLOG(2) << "Starting light subpath. Ray: " << ray << ", Le " << Le << ", beta " << beta << ", pdfPos " << pdfPos << ", pdfDir " << pdfDir;
-        int nVertices = RandomWalk(scene, ray, sampler, beta, pdfDir, maxDepth - 1, Material.TransportMode.Importance, path, 1);
+        int nVertices = RandomWalk(scene, ray, sampler, arena, beta, pdfDir, maxDepth - 1, Material.TransportMode.Importance, path, 1);
 
         // Correct subpath sampling densities for infinite area lights
         if (path[0].IsInfiniteLight()) {
@@ -99,15 +98,34 @@ public class Vertex {
         return nVertices + 1;
     }
 
-    public static Spectrum ConnectBDPT(Scene scene, Vertex[] lightVertices, Vertex[] cameraVertices, int s, int t, Distribution1D lightDistr,
+    public static Spectrum ConnectBDPT(Scene scene, Vertex[] lightVertices, Vertex[] cameraVertices, int s, int t, DiscreteDistribution1D lightDistr,
+        HashMap<Light, Integer> lightToIndex, Camera camera, Sampler sampler, Point2f[] pRaster, float[] misWeight) {
+        float[] cameraRiSums = new float[t], lightRiSums = new float[s];
+        AccumulateRatios(cameraVertices, t, false, cameraRiSums);
+        AccumulateRatios(lightVertices, s, true, lightRiSums);
+        return ConnectBDPT(scene, lightVertices, cameraVertices, new Vertex(), cameraRiSums, lightRiSums, s, t,
+                lightDistr, lightToIndex, camera, sampler, pRaster, misWeight);
+    }
+
+    // Connect subpaths held in per-thread _buffers_; PathBuffers.Prepare()
+    // must have been called after the subpaths were traced.
+    public static Spectrum ConnectBDPT(Scene scene, PathBuffers buffers, int s, int t, DiscreteDistribution1D lightDistr,
+        HashMap<Light, Integer> lightToIndex, Camera camera, Sampler sampler, Point2f[] pRaster, float[] misWeight) {
+        return ConnectBDPT(scene, buffers.lightVertices, buffers.cameraVertices, buffers.sampled, buffers.cameraRiSums,
+                buffers.lightRiSums, s, t, lightDistr, lightToIndex, camera, sampler, pRaster, misWeight);
+    }
+
+    private static Spectrum ConnectBDPT(Scene scene, Vertex[] lightVertices, Vertex[] cameraVertices, Vertex sampled,
+        float[] cameraRiSums, float[] lightRiSums, int s, int t, DiscreteDistribution1D lightDistr,
         HashMap<Light, Integer> lightToIndex, Camera camera, Sampler sampler, Point2f[] pRaster, float[] misWeight) {
         Spectrum L = new Spectrum(0);
         // Ignore invalid connections related to infinite area lights
-        if (t > 1 && s != 0 && cameraVertices[t - 1].type == VertexType.Light)
-            return new Spectrum(0);
+        if (t > 1 && s != 0 && cameraVertices[t - 1].type == VertexType.Light) {
+            if (misWeight != null) misWeight[0] = 0;
+            return L;
+        }
 
         // Perform connection and write contribution to _L_
-        Vertex sampled = new Vertex();
         if (s == 0) {
             // Interpret the camera subpath as a complete path
             final Vertex pt = cameraVertices[t - 1];
@@ -122,17 +140,18 @@ public class Vertex {
                 Vector3f wi = cwi.wi;
                 float pdf = cwi.pdf;
                 Spectrum Wi = cwi.swe;
-                if (pRaster != null) pRaster[0] = cwi.pRaster;
+                // The camera leaves _pRaster_ unset for points behind it
+                if (pRaster != null && cwi.pRaster != null) pRaster[0] = cwi.pRaster;
 
                 if (pdf > 0 && !Wi.isBlack()) {
                     // Initialize dynamically sampled vertex and _L_ for $t=1$ case
-                    sampled = CreateCamera(camera, vis.P1(), Wi.scale(1 / pdf));
-                    L = qs.beta.multiply(qs.f(sampled, Material.TransportMode.Importance).multiply(sampled.beta));
-                    if (qs.IsOnSurface()) L = L.scale(Normal3f.AbsDot(wi, qs.ns()));
+                    sampled.InitCamera(camera, vis.P1(), Wi.scale(1 / pdf));
+                    L = qs.f(sampled, Material.TransportMode.Importance).multiplyInPlace(sampled.beta).multiplyInPlace(qs.beta);
+                    if (qs.IsOnSurface()) L.scaleInPlace(Normal3f.AbsDot(wi, qs.ns()));
                     assert (!L.hasNaNs());
                     // Only check visibility after we know that the path would
                     // make a non-zero contribution.
-                    if (!L.isBlack()) L = L.multiply(vis.Tr(scene, sampler));
+                    if (!L.isBlack()) L.multiplyInPlace(vis.Tr(scene, sampler));
                 }
             }
         } else if (s == 1) {
@@ -151,24 +170,24 @@ public class Vertex {
 
                 if (pdf > 0 && !lightWeight.isBlack()) {
                     EndpointInteraction ei = new EndpointInteraction(vis.P1(), light);
-                    sampled = CreateLight(ei, lightWeight.scale(1 / (pdf * lightPdf)), 0);
+                    sampled.InitLight(ei, lightWeight.scale(1 / (pdf * lightPdf)), 0);
                     sampled.pdfFwd = sampled.PdfLightOrigin(scene, pt, lightDistr, lightToIndex);
-                    L = pt.beta.multiply(pt.f(sampled, Material.TransportMode.Radiance).multiply(sampled.beta));
-                    if (pt.IsOnSurface()) L = L.scale(Normal3f.AbsDot(wi, pt.ns()));
+                    L = pt.f(sampled, Material.TransportMode.Radiance).multiplyInPlace(sampled.beta).multiplyInPlace(pt.beta);
+                    if (pt.IsOnSurface()) L.scaleInPlace(Normal3f.AbsDot(wi, pt.ns()));
                     // Only check visibility if the path would carry radiance.
-                    if (!L.isBlack()) L = L.multiply(vis.Tr(scene, sampler));
+                    if (!L.isBlack()) L.multiplyInPlace(vis.Tr(scene, sampler));
                 }
             }
         } else {
             // Handle all other bidirectional connection cases
             final Vertex qs = lightVertices[s - 1], pt = cameraVertices[t - 1];
             if (qs.IsConnectible() && pt.IsConnectible()) {
-                L = qs.beta.multiply(qs.f(pt, Material.TransportMode.Importance).multiply(pt.f(qs, Material.TransportMode.Radiance).multiply(pt.beta)));
+                L = qs.f(pt, Material.TransportMode.Importance).multiplyInPlace(pt.f(qs, Material.TransportMode.Radiance).multiplyInPlace(pt.beta)).multiplyInPlace(qs.beta);
                 //VLOG(2) << "General connect s: " << s << ", t: " << t <<
                 //        " qs: " << qs << ", pt: " << pt << ", qs.f(pt): " << qs.f(pt, Material.TransportMode.Importance) <<
                 //        ", pt.f(qs): " << pt.f(qs, Material.TransportMode.Radiance) << ", G: " << G(scene, sampler, qs, pt) <<
                 //        ", dist^2: " << Point3f.DistanceSquared(qs.p(), pt.p());
-                if (!L.isBlack()) L = L.multiply(G(scene, sampler, qs, pt));
+                if (!L.isBlack()) L.multiplyInPlace(G(scene, sampler, qs, pt));
             }
         }
 
@@ -178,10 +197,10 @@ public class Vertex {
 
         // Compute MIS weight for connection strategy
         float weight = L.isBlack() ? 0 : MISWeight(scene, lightVertices, cameraVertices,
-                sampled, s, t, lightDistr, lightToIndex);
+                sampled, cameraRiSums, lightRiSums, s, t, lightDistr, lightToIndex);
         //VLOG(2) << "MIS weight for (s,t) = (" << s << ", " << t << ") connection: " << weight;
         assert(!Float.isNaN(weight));
-        L = L.scale(weight);
+        L.scaleInPlace(weight);
         if (misWeight != null) misWeight[0] = weight;
         return L;
     }
@@ -193,8 +212,32 @@ public class Vertex {
         Medium
     }
 
+    // Per-thread BDPT storage.  The subpath vertices, the scratch vertex used
+    // by the $s=1$ and $t=1$ strategies and the MIS ratio sums are allocated
+    // once and reinitialized in place for every sample.
+    public static class PathBuffers {
+        public PathBuffers(int maxDepth) {
+            cameraVertices = new Vertex[maxDepth + 2];
+            lightVertices = new Vertex[maxDepth + 1];
+            for (int i = 0; i < cameraVertices.length; ++i) cameraVertices[i] = new Vertex();
+            for (int i = 0; i < lightVertices.length; ++i) lightVertices[i] = new Vertex();
+            cameraRiSums = new float[cameraVertices.length];
+            lightRiSums = new float[lightVertices.length];
+        }
+
+        // Precompute the MIS ratio sums for freshly traced subpaths
+        public void Prepare(int nCamera, int nLight) {
+            AccumulateRatios(cameraVertices, nCamera, false, cameraRiSums);
+            AccumulateRatios(lightVertices, nLight, true, lightRiSums);
+        }
+
+        public final Vertex[] cameraVertices, lightVertices;
+        final Vertex sampled = new Vertex();
+        private final float[] cameraRiSums, lightRiSums;
+    }
+
     public VertexType type;
-    public Spectrum beta;
+    public final Spectrum beta = new Spectrum(0);
 
     public Interaction interaction; // EndpointInteraction, MediumInteraction or SurfaceInteraction
     public boolean delta = false;
@@ -203,47 +246,44 @@ public class Vertex {
     public Vertex() {
         this.interaction = new EndpointInteraction();
     }
-    public Vertex(VertexType type, EndpointInteraction ei, Spectrum beta) {
-        this.type = type;
-        this.beta = beta;
-        this.interaction = ei;
-    }
-    public Vertex(SurfaceInteraction si, Spectrum beta) {
-        this.type = VertexType.Surface;
-        this.beta = beta;
-        this.interaction = si;
+
+    public Vertex InitCamera(Camera camera, Ray ray, Spectrum beta) {
+        return Init(VertexType.Camera, new EndpointInteraction(camera, ray), beta, 0);
     }
-    public Vertex(MediumInteraction mi, Spectrum beta) {
-        this.type = VertexType.Medium;
-        this.beta = beta;
-        this.interaction = mi;
+    public Vertex InitCamera(Camera camera, Interaction it, Spectrum beta) {
+        return Init(VertexType.Camera, new EndpointInteraction(it, camera), beta, 0);
     }
-
-    public static Vertex CreateCamera(Camera camera, Ray ray, Spectrum beta) {
-        return new Vertex(VertexType.Camera, new EndpointInteraction(camera, ray), beta);
+    public Vertex InitLight(Light light, Ray ray, Normal3f nLight, Spectrum Le, float pdf) {
+        return Init(VertexType.Light, new EndpointInteraction(light, ray, nLight), Le, pdf);
     }
-    public static Vertex CreateCamera(Camera camera, Interaction it, Spectrum beta) {
-        return new Vertex(VertexType.Camera, new EndpointInteraction(it, camera), beta);
+    public Vertex InitLight(EndpointInteraction ei, Spectrum beta, float pdf) {
+        return Init(VertexType.Light, ei, beta, pdf);
     }
-    public static Vertex CreateLight(Light light, Ray ray, Normal3f nLight, Spectrum Le, float pdf) {
-        Vertex v = new Vertex(VertexType.Light, new EndpointInteraction(light, ray, nLight), Le);
-        v.pdfFwd = pdf;
-        return v;
+    public Vertex InitMedium(MediumInteraction mi, Spectrum beta, float pdf, Vertex prev) {
+        Init(VertexType.Medium, mi, beta, 0);
+        pdfFwd = prev.ConvertDensity(pdf, this);
+        return this;
     }
-    public static Vertex CreateLight(EndpointInteraction ei, Spectrum beta, float pdf) {
-        Vertex v = new Vertex(VertexType.Light, ei, beta);
-        v.pdfFwd = pdf;
-        return v;
+    public Vertex InitSurface(SurfaceInteraction si, Spectrum beta, float pdf, Vertex prev) {
+        Init(VertexType.Surface, si, beta, 0);
+        pdfFwd = prev.ConvertDensity(pdf, this);
+        return this;
     }
-    public static Vertex CreateMedium(MediumInteraction mi, Spectrum beta, float pdf, Vertex prev) {
-        Vertex v = new Vertex(mi, beta);
-        v.pdfFwd = prev.ConvertDensity(pdf, v);
-        return v;
+
+    private Vertex Init(VertexType type, Interaction interaction, Spectrum beta, float pdfFwd) {
+        this.type = type;
+        this.interaction = interaction;
+        this.beta.setTo(beta);
+        this.delta = false;
+        this.pdfFwd = pdfFwd;
+        this.pdfRev = 0;
+        return this;
     }
-    public static Vertex CreateSurface(SurfaceInteraction si, Spectrum beta, float pdf, Vertex prev) {
-        Vertex v = new Vertex(si, beta);
-        v.pdfFwd = prev.ConvertDensity(pdf, v);
-        return v;
+
+    // Return the vertex stored at _path[i]_, creating it on first use
+    private static Vertex Slot(Vertex[] path, int i) {
+        if (path[i] == null) path[i] = new Vertex();
+        return path[i];
     }
 
     public Interaction GetInteraction() { return interaction; }
@@ -296,17 +336,22 @@ public class Vertex {
         return false;  // NOTREACHED
     }
     public boolean IsLight() {
-        SurfaceInteraction si = (SurfaceInteraction)interaction;
-        return (type == VertexType.Light) || ((type == VertexType.Surface) && (si.primitive.GetAreaLight() != null));
+        return (type == VertexType.Light) ||
+                ((type == VertexType.Surface) && (((SurfaceInteraction)interaction).primitive.GetAreaLight() != null));
     }
     public boolean IsDeltaLight() {
+        if (type != VertexType.Light) return false;
         EndpointInteraction ei = (EndpointInteraction)interaction;
-        return type == VertexType.Light && ei.light != null && Light.IsDeltaLight(ei.light.flags);
+        return ei.light != null && Light.IsDeltaLight(ei.light.flags);
     }
     public boolean IsInfiniteLight() {
+        if (type != VertexType.Light) return false;
         EndpointInteraction ei = (EndpointInteraction)interaction;
-        return type == VertexType.Light &&
-                (ei.light == null || (ei.light.flags & Light.FlagInfinite) != 0 || (ei.light.flags & Light.FlagDeltaDirection) != 0);
+        return ei.light == null || (ei.light.flags & Light.FlagInfinite) != 0 || (ei.light.flags & Light.FlagDeltaDirection) != 0;
+    }
+    private Light GetLight() {
+        return (type == VertexType.Light) ? ((EndpointInteraction)interaction).light
+                : ((SurfaceInteraction)interaction).primitive.GetAreaLight();
     }
     public Spectrum Le(Scene scene, Vertex v) {
         if (!IsLight()) return new Spectrum(0);
@@ -317,7 +362,7 @@ public class Vertex {
             // Return emitted radiance for infinite light sources
             Spectrum Le = new Spectrum(0);
             for (Light light : scene.infiniteLights)
-            Le = Le.add(light.Le(new RayDifferential(p(), w.negate())));
+                Le.addInPlace(light.Le(new RayDifferential(p(), w.negate())));
             return Le;
         } else {
             SurfaceInteraction si = (SurfaceInteraction)interaction;
@@ -430,9 +475,7 @@ public class Vertex {
         } else {
             // Get pointer _light_ to the light source at the vertex
             assert (IsLight());
-            EndpointInteraction ei = (EndpointInteraction)interaction;
-            SurfaceInteraction si = (SurfaceInteraction)interaction;
-            Light light = type == VertexType.Light ? ei.light : si.primitive.GetAreaLight();
+            Light light = GetLight();
             assert (light != null);
 
             // Compute sampling density for non-infinite light sources
@@ -443,7 +486,7 @@ public class Vertex {
         return pdf;
     }
 
-    public float PdfLightOrigin(Scene scene, Vertex v, Distribution1D lightDistr,
+    public float PdfLightOrigin(Scene scene, Vertex v, DiscreteDistribution1D lightDistr,
                          HashMap<Light, Integer> lightToDistrIndex) {
         Vector3f w = v.p().subtract(p());
         if (w.LengthSquared() == 0) return 0;
@@ -456,9 +499,7 @@ public class Vertex {
 
             // Get pointer _light_ to the light source at the vertex
             assert (IsLight());
-            EndpointInteraction ei = (EndpointInteraction)interaction;
-            SurfaceInteraction si = (SurfaceInteraction)interaction;
-            Light light = (type == VertexType.Light) ? ei.light : si.primitive.GetAreaLight();
+            Light light = GetLight();
             assert (light != null);
 
             // Compute the discrete probability of sampling _light_, _pdfChoice_
@@ -471,13 +512,15 @@ public class Vertex {
         }
     }
 
-    private static int RandomWalk(Scene scene, RayDifferential ray, Sampler sampler,
+    private static int RandomWalk(Scene scene, RayDifferential ray, Sampler sampler, MemoryArena arena,
                    Spectrum beta, float pdf, int maxDepth,
                    Material.TransportMode mode, Vertex[] path, int pathStart) {
         if (maxDepth == 0) return 0;
         int bounces = 0;
         // Declare variables for forward and reverse probability densities
         float pdfFwd = pdf, pdfRev = 0;
+        // _beta_ is updated in place below; vertices copy it when initialized
+        beta = new Spectrum(beta);
         while (true) {
             // Attempt to create the next subpath vertex in _path_
             MediumInteraction mi = new MediumInteraction();
@@ -488,14 +531,14 @@ public class Vertex {
             boolean foundIntersection = (isect != null);
             if (ray.medium != null) {
                 Medium.MediumSample ms = ray.medium.Sample(ray, sampler);
-                beta = beta.multiply(ms.spectrum);
+                beta.multiplyInPlace(ms.spectrum);
                 mi = ms.mi;
             }
             if (beta.isBlack()) break;
-            Vertex vertex = path[pathStart+bounces], prev = path[pathStart+bounces - 1];
+            Vertex vertex = Slot(path, pathStart + bounces), prev = path[pathStart + bounces - 1];
             if (mi.IsValid()) {
                 // Record medium interaction in _path_ and compute forward density
-                vertex = CreateMedium(mi, beta, pdfFwd, prev);
+                vertex.InitMedium(mi, beta, pdfFwd, prev);
                 if (++bounces >= maxDepth) break;
 
                 // Sample direction and compute reverse density at preceding vertex
@@ -509,7 +552,7 @@ public class Vertex {
                 if (!foundIntersection) {
                     // Capture escaped rays when tracing from the camera
                     if (mode == Material.TransportMode.Radiance) {
-                        vertex = CreateLight(new EndpointInteraction(ray), beta, pdfFwd);
+                        vertex.InitLight(new EndpointInteraction(ray), beta, pdfFwd);
                         ++bounces;
                     }
                     break;
@@ -517,33 +560,34 @@ public class Vertex {
 
                 // Compute scattering functions for _mode_ and skip over medium
                 // boundaries
-                isect.ComputeScatteringFunctions(ray, true, mode);
+                isect.ComputeScatteringFunctions(ray, arena, true, mode);
                 if (isect.bsdf == null) {
                     ray = new RayDifferential(isect.SpawnRay(ray.d));
                     continue;
                 }
 
                 // Initialize _vertex_ with surface intersection information
-                vertex = CreateSurface(isect, beta, pdfFwd, prev);
+                vertex.InitSurface(isect, beta, pdfFwd, prev);
                 if (++bounces >= maxDepth) break;
 
                 // Sample BSDF at current vertex and compute reverse probability
                 Vector3f wo = isect.wo;
                 BxDF.BxDFSample bs = isect.bsdf.Sample_f(wo, sampler.Get2D(), BxDF.BSDF_ALL);
                 Vector3f wi = bs.wiWorld;
+                pdfFwd = bs.pdf;
                 int type = bs.sampledType;
                 Spectrum f = bs.f;
 
                 //VLOG(2) << "Random walk sampled dir " << wi << " f: " << f << ", pdfFwd: " << pdfFwd;
                 if (f.isBlack() || pdfFwd == 0) break;
-                beta = beta.multiply(f.scale(Normal3f.AbsDot(wi, isect.shading.n) / pdfFwd));
+                beta.mulScaleInPlace(f, Normal3f.AbsDot(wi, isect.shading.n) / pdfFwd);
                 //VLOG(2) << "Random walk beta now " << beta;
                 pdfRev = isect.bsdf.Pdf(wi, wo, BxDF.BSDF_ALL);
                 if ((type & BxDF.BSDF_SPECULAR) != 0) {
                     vertex.delta = true;
                     pdfRev = pdfFwd = 0;
                 }
-                beta = beta.scale(CorrectShadingNormal(isect, wo, wi, mode));
+                beta.scaleInPlace(CorrectShadingNormal(isect, wo, wi, mode));
                 //VLOG(2) << "Random walk beta after shading normal correction " << beta;
                 ray = new RayDifferential(isect.SpawnRay(wi));
             }
@@ -564,99 +608,74 @@ public class Vertex {
         return vis.Tr(scene, sampler).scale(g);
     }
 
-    private static class ScopedAssignment<T> {
-        public ScopedAssignment() {
-            this.target = null;
-            this.backup = null;
-        }
-
-        public ScopedAssignment(T target, T value) {
-            this.target = target;
-            if (this.target != null) {
-                this.backup = this.target;
-                this.target = value;
-            }
+    private static float Remap0(float f) {
+        // Deal with Dirac delta functions
+        return f != 0 ? f : 1;
+    }
+
+    // Accumulate the MIS ratio sums over the first _n_ vertices of a subpath:
+    // sums[i] is the sum over j <= i of prod_{k=j..i} pdfRev_k / pdfFwd_k for
+    // each vertex j that can be connected to.  Only the last two vertices of
+    // each subpath change from one strategy to the next, so MISWeight() can
+    // use these sums for the rest instead of walking the whole path.
+    private static void AccumulateRatios(Vertex[] path, int n, boolean lightPath, float[] sums) {
+        // The camera vertex itself is never connected to from its subpath
+        if (!lightPath && n > 0) sums[0] = 0;
+        for (int i = lightPath ? 0 : 1; i < n; ++i) {
+            float ri = Remap0(path[i].pdfRev) / Remap0(path[i].pdfFwd);
+            boolean deltaPrev = i > 0 ? path[i - 1].delta : path[0].IsDeltaLight();
+            float prevSum = i > 0 ? sums[i - 1] : 0;
+            sums[i] = ri * ((!path[i].delta && !deltaPrev ? 1 : 0) + prevSum);
         }
-
-        public void release() {
-            if (target != null) {
-                target = backup;
-            }
-        }
-
-        private T target, backup;
     }
 
-    private static float MISWeight(Scene scene, Vertex[] lightVertices, Vertex[] cameraVertices, Vertex sampled, int s, int t,
-                                   Distribution1D lightPdf, HashMap<Light, Integer> lightToIndex) {
+    private static float MISWeight(Scene scene, Vertex[] lightVertices, Vertex[] cameraVertices, Vertex sampled,
+                                   float[] cameraRiSums, float[] lightRiSums, int s, int t,
+                                   DiscreteDistribution1D lightPdf, HashMap<Light, Integer> lightToIndex) {
         if (s + t == 2) return 1;
         float sumRi = 0;
-        // Define helper function _remap0_ that deals with Dirac delta functions
-        Function<Float, Float> remap0 = (f) -> f != 0 ? f : 1;
-
-        // Temporarily update vertex properties for current strategy
 
-        // Look up connection vertices and their predecessors
-        Vertex qs = s > 0 ? lightVertices[s - 1] : null,
-           pt = t > 0 ? cameraVertices[t - 1] : null,
+        // Look up connection vertices and their predecessors; _sampled_ stands
+        // in for the endpoint of the $s=1$ and $t=1$ strategies
+        Vertex qs = s == 1 ? sampled : s > 1 ? lightVertices[s - 1] : null,
+           pt = t == 1 ? sampled : cameraVertices[t - 1],
            qsMinus = s > 1 ? lightVertices[s - 2] : null,
            ptMinus = t > 1 ? cameraVertices[t - 2] : null;
 
-        // Update sampled vertex for $s=1$ or $t=1$ strategy
-        ScopedAssignment<Vertex> a1 = new ScopedAssignment<>();
-        if (s == 1)
-            a1 = new ScopedAssignment<>(qs, sampled);
-        else if (t == 1)
-            a1 = new ScopedAssignment<>(pt, sampled);
-
-        // Mark connection vertices as non-degenerate
-        ScopedAssignment<Boolean> a2 = new ScopedAssignment<>(), a3 = new ScopedAssignment<>();
-        if (pt != null) a2 = new ScopedAssignment<>(pt.delta, false);
-        if (qs != null) a3 = new ScopedAssignment<>(qs.delta, false);
-
-        // Update reverse density of vertex $\pt{}_{t-1}$
-        ScopedAssignment<Float> a4 = new ScopedAssignment<>();
-        if (pt != null)
-            a4 = new ScopedAssignment<>(pt.pdfRev, s > 0 ? qs.Pdf(scene, qsMinus, pt)
-                                 : pt.PdfLightOrigin(scene, ptMinus, lightPdf, lightToIndex));
-
-        // Update reverse density of vertex $\pt{}_{t-2}$
-        ScopedAssignment<Float> a5 = new ScopedAssignment<>();
-        if (ptMinus != null)
-            a5 = new ScopedAssignment<>(ptMinus.pdfRev, s > 0 ? pt.Pdf(scene, qs, ptMinus)
-                                      : pt.PdfLight(scene, ptMinus));
-
-        // Update reverse density of vertices $\pq{}_{s-1}$ and $\pq{}_{s-2}$
-        ScopedAssignment<Float> a6 = new ScopedAssignment<>();
-        if (qs != null) a6 = new ScopedAssignment<>(qs.pdfRev, pt.Pdf(scene, ptMinus, qs));
-        ScopedAssignment<Float> a7 = new ScopedAssignment<>();
-        if (qsMinus != null) a7 = new ScopedAssignment<>(qsMinus.pdfRev, qs.Pdf(scene, pt, qsMinus));
+        // Compute the reverse densities at the connection vertices for the
+        // current strategy.  They are kept in locals rather than written into
+        // the subpaths, which leaves the precomputed ratio sums valid; the
+        // connection vertices are likewise treated as non-degenerate.
+        float ptRev = s > 0 ? qs.Pdf(scene, qsMinus, pt)
+                : pt.PdfLightOrigin(scene, ptMinus, lightPdf, lightToIndex);
+        float ptMinusRev = ptMinus == null ? 0 : s > 0 ? pt.Pdf(scene, qs, ptMinus)
+                : pt.PdfLight(scene, ptMinus);
+        float qsRev = qs != null ? pt.Pdf(scene, ptMinus, qs) : 0;
+        float qsMinusRev = qsMinus != null ? qs.Pdf(scene, pt, qsMinus) : 0;
 
         // Consider hypothetical connection strategies along the camera subpath
-        float ri = 1;
-        for (int i = t - 1; i > 0; --i) {
-            ri *= remap0.apply(cameraVertices[i].pdfRev) / remap0.apply(cameraVertices[i].pdfFwd);
-            if (!cameraVertices[i].delta && !cameraVertices[i - 1].delta)
-                sumRi += ri;
+        if (t > 1) {
+            float ri = Remap0(ptRev) / Remap0(pt.pdfFwd);
+            if (!ptMinus.delta) sumRi += ri;
+            if (t > 2) {
+                ri *= Remap0(ptMinusRev) / Remap0(ptMinus.pdfFwd);
+                if (!ptMinus.delta && !cameraVertices[t - 3].delta) sumRi += ri;
+                if (t > 3) sumRi += ri * cameraRiSums[t - 3];
+            }
         }
 
         // Consider hypothetical connection strategies along the light subpath
-        ri = 1;
-        for (int i = s - 1; i >= 0; --i) {
-            ri *= remap0.apply(lightVertices[i].pdfRev) / remap0.apply(lightVertices[i].pdfFwd);
-            boolean deltaLightvertex = i > 0 ? lightVertices[i - 1].delta
-                    : lightVertices[0].IsDeltaLight();
-            if (!lightVertices[i].delta && !deltaLightvertex) sumRi += ri;
+        if (s > 0) {
+            float ri = Remap0(qsRev) / Remap0(qs.pdfFwd);
+            boolean deltaLightvertex = s > 1 ? qsMinus.delta : qs.IsDeltaLight();
+            if (!deltaLightvertex) sumRi += ri;
+            if (s > 1) {
+                ri *= Remap0(qsMinusRev) / Remap0(qsMinus.pdfFwd);
+                deltaLightvertex = s > 2 ? lightVertices[s - 3].delta : lightVertices[0].IsDeltaLight();
+                if (!qsMinus.delta && !deltaLightvertex) sumRi += ri;
+                if (s > 2) sumRi += ri * lightRiSums[s - 3];
+            }
         }
-
-        a1.release();
-        a2.release();
-        a3.release();
-        a4.release();
-        a5.release();
-        a6.release();
-        a7.release();
-
         return 1 / (1 + sumRi);
     }
 
@@ -16,18 +16,32 @@ import org.pbrt.core.PBrtTLogger;;
 public class VolPathIntegrator extends SamplerIntegrator {
 
     public VolPathIntegrator(int maxDepth, Camera camera, Sampler sampler, Bounds2i pixelBounds, float rrThreshold, String lightSampleStrategy) {
+        this(maxDepth, camera, sampler, pixelBounds, rrThreshold, lightSampleStrategy, 0);
+    }
+
+    public VolPathIntegrator(int maxDepth, Camera camera, Sampler sampler, Bounds2i pixelBounds, float rrThreshold,
+                             String lightSampleStrategy, int prewarmStride) {
         super(camera, sampler, pixelBounds);
         this.maxDepth = maxDepth;
         this.rrThreshold = rrThreshold;
         this.lightSampleStrategy = lightSampleStrategy;
+        this.prewarmStride = prewarmStride;
     }
 
     public void Preprocess(Scene scene, Sampler sampler) {
         lightDistribution = LightDistribution.CreateLightSampleDistribution(lightSampleStrategy, scene);
+        if (prewarmStride > 0) lightDistribution.Prewarm(camera, prewarmStride);
+    }
+
+    @Override
+    public Spectrum Li(RayDifferential r, Scene scene, Sampler sampler, MemoryArena arena, int depth) {
+        return Li(r, scene, sampler, arena, (AOV.Sample)null);
     }
 
+    // The AOVs are set from the first surface the camera ray hits, whether
+    // or not the path scatters in a medium before reaching it
     @Override
-    public Spectrum Li(RayDifferential r, Scene scene, Sampler sampler, int depth) {
+    public Spectrum Li(RayDifferential r, Scene scene, Sampler sampler, MemoryArena arena, AOV.Sample aovs) {
         Spectrum L = new Spectrum(0), beta = new Spectrum(1);
         RayDifferential ray = new RayDifferential(r);
         boolean specularBounce = false;
@@ -49,7 +63,7 @@ public class VolPathIntegrator extends SamplerIntegrator {
             MediumInteraction mi = new MediumInteraction();
             if (ray.medium != null) {
                 Medium.MediumSample ms = ray.medium.Sample(ray, sampler);
-                beta = beta.multiply(ms.spectrum);
+                beta.multiplyInPlace(ms.spectrum);
                 mi = ms.mi;
             }
             if (beta.isBlack()) break;
@@ -60,9 +74,12 @@ public class VolPathIntegrator extends SamplerIntegrator {
                 if (bounces >= maxDepth) break;
 
                 volumeInteractions.increment();
+                if (aovs != null) {
+                    if (isect != null) SetSurfaceAOVs(r, isect, arena, aovs);
+                    aovs = null;
+                }
                 // Handle scattering at point in medium for volumetric path tracer
-                final Distribution1D lightDistrib = lightDistribution.Lookup(mi.p);
-                L = L.add(beta.multiply(UniformSampleOneLight(mi, scene, sampler, true, lightDistrib)));
+                L.mulAdd(beta, UniformSampleOneLight(mi, scene, sampler, true, lightDistribution));
 
                 Vector3f wo = ray.d.negate();
                 PhaseFunction.PhaseSample ps = mi.phase.Sample_p(wo, sampler.Get2D());
@@ -75,27 +92,37 @@ public class VolPathIntegrator extends SamplerIntegrator {
                 if (bounces == 0 || specularBounce) {
                     // Add emitted light at path vertex or from the environment
                     if (isect != null)
-                        L = L.add(beta.multiply(isect.Le(ray.d.negate())));
+                        L.mulAdd(beta, isect.Le(ray.d.negate()));
                     else
                         for (Light light : scene.infiniteLights)
-                            L = L.add(beta.multiply(light.Le(ray)));
+                            L.mulAdd(beta, light.Le(ray));
                 }
 
                 // Terminate path if ray escaped or _maxDepth_ was reached
-                if (isect == null || bounces >= maxDepth) break;
+                if (isect == null || bounces >= maxDepth) {
+                    if (aovs != null && isect != null && isect.primitive.GetMaterial() != null)
+                        SetSurfaceAOVs(r, isect, arena, aovs);
+                    break;
+                }
 
                 // Compute scattering functions and skip over medium boundaries
-                isect.ComputeScatteringFunctions(ray, true, Material.TransportMode.Radiance);
-                if (isect.bsdf != null) {
+                isect.ComputeScatteringFunctions(ray, arena, true, Material.TransportMode.Radiance);
+                if (isect.bsdf == null) {
                     ray = new RayDifferential(isect.SpawnRay(ray.d));
                     bounces--;
                     continue;
                 }
 
+                // The AOVs come from the first surface that isn't a medium
+                // boundary
+                if (aovs != null) {
+                    SetSurfaceAOVs(r, isect, arena, aovs);
+                    aovs = null;
+                }
+
                 // Sample illumination from lights to find attenuated path
                 // contribution
-                final Distribution1D lightDistrib = lightDistribution.Lookup(isect.p);
-                L = L.add(beta.multiply(UniformSampleOneLight(isect, scene, sampler, true, lightDistrib)));
+                L.mulAdd(beta, UniformSampleOneLight(isect, scene, sampler, true, lightDistribution));
 
                 // Sample BSDF to get new path direction
                 Vector3f wo = ray.d.negate();
@@ -106,7 +133,7 @@ public class VolPathIntegrator extends SamplerIntegrator {
                 Spectrum f = bxs.f;
 
                 if (f.isBlack() || pdf == 0) break;
-                beta = beta.multiply(f.scale(Normal3f.AbsDot(wi, isect.shading.n) / pdf));
+                beta.mulScaleInPlace(f, Normal3f.AbsDot(wi, isect.shading.n) / pdf);
                 assert (!Float.isInfinite(beta.y()));
                 specularBounce = (flags & BxDF.BSDF_SPECULAR) != 0;
                 if (((flags & BxDF.BSDF_SPECULAR) != 0) && ((flags & BxDF.BSDF_TRANSMISSION) != 0)) {
@@ -121,18 +148,18 @@ public class VolPathIntegrator extends SamplerIntegrator {
                 // Account for attenuated subsurface scattering, if applicable
                 if ((isect.bssrdf != null) && ((flags & BxDF.BSDF_TRANSMISSION) != 0)) {
                     // Importance sample the BSSRDF
-                    BSSRDF.BSSRDFSample bss = isect.bssrdf.Sample_S(scene, sampler.Get1D(), sampler.Get2D());
+                    BSSRDF.BSSRDFSample bss = isect.bssrdf.Sample_S(scene, sampler.Get1D(), sampler.Get2D(), arena);
                     SurfaceInteraction pi = bss.si;
                     Spectrum S = bss.s;
                     pdf = bss.pdf;
 
                     assert (!Float.isInfinite(beta.y()));
                     if (S.isBlack() || pdf == 0) break;
-                    beta = beta.multiply(S.scale(1 / pdf));
+                    beta.mulScaleInPlace(S, 1 / pdf);
 
                     // Account for the attenuated direct subsurface scattering
                     // component
-                    L = L.add(beta.multiply(UniformSampleOneLight(pi, scene, sampler, true, lightDistribution.Lookup(pi.p))));
+                    L.mulAdd(beta, UniformSampleOneLight(pi, scene, sampler, true, lightDistribution));
 
                     // Account for the indirect subsurface scattering component
                     bxs = pi.bsdf.Sample_f(pi.wo, sampler.Get2D(), BxDF.BSDF_ALL);
@@ -141,7 +168,7 @@ public class VolPathIntegrator extends SamplerIntegrator {
                     flags = bxs.sampledType;
                     wi = bxs.wiWorld;
                     if (f.isBlack() || pdf == 0) break;
-                    beta = beta.multiply(f.scale(Normal3f.AbsDot(wi, pi.shading.n) / pdf));
+                    beta.mulScaleInPlace(f, Normal3f.AbsDot(wi, pi.shading.n) / pdf);
                     assert (!Float.isInfinite(beta.y()));
                     specularBounce = (flags & BxDF.BSDF_SPECULAR) != 0;
                     ray = new RayDifferential(pi.SpawnRay(wi));
@@ -150,11 +177,11 @@ public class VolPathIntegrator extends SamplerIntegrator {
 
             // Possibly terminate the path with Russian roulette
             // Factor out radiance scaling due to refraction in rrBeta.
-            Spectrum rrBeta = beta.scale(etaScale);
-            if (rrBeta.maxComponentValue() < rrThreshold && bounces > 3) {
-                float q = Math.max(0.05f, 1 - rrBeta.maxComponentValue());
+            float rrBetaMax = beta.maxComponentValue() * etaScale;
+            if (rrBetaMax < rrThreshold && bounces > 3) {
+                float q = Math.max(0.05f, 1 - rrBetaMax);
                 if (sampler.Get1D() < q) break;
-                beta = beta.scale(1/(1 - q));
+                beta.scaleInPlace(1/(1 - q));
                 assert (!Float.isInfinite(beta.y()));
             }
         }
@@ -177,13 +204,15 @@ public class VolPathIntegrator extends SamplerIntegrator {
         }
         float rrThreshold = params.FindOneFloat("rrthreshold", 1);
         String lightStrategy = params.FindOneString("lightsamplestrategy", "spatial");
+        int prewarmStride = params.FindOneInt("lightprewarmstride", 0);
         return new VolPathIntegrator(maxDepth, camera, sampler, pixelBounds,
-                rrThreshold, lightStrategy);
+                rrThreshold, lightStrategy, prewarmStride);
     }
 
     private final int maxDepth;
     private final float rrThreshold;
     private final String lightSampleStrategy;
+    private final int prewarmStride;
     private LightDistribution lightDistribution;
 
     private static Stats.FloatDistribution pathLength = new Stats.FloatDistribution("Integrator/Path length");
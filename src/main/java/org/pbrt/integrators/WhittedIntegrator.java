@@ -21,7 +21,7 @@ public class WhittedIntegrator extends SamplerIntegrator {
     }
 
     @Override
-    public Spectrum Li(RayDifferential ray, Scene scene, Sampler sampler, int depth) {
+    public Spectrum Li(RayDifferential ray, Scene scene, Sampler sampler, MemoryArena arena, int depth) {
         Spectrum L = new Spectrum(0);
         // Find closest ray intersection or return background radiance
         SurfaceInteraction isect = scene.Intersect(ray);
@@ -37,9 +37,9 @@ public class WhittedIntegrator extends SamplerIntegrator {
         Vector3f wo = isect.wo;
 
         // Compute scattering functions for surface interaction
-        isect.ComputeScatteringFunctions(ray);
+        isect.ComputeScatteringFunctions(ray, arena);
         if (isect.bsdf == null)
-            return Li(new RayDifferential(isect.SpawnRay(ray.d)), scene, sampler, depth);
+            return Li(new RayDifferential(isect.SpawnRay(ray.d)), scene, sampler, arena, depth);
 
         // Compute emitted light if ray hit an area light source
         L = L.add(isect.Le(wo));
@@ -59,8 +59,8 @@ public class WhittedIntegrator extends SamplerIntegrator {
         }
         if (depth + 1 < maxDepth) {
             // Trace rays for specular reflection and refraction
-            L = L.add(SpecularReflect(ray, isect, scene, sampler, depth));
-            L = L.add(SpecularTransmit(ray, isect, scene, sampler, depth));
+            L = L.add(SpecularReflect(ray, isect, scene, sampler, arena, depth));
+            L = L.add(SpecularTransmit(ray, isect, scene, sampler, arena, depth));
         }
         return L;
     }
@@ -29,6 +29,7 @@ public class DiffuseAreaLight extends AreaLight {
         super(LightToWorld, medium, nSamples);
         assert shape != null;
         this.Lemit = new Spectrum(Le);
+        this.LemitSampled = TabulatedSpectrum.FromRGB(Lemit, Spectrum.SpectrumType.Illuminant);
         this.shape = shape;
         this.twoSided = twoSided;
         this.area = shape.Area();
@@ -52,6 +53,12 @@ public class DiffuseAreaLight extends AreaLight {
         return (twoSided || Normal3f.Dot(intr.n, w) > 0) ? Lemit : new Spectrum(0);
     }
 
+    // Radiance from this light is either _Lemit_ or zero
+    @Override
+    public SampledSpectrum SampleEmission(Spectrum L, SampledWavelengths lambda, SampledSpectrum dst) {
+        return L.isBlack() ? dst.setTo(0) : LemitSampled.Sample(lambda, dst);
+    }
+
     @Override
     public LiResult Sample_Li(Interaction ref, Point2f u) {
         LiResult result = new LiResult();
@@ -127,7 +134,19 @@ public class DiffuseAreaLight extends AreaLight {
         return result;
     }
 
+    @Override
+    public LightBounds Bounds() {
+        float phi = Lemit.maxComponentValue() * area * Pbrt.Pi * (twoSided ? 2 : 1);
+        // Flat shapes emit into the hemisphere around their normal; bound
+        // anything else by the whole sphere of directions
+        Normal3f n = shape.ConstantNormal();
+        if (n == null)
+            return new LightBounds(shape.WorldBound(), new Vector3f(0, 0, 1), phi, -1, 0, twoSided);
+        return new LightBounds(shape.WorldBound(), new Vector3f(n), phi, 1, 0, twoSided);
+    }
+
     private final Spectrum Lemit;
+    private final TabulatedSpectrum LemitSampled;
     private Shape shape;
     private final boolean twoSided;
     private final float area;
@@ -17,6 +17,12 @@ import java.util.function.Consumer;
 public class InfiniteAreaLight extends Light {
 
     public InfiniteAreaLight(Transform lightToWorld, Spectrum L, int nSamples, String texMap) {
+        this(lightToWorld, L, nSamples, texMap, false);
+    }
+
+    // With _halfTexels_ the environment map's MIP pyramid is stored as half
+    // floats, halving its memory; radiance is then limited to 65504.
+    public InfiniteAreaLight(Transform lightToWorld, Spectrum L, int nSamples, String texMap, boolean halfTexels) {
         super(FlagInfinite, lightToWorld, new MediumInterface(), nSamples);
 
         // Read texel data from _texmap_ and initialize _Lmap_
@@ -38,34 +44,38 @@ public class InfiniteAreaLight extends Light {
             texels = new Spectrum[1];
             texels[0] = L;
         }
-        Lmap = new MIPMapSpectrum(resolution, texels, new Spectrum(0));
+        Lmap = new MIPMapSpectrum(resolution, texels, false, 8, Texture.ImageWrap.Repeat, new Spectrum(0), halfTexels);
+    }
+
+    public void Preprocess(Scene scene) {
+        Bounds3f.BoundSphere bsphere = scene.WorldBound().BoundingSphere();
+        worldCenter = bsphere.center;
+        worldRadius = bsphere.radius;
 
         // Initialize sampling PDFs for infinite area light
+        if (distribution != null) return;
 
-        // Compute scalar-valued image _img_ from environment map
-        int width = 2 * Lmap.Width(), height = 2 * Lmap.Height();
+        // Compute scalar-valued image _img_ from environment map.  The
+        // hierarchical distribution needs power-of-two dimensions; use at
+        // least the map's resolution, and enough rows to follow the
+        // $\sin\theta$ falloff for small maps.
+        int width = Math.max(Pbrt.RoundUpPow2(Lmap.Width()), 64), height = Math.max(Pbrt.RoundUpPow2(Lmap.Height()), 32);
         float[] img = new float[width * height];
         float fwidth = 0.5f / Math.min(width, height);
         Consumer<Long> envFunc = (Long li) -> {
             int v = Math.toIntExact(li);
             float vp = (v + .5f) / height;
             float sinTheta = (float)Math.sin(Math.PI * (v + .5f) / height);
+            Point2f st = new Point2f(0, vp);
             for (int u = 0; u < width; ++u) {
-                float up = (u + .5f) / width;
-                img[u + v * width] = Lmap.Lookup(new Point2f(up, vp), fwidth).y();
-                img[u + v * width] *= sinTheta;
+                st.x = (u + .5f) / width;
+                img[u + v * width] = Lmap.Lookup(st, fwidth).y() * sinTheta;
             }
         };
         Parallel.ParallelFor(envFunc, height, 32);
 
-        // Compute sampling distributions for rows and columns of image
-        distribution = new Distribution2D(img, width, height);
-    }
-
-    public void Preprocess(Scene scene) {
-        Bounds3f.BoundSphere bsphere = scene.WorldBound().BoundingSphere();
-        worldCenter = bsphere.center;
-        worldRadius = bsphere.radius;
+        // Build the sampling pyramid over the image
+        distribution = new HierarchicalDistribution2D(img, width, height);
     }
 
     @Override
@@ -100,8 +110,7 @@ public class InfiniteAreaLight extends Light {
     @Override
     public Spectrum Power() {
         Spectrum L = Lmap.Lookup(new Point2f(.5f, .5f), .5f);
-        L.scale(Pbrt.Pi * worldRadius * worldRadius);
-        return L;
+        return L.scale(Pbrt.Pi * worldRadius * worldRadius);
     }
 
     @Override
@@ -172,14 +181,15 @@ public class InfiniteAreaLight extends Light {
         Spectrum sc = paramSet.FindOneSpectrum("scale", new Spectrum(1));
         String texmap = paramSet.FindOneFilename("mapname", "");
         int nSamples = paramSet.FindOneInt("samples", paramSet.FindOneInt("nsamples", 1));
+        boolean halfTexels = paramSet.FindOneBoolean("halftexels", false);
         if (Pbrt.options.QuickRender) nSamples = Math.max(1, nSamples / 4);
         Spectrum Lsc = Spectrum.Multiply(L, sc);
-        return new InfiniteAreaLight(light2world, Lsc, nSamples, texmap);
+        return new InfiniteAreaLight(light2world, Lsc, nSamples, texmap, halfTexels);
     }
 
     private MIPMapSpectrum Lmap;
     private Point3f worldCenter;
     private float worldRadius;
-    private Distribution2D distribution;
+    private HierarchicalDistribution2D distribution;
 
 }
\ No newline at end of file
@@ -43,6 +43,12 @@ public class PointLight extends Light {
         return I.scale(4 * Pbrt.Pi);
     }
 
+    @Override
+    public LightBounds Bounds() {
+        return new LightBounds(new Bounds3f(pLight), new Vector3f(0, 0, 1), 4 * Pbrt.Pi * I.maxComponentValue(),
+                -1, 0, false);
+    }
+
     @Override
     public float Pdf_Li(Interaction ref, Vector3f wi) {
         return 0;
@@ -56,6 +56,16 @@ public class SpotLight extends Light {
         return I.scale(2 * Pbrt.Pi * (1 - .5f * (cosFalloffStart + cosTotalWidth)));
     }
 
+    @Override
+    public LightBounds Bounds() {
+        // The emission cone is the falloff-start cone; the falloff region
+        // is covered by the spread angle
+        float phi = 4 * Pbrt.Pi * I.maxComponentValue();
+        float cosTheta_e = (float)Math.cos(Math.acos(cosTotalWidth) - Math.acos(cosFalloffStart));
+        return new LightBounds(new Bounds3f(pLight), LightToWorld.xform(new Vector3f(0, 0, 1)), phi,
+                cosFalloffStart, cosTheta_e, false);
+    }
+
     @Override
     public float Pdf_Li(Interaction ref, Vector3f wi) {
         return 0;
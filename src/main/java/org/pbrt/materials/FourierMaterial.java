@@ -34,10 +34,10 @@ public class FourierMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
-        si.bsdf = new BSDF(si, 1);
+        si.bsdf = arena.AllocBSDF(si, 1);
         // Checking for zero channels works as a proxy for checking whether the
         // table was successfully read from the file.
         if (bsdfTable.nChannels > 0)
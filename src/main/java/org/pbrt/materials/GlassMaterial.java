@@ -23,7 +23,8 @@ public class GlassMaterial extends Material {
         TextureFloat roughv = mp.GetFloatTexture("vroughness", 0);
         TextureFloat bumpMap = mp.GetFloatTextureOrNull("bumpmap");
         boolean remapRoughness = mp.FindBool("remaproughness", true);
-        return new GlassMaterial(Kr, Kt, roughu, roughv, eta, bumpMap, remapRoughness);
+        float cauchyB = mp.FindFloat("cauchyb", 0);
+        return new GlassMaterial(Kr, Kt, roughu, roughv, eta, bumpMap, remapRoughness, cauchyB);
     }
 
     public GlassMaterial(TextureSpectrum Kr,
@@ -33,6 +34,20 @@ public class GlassMaterial extends Material {
                   TextureFloat index,
                   TextureFloat bumpMap,
                   boolean remapRoughness) {
+        this(Kr, Kt, uRoughness, vRoughness, index, bumpMap, remapRoughness, 0);
+    }
+
+    // _cauchyB_ is the B coefficient of Cauchy's equation, in square
+    // micrometres; _index_ then gives the index at 589.3nm.  Only spectral
+    // rendering sees the dispersion.
+    public GlassMaterial(TextureSpectrum Kr,
+                  TextureSpectrum Kt,
+                  TextureFloat uRoughness,
+                  TextureFloat vRoughness,
+                  TextureFloat index,
+                  TextureFloat bumpMap,
+                  boolean remapRoughness,
+                  float cauchyB) {
         this.Kr = Kr;
         this.Kt = Kt;
         this.uRoughness = uRoughness;
@@ -40,10 +55,11 @@ public class GlassMaterial extends Material {
         this.index = index;
         this.bumpMap = bumpMap;
         this.remapRoughness = remapRoughness;
+        this.cauchyB = cauchyB;
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
         float eta = index.Evaluate(si);
@@ -52,7 +68,7 @@ public class GlassMaterial extends Material {
         Spectrum R = Kr.Evaluate(si).clamp(0, Pbrt.Infinity);
         Spectrum T = Kt.Evaluate(si).clamp(0, Pbrt.Infinity);
         // Initialize _bsdf_ for smooth or rough dielectric
-        si.bsdf = new BSDF(si, eta);
+        si.bsdf = arena.AllocBSDF(si, eta);
 
         if (R.isBlack() && T.isBlack()) return;
 
@@ -82,10 +98,39 @@ public class GlassMaterial extends Material {
         }
     }
 
+    @Override
+    public SpectralBSDF ComputeSpectralScatteringFunctions(SurfaceInteraction si, SampledWavelengths lambda, MemoryArena arena, TransportMode mode) {
+        // Rough glass is evaluated in RGB
+        if (uRoughness.Evaluate(si) != 0 || vRoughness.Evaluate(si) != 0)
+            return super.ComputeSpectralScatteringFunctions(si, lambda, arena, mode);
+
+        // Perform bump mapping with _bumpMap_, if present
+        if (bumpMap != null) Bump(bumpMap, si);
+        float eta = index.Evaluate(si);
+        SampledSpectrum R = Kr.Evaluate(si, lambda, arena.AllocSampledSpectrum(0));
+        SampledSpectrum T = Kt.Evaluate(si, lambda, arena.AllocSampledSpectrum(0));
+
+        // Compute the index of refraction at each wavelength
+        SampledSpectrum etas = arena.AllocSampledSpectrum(eta);
+        if (cauchyB != 0) {
+            for (int i = 0; i < SampledWavelengths.nSamples; ++i) {
+                float l = lambda.Lambda(i) * 1e-3f;
+                etas.set(i, eta + cauchyB * (1 / (l * l) - 1 / (0.5893f * 0.5893f)));
+            }
+        }
+
+        // Initialize _bsdf_ for smooth dielectric
+        SpectralBSDF bsdf = arena.AllocSpectralBSDF(si, etas.at(0));
+        if (!R.isBlack() || !T.isBlack())
+            bsdf.Add(new SpectralFresnelSpecular(R, T, 1.f, etas, mode, lambda));
+        return bsdf;
+    }
+
     private TextureSpectrum Kr, Kt;
     private TextureFloat uRoughness, vRoughness;
     private TextureFloat index;
     private TextureFloat bumpMap;
     boolean remapRoughness;
+    private final float cauchyB;
 
 }
\ No newline at end of file
@@ -69,13 +69,13 @@ public class HairMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         float bm = beta_m.Evaluate(si);
         float bn = beta_n.Evaluate(si);
         float a = (float)Math.toRadians(alpha.Evaluate(si));
         float e = eta.Evaluate(si);
 
-        si.bsdf = new BSDF(si, e);
+        si.bsdf = arena.AllocBSDF(si, e);
 
         Spectrum sig_a;
         if (sigma_a != null)
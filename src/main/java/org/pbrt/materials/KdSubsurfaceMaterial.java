@@ -53,7 +53,7 @@ public class KdSubsurfaceMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
         Spectrum R = Kr.Evaluate(si).clamp(0, Pbrt.Infinity);
@@ -62,7 +62,7 @@ public class KdSubsurfaceMaterial extends Material {
         float vrough = vRoughness.Evaluate(si);
 
         // Initialize _bsdf_ for smooth or rough dielectric
-        si.bsdf = new BSDF(si, eta);
+        si.bsdf = arena.AllocBSDF(si, eta);
 
         if (R.isBlack() && T.isBlack()) return;
 
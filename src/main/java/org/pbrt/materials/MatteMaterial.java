@@ -21,12 +21,12 @@ public class MatteMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
 
         // Evaluate textures for _MatteMaterial_ material and allocate BRDF
-        si.bsdf = new BSDF(si, 1);
+        si.bsdf = arena.AllocBSDF(si, 1);
         Spectrum r = (Kd.Evaluate(si)).clamp(0, Pbrt.Infinity);
         float sig = Pbrt.Clamp(sigma.Evaluate(si), 0.0f, 90.0f);
         if (!r.isBlack()) {
@@ -37,6 +37,20 @@ public class MatteMaterial extends Material {
         }
     }
 
+    @Override
+    public SpectralBSDF ComputeSpectralScatteringFunctions(SurfaceInteraction si, SampledWavelengths lambda, MemoryArena arena, TransportMode mode) {
+        // Perform bump mapping with _bumpMap_, if present
+        if (bumpMap != null) Bump(bumpMap, si);
+
+        // Evaluate textures for _MatteMaterial_ material and allocate BRDF
+        SpectralBSDF bsdf = arena.AllocSpectralBSDF(si, 1);
+        SampledSpectrum r = Kd.Evaluate(si, lambda, arena.AllocSampledSpectrum(0));
+        float sig = Pbrt.Clamp(sigma.Evaluate(si), 0.0f, 90.0f);
+        if (!r.isBlack())
+            bsdf.Add(new SpectralAlbedoBxDF((sig == 0) ? unitLambertian : new OrenNayar(unitAlbedo, sig), r));
+        return bsdf;
+    }
+
     public static Material Create(TextureParams mp) {
         TextureSpectrum Kd = mp.GetSpectrumTexture("Kd", new Spectrum(0.5f));
         TextureFloat sigma = mp.GetFloatTexture("sigma", 0.f);
@@ -46,4 +60,7 @@ public class MatteMaterial extends Material {
 
     private TextureSpectrum Kd;
     private TextureFloat sigma, bumpMap;
+
+    private static final Spectrum unitAlbedo = new Spectrum(1);
+    private static final LambertianReflection unitLambertian = new LambertianReflection(unitAlbedo);
 }
\ No newline at end of file
@@ -15,10 +15,11 @@ import org.pbrt.core.*;
 public class MetalMaterial extends Material {
 
     private static final Spectrum copperN, copperK;
+    private static final TabulatedSpectrum copperNSampled, copperKSampled;
 
     public static Material Create(TextureParams mp) {
-        TextureSpectrum eta = mp.GetSpectrumTexture("eta", copperN);
-        TextureSpectrum k = mp.GetSpectrumTexture("k", copperK);
+        TextureSpectrum eta = mp.GetSpectrumTexture("eta", copperN, copperNSampled);
+        TextureSpectrum k = mp.GetSpectrumTexture("k", copperK, copperKSampled);
         TextureFloat roughness = mp.GetFloatTexture("roughness", .01f);
         TextureFloat uRoughness = mp.GetFloatTextureOrNull("uroughness");
         TextureFloat vRoughness = mp.GetFloatTextureOrNull("vroughness");
@@ -44,20 +45,37 @@ public class MetalMaterial extends Material {
     }
     
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
-        si.bsdf = new BSDF(si, 1);
+        si.bsdf = arena.AllocBSDF(si, 1);
 
+        Fresnel frMf = new FresnelConductor(new Spectrum(1), eta.Evaluate(si), k.Evaluate(si));
+        si.bsdf.Add(new MicrofacetReflection(new Spectrum(1), Distribution(si), frMf));
+    }
+
+    // The same BRDF with eta and k at each sampled wavelength; the default
+    // copper and measured spectra given for them keep their measurements
+    @Override
+    public SpectralBSDF ComputeSpectralScatteringFunctions(SurfaceInteraction si, SampledWavelengths lambda, MemoryArena arena, TransportMode mode) {
+        // Perform bump mapping with _bumpMap_, if present
+        if (bumpMap != null) Bump(bumpMap, si);
+        SpectralBSDF bsdf = arena.AllocSpectralBSDF(si, 1);
+
+        SampledSpectrum etaT = eta.Evaluate(si, lambda, arena.AllocSampledSpectrum(0));
+        SampledSpectrum kT = k.Evaluate(si, lambda, arena.AllocSampledSpectrum(0));
+        bsdf.Add(new SpectralMicrofacetConductor(Distribution(si), 1, etaT, kT));
+        return bsdf;
+    }
+
+    private MicrofacetDistribution Distribution(SurfaceInteraction si) {
         float uRough = (uRoughness != null) ? uRoughness.Evaluate(si) : roughness.Evaluate(si);
         float vRough = (vRoughness != null) ? vRoughness.Evaluate(si) : roughness.Evaluate(si);
         if (remapRoughness) {
             uRough = TrowbridgeReitzDistribution.RoughnessToAlpha(uRough);
             vRough = TrowbridgeReitzDistribution.RoughnessToAlpha(vRough);
         }
-        Fresnel frMf = new FresnelConductor(new Spectrum(1), eta.Evaluate(si), k.Evaluate(si));
-        MicrofacetDistribution distrib = new TrowbridgeReitzDistribution(uRough, vRough, true);
-        si.bsdf.Add(new MicrofacetReflection(new Spectrum(1), distrib, frMf));
+        return new TrowbridgeReitzDistribution(uRough, vRough, true);
     }
 
     TextureSpectrum eta, k;
@@ -101,5 +119,7 @@ public class MetalMaterial extends Material {
     static {
         copperN = Spectrum.FromSampled(CopperWavelengths, CopperN);
         copperK = Spectrum.FromSampled(CopperWavelengths, CopperK);
+        copperNSampled = TabulatedSpectrum.FromSampled(CopperWavelengths, CopperN);
+        copperKSampled = TabulatedSpectrum.FromSampled(CopperWavelengths, CopperK);
     }
 }
\ No newline at end of file
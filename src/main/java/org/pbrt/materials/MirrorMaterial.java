@@ -26,10 +26,10 @@ public class MirrorMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
-        si.bsdf = new BSDF(si, 1);
+        si.bsdf = arena.AllocBSDF(si, 1);
         Spectrum R = Kr.Evaluate(si).clamp(0, Pbrt.Infinity);
         if (!R.isBlack())
             si.bsdf.Add(new SpecularReflection(R, new FresnelNoOp()));
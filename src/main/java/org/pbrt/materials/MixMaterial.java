@@ -26,13 +26,13 @@ public class MixMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Compute weights and original _BxDF_s for mix material
         Spectrum s1 = scale.Evaluate(si).clamp(0, Pbrt.Infinity);
         Spectrum s2 = (new Spectrum(1).subtract(s1)).clamp(0, Pbrt.Infinity);
         SurfaceInteraction si2 = new SurfaceInteraction(si);
-        m1.ComputeScatteringFunctions(si, mode, allowMultipleLobes);
-        m2.ComputeScatteringFunctions(si2, mode, allowMultipleLobes);
+        m1.ComputeScatteringFunctions(si, arena, mode, allowMultipleLobes);
+        m2.ComputeScatteringFunctions(si2, arena, mode, allowMultipleLobes);
 
         // Initialize _si->bsdf_ with weighted mixture of _BxDF_s
         int n1 = si.bsdf.NumComponents(), n2 = si2.bsdf.NumComponents();
@@ -74,7 +74,7 @@ public class SubsurfaceMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
 
@@ -85,7 +85,7 @@ public class SubsurfaceMaterial extends Material {
         float vrough = vRoughness.Evaluate(si);
 
         // Initialize _bsdf_ for smooth or rough dielectric
-        si.bsdf = new BSDF(si, eta);
+        si.bsdf = arena.AllocBSDF(si, eta);
 
         if (R.isBlack() && T.isBlack()) return;
 
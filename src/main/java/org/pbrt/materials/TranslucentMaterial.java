@@ -42,11 +42,11 @@ public class TranslucentMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
         float eta = 1.5f;
-        si.bsdf = new BSDF(si, eta);
+        si.bsdf = arena.AllocBSDF(si, eta);
 
         Spectrum r = reflect.Evaluate(si).clamp(0, Pbrt.Infinity);
         Spectrum t = transmit.Evaluate(si).clamp(0, Pbrt.Infinity);
@@ -48,7 +48,7 @@ public class UberMaterial extends Material {
     }
 
     @Override
-    public void ComputeScatteringFunctions(SurfaceInteraction si, TransportMode mode, boolean allowMultipleLobes) {
+    public void ComputeScatteringFunctions(SurfaceInteraction si, MemoryArena arena, TransportMode mode, boolean allowMultipleLobes) {
         // Perform bump mapping with _bumpMap_, if present
         if (bumpMap != null) Bump(bumpMap, si);
         float e = eta.Evaluate(si);
@@ -56,11 +56,11 @@ public class UberMaterial extends Material {
         Spectrum op = opacity.Evaluate(si).clamp(0, Pbrt.Infinity);
         Spectrum t = Spectrum.Add(op.negate(), new Spectrum(1)).clamp(0, Pbrt.Infinity);
         if (!t.isBlack()) {
-            si.bsdf = new BSDF(si, 1);
+            si.bsdf = arena.AllocBSDF(si, 1);
             BxDF tr = new SpecularTransmission(t, 1, 1, mode);
             si.bsdf.Add(tr);
         } else
-            si.bsdf = new BSDF(si, e);
+            si.bsdf = arena.AllocBSDF(si, e);
 
         Spectrum kd = Spectrum.Multiply(op, Kd.Evaluate(si).clamp(0, Pbrt.Infinity));
         if (!kd.isBlack()) {
@@ -0,0 +1,72 @@
+package org.pbrt.openexr;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Least recently used cache of decompressed chunks that any number of
+ * readers can share, holding at most a fixed number of bytes in total.
+ * Chunks are identified by the path, size and modification time of their
+ * file, so they outlive the reader that decompressed them but aren't
+ * returned for a file that has been rewritten since.
+ */
+public class BlockCache {
+
+	private final long maxBytes;
+	private long bytes = 0;
+	private final LinkedHashMap<Key, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+	public BlockCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	// Drop every chunk
+	public synchronized void clear() {
+		blocks.clear();
+		bytes = 0;
+	}
+
+	synchronized byte[] get(String path, long size, long lastModified, long chunk) {
+		return blocks.get(new Key(path, size, lastModified, chunk));
+	}
+
+	synchronized void put(String path, long size, long lastModified, long chunk, byte[] block) {
+		if (block.length > maxBytes || blocks.put(new Key(path, size, lastModified, chunk), block) != null) return;
+		bytes += block.length;
+		Iterator<Map.Entry<Key, byte[]>> iter = blocks.entrySet().iterator();
+		while (bytes > maxBytes && iter.hasNext()) {
+			bytes -= iter.next().getValue().length;
+			iter.remove();
+		}
+	}
+
+	private static final class Key {
+		final String path;
+		final long size, lastModified, chunk;
+
+		Key(String path, long size, long lastModified, long chunk) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.chunk = chunk;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return chunk == k.chunk && size == k.size && lastModified == k.lastModified && path.equals(k.path);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(path, size, lastModified, chunk);
+		}
+	}
+}
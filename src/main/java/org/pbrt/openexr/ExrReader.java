@@ -0,0 +1,459 @@
+package org.pbrt.openexr;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.pbrt.core.Parallel;
+import org.pbrt.openexr.compressor.Compressor;
+import org.pbrt.openexr.exception.OpenExrException;
+import org.pbrt.openexr.header.Header;
+import org.pbrt.openexr.types.Box2i;
+import org.pbrt.openexr.types.Channel;
+import org.pbrt.openexr.types.Channels;
+import org.pbrt.openexr.types.Compression;
+import org.pbrt.openexr.types.TileDesc;
+import org.pbrt.openexr.util.DataReader;
+import org.pbrt.openexr.util.Half;
+
+/**
+ * Random access reader for scanline and tiled (single level or mipmapped)
+ * OpenEXR files.  Only the header and the chunk offset table are read when
+ * the file is opened; regions of any level are then read on demand with
+ * positional reads, decompressing only the chunks that overlap them, in
+ * parallel.  Half, float and uint channels are all returned as floats.
+ * Decoded chunks may be kept in a BlockCache shared with other readers, so
+ * that neighbouring regions that share a chunk, like texture tiles of a
+ * scanline file, don't decompress it again.
+ */
+public class ExrReader implements Closeable {
+
+	private static final int MAGIC_NUMBER = 0x01312F76;
+	private static final int VERSION = 2;
+	private static final int FLAG_TILED = 0x2;
+	private static final int FLAG_NON_IMAGE = 0x8;
+	private static final int FLAG_MULTIPART = 0x10;
+
+	private final File file;
+	private final FileChannel channel;
+	private final Header header;
+	private final Box2i dataWindow;
+	private final List<Channel> channels;
+	private final Compression compression;
+	private final TileDesc tiles;
+	private final int[] levelWidth, levelHeight, chunksX, chunksY;
+	private final long[][] offsets;
+	private final Half half = Half.getInstance();
+
+	private final long tablesEnd;
+	private boolean reconstructed = false;
+	private volatile BlockCache blockCache;
+	private final String path;
+	// Size and modification time of the file when it was opened; they
+	// identify its chunks in a BlockCache along with the path, so that a
+	// rewritten file's chunks aren't mistaken for the old ones
+	private final long size, lastModified;
+
+	public ExrReader(File file) throws OpenExrException {
+		this.file = file;
+		this.path = file.getAbsolutePath();
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			size = channel.size();
+		} catch (IOException ex) {
+			throw new OpenExrException(ex);
+		}
+		lastModified = file.lastModified();
+		try {
+			// Read enough of the start of the file to parse the header
+			long fileSize = channel.size();
+			int length = (int) Math.min(fileSize, 1 << 16);
+			DataReader data;
+			Header parsed;
+			int flags;
+			for (;;) {
+				data = new DataReader(read(0, length), ByteOrder.LITTLE_ENDIAN);
+				try {
+					flags = validateFile(data);
+					parsed = new Header(data);
+					break;
+				} catch (BufferUnderflowException ex) {
+					if (length == fileSize || length == Integer.MAX_VALUE) {
+						throw new OpenExrException("Truncated OpenEXR header");
+					}
+					length = (int) Math.min(fileSize, Math.min(Integer.MAX_VALUE, 2L * length));
+				}
+			}
+			header = parsed;
+
+			dataWindow = (Box2i) getAttribute("dataWindow");
+			channels = ((Channels) getAttribute("channels")).list;
+			for (Channel c : channels) {
+				if (c.xSampling != 1 || c.ySampling != 1) {
+					throw new OpenExrException("Pixel subsampling is not supported");
+				}
+				if (c.getNumBytes() == 0) {
+					throw new OpenExrException("Unknown pixel type of channel " + c.name);
+				}
+			}
+			compression = (Compression) getAttribute("compression");
+			if (compression.method != Compression.NONE && compression.method != Compression.ZIPS &&
+					compression.method != Compression.ZIP) {
+				throw new OpenExrException("Compression method not supported: " + compression.methodName);
+			}
+
+			int width = dataWindow.xMax - dataWindow.xMin + 1;
+			int height = dataWindow.yMax - dataWindow.yMin + 1;
+			if ((flags & FLAG_TILED) != 0) {
+				tiles = (TileDesc) getAttribute("tiles");
+				if (tiles.levelMode == TileDesc.RIPMAP_LEVELS) {
+					throw new OpenExrException("Ripmapped files are not supported");
+				}
+			} else {
+				tiles = null;
+			}
+
+			// Resolution and number of chunks of each level
+			int nLevels = 1;
+			if (tiles != null && tiles.levelMode == TileDesc.MIPMAP_LEVELS) {
+				int max = Math.max(width, height);
+				int log2 = 31 - Integer.numberOfLeadingZeros(max);
+				if (tiles.roundingMode == TileDesc.ROUND_UP && (max & (max - 1)) != 0) log2++;
+				nLevels = log2 + 1;
+			}
+			levelWidth = new int[nLevels];
+			levelHeight = new int[nLevels];
+			chunksX = new int[nLevels];
+			chunksY = new int[nLevels];
+			offsets = new long[nLevels][];
+			long position = data.offset();
+			for (int l = 0; l < nLevels; l++) {
+				levelWidth[l] = levelSize(width, l);
+				levelHeight[l] = levelSize(height, l);
+				if (tiles != null) {
+					chunksX[l] = (levelWidth[l] + tiles.xSize - 1) / tiles.xSize;
+					chunksY[l] = (levelHeight[l] + tiles.ySize - 1) / tiles.ySize;
+				} else {
+					chunksX[l] = 1;
+					chunksY[l] = (height + compression.linesPerBlock - 1) / compression.linesPerBlock;
+				}
+				int n = chunksX[l] * chunksY[l];
+				ByteBuffer table = read(position, 8 * n);
+				offsets[l] = new long[n];
+				for (int i = 0; i < n; i++) {
+					offsets[l][i] = table.getLong();
+				}
+				position += 8L * n;
+			}
+			tablesEnd = position;
+		} catch (IOException | RuntimeException ex) {
+			close();
+			throw new OpenExrException(ex);
+		} catch (OpenExrException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	public Header getHeader() {
+		return header;
+	}
+
+	public int getWidth() {
+		return levelWidth[0];
+	}
+
+	public int getHeight() {
+		return levelHeight[0];
+	}
+
+	public boolean isTiled() {
+		return tiles != null;
+	}
+
+	public int getLevels() {
+		return levelWidth.length;
+	}
+
+	public int getLevelWidth(int level) {
+		return levelWidth[level];
+	}
+
+	public int getLevelHeight(int level) {
+		return levelHeight[level];
+	}
+
+	public List<String> getChannelNames() {
+		List<String> names = new ArrayList<>();
+		for (Channel c : channels) {
+			names.add(c.name);
+		}
+		return names;
+	}
+
+	public boolean hasChannel(String name) {
+		return channelIndex(name) >= 0;
+	}
+
+	// Keep decompressed chunks in cache for later reads, or none if null
+	public void setBlockCache(BlockCache cache) {
+		blockCache = cache;
+	}
+
+	public float[] readPixels(String... names) throws OpenExrException {
+		float[] out = new float[getWidth() * getHeight() * names.length];
+		readRegion(0, 0, 0, getWidth(), getHeight(), names, out, true);
+		return out;
+	}
+
+	/**
+	 * Read the w x h region at (x0, y0) of a level, relative to the data
+	 * window, into out with the given channels interleaved, row by row.
+	 * Channels that aren't in the file read as zero.
+	 */
+	public void readRegion(int level, int x0, int y0, int w, int h, String[] names, float[] out, boolean parallel)
+			throws OpenExrException {
+
+		if (level < 0 || level >= getLevels() || x0 < 0 || y0 < 0 ||
+				x0 + w > levelWidth[level] || y0 + h > levelHeight[level] || out.length < w * h * names.length) {
+			throw new OpenExrException("Region outside of the image");
+		}
+		int[] index = new int[names.length];
+		for (int c = 0; c < names.length; c++) {
+			index[c] = channelIndex(names[c]);
+		}
+		java.util.Arrays.fill(out, 0, w * h * names.length, 0);
+
+		// Chunks overlapping the region
+		int chunkW = (tiles != null) ? tiles.xSize : levelWidth[level];
+		int chunkH = (tiles != null) ? tiles.ySize : compression.linesPerBlock;
+		final int cx0 = x0 / chunkW, cx1 = (x0 + w - 1) / chunkW;
+		final int cy0 = y0 / chunkH, cy1 = (y0 + h - 1) / chunkH;
+		final int nx = cx1 - cx0 + 1;
+		int nChunks = nx * (cy1 - cy0 + 1);
+
+		AtomicReference<Exception> error = new AtomicReference<>();
+		java.util.function.Consumer<Long> readChunk = (Long i) -> {
+			int cx = cx0 + (int) (i % nx), cy = cy0 + (int) (i / nx);
+			try {
+				int bx = cx * chunkW, by = cy * chunkH;
+				int bw = Math.min(chunkW, levelWidth[level] - bx), bh = Math.min(chunkH, levelHeight[level] - by);
+				byte[] block = readChunk(level, cx, cy, bw, bh);
+				scatter(block, bx, by, bw, bh, x0, y0, w, h, index, out);
+			} catch (Exception ex) {
+				error.compareAndSet(null, ex);
+			}
+		};
+		if (parallel && nChunks > 1) {
+			Parallel.ParallelFor(readChunk, nChunks, 1);
+		} else {
+			for (long i = 0; i < nChunks; i++) {
+				readChunk.accept(i);
+			}
+		}
+		if (error.get() != null) {
+			if (error.get() instanceof OpenExrException) throw (OpenExrException) error.get();
+			throw new OpenExrException(error.get());
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			// Nothing to do about it
+		}
+	}
+
+	// Uncompressed pixel data of a chunk, bw x bh pixels, for each line
+	// all of the first channel's pixels, then the second's, and so on
+	private byte[] readChunk(int level, int cx, int cy, int bw, int bh) throws IOException, OpenExrException {
+		long key = ((long) level << 48) | ((long) cy << 24) | cx;
+		BlockCache cache = blockCache;
+		if (cache != null) {
+			byte[] cached = cache.get(path, size, lastModified, key);
+			if (cached != null) return cached;
+		}
+
+		int prefix = (tiles != null) ? 20 : 8;
+		long offset = offsets[level][cy * chunksX[level] + cx];
+		ByteBuffer chunkHeader = readChunkHeader(offset, level, cx, cy);
+		if (chunkHeader == null) {
+			// Like OpenEXR, rebuild a broken offset table from the chunks
+			reconstructOffsets();
+			offset = offsets[level][cy * chunksX[level] + cx];
+			chunkHeader = readChunkHeader(offset, level, cx, cy);
+			if (chunkHeader == null) {
+				throw new OpenExrException("Missing or invalid chunk offset in " + file.getName());
+			}
+		}
+		int size = chunkHeader.getInt(prefix - 4);
+		int rawSize = 0;
+		for (Channel c : channels) {
+			rawSize += c.getNumBytes() * bw * bh;
+		}
+		if (size < 0 || size > rawSize) {
+			throw new OpenExrException("Invalid chunk size in " + file.getName());
+		}
+		byte[] data = new byte[size];
+		read(offset + prefix, size).get(data);
+
+		// Chunks that don't get smaller are stored uncompressed
+		byte[] block = data;
+		if (size < rawSize) {
+			try {
+				block = Compressor.forBlock(compression, rawSize).uncompress(data);
+			} catch (java.util.zip.DataFormatException ex) {
+				throw new OpenExrException(ex);
+			}
+			if (block.length != rawSize) {
+				throw new OpenExrException("Corrupt chunk in " + file.getName());
+			}
+		}
+
+		if (cache != null) cache.put(path, size, lastModified, key, block);
+		return block;
+	}
+
+	// Header of the chunk at offset, or null if it isn't chunk (cx, cy) of level
+	private ByteBuffer readChunkHeader(long offset, int level, int cx, int cy) throws IOException {
+		int prefix = (tiles != null) ? 20 : 8;
+		if (offset <= 0 || offset + prefix > channel.size()) return null;
+		ByteBuffer chunkHeader = read(offset, prefix);
+		if (tiles != null) {
+			if (chunkHeader.getInt(0) != cx || chunkHeader.getInt(4) != cy || chunkHeader.getInt(8) != level) return null;
+		} else if (chunkHeader.getInt(0) != dataWindow.yMin + cy * compression.linesPerBlock) {
+			return null;
+		}
+		return chunkHeader;
+	}
+	
+	// Find the chunks by walking them from the end of the offset tables
+	private synchronized void reconstructOffsets() throws IOException {
+		if (reconstructed) return;
+		reconstructed = true;
+		long position = tablesEnd, fileSize = channel.size();
+		int prefix = (tiles != null) ? 20 : 8;
+		while (position + prefix <= fileSize) {
+			ByteBuffer chunkHeader = read(position, prefix);
+			int size = chunkHeader.getInt(prefix - 4);
+			if (size < 0) break;
+			int level, cx, cy;
+			if (tiles != null) {
+				cx = chunkHeader.getInt(0);
+				cy = chunkHeader.getInt(4);
+				level = chunkHeader.getInt(8);
+			} else {
+				level = 0;
+				cx = 0;
+				cy = (chunkHeader.getInt(0) - dataWindow.yMin) / compression.linesPerBlock;
+			}
+			if (level < 0 || level >= getLevels() || cx < 0 || cx >= chunksX[level] || cy < 0 || cy >= chunksY[level]) break;
+			offsets[level][cy * chunksX[level] + cx] = position;
+			position += prefix + (long) size;
+		}
+	}
+	
+	// Copy the part of a chunk at (bx, by) that overlaps the region to out
+	private void scatter(byte[] block, int bx, int by, int bw, int bh, int x0, int y0, int w, int h,
+						 int[] index, float[] out) {
+		ByteBuffer buf = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+		int nOut = index.length;
+		int lineBytes = 0;
+		for (Channel c : channels) {
+			lineBytes += c.getNumBytes() * bw;
+		}
+		int xs = Math.max(bx, x0), xe = Math.min(bx + bw, x0 + w);
+		int ys = Math.max(by, y0), ye = Math.min(by + bh, y0 + h);
+		for (int y = ys; y < ye; y++) {
+			int lineStart = (y - by) * lineBytes;
+			for (int o = 0; o < nOut; o++) {
+				int ci = index[o];
+				if (ci < 0) continue;
+				int channelStart = lineStart;
+				for (int k = 0; k < ci; k++) {
+					channelStart += channels.get(k).getNumBytes() * bw;
+				}
+				Channel c = channels.get(ci);
+				int bytes = c.getNumBytes();
+				int outIndex = ((y - y0) * w + (xs - x0)) * nOut + o;
+				int pos = channelStart + (xs - bx) * bytes;
+				for (int x = xs; x < xe; x++, pos += bytes, outIndex += nOut) {
+					switch (c.pixelType) {
+						case Channel.HALF:
+							out[outIndex] = half.toFloat(buf.getShort(pos));
+							break;
+						case Channel.FLOAT:
+							out[outIndex] = buf.getFloat(pos);
+							break;
+						default:
+							out[outIndex] = (float) (buf.getInt(pos) & 0xffffffffL);
+							break;
+					}
+				}
+			}
+		}
+	}
+
+	private int levelSize(int size, int level) {
+		if (tiles != null && tiles.roundingMode == TileDesc.ROUND_UP) {
+			return Math.max(1, (size + (1 << level) - 1) >> level);
+		}
+		return Math.max(1, size >> level);
+	}
+
+	private int channelIndex(String name) {
+		for (int i = 0; i < channels.size(); i++) {
+			if (channels.get(i).name.equals(name)) return i;
+		}
+		return -1;
+	}
+
+	private int validateFile(DataReader data) throws OpenExrException {
+
+		if (MAGIC_NUMBER != data.readInt()) {
+			throw new OpenExrException("Not a valid OpenEXR file format");
+		}
+
+		byte version = data.readByte();
+		if (version != VERSION) {
+			throw new OpenExrException("Not supported file version: " + version);
+		}
+
+		byte flags = data.readByte();
+		if ((flags & (FLAG_NON_IMAGE | FLAG_MULTIPART)) != 0) {
+			throw new OpenExrException("Deep and multi-part files are not supported");
+		}
+
+		data.skip(2);
+		return flags;
+	}
+
+	private Object getAttribute(String name) throws OpenExrException {
+		Object attribute = header.get(name);
+		if (attribute == null) {
+			throw new OpenExrException("Required attribute \"" + name + "\" not found");
+		}
+		return attribute;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new IOException("Unexpected end of file " + file.getName());
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+}
@@ -13,7 +13,12 @@ public abstract class Compressor {
 	
 	public static Compressor newInstance(Compression compression, int bytesPerRow) throws OpenExrException {
 		
-		int blockSize = compression.linesPerBlock * bytesPerRow;
+		return forBlock(compression, compression.linesPerBlock * bytesPerRow);
+	}
+	
+	// Compressor for blocks of at most blockSize uncompressed bytes; tiles
+	// are compressed as one block whatever the method's lines per block
+	public static Compressor forBlock(Compression compression, int blockSize) throws OpenExrException {
 		
 		switch (compression.method) {
 			case Compression.NONE:
@@ -22,7 +22,12 @@ public class ZipCompressor extends Compressor {
 		Inflater inflater = new Inflater();
 		inflater.setInput(data);
 		
-		int size = inflater.inflate(buffer);
+		int size = 0;
+		while (!inflater.finished() && size < buffer.length) {
+			int n = inflater.inflate(buffer, size, buffer.length - size);
+			if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+			size += n;
+		}
 		inflater.end();
 		
 		return postProcess(Arrays.copyOfRange(buffer, 0, size));
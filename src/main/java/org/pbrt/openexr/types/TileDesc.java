@@ -0,0 +1,32 @@
+package org.pbrt.openexr.types;
+
+import org.pbrt.openexr.header.Attribute;
+import org.pbrt.openexr.util.DataReader;
+
+public class TileDesc extends Attribute {
+	
+	public static final int ONE_LEVEL = 0;
+	public static final int MIPMAP_LEVELS = 1;
+	public static final int RIPMAP_LEVELS = 2;
+	
+	public static final int ROUND_DOWN = 0;
+	public static final int ROUND_UP = 1;
+	
+	public int xSize;
+	public int ySize;
+	public int levelMode;
+	public int roundingMode;
+	
+	public TileDesc(DataReader data) {
+		xSize = data.readInt();
+		ySize = data.readInt();
+		byte mode = data.readByte();
+		levelMode = mode & 0xf;
+		roundingMode = (mode >> 4) & 0xf;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s = (%d x %d, levels=%d, rounding=%d)", name, xSize, ySize, levelMode, roundingMode);
+	}
+}
@@ -3,8 +3,8 @@ package org.pbrt.openexr.util;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 
@@ -14,7 +14,7 @@ import java.nio.channels.FileChannel.MapMode;
  */
 public class DataReader {
 	
-	private MappedByteBuffer buffer;
+	private ByteBuffer buffer;
 	
 	public DataReader(File file, ByteOrder endian) throws IOException {
 		RandomAccessFile raf = new RandomAccessFile(file, "r");
@@ -23,6 +23,11 @@ public class DataReader {
 		buffer.order(endian);
 	}
 	
+	public DataReader(ByteBuffer buffer, ByteOrder endian) {
+		this.buffer = buffer;
+		this.buffer.order(endian);
+	}
+	
 	public int offset() {
 		return buffer.position();
 	}
@@ -11,7 +11,7 @@ public class Half {
 	private static Half instance = null;
 	private static float[] lookupTable = new float[1 << 16];
 	
-	public static Half getInstance() {
+	public static synchronized Half getInstance() {
 		if (instance == null) {
 			instance = new Half();
 		}
@@ -0,0 +1,156 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.samplers;
+
+import org.pbrt.core.*;
+
+// Distributes the error between pixels as blue noise (Ahmed and Wonka,
+// "Screen-Space Blue-Noise Diffusion of Monte Carlo Sampling Error via
+// Hierarchical Ordering of Pixels", 2020).  Pixels are visited in Morton
+// order and pixel k takes samples k * spp ... (k + 1) * spp - 1 of a single
+// padded, Owen-scrambled Sobol$'$ sequence.  Any aligned block of 2^j
+// consecutive pixels -- a square or 2:1 block on screen -- then holds a
+// stratified set of samples, so neighbouring pixels have complementary
+// errors that cancel when viewed from a distance.  The order is scrambled
+// hierarchically per dimension to decorrelate dimensions while keeping the
+// blocks intact.  Array samples are padded as in PaddedSobolSampler.
+public class BlueNoiseSampler extends PaddedSobolSampler {
+
+    public BlueNoiseSampler(int samplesPerPixel, Bounds2i sampleBounds, int seed) {
+        super(samplesPerPixel, Randomization.Owen, seed);
+        this.seed = seed;
+        this.sampleBounds = sampleBounds;
+        this.log2SamplesPerPixel = Pbrt.Log2Int(this.samplesPerPixel);
+        Vector2i res = sampleBounds.Diagonal();
+        this.orderBits = Math.min(32, 2 * Pbrt.Log2Int(Pbrt.RoundUpPow2(Math.max(Math.max(res.x, res.y), 1))));
+    }
+
+    public BlueNoiseSampler(BlueNoiseSampler sampler) {
+        super(sampler);
+        this.seed = sampler.seed;
+        this.sampleBounds = sampler.sampleBounds;
+        this.log2SamplesPerPixel = sampler.log2SamplesPerPixel;
+        this.orderBits = sampler.orderBits;
+    }
+
+    @Override
+    public void StartPixel(Point2i p) {
+        super.StartPixel(p);
+        mortonIndex = EncodeMorton2(p.x - sampleBounds.pMin.x, p.y - sampleBounds.pMin.y);
+        // Invalidate the per-dimension values cached for the previous pixel
+        ++pixelStamp;
+    }
+
+    @Override
+    public float Get1D() {
+        int dim = dimension++;
+        long index = SampleIndex(currentPixelSampleIndex, dim);
+        return SampleX(index, scrambleX[dim]);
+    }
+
+    @Override
+    public Point2f Get2D() {
+        return Get2D(new Point2f());
+    }
+
+    @Override
+    public Point2f Get2D(Point2f dst) {
+        int dim = dimension;
+        dimension += 2;
+        long index = SampleIndex(currentPixelSampleIndex, dim);
+        dst.x = SampleX(index, scrambleX[dim]);
+        dst.y = LowDiscrepancy.SobolSampleOwen(index, 1, scrambleY[dim]);
+        return dst;
+    }
+
+    @Override
+    public void GetSamples1D(int dimension, int firstSample, int n, float[] dst, int offset) {
+        for (int i = 0; i < n; ++i) {
+            long index = SampleIndex(firstSample + i, dimension);
+            dst[offset + i] = SampleX(index, scrambleX[dimension]);
+        }
+    }
+
+    @Override
+    public Sampler Clone(int seed) {
+        return new BlueNoiseSampler(this);
+    }
+
+    public static Sampler Create(ParamSet paramSet, Bounds2i sampleBounds) {
+        int nsamp = paramSet.FindOneInt("pixelsamples", 16);
+        if (Pbrt.options.QuickRender) nsamp = 1;
+        int seed = paramSet.FindOneInt("seed", 0);
+        return new BlueNoiseSampler(nsamp, sampleBounds, seed);
+    }
+
+    // BlueNoiseSampler Private Methods
+    private long SampleIndex(int sampleNum, int dim) {
+        if (dim >= stamp.length) Grow(dim + 1);
+        if (stamp[dim] != pixelStamp) {
+            // OwenScramble() flips each bit based on the bits above it, so
+            // aligned blocks of the pixel order map to aligned blocks
+            long hash = Pbrt.MixBits(((long)dim << 32) ^ Integer.toUnsignedLong(seed));
+            int order = orderBits == 0 ? 0 : LowDiscrepancy.OwenScramble(mortonIndex << (32 - orderBits), (int)hash) >>> (32 - orderBits);
+            pixelOrder[dim] = (long)order << log2SamplesPerPixel;
+            sampleScramble[dim] = (int)Pbrt.MixBits(hash ^ order);
+            scrambleX[dim] = (int)(hash >>> 32);
+            scrambleY[dim] = (int)Pbrt.MixBits(hash);
+            stamp[dim] = pixelStamp;
+        }
+        if (log2SamplesPerPixel == 0) return pixelOrder[dim];
+        // The samples within the pixel are scrambled the same way
+        int s = LowDiscrepancy.OwenScramble(sampleNum << (32 - log2SamplesPerPixel),
+                sampleScramble[dim]) >>> (32 - log2SamplesPerPixel);
+        return pixelOrder[dim] | s;
+    }
+
+    // The first Sobol$'$ dimension is the van der Corput sequence, whose
+    // generator matrix is just a bit reversal
+    private static float SampleX(long index, int scramble) {
+        if ((index >>> 32) != 0) return LowDiscrepancy.SobolSampleOwen(index, 0, scramble);
+        int v = LowDiscrepancy.OwenScramble(Integer.reverse((int)index), scramble);
+        return Math.min(Integer.toUnsignedLong(v) * 0x1p-32f, RNG.FloatOneMinusEpsilon);
+    }
+
+    private void Grow(int n) {
+        n = Math.max(n, 2 * stamp.length);
+        stamp = java.util.Arrays.copyOf(stamp, n);
+        pixelOrder = java.util.Arrays.copyOf(pixelOrder, n);
+        sampleScramble = java.util.Arrays.copyOf(sampleScramble, n);
+        scrambleX = java.util.Arrays.copyOf(scrambleX, n);
+        scrambleY = java.util.Arrays.copyOf(scrambleY, n);
+    }
+
+    // Interleave the low 16 bits of _x_ and _y_
+    private static int LeftShift2(int x) {
+        x &= 0xffff;
+        x = (x | (x << 8)) & 0x00ff00ff;
+        x = (x | (x << 4)) & 0x0f0f0f0f;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+        return x;
+    }
+
+    private static int EncodeMorton2(int x, int y) {
+        return (LeftShift2(y) << 1) | LeftShift2(x);
+    }
+
+    // BlueNoiseSampler Private Data
+    private final int seed;
+    private final Bounds2i sampleBounds;
+    private final int log2SamplesPerPixel, orderBits;
+    private int mortonIndex;
+    // Per-dimension values for the current pixel, valid where stamp[dim]
+    // equals pixelStamp
+    private int pixelStamp;
+    private int[] stamp = new int[0];
+    private long[] pixelOrder = new long[0];
+    private int[] sampleScramble = new int[0], scrambleX = new int[0], scrambleY = new int[0];
+}
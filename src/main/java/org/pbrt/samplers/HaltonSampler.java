@@ -17,15 +17,19 @@ public class HaltonSampler extends GlobalSampler {
 
     private static final int kMaxResolution = 128;
 
+    public enum Randomization { PermuteDigits, Owen }
+
     public HaltonSampler(int samplesPerPixel, Bounds2i sampleBounds, boolean sampleAtCenter) {
+        this(samplesPerPixel, sampleBounds, sampleAtCenter, Randomization.PermuteDigits);
+    }
+
+    public HaltonSampler(int samplesPerPixel, Bounds2i sampleBounds, boolean sampleAtCenter, Randomization randomization) {
         super(samplesPerPixel);
         this.sampleAtPixelCenter = sampleAtCenter;
+        this.randomization = randomization;
 
         // Generate random digit permutations for Halton sampler
-        if (radicalInversePermutations.length == 0) {
-            RNG rng = new RNG();
-            radicalInversePermutations = LowDiscrepancy.ComputeRadicalInversePermutations(rng);
-        }
+        if (randomization == Randomization.PermuteDigits) RadicalInversePermutations();
 
         // Find radical inverse base scales and exponents that cover sampling area
         Vector2i res = sampleBounds.pMax.subtract(sampleBounds.pMin);
@@ -56,6 +60,7 @@ public class HaltonSampler extends GlobalSampler {
     public HaltonSampler(HaltonSampler sampler) {
         super(sampler.samplesPerPixel);
         this.sampleAtPixelCenter = sampler.sampleAtPixelCenter;
+        this.randomization = sampler.randomization;
         this.baseScales = sampler.baseScales;
         this.baseExponents = sampler.baseExponents;
         this.sampleStride = sampler.sampleStride;
@@ -67,7 +72,7 @@ public class HaltonSampler extends GlobalSampler {
     }
 
     @Override
-    public int GetIndexForSample(int sampleNum) {
+    public long GetIndexForSample(int sampleNum) {
         if (currentPixel.notEqual(pixelForOffset)) {
             // Compute Halton sample offset for _currentPixel_
             offsetForCurrentPixel = 0;
@@ -85,18 +90,64 @@ public class HaltonSampler extends GlobalSampler {
             }
             pixelForOffset = currentPixel;
         }
-        return offsetForCurrentPixel + sampleNum * sampleStride;
+        return offsetForCurrentPixel + (long)sampleNum * sampleStride;
     }
 
     @Override
-    public float SampleDimension(int index, int dim) {
+    public float SampleDimension(long index, int dim) {
         if (sampleAtPixelCenter && (dim == 0 || dim == 1)) return 0.5f;
         if (dim == 0)
             return LowDiscrepancy.RadicalInverse(dim, index >>> baseExponents.x);
         else if (dim == 1)
             return LowDiscrepancy.RadicalInverse(dim, index / baseScales.y);
+        else if (randomization == Randomization.Owen)
+            return LowDiscrepancy.OwenScrambledRadicalInverse(dim, index, (int)Pbrt.MixBits(dim));
         else
-            return LowDiscrepancy.ScrambledRadicalInverse(dim, index, radicalInversePermutations);
+            return LowDiscrepancy.ScrambledRadicalInverse(dim, index, radicalInversePermutations,
+                    PermutationForDimension(dim));
+    }
+
+    // The randomization and the table bounds are checked once per batch
+    @Override
+    protected void SampleDimensions(long index, int dimension, int n, float[] dst, int offset) {
+        int i = 0;
+        for (; i < n && dimension + i < 2; ++i)
+            dst[offset + i] = SampleDimension(index, dimension + i);
+        if (i == n) return;
+        if (dimension + n > LowDiscrepancy.PrimeTableSize)
+            PBrtTLogger.Error("HaltonSampler can only sample %d dimensions.", LowDiscrepancy.PrimeTableSize);
+        if (randomization == Randomization.Owen) {
+            for (; i < n; ++i) {
+                int dim = dimension + i;
+                dst[offset + i] = LowDiscrepancy.OwenScrambledRadicalInverse(dim, index, (int)Pbrt.MixBits(dim));
+            }
+        } else {
+            short[] perm = radicalInversePermutations;
+            for (; i < n; ++i) {
+                int dim = dimension + i;
+                dst[offset + i] = LowDiscrepancy.ScrambledRadicalInverse(dim, index, perm, LowDiscrepancy.PrimeSums[dim]);
+            }
+        }
+    }
+
+    // Indices of a pixel's samples are _sampleStride_ apart, and one
+    // dimension shares its base, permutation or seed for all of them
+    @Override
+    protected void SampleIndices(int dimension, int firstSample, int n, float[] dst, int offset) {
+        long index = GetIndexForSample(firstSample);
+        if (dimension < 2) {
+            for (int i = 0; i < n; ++i, index += sampleStride)
+                dst[offset + i] = SampleDimension(index, dimension);
+        } else if (randomization == Randomization.Owen) {
+            int seed = (int)Pbrt.MixBits(dimension);
+            for (int i = 0; i < n; ++i, index += sampleStride)
+                dst[offset + i] = LowDiscrepancy.OwenScrambledRadicalInverse(dimension, index, seed);
+        } else {
+            short[] perm = radicalInversePermutations;
+            int permOffset = PermutationForDimension(dimension);
+            for (int i = 0; i < n; ++i, index += sampleStride)
+                dst[offset + i] = LowDiscrepancy.ScrambledRadicalInverse(dimension, index, perm, permOffset);
+        }
     }
 
     @Override
@@ -108,21 +159,39 @@ public class HaltonSampler extends GlobalSampler {
         int nsamp = paramSet.FindOneInt("pixelsamples", 16);
         if (Pbrt.options.QuickRender) nsamp = 1;
         boolean sampleAtCenter = paramSet.FindOneBoolean("samplepixelcenter", false);
-        return new HaltonSampler(nsamp, sampleBounds, sampleAtCenter);
+        String r = paramSet.FindOneString("randomization", "permutedigits");
+        Randomization randomization;
+        if (r.equals("permutedigits"))
+            randomization = Randomization.PermuteDigits;
+        else if (r.equals("owen"))
+            randomization = Randomization.Owen;
+        else {
+            PBrtTLogger.Warning("Randomization \"%s\" unknown. Using \"permutedigits\".", r);
+            randomization = Randomization.PermuteDigits;
+        }
+        return new HaltonSampler(nsamp, sampleBounds, sampleAtCenter, randomization);
     }
 
 
-    private static Short[] radicalInversePermutations = new Short[0];
+    // Digit permutations for all prime bases, computed once and shared by all
+    // samplers and their clones
+    private static short[] radicalInversePermutations;
+    private final Randomization randomization;
     private Point2i baseScales = new Point2i(), baseExponents = new Point2i();
     private int sampleStride;
     private int[] multInverse = { 0, 0 };
     private Point2i pixelForOffset = new Point2i(Integer.MAX_VALUE, Integer.MAX_VALUE);
-    private int offsetForCurrentPixel;
+    private long offsetForCurrentPixel;
     // Added after book publication: force all image samples to be at the
     // center of the pixel area.
     private boolean sampleAtPixelCenter;
 
     // HaltonSampler Private Methods
+    private static synchronized void RadicalInversePermutations() {
+        if (radicalInversePermutations == null)
+            radicalInversePermutations = LowDiscrepancy.ComputeRadicalInversePermutations(new RNG());
+    }
+
     private int PermutationForDimension(int dim) {
         if (dim >= LowDiscrepancy.PrimeTableSize)
             PBrtTLogger.Error("HaltonSampler can only sample %d dimensions.", LowDiscrepancy.PrimeTableSize);
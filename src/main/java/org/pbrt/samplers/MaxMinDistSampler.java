@@ -46,6 +46,7 @@ public class MaxMinDistSampler extends PixelSampler {
         return mmds;
     }
 
+    // The tables filled here are what PixelSampler's bulk methods copy from
     @Override
     public void StartPixel(Point2i p) {
         float invSPP = 1.0f / samplesPerPixel;
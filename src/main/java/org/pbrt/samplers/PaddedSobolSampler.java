@@ -0,0 +1,168 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+
+package org.pbrt.samplers;
+
+import org.pbrt.core.*;
+
+// Each pixel, and each dimension within it, gets its own randomized 1D or 2D
+// Sobol$'$ point set ("padding"), decorrelated by hashing the pixel, the
+// dimension and a user seed.  Unlike SobolSampler, sample indices never
+// exceed the pixel sample count, so there is no limit on image resolution
+// and no per-sample index computation.
+public class PaddedSobolSampler extends Sampler {
+
+    public enum Randomization { None, PermuteDigits, Owen }
+
+    public PaddedSobolSampler(int samplesPerPixel, Randomization randomization, int seed) {
+        super(Pbrt.RoundUpPow2(samplesPerPixel));
+        if (!Pbrt.IsPowerOf2(samplesPerPixel))
+            PBrtTLogger.Warning("Pixel samples being rounded up to power of 2 (from %d to %d).", samplesPerPixel, this.samplesPerPixel);
+        this.randomization = randomization;
+        this.seed = seed;
+    }
+
+    public PaddedSobolSampler(PaddedSobolSampler sampler) {
+        super(sampler.samplesPerPixel);
+        this.randomization = sampler.randomization;
+        this.seed = sampler.seed;
+    }
+
+    @Override
+    public void StartPixel(Point2i p) {
+        super.StartPixel(p);
+        dimension = 0;
+        // Array samples are padded like the others; they use their own
+        // (negative) dimension numbers so they never share a hash with Get1D()
+        // or Get2D()
+        int arrayDim = -1;
+        for (int i = 0; i < samples1DArraySizes.size(); ++i, --arrayDim) {
+            float[] samples = sampleArray1D.get(i);
+            int n = samples1DArraySizes.get(i);
+            long hash = Hash(p, arrayDim);
+            for (int j = 0; j < samples.length; ++j) {
+                int index = ArrayIndex(j, n, (int)hash);
+                samples[j] = SampleDimension(0, index, (int)(hash >>> 32));
+            }
+        }
+        for (int i = 0; i < samples2DArraySizes.size(); ++i, --arrayDim) {
+            Point2f[] samples = sampleArray2D.get(i);
+            long hash = Hash(p, arrayDim);
+            int n = samples2DArraySizes.get(i);
+            int hash2 = (int)Pbrt.MixBits(hash);
+            for (int j = 0; j < samples.length; ++j) {
+                int index = ArrayIndex(j, n, (int)hash);
+                if (samples[j] == null) samples[j] = new Point2f();
+                samples[j].x = SampleDimension(0, index, (int)(hash >>> 32));
+                samples[j].y = SampleDimension(1, index, hash2);
+            }
+        }
+    }
+
+    @Override
+    public boolean StartNextSample() {
+        dimension = 0;
+        return super.StartNextSample();
+    }
+
+    @Override
+    public boolean SetSampleNumber(int sampleNum) {
+        dimension = 0;
+        return super.SetSampleNumber(sampleNum);
+    }
+
+    @Override
+    public float Get1D() {
+        long hash = Hash(currentPixel, dimension++);
+        int index = LowDiscrepancy.PermutationElement(currentPixelSampleIndex, samplesPerPixel, (int)hash);
+        return SampleDimension(0, index, (int)(hash >>> 32));
+    }
+
+    @Override
+    public Point2f Get2D() {
+        return Get2D(new Point2f());
+    }
+
+    @Override
+    public Point2f Get2D(Point2f dst) {
+        long hash = Hash(currentPixel, dimension);
+        dimension += 2;
+        int index = LowDiscrepancy.PermutationElement(currentPixelSampleIndex, samplesPerPixel, (int)hash);
+        dst.x = SampleDimension(0, index, (int)(hash >>> 32));
+        dst.y = SampleDimension(1, index, (int)Pbrt.MixBits(hash));
+        return dst;
+    }
+
+    // Each dimension is its own padded point set, so samples of one dimension
+    // need only the one hash
+    @Override
+    public void GetSamples1D(int dimension, int firstSample, int n, float[] dst, int offset) {
+        long hash = Hash(currentPixel, dimension);
+        for (int i = 0; i < n; ++i) {
+            int index = LowDiscrepancy.PermutationElement(firstSample + i, samplesPerPixel, (int)hash);
+            dst[offset + i] = SampleDimension(0, index, (int)(hash >>> 32));
+        }
+    }
+
+    @Override
+    public int RoundCount(int count) {
+        return Pbrt.RoundUpPow2(count);
+    }
+
+    @Override
+    public Sampler Clone(int seed) {
+        return new PaddedSobolSampler(this);
+    }
+
+    public static Sampler Create(ParamSet paramSet) {
+        int nsamp = paramSet.FindOneInt("pixelsamples", 16);
+        if (Pbrt.options.QuickRender) nsamp = 1;
+        int seed = paramSet.FindOneInt("seed", 0);
+        String r = paramSet.FindOneString("randomization", "owen");
+        Randomization randomization;
+        if (r.equals("none"))
+            randomization = Randomization.None;
+        else if (r.equals("permutedigits"))
+            randomization = Randomization.PermuteDigits;
+        else if (r.equals("owen"))
+            randomization = Randomization.Owen;
+        else {
+            PBrtTLogger.Warning("Randomization \"%s\" unknown. Using \"owen\".", r);
+            randomization = Randomization.Owen;
+        }
+        return new PaddedSobolSampler(nsamp, randomization, seed);
+    }
+
+    // PaddedSobolSampler Private Methods
+    private float SampleDimension(int dim, int index, int scramble) {
+        switch (randomization) {
+            case None: return LowDiscrepancy.SobolSampleFloat(index, dim, 0);
+            case PermuteDigits: return LowDiscrepancy.SobolSampleFloat(index, dim, scramble);
+            default: return LowDiscrepancy.SobolSampleOwen(index, dim, scramble);
+        }
+    }
+
+    // Each pixel sample takes a consecutive, and thus stratified, block of _n_
+    // points; only the order of the blocks is shuffled
+    private int ArrayIndex(int j, int n, int hash) {
+        return LowDiscrepancy.PermutationElement(j / n, samplesPerPixel, hash) * n + j % n;
+    }
+
+    private long Hash(Point2i p, int dim) {
+        long h = Pbrt.MixBits(((long)p.x << 32) | Integer.toUnsignedLong(p.y));
+        return Pbrt.MixBits(h ^ (((long)dim << 32) | Integer.toUnsignedLong(seed)));
+    }
+
+    // PaddedSobolSampler Protected Data
+    protected int dimension;
+
+    // PaddedSobolSampler Private Data
+    private final Randomization randomization;
+    private final int seed;
+}
@@ -15,35 +15,105 @@ import org.pbrt.core.PBrtTLogger;
 
 public class SobolSampler extends GlobalSampler {
 
+    public enum Randomization { None, Owen }
+
     public SobolSampler(int samplesPerPixel, Bounds2i sampleBounds) {
+        this(samplesPerPixel, sampleBounds, Randomization.None, 0);
+    }
+
+    public SobolSampler(int samplesPerPixel, Bounds2i sampleBounds, Randomization randomization, int seed) {
         super(Pbrt.RoundUpPow2(samplesPerPixel));
         this.sampleBounds = sampleBounds;
+        this.randomization = randomization;
+        this.seed = seed;
 
         if (!Pbrt.IsPowerOf2(samplesPerPixel))
-            PBrtTLogger.Warning("Non power-of-two sample count rounded up to % for SobolSampler.", samplesPerPixel);
+            PBrtTLogger.Warning("Non power-of-two sample count rounded up to %d for SobolSampler.", this.samplesPerPixel);
         resolution = Pbrt.RoundUpPow2(Math.max(sampleBounds.Diagonal().x, sampleBounds.Diagonal().y));
         log2Resolution = Pbrt.Log2Int(resolution);
         if (resolution > 0) assert((1 << log2Resolution) == resolution);
+
+        // Precompute the per-frame part of the Sobol$'$ index for every pixel sample
+        frameIndex = new long[this.samplesPerPixel];
+        for (int i = 0; i < frameIndex.length; ++i)
+            frameIndex[i] = LowDiscrepancy.SobolFrameIndex(log2Resolution, i);
     }
 
     public SobolSampler(SobolSampler sampler) {
-        super(Pbrt.RoundUpPow2(sampler.samplesPerPixel));
+        super(sampler.samplesPerPixel);
         this.sampleBounds = sampler.sampleBounds;
         this.resolution = sampler.resolution;
         this.log2Resolution = sampler.log2Resolution;
+        this.randomization = sampler.randomization;
+        this.seed = sampler.seed;
+        this.frameIndex = sampler.frameIndex;
     }
 
     @Override
-    public int GetIndexForSample(int sampleNum) {
-        return (int)LowDiscrepancy.SobolIntervalToIndex(log2Resolution, sampleNum, new Point2i(currentPixel.subtract(sampleBounds.pMin)));
+    public long GetIndexForSample(int sampleNum) {
+        if (currentPixel.notEqual(pixelForIndex)) {
+            pixelIndex = LowDiscrepancy.SobolPixelIndex(log2Resolution, currentPixel.x - sampleBounds.pMin.x,
+                    currentPixel.y - sampleBounds.pMin.y);
+            pixelForIndex = new Point2i(currentPixel);
+        }
+        // Array samples index past the cached frames
+        long frame = sampleNum < frameIndex.length ? frameIndex[sampleNum]
+                : LowDiscrepancy.SobolFrameIndex(log2Resolution, sampleNum);
+        return frame ^ pixelIndex;
     }
 
     @Override
-    public float SampleDimension(int index, int dim) {
+    public float SampleDimension(long index, int dim) {
         if (dim >= SobolMatrices.NumSobolDimensions)
             PBrtTLogger.Error("SobolSampler can only sample up to %d dimensions! Exiting.", SobolMatrices.NumSobolDimensions);
-        float s = LowDiscrepancy.SobolSampleFloat(index, dim, 0);
         // Remap Sobol$'$ dimensions used for pixel samples
+        if (dim == 0 || dim == 1) {
+            float s = LowDiscrepancy.SobolSampleFloat(index, dim, 0);
+            s = s * resolution + sampleBounds.pMin.at(dim);
+            return Pbrt.Clamp(s - currentPixel.at(dim), 0, Pbrt.OneMinusEpsilon);
+        }
+        if (randomization == Randomization.Owen)
+            return LowDiscrepancy.SobolSampleOwen(index, dim, (int)Pbrt.MixBits(((long)dim << 32) ^ seed));
+        return LowDiscrepancy.SobolSampleFloat(index, dim, 0);
+    }
+
+    @Override
+    protected void SampleDimensions(long index, int dimension, int n, float[] dst, int offset) {
+        if (dimension + n > SobolMatrices.NumSobolDimensions)
+            PBrtTLogger.Error("SobolSampler can only sample up to %d dimensions! Exiting.", SobolMatrices.NumSobolDimensions);
+        if (bits.length < n) bits = new int[n];
+        LowDiscrepancy.SobolSampleBits(index, dimension, n, bits, 0);
+        for (int i = 0; i < n; ++i) {
+            int dim = dimension + i;
+            int v = bits[i];
+            if (dim >= 2 && randomization == Randomization.Owen)
+                v = LowDiscrepancy.OwenScramble(v, (int)Pbrt.MixBits(((long)dim << 32) ^ seed));
+            dst[offset + i] = ToFloat(v, dim);
+        }
+    }
+
+    // One dimension's generator matrix and scramble seed serve all the
+    // samples
+    @Override
+    protected void SampleIndices(int dimension, int firstSample, int n, float[] dst, int offset) {
+        if (dimension >= SobolMatrices.NumSobolDimensions)
+            PBrtTLogger.Error("SobolSampler can only sample up to %d dimensions! Exiting.", SobolMatrices.NumSobolDimensions);
+        boolean owen = dimension >= 2 && randomization == Randomization.Owen;
+        int scramble = owen ? (int)Pbrt.MixBits(((long)dimension << 32) ^ seed) : 0;
+        int matrix = dimension * SobolMatrices.SobolMatrixSize;
+        for (int i = 0; i < n; ++i) {
+            int v = 0;
+            for (long a = GetIndexForSample(firstSample + i); a != 0; a &= a - 1)
+                v ^= SobolMatrices.SobolMatrices32[matrix + Long.numberOfTrailingZeros(a)];
+            if (owen) v = LowDiscrepancy.OwenScramble(v, scramble);
+            dst[offset + i] = ToFloat(v, dimension);
+        }
+    }
+
+    // Sobol$'$ bits _v_ of _dim_ as a sample value, remapped to the current
+    // pixel for the first two dimensions
+    private float ToFloat(int v, int dim) {
+        float s = Math.min(Integer.toUnsignedLong(v) * 0x1p-32f, RNG.FloatOneMinusEpsilon);
         if (dim == 0 || dim == 1) {
             s = s * resolution + sampleBounds.pMin.at(dim);
             s = Pbrt.Clamp(s - currentPixel.at(dim), 0, Pbrt.OneMinusEpsilon);
@@ -59,9 +129,28 @@ public class SobolSampler extends GlobalSampler {
     public static Sampler Create(ParamSet paramSet, Bounds2i sampleBounds) {
         int nsamp = paramSet.FindOneInt("pixelsamples", 16);
         if (Pbrt.options.QuickRender) nsamp = 1;
-        return new SobolSampler(nsamp, sampleBounds);
+        int seed = paramSet.FindOneInt("seed", 0);
+        String r = paramSet.FindOneString("randomization", "none");
+        Randomization randomization;
+        if (r.equals("none"))
+            randomization = Randomization.None;
+        else if (r.equals("owen"))
+            randomization = Randomization.Owen;
+        else {
+            PBrtTLogger.Warning("Randomization \"%s\" unknown. Using \"none\".", r);
+            randomization = Randomization.None;
+        }
+        return new SobolSampler(nsamp, sampleBounds, randomization, seed);
     }
 
     private final Bounds2i sampleBounds;
-    private int resolution, log2Resolution;
-}
\ No newline at end of file
+    private final int resolution, log2Resolution;
+    private final Randomization randomization;
+    private final int seed;
+    // Sobol$'$ indices are linear in (frame, pixel): the frame terms are
+    // shared by all clones, and the pixel term is computed once per pixel
+    private final long[] frameIndex;
+    private Point2i pixelForIndex = new Point2i(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    private long pixelIndex;
+    private int[] bits = new int[0];
+}
@@ -25,6 +25,7 @@ public class ZeroTwoSequence extends PixelSampler {
         this(sampler.samplesPerPixel, sampler.samples1D.length);
     }
 
+    // The tables filled here are what PixelSampler's bulk methods copy from
     public void StartPixel(Point2i p) {
         // Generate 1D and 2D pixel sample components using $(0,2)$-sequence
         for (int i = 0; i < samples1D.length; ++i)
@@ -320,8 +320,9 @@ public class Curve extends Shape {
                     }
                     dpdv = rayToObject.xform(dpdvPlane);
                 }
-                hr.isect = ObjectToWorld.xform(new SurfaceInteraction(ray.at(hr.tHit), pError, new Point2f(u, v), ray.d.negate(), dpdu, dpdv,
-                        new Normal3f(0, 0, 0), new Normal3f(0, 0, 0), ray.time, this));
+                hr.isect = new SurfaceInteraction(ray.at(hr.tHit), pError, new Point2f(u, v), ray.d.negate(), dpdu, dpdv,
+                        new Normal3f(0, 0, 0), new Normal3f(0, 0, 0), ray.time, this);
+                ObjectToWorld.xform(hr.isect, hr.isect);
             }
             hitsPerTest.incrementNumer(1); //++nHits;
             return hr;
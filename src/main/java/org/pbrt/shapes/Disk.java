@@ -68,8 +68,9 @@ public class Disk extends Shape {
 
         HitResult hr = new HitResult();
         // Initialize _SurfaceInteraction_ from parametric information
-        hr.isect = ObjectToWorld.xform(new SurfaceInteraction(pHit, pError, new Point2f(u, v),
-                ray.d.negate(), dpdu, dpdv, dndu, dndv, ray.time, this));
+        hr.isect = new SurfaceInteraction(pHit, pError, new Point2f(u, v),
+                ray.d.negate(), dpdu, dpdv, dndu, dndv, ray.time, this);
+        ObjectToWorld.xform(hr.isect, hr.isect);
 
         // Update tHit for quadric intersection
         hr.tHit = tShapeHit;
@@ -125,8 +125,9 @@ public class Paraboloid extends Shape {
 
         // Initialize _SurfaceInteraction_ from parametric information
         HitResult hr = new HitResult();
-        hr.isect = ObjectToWorld.xform(new SurfaceInteraction(pHit, pError, new Point2f(u, v),
-                ray.d.negate(), dpdu, dpdv, dndu, dndv, ray.time, this));
+        hr.isect = new SurfaceInteraction(pHit, pError, new Point2f(u, v),
+                ray.d.negate(), dpdu, dpdv, dndu, dndv, ray.time, this);
+        ObjectToWorld.xform(hr.isect, hr.isect);
         hr.tHit = tShapeHit.asFloat();
         return hr;
     }
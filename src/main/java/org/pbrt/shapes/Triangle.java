@@ -500,6 +500,23 @@ public class Triangle extends Shape {
         return 0.5f * Vector3f.Cross(p1.subtract(p0), p2.subtract(p0)).Length();
     }
 
+    @Override
+    public Normal3f ConstantNormal() {
+        Point3f p0 = mesh.p[v[0]];
+        Point3f p1 = mesh.p[v[1]];
+        Point3f p2 = mesh.p[v[2]];
+        Vector3f c = Vector3f.Cross(p1.subtract(p0), p2.subtract(p0));
+        if (c.LengthSquared() == 0) return null;
+        // Orient the normal as Triangle.Intersect() does
+        Normal3f n = Normal3f.Normalize(new Normal3f(c));
+        if (mesh.n != null) {
+            Normal3f ns = mesh.n[v[0]].add(mesh.n[v[1]].add(mesh.n[v[2]]));
+            n = Normal3f.Faceforward(n, ns);
+        } else if (reverseOrientation ^ transformSwapsHandedness)
+            n = n.negate();
+        return n;
+    }
+
     @Override
     public SampleResult Sample(Point2f u) {
         Point2f b = Sampling.UniformSampleTriangle(u);
@@ -15,14 +15,27 @@ import org.pbrt.core.*;
 public class ConstantTextureSpectrum extends TextureSpectrum {
 
     public static ConstantTextureSpectrum CreateSpectrum(Transform tex2world, TextureParams tp) {
-        return new ConstantTextureSpectrum(tp.FindSpectrum("value", new Spectrum(1.f)));
+        return new ConstantTextureSpectrum(tp.FindSpectrum("value", new Spectrum(1.f)), tp.FindMeasuredSpectrum("value", null));
     }
 
     public ConstantTextureSpectrum(Spectrum value) {
+        this(value, null);
+    }
+
+    // _sampledValue_ is what spectral rendering uses; without one, _value_
+    // is upsampled
+    public ConstantTextureSpectrum(Spectrum value, TabulatedSpectrum sampledValue) {
         this.value = value;
+        this.sampledValue = (sampledValue != null) ? sampledValue : TabulatedSpectrum.FromRGB(value, Spectrum.SpectrumType.Reflectance);
     }
 
     public Spectrum Evaluate(SurfaceInteraction si) { return value; }
 
+    @Override
+    public SampledSpectrum Evaluate(SurfaceInteraction si, SampledWavelengths lambda, SampledSpectrum dst) {
+        return sampledValue.Sample(lambda, dst);
+    }
+
     private final Spectrum value;
+    private final TabulatedSpectrum sampledValue;
 }
\ No newline at end of file
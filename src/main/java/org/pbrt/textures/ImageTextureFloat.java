@@ -12,7 +12,8 @@ package org.pbrt.textures;
 
 import org.pbrt.core.*;
 import org.pbrt.core.PBrtTLogger;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.Objects;
 
 
@@ -61,71 +62,54 @@ public class ImageTextureFloat extends TextureFloat {
     public ImageTextureFloat(TextureMapping2D mapping, String filename, boolean doTrilinear, float maxAniso, Texture.ImageWrap wrap, float scale, boolean gamma) {
         super();
         this.mapping = mapping;
-        this.mipmap = GetTexture(filename, doTrilinear, maxAniso, wrap, scale, gamma);
+        this.pendingMipmap = GetTexture(filename, doTrilinear, maxAniso, wrap, scale, gamma);
     }
 
     @Override
     public float Evaluate(SurfaceInteraction si) {
         TextureMapping2D.MapPoint point = mapping.Map(si);
-        return mipmap.Lookup(point.st, point.dstdx, point.dstdy);
+        return GetMIPMap().Lookup(point.st, point.dstdx, point.dstdy);
+    }
+
+    // The MIPMap is loaded in the background while the scene is parsed; the
+    // first lookup waits for it if it isn't ready yet.
+    private MIPMapFloat GetMIPMap() {
+        MIPMapFloat m = mipmap;
+        if (m == null) {
+            m = Parallel.Await(pendingMipmap);
+            mipmap = m;
+        }
+        return m;
     }
 
     private TextureMapping2D mapping;
-    private MIPMapFloat mipmap;
+    private final Future<MIPMapFloat> pendingMipmap;
+    private volatile MIPMapFloat mipmap;
 
-    private static HashMap<Texture.TexInfo, MIPMapFloat> texturesFloat = new HashMap<>();
+    // Shared by all threads parsing the scene; the texels themselves live in
+    // the global TextureCache.
+    private static final ConcurrentHashMap<Texture.TexInfo, Future<MIPMapFloat>> texturesFloat = new ConcurrentHashMap<>();
 
     public static void ClearCacheFloat() {
         texturesFloat.clear();
     }
 
-    private static MIPMapFloat GetTexture(String filename, boolean doTrilinear, float maxAniso,
-                                          Texture.ImageWrap wrap, float scale, boolean gamma) {
-        // Return _MIPMap_ from texture cache if present
-        Texture.TexInfo texInfo = new Texture.TexInfo(filename, doTrilinear, maxAniso, wrap, scale, gamma);
-        if (texturesFloat.containsKey(texInfo))
-            return texturesFloat.get(texInfo);
-
-        // Create _MIPMap_ for _filename_
-        ImageIO.SpectrumImage image = ImageIO.Read(filename);
-        if (image == null) {
-            PBrtTLogger.Warning("Creating a constant grey texture to replace \"%s\".", filename);
-            image = new ImageIO.SpectrumImage();
-            image.resolution.x = image.resolution.y = 1;
-            Spectrum[] rgb = new Spectrum[1];
-            rgb[0] = new Spectrum(0.5f);
-            image.image = rgb;
-        }
-
-        // Flip image in y; texture coordinate space has (0,0) at the lower
-        // left corner.
-        for (int y = 0; y < image.resolution.y / 2; ++y)
-            for (int x = 0; x < image.resolution.x; ++x) {
-                int o1 = y * image.resolution.x + x;
-                int o2 = (image.resolution.y - 1 - y) * image.resolution.x + x;
-                Spectrum temp = image.image[o1];
-                image.image[o2] = image.image[o1];
-                image.image[o1] = temp;
-            }
-
-        MIPMapFloat mipmap = null;
-        if (image.image != null) {
-            // Convert texels to type _Tmemory_ and create _MIPMap_
-            float[] convertedTexels = new float[image.resolution.x * image.resolution.y];
-            for (int i = 0; i < image.resolution.x * image.resolution.y; ++i)
-                convertedTexels[i] = convertIn(image.image[i], scale, gamma);
-            mipmap = new MIPMapFloat(image.resolution, convertedTexels, doTrilinear, maxAniso, wrap, 0);
-        } else {
-            // Create one-valued _MIPMap_
-            float[] oneVal = { scale };
-            mipmap = new MIPMapFloat(new Point2i(1, 1), oneVal, doTrilinear, maxAniso, wrap, 0);
-        }
-        texturesFloat.put(texInfo, mipmap);
-        return mipmap;
+    // Wait for every texture still being loaded, so that render workers never
+    // block in _GetMIPMap()_ while the loader needs them for its loops
+    public static void AwaitPendingFloat() {
+        for (Future<MIPMapFloat> pending : texturesFloat.values()) Parallel.Await(pending);
     }
 
-    private static float convertIn(Spectrum from, float scale, boolean gamma) {
-        return scale * (gamma ? Pbrt.InverseGammaCorrect(from.y()) : from.y());
+    private static Future<MIPMapFloat> GetTexture(String filename, boolean doTrilinear, float maxAniso,
+                                          Texture.ImageWrap wrap, float scale, boolean gamma) {
+        // Return _MIPMap_ from texture cache if present, otherwise start
+        // reading the image and registering its tiles with the _TextureCache_,
+        // so that independent textures load concurrently
+        Texture.TexInfo texInfo = new Texture.TexInfo(filename, doTrilinear, maxAniso, wrap, scale, gamma);
+        return texturesFloat.computeIfAbsent(texInfo, info -> Parallel.Async(() -> {
+            TextureCache.TileSource source = TiledTextureFile.SourceFor(filename, 1, scale, gamma, wrap);
+            return new MIPMapFloat(TextureCache.Global().Register(source), doTrilinear, maxAniso, wrap, 0);
+        }));
     }
 
 }
\ No newline at end of file
@@ -12,7 +12,8 @@ package org.pbrt.textures;
 
 import org.pbrt.core.*;
 import org.pbrt.core.PBrtTLogger;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.Objects;
 
 public class ImageTextureSpectrum extends TextureSpectrum {
@@ -60,71 +61,54 @@ public class ImageTextureSpectrum extends TextureSpectrum {
     public ImageTextureSpectrum(TextureMapping2D mapping, String filename, boolean doTrilinear, float maxAniso, Texture.ImageWrap wrap, float scale, boolean gamma) {
         super();
         this.mapping = mapping;
-        this.mipmap = GetTexture(filename, doTrilinear, maxAniso, wrap, scale, gamma);
+        this.pendingMipmap = GetTexture(filename, doTrilinear, maxAniso, wrap, scale, gamma);
     }
 
     @Override
     public Spectrum Evaluate(SurfaceInteraction si) {
         TextureMapping2D.MapPoint point = mapping.Map(si);
-        return mipmap.Lookup(point.st, point.dstdx, point.dstdy);
+        return GetMIPMap().Lookup(point.st, point.dstdx, point.dstdy);
+    }
+
+    // The MIPMap is loaded in the background while the scene is parsed; the
+    // first lookup waits for it if it isn't ready yet.
+    private MIPMapSpectrum GetMIPMap() {
+        MIPMapSpectrum m = mipmap;
+        if (m == null) {
+            m = Parallel.Await(pendingMipmap);
+            mipmap = m;
+        }
+        return m;
     }
 
     private TextureMapping2D mapping;
-    private MIPMapSpectrum mipmap;
+    private final Future<MIPMapSpectrum> pendingMipmap;
+    private volatile MIPMapSpectrum mipmap;
 
-    private static HashMap<Texture.TexInfo, MIPMapSpectrum> texturesSpectrum = new HashMap<>();
+    // Shared by all threads parsing the scene; the texels themselves live in
+    // the global TextureCache.
+    private static final ConcurrentHashMap<Texture.TexInfo, Future<MIPMapSpectrum>> texturesSpectrum = new ConcurrentHashMap<>();
 
     public static void ClearCacheSpectrum() {
         texturesSpectrum.clear();
     }
 
-    private static MIPMapSpectrum GetTexture(String filename, boolean doTrilinear, float maxAniso,
-                                          Texture.ImageWrap wrap, float scale, boolean gamma) {
-        // Return _MIPMap_ from texture cache if present
-        Texture.TexInfo texInfo = new Texture.TexInfo(filename, doTrilinear, maxAniso, wrap, scale, gamma);
-        if (texturesSpectrum.containsKey(texInfo))
-            return texturesSpectrum.get(texInfo);
-
-        // Create _MIPMap_ for _filename_
-        ImageIO.SpectrumImage image = ImageIO.Read(filename);
-        if (image == null) {
-            PBrtTLogger.Warning("Creating a constant grey texture to replace \"%s\".", filename);
-            image = new ImageIO.SpectrumImage();
-            image.resolution.x = image.resolution.y = 1;
-            Spectrum[] rgb = new Spectrum[1];
-            rgb[0] = new Spectrum(0.5f);
-            image.image = rgb;
-        }
-
-        // Flip image in y; texture coordinate space has (0,0) at the lower
-        // left corner.
-        for (int y = 0; y < image.resolution.y / 2; ++y)
-            for (int x = 0; x < image.resolution.x; ++x) {
-                int o1 = y * image.resolution.x + x;
-                int o2 = (image.resolution.y - 1 - y) * image.resolution.x + x;
-                Spectrum temp = image.image[o1];
-                image.image[o2] = image.image[o1];
-                image.image[o1] = temp;
-            }
-
-        MIPMapSpectrum mipmap = null;
-        if (image.image != null) {
-            // Convert texels to type _Tmemory_ and create _MIPMap_
-            Spectrum[] convertedTexels = new Spectrum[image.resolution.x * image.resolution.y];
-            for (int i = 0; i < image.resolution.x * image.resolution.y; ++i)
-                convertedTexels[i] = convertIn(image.image[i], scale, gamma);
-            mipmap = new MIPMapSpectrum(image.resolution, convertedTexels, doTrilinear, maxAniso, wrap, new Spectrum(0));
-        } else {
-            // Create one-valued _MIPMap_
-            Spectrum[] oneVal = { new Spectrum(scale) };
-            mipmap = new MIPMapSpectrum(new Point2i(1, 1), oneVal, doTrilinear, maxAniso, wrap, new Spectrum(0));
-        }
-        texturesSpectrum.put(texInfo, mipmap);
-        return mipmap;
+    // Wait for every texture still being loaded, so that render workers never
+    // block in _GetMIPMap()_ while the loader needs them for its loops
+    public static void AwaitPendingSpectrum() {
+        for (Future<MIPMapSpectrum> pending : texturesSpectrum.values()) Parallel.Await(pending);
     }
 
-    private static Spectrum convertIn(Spectrum from, float scale, boolean gamma) {
-        return (gamma ? from.scale(scale) : from.scale(scale)); // TODO: what about gamma?
+    private static Future<MIPMapSpectrum> GetTexture(String filename, boolean doTrilinear, float maxAniso,
+                                          Texture.ImageWrap wrap, float scale, boolean gamma) {
+        // Return _MIPMap_ from texture cache if present, otherwise start
+        // reading the image and registering its tiles with the _TextureCache_,
+        // so that independent textures load concurrently
+        Texture.TexInfo texInfo = new Texture.TexInfo(filename, doTrilinear, maxAniso, wrap, scale, gamma);
+        return texturesSpectrum.computeIfAbsent(texInfo, info -> Parallel.Async(() -> {
+            TextureCache.TileSource source = TiledTextureFile.SourceFor(filename, 3, scale, gamma, wrap);
+            return new MIPMapSpectrum(TextureCache.Global().Register(source), doTrilinear, maxAniso, wrap, new Spectrum(0));
+        }));
     }
 
 }
\ No newline at end of file
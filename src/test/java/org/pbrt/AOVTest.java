@@ -0,0 +1,152 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.accelerators.BVHAccel;
+import org.pbrt.cameras.PerspectiveCamera;
+import org.pbrt.core.*;
+import org.pbrt.filters.BoxFilter;
+import org.pbrt.integrators.PathIntegrator;
+import org.pbrt.integrators.VolPathIntegrator;
+import org.pbrt.integrators.WhittedIntegrator;
+import org.pbrt.lights.DiffuseAreaLight;
+import org.pbrt.materials.MatteMaterial;
+import org.pbrt.openexr.ExrReader;
+import org.pbrt.samplers.RandomSampler;
+import org.pbrt.shapes.Sphere;
+import org.pbrt.textures.ConstantTextureFloat;
+import org.pbrt.textures.ConstantTextureSpectrum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+public class AOVTest {
+
+    private static final int Resolution = 32;
+    // The camera looks down +z from this distance to the inner sphere's center
+    private static final float CameraDistance = 3;
+    private static final float[] Kd = { 0.25f, 0.5f, 0.75f };
+
+    private final Material inner = new MatteMaterial(new ConstantTextureSpectrum(Spectrum.FromRGB(Kd)), new ConstantTextureFloat(0), null);
+    private final Material outer = new MatteMaterial(new ConstantTextureSpectrum(new Spectrum(0.5f)), new ConstantTextureFloat(0), null);
+
+    @Test
+    public void testLayers() throws Exception {
+        File image = Render(new AOV[] { AOV.Depth, AOV.Normal, AOV.Albedo, AOV.MaterialId });
+        try (ExrReader reader = new ExrReader(image)) {
+            List<String> names = reader.getChannelNames();
+            for (String name : new String[] { "R", "G", "B", "depth.Z", "normal.X", "normal.Y", "normal.Z",
+                    "albedo.R", "albedo.G", "albedo.B", "materialid.id" })
+                assertTrue(name, names.contains(name));
+            assertEquals(11, names.size());
+
+            // The middle pixel sees the front of the inner sphere, facing
+            // the camera
+            String[] layers = { "depth.Z", "normal.X", "normal.Y", "normal.Z", "albedo.R", "albedo.G", "albedo.B", "materialid.id" };
+            float[] v = new float[layers.length];
+            reader.readRegion(0, Resolution / 2, Resolution / 2, 1, 1, layers, v, false);
+            assertEquals(CameraDistance - 1, v[0], 1e-2f);
+            assertEquals(0, v[1], 0.05f);
+            assertEquals(0, v[2], 0.05f);
+            assertEquals(-1, v[3], 1e-2f);
+            for (int c = 0; c < 3; ++c) assertEquals(Kd[c], v[4 + c], 1e-4f);
+            assertEquals(inner.id, v[7], 0);
+
+            // The corner pixel misses it and sees the emitting sphere around it
+            reader.readRegion(0, 0, 0, 1, 1, layers, v, false);
+            assertTrue(v[0] > CameraDistance);
+            for (int c = 0; c < 3; ++c) assertEquals(0.5f, v[4 + c], 1e-4f);
+            assertEquals(outer.id, v[7], 0);
+        }
+    }
+
+    @Test
+    public void testImageUnchanged() throws Exception {
+        // Recording AOVs doesn't change the samples the image is made from
+        float[] plain = ReadRGB(Render(new AOV[0]));
+        float[] withAOVs = ReadRGB(Render(AOV.values()));
+        assertEquals(plain.length, withAOVs.length);
+        for (int i = 0; i < plain.length; ++i)
+            assertEquals(Float.floatToIntBits(plain[i]), Float.floatToIntBits(withAOVs[i]));
+    }
+
+    // A camera ray whose first hit is a medium boundary records the surface
+    // behind it, with every integrator
+    @Test
+    public void testMediumBoundary() throws Exception {
+        List<Function<Camera, Integrator>> integrators = new ArrayList<>();
+        integrators.add(camera -> new PathIntegrator(5, camera, new RandomSampler(4, 0), camera.film.GetSampleBounds(), 1, "spatial"));
+        integrators.add(camera -> new PathIntegrator(5, camera, new RandomSampler(4, 0), camera.film.GetSampleBounds(), 1, "spatial", 0, true));
+        integrators.add(camera -> new VolPathIntegrator(5, camera, new RandomSampler(4, 0), camera.film.GetSampleBounds(), 1, "spatial"));
+        integrators.add(camera -> new WhittedIntegrator(5, camera, new RandomSampler(4, 0), camera.film.GetSampleBounds()));
+        String[] layers = { "depth.Z", "normal.X", "normal.Y", "normal.Z", "materialid.id" };
+        for (Function<Camera, Integrator> integrator : integrators) {
+            File image = Render(new AOV[] { AOV.Depth, AOV.Normal, AOV.MaterialId }, true, integrator);
+            try (ExrReader reader = new ExrReader(image)) {
+                float[] v = new float[layers.length];
+                reader.readRegion(0, Resolution / 2, Resolution / 2, 1, 1, layers, v, false);
+                assertEquals(CameraDistance - 1, v[0], 1e-2f);
+                assertEquals(-1, v[3], 1e-2f);
+                assertEquals(inner.id, v[4], 0);
+            }
+        }
+    }
+
+    private static float[] ReadRGB(File image) throws Exception {
+        try (ExrReader reader = new ExrReader(image)) {
+            float[] rgb = new float[Resolution * Resolution * 3];
+            reader.readRegion(0, 0, 0, Resolution, Resolution, new String[] { "R", "G", "B" }, rgb, false);
+            return rgb;
+        }
+    }
+
+    // Path trace a matte sphere inside a larger emitting one to an EXR file
+    // that records _aovs_
+    private File Render(AOV[] aovs) throws Exception {
+        return Render(aovs, false, camera -> new PathIntegrator(5, camera, new RandomSampler(4, 0),
+                camera.film.GetSampleBounds(), 1, "spatial"));
+    }
+
+    // The same with the given integrator, and optionally with the matte
+    // sphere inside a medium boundary, a sphere without a material
+    private File Render(AOV[] aovs, boolean boundary, Function<Camera, Integrator> makeIntegrator) throws Exception {
+        Pbrt.options = new Options();
+        Pbrt.options.Quiet = true;
+        Pbrt.options.NumThreads = 2;
+        File image = File.createTempFile("aov", ".exr");
+        image.deleteOnExit();
+
+        Transform id = new Transform();
+        Shape emitter = new Sphere(id, id, true /* reverse orientation */, 5, -5, 5, 360);
+        AreaLight areaLight = new DiffuseAreaLight(new Transform(), new MediumInterface(), new Spectrum(1), 1, emitter);
+        ArrayList<Light> lights = new ArrayList<>();
+        lights.add(areaLight);
+        ArrayList<Primitive> prims = new ArrayList<>();
+        prims.add(new GeometricPrimitive(emitter, outer, areaLight, new MediumInterface()));
+        prims.add(new GeometricPrimitive(new Sphere(id, id, false, 1, -1, 1, 360), inner, null, new MediumInterface()));
+        if (boundary)
+            prims.add(new GeometricPrimitive(new Sphere(id, id, false, 2, -2, 2, 360), null, null, new MediumInterface()));
+        Scene scene = new Scene(new BVHAccel(prims.toArray(new Primitive[0])), lights);
+
+        Film film = new Film(new Point2i(Resolution, Resolution), new Bounds2f(new Point2f(0, 0), new Point2f(1, 1)),
+                new BoxFilter(new Vector2f(0.5f, 0.5f)), 35, new String[] { image.getPath() }, aovs, false, 1, Pbrt.Infinity);
+        Transform cameraToWorld = Transform.Translate(new Vector3f(0, 0, -CameraDistance));
+        Camera camera = new PerspectiveCamera(new AnimatedTransform(cameraToWorld, 0, cameraToWorld, 1),
+                new Bounds2f(new Point2f(-1, -1), new Point2f(1, 1)), 0, 1, 0, 10, 40, film, null);
+        makeIntegrator.apply(camera).Render(scene);
+        return image;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.accelerators.BVHAccel;
+import org.pbrt.cameras.PerspectiveCamera;
+import org.pbrt.core.*;
+import org.pbrt.filters.BoxFilter;
+import org.pbrt.integrators.PathIntegrator;
+import org.pbrt.lights.DiffuseAreaLight;
+import org.pbrt.materials.MatteMaterial;
+import org.pbrt.samplers.StratifiedSampler;
+import org.pbrt.shapes.Sphere;
+import org.pbrt.textures.ConstantTextureFloat;
+import org.pbrt.textures.ConstantTextureSpectrum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CheckpointTest {
+
+    // 32x32 pixels in 8x8 tiles, at 4 samples per pixel
+    private static final int Resolution = 32, TileSize = 8, RaysPerTile = TileSize * TileSize * 4;
+    private static final int NumTiles = (Resolution / TileSize) * (Resolution / TileSize);
+
+    // Thrown to stop a render part way, as if it had been killed
+    private static class Interrupted extends RuntimeException {}
+
+    // A path tracer that counts its camera rays and stops the render after
+    // _raysLeft_ of them.  Every render here uses it, since the integrator
+    // is part of the checkpoint's fingerprint.
+    private static class InterruptedPathIntegrator extends PathIntegrator {
+        InterruptedPathIntegrator(Camera camera, Sampler sampler, long raysLeft) {
+            super(5, camera, sampler, camera.film.GetSampleBounds(), 1, "spatial");
+            this.raysLeft = new AtomicLong(raysLeft);
+        }
+
+        @Override
+        public Spectrum Li(RayDifferential r, Scene scene, Sampler sampler, MemoryArena arena, int depth) {
+            if (raysLeft.getAndDecrement() <= 0) throw new Interrupted();
+            nRays.incrementAndGet();
+            return super.Li(r, scene, sampler, arena, depth);
+        }
+
+        final AtomicLong raysLeft;
+        final AtomicLong nRays = new AtomicLong(0);
+    }
+
+    @Test
+    public void testResumeMatchesUninterrupted() throws IOException {
+        File image = File.createTempFile("checkpoint", ".exr");
+        image.deleteOnExit();
+        File sceneFile = WriteSceneFile("# first version\n");
+        Scene scene = TestScene();
+
+        Result reference = Render(scene, image, sceneFile, 4, false, Long.MAX_VALUE);
+        assertEquals(NumTiles * RaysPerTile, reference.nRays);
+
+        // Stopped half way through the sixth tile, with a checkpoint after
+        // each tile, and resumed with a different number of threads
+        Result interrupted = Render(scene, image, sceneFile, 1, false, 5 * RaysPerTile + RaysPerTile / 2);
+        assertTrue(interrupted.interrupted);
+        File checkpoint = new File(image.getPath() + ".checkpoint");
+        assertTrue(checkpoint.exists());
+        Result resumed = Render(scene, image, sceneFile, 4, true, Long.MAX_VALUE);
+        assertFalse(resumed.interrupted);
+        assertEquals((NumTiles - 5) * RaysPerTile, resumed.nRays);
+        assertFalse(checkpoint.exists());
+
+        // The film ends up exactly as if the render hadn't been stopped
+        assertEquals(reference.state.length, resumed.state.length);
+        for (int i = 0; i < reference.state.length; ++i)
+            assertEquals(Float.floatToIntBits(reference.state[i]), Float.floatToIntBits(resumed.state[i]));
+    }
+
+    @Test
+    public void testThreadedRenderFails() throws IOException {
+        File image = File.createTempFile("checkpoint", ".exr");
+        image.deleteOnExit();
+        File sceneFile = WriteSceneFile("# first version\n");
+        Scene scene = TestScene();
+        Result reference = Render(scene, image, sceneFile, 1, false, Long.MAX_VALUE);
+
+        // A tile that throws on one of several threads fails the whole
+        // render and leaves its checkpoint, with the tiles merged before it
+        Result interrupted = Render(scene, image, sceneFile, 4, false, 7 * RaysPerTile + RaysPerTile / 2);
+        assertTrue(interrupted.interrupted);
+        File checkpoint = new File(image.getPath() + ".checkpoint");
+        assertTrue(checkpoint.exists());
+
+        Result resumed = Render(scene, image, sceneFile, 4, true, Long.MAX_VALUE);
+        assertFalse(resumed.interrupted);
+        assertTrue(resumed.nRays < NumTiles * RaysPerTile);
+        assertEquals(0, resumed.nRays % RaysPerTile);
+        assertFalse(checkpoint.exists());
+        for (int i = 0; i < reference.state.length; ++i)
+            assertEquals(Float.floatToIntBits(reference.state[i]), Float.floatToIntBits(resumed.state[i]));
+    }
+
+    @Test
+    public void testChangedSceneFileRejectsCheckpoint() throws IOException {
+        File image = File.createTempFile("checkpoint", ".exr");
+        image.deleteOnExit();
+        File sceneFile = WriteSceneFile("# first version\n");
+        Scene scene = TestScene();
+
+        Result interrupted = Render(scene, image, sceneFile, 1, false, 5 * RaysPerTile);
+        assertTrue(interrupted.interrupted);
+        assertTrue(new File(image.getPath() + ".checkpoint").exists());
+
+        // After the scene file changes the checkpoint is ignored and every
+        // tile is rendered again
+        Files.writeString(sceneFile.toPath(), "# second version\n");
+        Result resumed = Render(scene, image, sceneFile, 1, true, Long.MAX_VALUE);
+        assertFalse(resumed.interrupted);
+        assertEquals(NumTiles * RaysPerTile, resumed.nRays);
+    }
+
+    @Test
+    public void testSceneHash() throws IOException {
+        // Longer than the buffer the file is hashed in, with the change at
+        // the end
+        String comments = "# comment\n".repeat(20000);
+        File first = WriteSceneFile(comments + "# first version\n");
+        File second = WriteSceneFile(comments + "# second version\n");
+        long firstHash = SceneHash(first, true), secondHash = SceneHash(second, true);
+        assertEquals(firstHash, SceneHash(first, true));
+        assertTrue(firstHash != secondHash);
+        // Without checkpoints the files aren't read for it
+        assertEquals(SceneHash(first, false), SceneHash(second, false));
+    }
+
+    private static long SceneHash(File sceneFile, boolean checkpoints) {
+        Options options = new Options();
+        options.Quiet = true;
+        options.CheckpointInterval = checkpoints ? 1 : 0;
+        Api.pbrtInit(options);
+        Parser.ParseFile(sceneFile.getPath());
+        long hash = Parser.SceneHash();
+        Api.pbrtCleanup();
+        return hash;
+    }
+
+    private static class Result {
+        float[] state;
+        long nRays;
+        boolean interrupted;
+    }
+
+    // Render _scene_ to _image_, as if described by _sceneFile_, stopping
+    // after _maxRays_ camera rays
+    private static Result Render(Scene scene, File image, File sceneFile, int nThreads, boolean resume, long maxRays) {
+        Options options = new Options();
+        options.Quiet = true;
+        options.NumThreads = nThreads;
+        options.TileSize = TileSize;
+        options.CheckpointInterval = 1e-6f;
+        options.Resume = resume;
+        Api.pbrtInit(options);
+        Parser.ParseFile(sceneFile.getPath());
+
+        Film film = new Film(new Point2i(Resolution, Resolution), new Bounds2f(new Point2f(0, 0), new Point2f(1, 1)),
+                new BoxFilter(new Vector2f(0.5f, 0.5f)), 35, image.getPath(), 1, Pbrt.Infinity);
+        Transform cameraToWorld = Transform.Translate(new Vector3f(0, 0, -1.5f));
+        Camera camera = new PerspectiveCamera(new AnimatedTransform(cameraToWorld, 0, cameraToWorld, 1),
+                new Bounds2f(new Point2f(-1, -1), new Point2f(1, 1)), 0, 1, 0, 10, 60, film, null);
+        InterruptedPathIntegrator integrator = new InterruptedPathIntegrator(camera, new StratifiedSampler(2, 2, true, 8), maxRays);
+        Result result = new Result();
+        try {
+            integrator.Render(scene);
+        } catch (Interrupted e) {
+            result.interrupted = true;
+        }
+        Api.pbrtCleanup();
+        result.state = film.GetPixelState();
+        result.nRays = integrator.nRays.get();
+        return result;
+    }
+
+    private static File WriteSceneFile(String contents) throws IOException {
+        File file = File.createTempFile("scene", ".pbrt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), contents);
+        return file;
+    }
+
+    // A matte sphere inside a larger emitting one
+    private static Scene TestScene() {
+        Pbrt.options = new Options();
+        Pbrt.options.Quiet = true;
+        Transform id = new Transform();
+        Shape outer = new Sphere(id, id, true /* reverse orientation */, 3, -3, 3, 360);
+        Material matte = new MatteMaterial(new ConstantTextureSpectrum(new Spectrum(0.5f)), new ConstantTextureFloat(0), null);
+        AreaLight areaLight = new DiffuseAreaLight(new Transform(), new MediumInterface(), new Spectrum(1), 1, outer);
+        ArrayList<Light> lights = new ArrayList<>();
+        lights.add(areaLight);
+        Primitive[] prims = {
+                new GeometricPrimitive(outer, matte, areaLight, new MediumInterface()),
+                new GeometricPrimitive(new Sphere(id, id, false, 1, -1, 1, 360), matte, null, new MediumInterface()) };
+        return new Scene(new BVHAccel(prims), lights);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.core.*;
+
+public class DenoiserTest {
+
+    // Two facing planes meeting at the middle column of the image: the left
+    // one lit at 0.2, the right at 0.8, with noise on both
+    @Test
+    public void testNoiseRemovedEdgeKept() {
+        Pbrt.options = new Options();
+        int width = 64, height = 48, n = width * height;
+        float[] rgb = new float[3 * n], albedo = new float[3 * n], normal = new float[3 * n], depth = new float[n];
+        RNG rng = new RNG(3);
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x) {
+                int i = y * width + x;
+                boolean left = x < width / 2;
+                float value = (left ? 0.2f : 0.8f) * (0.5f + rng.UniformFloat());
+                for (int c = 0; c < 3; ++c) {
+                    rgb[3 * i + c] = value;
+                    albedo[3 * i + c] = 0.5f;
+                }
+                normal[3 * i] = left ? 1 : 0;
+                normal[3 * i + 2] = left ? 0 : 1;
+                depth[i] = 2;
+            }
+
+        float[] out = Denoiser.Denoise(rgb, albedo, normal, depth, width, height);
+        double noisyError = 0, error = 0;
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x) {
+                int i = y * width + x;
+                float expected = (x < width / 2) ? 0.2f : 0.8f;
+                noisyError += (rgb[3 * i] - expected) * (rgb[3 * i] - expected);
+                error += (out[3 * i] - expected) * (out[3 * i] - expected);
+                // Nothing leaks across the crease
+                if (x == width / 2 - 1) assertEquals(0.2f, out[3 * i], 0.1f);
+                if (x == width / 2) assertEquals(0.8f, out[3 * i], 0.3f);
+            }
+        assertTrue(error < 0.1 * noisyError);
+    }
+
+    // Pixels where nothing was hit are filtered only among themselves
+    @Test
+    public void testBackground() {
+        Pbrt.options = new Options();
+        int width = 16, height = 16, n = width * height;
+        float[] rgb = new float[3 * n], albedo = new float[3 * n], normal = new float[3 * n], depth = new float[n];
+        for (int i = 0; i < n; ++i) {
+            boolean hit = (i % width) >= 8;
+            for (int c = 0; c < 3; ++c) rgb[3 * i + c] = hit ? 1 : 0.25f;
+            if (hit) {
+                normal[3 * i + 2] = 1;
+                depth[i] = 1;
+                for (int c = 0; c < 3; ++c) albedo[3 * i + c] = 0.5f;
+            }
+        }
+        float[] out = Denoiser.Denoise(rgb, albedo, normal, depth, width, height);
+        for (int i = 0; i < 3 * n; ++i)
+            assertEquals(rgb[i], out[i], 1e-5f);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.core.*;
+import org.pbrt.openexr.ExrReader;
+import org.pbrt.openexr.OpenExr;
+
+import java.io.File;
+
+public class EXROutputTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Pbrt.options = new Options();
+        // Not a multiple of the 16-line ZIP blocks
+        int width = 37, height = 53;
+        float[] rgb = new float[width * height * 3];
+        // Noisy enough that some blocks don't compress and are stored as is
+        RNG rng = new RNG(7);
+        for (int i = 0; i < rgb.length; ++i)
+            rgb[i] = (i % 11 == 0) ? 0 : 100 * rng.UniformFloat() * rng.UniformFloat();
+
+        int[] compressions = { EXROutput.COMPRESSIONTYPE_NONE, EXROutput.COMPRESSIONTYPE_ZIPS, EXROutput.COMPRESSIONTYPE_ZIP };
+        for (int compression : compressions)
+            for (boolean half : new boolean[] { true, false }) {
+                Pbrt.options.ExrHalf = half;
+                File file = File.createTempFile("exroutput", ".exr");
+                file.deleteOnExit();
+                Bounds2i window = new Bounds2i(new Point2i(0, 0), new Point2i(width, height));
+                assertEquals(EXROutput.SUCCESS, EXROutput.SaveEXR(file.getPath(), EXROutput.RGBChannels(rgb, 3),
+                        window, new Point2i(width, height), compression));
+
+                OpenExr exr = new OpenExr(file);
+                assertEquals(width, exr.getWidth());
+                assertEquals(height, exr.getHeight());
+                float[] pixels = exr.getPixels();
+                for (int i = 0; i < rgb.length; ++i)
+                    assertEquals(rgb[i], pixels[i], half ? 1e-3f * rgb[i] : 0);
+            }
+    }
+
+    @Test
+    public void testDefaultIsFloat() throws Exception {
+        // Values beyond the range of half floats are kept exactly
+        Pbrt.options = new Options();
+        float[] rgb = { 1e6f, 0.1f, 65505.f, 3.14159f, 1e-7f, 123456.7f };
+        File file = File.createTempFile("exrfloat", ".exr");
+        file.deleteOnExit();
+        assertEquals(EXROutput.SUCCESS, EXROutput.SaveEXR(file.getPath(), EXROutput.RGBChannels(rgb, 3),
+                new Bounds2i(new Point2i(0, 0), new Point2i(2, 1)), new Point2i(2, 1)));
+        float[] pixels = new OpenExr(file).getPixels();
+        for (int i = 0; i < rgb.length; ++i) assertEquals(rgb[i], pixels[i], 0);
+    }
+
+    @Test
+    public void testTileSources() throws Exception {
+        // More textures than files are kept open; each is read again once
+        // the others have closed it
+        Pbrt.options = new Options();
+        int width = 128, height = 64, nFiles = 80;
+        TextureCache.TileSource[] sources = new TextureCache.TileSource[nFiles];
+        for (int f = 0; f < nFiles; ++f) {
+            float[] rgb = new float[width * height * 3];
+            for (int i = 0; i < rgb.length; ++i) rgb[i] = f + i;
+            File file = File.createTempFile("exrtiles", ".exr");
+            file.deleteOnExit();
+            assertEquals(EXROutput.SUCCESS, EXROutput.SaveEXR(file.getPath(), EXROutput.RGBChannels(rgb, 3),
+                    new Bounds2i(new Point2i(0, 0), new Point2i(width, height)), new Point2i(width, height)));
+            sources[f] = EXRTileSource.Open(file.getPath(), 3, 1, false);
+            assertTrue(sources[f] != null);
+            assertTrue(EXRTileSource.OpenFiles() <= 64);
+        }
+        float[] tile = new float[64 * 64 * 3];
+        for (int pass = 0; pass < 2; ++pass)
+            for (int f = 0; f < nFiles; ++f) {
+                assertTrue(sources[f].ReadTile(0, 1, 0, tile));
+                // Tile rows run from the bottom of the image up
+                for (int y = 0; y < 64; ++y)
+                    for (int c = 0; c < 3; ++c)
+                        assertEquals(f + ((height - 1 - y) * width + 64) * 3 + c, tile[y * 64 * 3 + c], 0);
+                assertTrue(EXRTileSource.OpenFiles() <= 64);
+            }
+    }
+
+    @Test
+    public void testRewrittenTileSource() throws Exception {
+        // A scanline file's chunks are cached; once the file is rewritten
+        // with other pixels, a new source reads those and not the old
+        // chunks, even before the cache is reset
+        Pbrt.options = new Options();
+        int width = 64, height = 64;
+        File file = File.createTempFile("exrrewrite", ".exr");
+        file.deleteOnExit();
+        float[] tile = new float[64 * 64 * 3];
+        for (int version = 0; version < 2; ++version) {
+            float[] rgb = new float[width * height * 3];
+            for (int i = 0; i < rgb.length; ++i) rgb[i] = 1000 * version + i;
+            assertEquals(EXROutput.SUCCESS, EXROutput.SaveEXR(file.getPath(), EXROutput.RGBChannels(rgb, 3),
+                    new Bounds2i(new Point2i(0, 0), new Point2i(width, height)), new Point2i(width, height)));
+            // The same size, but a different modification time
+            assertTrue(file.setLastModified(1000000000000L + 10000 * version));
+            TextureCache.TileSource source = EXRTileSource.Open(file.getPath(), 3, 1, false);
+            assertTrue(source != null);
+            assertTrue(source.ReadTile(0, 0, 0, tile));
+            for (int c = 0; c < 3; ++c)
+                assertEquals(1000 * version + (height - 1) * width * 3 + c, tile[c], 0);
+            assertTrue(EXRTileSource.CachedChunkBytes() > 0);
+        }
+
+        // Resetting the texture cache at the end of a render closes the
+        // files and drops their chunks
+        TextureCache.Reset();
+        assertEquals(0, EXRTileSource.OpenFiles());
+        assertEquals(0, EXRTileSource.CachedChunkBytes());
+    }
+
+    @Test
+    public void testReadRegion() throws Exception {
+        Pbrt.options = new Options();
+        int width = 64, height = 100;
+        float[] rgb = new float[width * height * 3];
+        for (int i = 0; i < rgb.length; ++i) rgb[i] = i;
+        File file = File.createTempFile("exrregion", ".exr");
+        file.deleteOnExit();
+        // Offset data window, named channels in the file
+        Bounds2i window = new Bounds2i(new Point2i(3, 5), new Point2i(3 + width, 5 + height));
+        assertEquals(EXROutput.SUCCESS, EXROutput.SaveEXR(file.getPath(), EXROutput.RGBChannels(rgb, 3),
+                window, new Point2i(200, 200), EXROutput.COMPRESSIONTYPE_ZIP));
+
+        try (ExrReader reader = new ExrReader(file)) {
+            assertEquals(width, reader.getWidth());
+            assertEquals(height, reader.getHeight());
+            assertEquals(1, reader.getLevels());
+            // A region spanning several 16-line chunks, with a channel
+            // that isn't in the file
+            int x0 = 10, y0 = 13, w = 20, h = 40;
+            String[] names = { "B", "Z", "R" };
+            float[] region = new float[w * h * names.length];
+            for (boolean parallel : new boolean[] { false, true }) {
+                reader.readRegion(0, x0, y0, w, h, names, region, parallel);
+                for (int y = 0; y < h; ++y)
+                    for (int x = 0; x < w; ++x) {
+                        int i = ((y0 + y) * width + x0 + x) * 3, o = (y * w + x) * 3;
+                        assertEquals(rgb[i + 2], region[o], 0);
+                        assertEquals(0, region[o + 1], 0);
+                        assertEquals(rgb[i], region[o + 2], 0);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.core.FloatBlockedArray;
+
+public class FloatBlockedArrayTest {
+
+    // Resolutions that are and aren't multiples of the block sizes below,
+    // including odd widths and heights and single rows and columns
+    private static final int[][] Sizes = { { 1, 1 }, { 4, 4 }, { 3, 5 }, { 17, 9 }, { 8, 33 }, { 31, 1 }, { 1, 13 }, { 64, 37 } };
+
+    @Test
+    public void testMatchesRowMajor() {
+        for (int[] size : Sizes)
+            for (int logBlockSize = 0; logBlockSize <= 3; ++logBlockSize)
+                for (int nChannels : new int[] { 1, 3 })
+                    for (boolean half : new boolean[] { false, true }) {
+                        int uRes = size[0], vRes = size[1];
+                        float[] d = new float[uRes * vRes * nChannels];
+                        // Integers up to 2048 are exact as half floats
+                        for (int i = 0; i < d.length; ++i) d[i] = half ? i % 2048 : i;
+                        FloatBlockedArray a = new FloatBlockedArray(uRes, vRes, nChannels, logBlockSize, half, d);
+                        assertEquals(uRes, a.uSize());
+                        assertEquals(vRes, a.vSize());
+                        for (int v = 0; v < vRes; ++v)
+                            for (int u = 0; u < uRes; ++u)
+                                for (int c = 0; c < nChannels; ++c) {
+                                    float expected = d[(v * uRes + u) * nChannels + c];
+                                    assertEquals(expected, a.at(u, v, c), 0);
+                                    assertEquals(expected, a.get(a.Index(u, v) + c), 0);
+                                }
+                    }
+    }
+
+    // Every entry gets its own channels, within the rounded up allocation,
+    // and the entries of a block are contiguous
+    @Test
+    public void testIndicesDistinct() {
+        for (int[] size : Sizes)
+            for (int logBlockSize = 0; logBlockSize <= 3; ++logBlockSize) {
+                int uRes = size[0], vRes = size[1], nChannels = 3;
+                FloatBlockedArray a = new FloatBlockedArray(uRes, vRes, nChannels, logBlockSize, false, null);
+                int blockSize = 1 << logBlockSize;
+                int nAlloc = a.RoundUp(uRes) * a.RoundUp(vRes) * nChannels;
+                boolean[] used = new boolean[nAlloc];
+                for (int v = 0; v < vRes; ++v)
+                    for (int u = 0; u < uRes; ++u) {
+                        int index = a.Index(u, v);
+                        assertEquals(0, index % nChannels);
+                        assertTrue(index + nChannels <= nAlloc);
+                        for (int c = 0; c < nChannels; ++c) {
+                            assertFalse(used[index + c]);
+                            used[index + c] = true;
+                        }
+                        int blockStart = a.Index(u - a.Offset(u), v - a.Offset(v));
+                        assertEquals(blockStart + (a.Offset(v) * blockSize + a.Offset(u)) * nChannels, index);
+                    }
+            }
+    }
+}
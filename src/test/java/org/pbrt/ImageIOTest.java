@@ -0,0 +1,191 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.accelerators.BVHAccel;
+import org.pbrt.cameras.PerspectiveCamera;
+import org.pbrt.core.*;
+import org.pbrt.filters.BoxFilter;
+import org.pbrt.integrators.BDPTIntegrator;
+import org.pbrt.integrators.MLTIntegrator;
+import org.pbrt.integrators.SPPMIntegrator;
+import org.pbrt.lights.DiffuseAreaLight;
+import org.pbrt.materials.MatteMaterial;
+import org.pbrt.samplers.RandomSampler;
+import org.pbrt.shapes.Sphere;
+import org.pbrt.textures.ConstantTextureFloat;
+import org.pbrt.textures.ConstantTextureSpectrum;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public class ImageIOTest {
+
+    private static float[] MakeImage(int width, int height, int seed) {
+        RNG rng = new RNG(seed);
+        float[] rgb = new float[3 * width * height];
+        for (int i = 0; i < rgb.length; ++i) rgb[i] = 10 * rng.UniformFloat() * rng.UniformFloat();
+        return rgb;
+    }
+
+    private static void AssertImage(float[] rgb, ImageIO.SpectrumImage image, int width, int height) {
+        assertEquals(width, image.resolution.x);
+        assertEquals(height, image.resolution.y);
+        for (int i = 0; i < width * height; ++i) {
+            float[] c = image.image[i].toRGB();
+            for (int j = 0; j < 3; ++j) assertEquals(rgb[3 * i + j], c[j], 0);
+        }
+    }
+
+    @Test
+    public void testPFMLayout() throws Exception {
+        Pbrt.options = new Options();
+        int width = 3, height = 2;
+        float[] rgb = new float[3 * width * height];
+        for (int i = 0; i < rgb.length; ++i) rgb[i] = i + 0.5f;
+        File file = File.createTempFile("imageio", ".pfm");
+        file.deleteOnExit();
+        ImageIO.Write(file.getPath(), rgb, new Bounds2i(new Point2i(0, 0), new Point2i(width, height)), new Point2i(width, height));
+
+        // A negative scale for little-endian floats, then the rows from the
+        // bottom of the image up
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        byte[] header = "PF\n3 2\n-1\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(header.length + 4 * rgb.length, bytes.length);
+        for (int i = 0; i < header.length; ++i) assertEquals(header[i], bytes[i]);
+        ByteBuffer data = ByteBuffer.wrap(bytes, header.length, 4 * rgb.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = height - 1; y >= 0; --y)
+            for (int i = 3 * y * width; i < 3 * (y + 1) * width; ++i) assertEquals(rgb[i], data.getFloat(), 0);
+    }
+
+    @Test
+    public void testPFMRoundTrip() throws Exception {
+        Pbrt.options = new Options();
+        // Odd sizes, so rows can't be confused with each other
+        int width = 7, height = 5;
+        float[] rgb = MakeImage(width, height, 11);
+        File file = File.createTempFile("imageio", ".pfm");
+        file.deleteOnExit();
+        ImageIO.Write(file.getPath(), rgb, new Bounds2i(new Point2i(0, 0), new Point2i(width, height)), new Point2i(width, height));
+        AssertImage(rgb, ImageIO.Read(file.getPath()), width, height);
+    }
+
+    @Test
+    public void testReadBigEndianGreyscalePFM() throws Exception {
+        Pbrt.options = new Options();
+        int width = 2, height = 3;
+        byte[] header = "Pf\n2 3\n2.0\n".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer data = ByteBuffer.allocate(header.length + 4 * width * height).order(ByteOrder.BIG_ENDIAN);
+        data.put(header);
+        for (int i = 0; i < width * height; ++i) data.putFloat(i);
+        File file = File.createTempFile("imageio", ".pfm");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data.array());
+
+        // Values are scaled by the header's scale; the first row stored is
+        // the bottom one
+        float[] rgb = new float[3 * width * height];
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x)
+                for (int c = 0; c < 3; ++c) rgb[3 * (y * width + x) + c] = 2 * ((height - 1 - y) * width + x);
+        AssertImage(rgb, ImageIO.Read(file.getPath()), width, height);
+    }
+
+    @Test
+    public void testAsyncWritesInOrder() throws Exception {
+        Pbrt.options = new Options();
+        Pbrt.options.NumThreads = 4;
+        int width = 9, height = 4;
+        Bounds2i bounds = new Bounds2i(new Point2i(0, 0), new Point2i(width, height));
+        for (String extension : new String[] { ".pfm", ".exr" }) {
+            File file = File.createTempFile("imageio", extension);
+            file.deleteOnExit();
+            // The earlier images take longer to become available, but are
+            // still written first, and the last one requested is what ends
+            // up in the file
+            int nWrites = 4;
+            float[] last = null;
+            List<Future<Boolean>> writes = new ArrayList<>();
+            for (int i = 0; i < nWrites; ++i) {
+                final float[] rgb = MakeImage(width, height, i);
+                final long delay = 50 * (nWrites - 1 - i);
+                Future<float[]> image = Parallel.Async(() -> {
+                    Thread.sleep(delay);
+                    return rgb;
+                });
+                writes.add(ImageIO.WriteAsync(file.getPath(), image, bounds, new Point2i(width, height)));
+                last = rgb;
+            }
+            ImageIO.Flush();
+            for (Future<Boolean> write : writes) assertTrue(write.isDone() && write.get());
+            AssertImage(last, ImageIO.Read(file.getPath()), width, height);
+        }
+    }
+
+    // Integrators that write their image themselves wait for it to be
+    // written before Render() returns
+    @Test
+    public void testRenderWritesImage() throws Exception {
+        Pbrt.options = new Options();
+        Pbrt.options.Quiet = true;
+        Pbrt.options.NumThreads = 4;
+        Transform id = new Transform();
+        Shape emitter = new Sphere(id, id, true /* reverse orientation */, 3, -3, 3, 360);
+        Material matte = new MatteMaterial(new ConstantTextureSpectrum(new Spectrum(0.5f)), new ConstantTextureFloat(0), null);
+        AreaLight areaLight = new DiffuseAreaLight(new Transform(), new MediumInterface(), new Spectrum(1), 1, emitter);
+        ArrayList<Light> lights = new ArrayList<>();
+        lights.add(areaLight);
+        Primitive[] prims = {
+                new GeometricPrimitive(emitter, matte, areaLight, new MediumInterface()),
+                new GeometricPrimitive(new Sphere(id, id, false, 1, -1, 1, 360), matte, null, new MediumInterface()) };
+        Scene scene = new Scene(new BVHAccel(prims), lights);
+
+        int resolution = 16;
+        for (int which = 0; which < 3; ++which) {
+            File file = File.createTempFile("imageio", ".exr");
+            file.deleteOnExit();
+            assertTrue(file.delete());
+            Film film = new Film(new Point2i(resolution, resolution), new Bounds2f(new Point2f(0, 0), new Point2f(1, 1)),
+                    new BoxFilter(new Vector2f(0.5f, 0.5f)), 35, file.getPath(), 1, Pbrt.Infinity);
+            Transform cameraToWorld = Transform.Translate(new Vector3f(0, 0, -2));
+            Camera camera = new PerspectiveCamera(new AnimatedTransform(cameraToWorld, 0, cameraToWorld, 1),
+                    new Bounds2f(new Point2f(-1, -1), new Point2f(1, 1)), 0, 1, 0, 10, 60, film, null);
+            Integrator integrator;
+            if (which == 0)
+                integrator = new BDPTIntegrator(new RandomSampler(1), camera, 3, false, false, film.croppedPixelBounds, "power");
+            else if (which == 1)
+                integrator = new MLTIntegrator(camera, 3, 1000, 16, 1, 0.01f, 0.3f);
+            else
+                integrator = new SPPMIntegrator(camera, 2, 1000, 3, 0.1f, 1);
+            // A slow write of the same file queued first holds the film's
+            // write back, so Render() only finds it done by waiting for it
+            ImageIO.WriteAsync(file.getPath(), () -> {
+                Thread.sleep(1000);
+                return true;
+            });
+            integrator.Render(scene);
+
+            ImageIO.SpectrumImage image = ImageIO.Read(file.getPath());
+            assertTrue(image != null);
+            assertEquals(resolution, image.resolution.x);
+            assertEquals(resolution, image.resolution.y);
+        }
+    }
+}
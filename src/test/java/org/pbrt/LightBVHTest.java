@@ -0,0 +1,138 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.accelerators.BVHAccel;
+import org.pbrt.core.*;
+import org.pbrt.lights.DiffuseAreaLight;
+import org.pbrt.lights.DistantLight;
+import org.pbrt.lights.PointLight;
+import org.pbrt.lights.SpotLight;
+import org.pbrt.shapes.Sphere;
+import org.pbrt.shapes.Triangle;
+
+import java.util.ArrayList;
+
+public class LightBVHTest {
+
+    private static Scene MakeScene(RNG rng, boolean withDistant) {
+        Pbrt.options = new Options();
+        Pbrt.options.Quiet = true;
+        ArrayList<Light> lights = new ArrayList<>();
+        Transform id = new Transform();
+        MediumInterface mi = new MediumInterface();
+        for (int i = 0; i < 40; ++i) {
+            Vector3f t = new Vector3f(10 * rng.UniformFloat() - 5, 10 * rng.UniformFloat() - 5, 10 * rng.UniformFloat() - 5);
+            Spectrum I = new Spectrum(0.1f + rng.UniformFloat());
+            if ((i & 1) == 0)
+                lights.add(new PointLight(Transform.Translate(t), mi, I));
+            else
+                lights.add(new SpotLight(Transform.Translate(t).concatenate(Transform.RotateX(360 * rng.UniformFloat())), mi, I, 30, 25));
+        }
+        // Randomly placed emissive triangles, some of them two-sided
+        int nTris = 60;
+        Point3f[] p = new Point3f[3 * nTris];
+        int[] indices = new int[3 * nTris];
+        for (int i = 0; i < 3 * nTris; ++i) indices[i] = i;
+        for (int i = 0; i < nTris; ++i) {
+            Point3f c = new Point3f(8 * rng.UniformFloat() - 4, 8 * rng.UniformFloat() - 4, 8 * rng.UniformFloat() - 4);
+            for (int j = 0; j < 3; ++j)
+                p[3 * i + j] = c.add(new Vector3f(rng.UniformFloat() - .5f, rng.UniformFloat() - .5f, rng.UniformFloat() - .5f));
+        }
+        ArrayList<Shape> tris = Triangle.CreateTriangleMesh(id, id, false, nTris, indices, p.length, p, null, null, null, null, null);
+        for (int i = 0; i < nTris; ++i)
+            lights.add(new DiffuseAreaLight(id, mi, new Spectrum(0.5f + rng.UniformFloat()), 1, tris.get(i), (i % 3) == 0));
+        lights.add(new DiffuseAreaLight(id, mi, new Spectrum(2), 1, new Sphere(Transform.Translate(new Vector3f(0, 6, 0)), Transform.Translate(new Vector3f(0, -6, 0)), false, 0.5f, -0.5f, 0.5f, 360)));
+        if (withDistant)
+            lights.add(new DistantLight(id, new Spectrum(1), new Vector3f(0, 0, 1)));
+
+        Primitive[] prims = { new GeometricPrimitive(new Sphere(id, id, false, 1, -1, 1, 360), null, null, mi) };
+        return new Scene(new BVHAccel(prims), lights);
+    }
+
+    private static Interaction RandomInteraction(RNG rng) {
+        Point3f p = new Point3f(12 * rng.UniformFloat() - 6, 12 * rng.UniformFloat() - 6, 12 * rng.UniformFloat() - 6);
+        Vector3f n = Sampling.UniformSampleSphere(new Point2f(rng.UniformFloat(), rng.UniformFloat()));
+        return new Interaction(p, new Normal3f(n), new Vector3f(), new Vector3f(), 0, null);
+    }
+
+    // Subtrees whose lights can't reach the point are pruned, so the PMF sums
+    // to at most one; it sums to exactly one in a medium, where the point has
+    // no normal, when every light emits in all directions.
+    @Test
+    public void testPMFSum() {
+        RNG rng = new RNG(5);
+        for (boolean withDistant : new boolean[] { false, true }) {
+            Scene scene = MakeScene(rng, withDistant);
+            LightDistribution distrib = new LightBVHDistribution(scene);
+            for (int i = 0; i < 100; ++i) {
+                Interaction it = RandomInteraction(rng);
+                float sum = 0;
+                for (int l = 0; l < scene.lights.size(); ++l) sum += distrib.PMF(it, l);
+                assertTrue(sum <= 1.001f);
+            }
+        }
+
+        ArrayList<Light> lights = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            Vector3f t = new Vector3f(10 * rng.UniformFloat() - 5, 10 * rng.UniformFloat() - 5, 10 * rng.UniformFloat() - 5);
+            lights.add(new PointLight(Transform.Translate(t), new MediumInterface(), new Spectrum(0.1f + rng.UniformFloat())));
+        }
+        Transform id = new Transform();
+        Primitive[] prims = { new GeometricPrimitive(new Sphere(id, id, false, 1, -1, 1, 360), null, null, new MediumInterface()) };
+        Scene scene = new Scene(new BVHAccel(prims), lights);
+        LightDistribution distrib = new LightBVHDistribution(scene);
+        for (int i = 0; i < 100; ++i) {
+            Interaction it = RandomInteraction(rng);
+            it.n = new Normal3f();
+            float sum = 0;
+            for (int l = 0; l < scene.lights.size(); ++l) sum += distrib.PMF(it, l);
+            assertEquals(1, sum, 1e-3f);
+        }
+    }
+
+    @Test
+    public void testSampleMatchesPMF() {
+        RNG rng = new RNG(17);
+        Scene scene = MakeScene(rng, true);
+        LightDistribution distrib = new LightBVHDistribution(scene);
+        int nLights = scene.lights.size();
+        for (int i = 0; i < 10; ++i) {
+            Interaction it = RandomInteraction(rng);
+            int nSamples = 100000;
+            int[] counts = new int[nLights];
+            int nFailed = 0;
+            for (int s = 0; s < nSamples; ++s) {
+                Distribution1D.DiscreteSample ds = distrib.Sample(it, rng.UniformFloat());
+                if (ds.pdf == 0) {
+                    ++nFailed;
+                    continue;
+                }
+                assertEquals(distrib.PMF(it, ds.offset), ds.pdf, 1e-4f * Math.max(1, ds.pdf));
+                ++counts[ds.offset];
+            }
+            // Sampled frequencies should follow the PMF, and samples that
+            // find no light should account for the rest
+            float sum = 0;
+            for (int l = 0; l < nLights; ++l) {
+                float pmf = distrib.PMF(it, l);
+                sum += pmf;
+                float expected = pmf * nSamples;
+                assertTrue(Math.abs(counts[l] - expected) < 5 * Math.sqrt(expected) + 5);
+            }
+            float expectedFailed = (1 - sum) * nSamples;
+            assertTrue(Math.abs(nFailed - expectedFailed) < 5 * Math.sqrt(Math.max(expectedFailed, 0)) + 5);
+        }
+    }
+}
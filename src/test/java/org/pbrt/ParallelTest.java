@@ -18,6 +18,10 @@ import org.pbrt.core.Parallel;
 import org.pbrt.core.Pbrt;
 import org.pbrt.core.Point2i;
 
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -68,4 +72,41 @@ public class ParallelTest {
         Parallel.ParallelCleanup();
     }
 
+    @Test
+    public void testAsync() {
+        Pbrt.options = new Options();
+        Pbrt.options.NumThreads = 4;
+
+        ArrayList<Future<Integer>> futures = new ArrayList<>();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 20; ++i) {
+            final int n = i;
+            futures.add(Parallel.Async(() -> {
+                // Parallel loops started by concurrent tasks, and loops
+                // nested in them, all share one pool of workers
+                AtomicInteger sum = new AtomicInteger(0);
+                Parallel.ParallelFor((Long j) -> {
+                    Parallel.ParallelFor((Long k) -> threads.add(Thread.currentThread()), 8, 1);
+                    threads.add(Thread.currentThread());
+                    sum.addAndGet((int)(long)j);
+                }, n, 1);
+                return sum.get();
+            }));
+        }
+        for (int i = 0; i < 20; ++i)
+            assertEquals(i * (i - 1) / 2, (int)Parallel.Await(futures.get(i)));
+        // At most the four workers, plus the four Async() threads helping
+        // with the loops they wait for
+        assertTrue(threads.size() <= 8);
+
+        // Exceptions are rethrown by Await()
+        Future<Integer> failed = Parallel.Async(() -> { throw new IllegalStateException("failed"); });
+        try {
+            Parallel.Await(failed);
+            assertTrue(false);
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        Pbrt.options = new Options();
+    }
 }
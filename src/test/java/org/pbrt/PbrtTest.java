@@ -144,4 +144,38 @@ public class PbrtTest {
         f += 2.0f;
         assertEquals(f, af.get(), epsilon);
     }
+
+    @Test
+    public void testHalf() {
+        // Every half survives a round trip through float, and agrees with
+        // the OpenEXR reader's conversion table
+        org.pbrt.openexr.util.Half table = org.pbrt.openexr.util.Half.getInstance();
+        for (int i = 0; i < 65536; ++i) {
+            short h = (short)i;
+            float f = Pbrt.HalfToFloat(h);
+            if (Float.isNaN(f)) {
+                assertTrue(Float.isNaN(table.toFloat(h)));
+                assertTrue(Float.isNaN(Pbrt.HalfToFloat(Pbrt.FloatToHalf(f))));
+                continue;
+            }
+            assertEquals(table.toFloat(h), f, 0);
+            assertEquals(h, Pbrt.FloatToHalf(f));
+        }
+
+        // Rounding to nearest, ties to even
+        assertEquals(1.f, Pbrt.HalfToFloat(Pbrt.FloatToHalf(1 + 0x1p-11f)), 0);
+        assertEquals(1 + 0x1p-9f, Pbrt.HalfToFloat(Pbrt.FloatToHalf(1 + 0x1p-10f + 0x1p-11f)), 0);
+        assertEquals(1 + 0x1p-10f, Pbrt.HalfToFloat(Pbrt.FloatToHalf(1 + 0x1p-11f + 0x1p-20f)), 0);
+        assertEquals(0.f, Pbrt.HalfToFloat(Pbrt.FloatToHalf(0x1p-25f)), 0);
+        assertEquals(0x1p-24f, Pbrt.HalfToFloat(Pbrt.FloatToHalf(0x1.1p-25f)), 0);
+        assertEquals(65504.f, Pbrt.HalfToFloat(Pbrt.FloatToHalf(65519.f)), 0);
+        assertEquals(Float.POSITIVE_INFINITY, Pbrt.HalfToFloat(Pbrt.FloatToHalf(65520.f)), 0);
+        assertEquals(Float.NEGATIVE_INFINITY, Pbrt.HalfToFloat(Pbrt.FloatToHalf(-1e10f)), 0);
+
+        RNG rng = new RNG(7);
+        for (int i = 0; i < 10000; ++i) {
+            float f = (rng.UniformFloat() - .5f) * 1000;
+            assertEquals(f, Pbrt.HalfToFloat(Pbrt.FloatToHalf(f)), Math.abs(f) * 0x1p-11f);
+        }
+    }
 }
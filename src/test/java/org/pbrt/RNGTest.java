@@ -0,0 +1,82 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.core.RNG;
+
+public class RNGTest {
+
+    @Test
+    public void testReferenceValues() {
+        // Outputs of the reference C implementation of pbrt's PCG32
+        RNG rng = new RNG();
+        int[] defaultSeq = { 0x152ca78d, 0x027c6003, 0xcb07bbf3, 0xf98befee };
+        for (int v : defaultSeq) assertEquals(v, rng.UniformUInt32());
+
+        rng.SetSequence(42);
+        int[] seq42 = { 0x2324ffe8, 0x8b48d6f0, 0xd72417d5, 0xfbdf6cc8 };
+        for (int v : seq42) assertEquals(v, rng.UniformUInt32());
+
+        rng = new RNG(0xffffffffffffL);
+        int[] seqLarge = { 0x197edfde, 0xebf399aa, 0x85e41b7b, 0x6eb6cf04 };
+        for (int v : seqLarge) assertEquals(v, rng.UniformUInt32());
+    }
+
+    @Test
+    public void testAdvance() {
+        for (long seq = 0; seq < 8; ++seq) {
+            RNG rng = new RNG(seq);
+            RNG start = new RNG(rng);
+            for (int i = 0; i < 1000; ++i) rng.UniformUInt32();
+            assertEquals(1000, rng.Distance(start));
+
+            RNG skip = new RNG(start);
+            skip.Advance(1000);
+            for (int i = 0; i < 100; ++i) assertEquals(rng.UniformUInt32(), skip.UniformUInt32());
+
+            // Stepping backwards returns to the starting state
+            skip.Advance(-1100);
+            assertEquals(start.UniformUInt32(), skip.UniformUInt32());
+        }
+    }
+
+    @Test
+    public void testSequencesDiffer() {
+        RNG a = new RNG(1), b = new RNG(2);
+        int same = 0;
+        for (int i = 0; i < 1000; ++i)
+            if (a.UniformUInt32() == b.UniformUInt32()) ++same;
+        assertTrue(same < 2);
+        assertNotEquals(new RNG(3).UniformUInt64(), new RNG(4).UniformUInt64());
+    }
+
+    @Test
+    public void testRanges() {
+        RNG rng = new RNG(7);
+        for (int i = 0; i < 100000; ++i) {
+            float f = rng.UniformFloat();
+            assertTrue(f >= 0 && f < 1);
+            double d = rng.UniformDouble();
+            assertTrue(d >= 0 && d < 1);
+            int b = 1 + (i % 1000);
+            int u = rng.UniformUInt32(b);
+            assertTrue(u >= 0 && u < b);
+        }
+        // Bounds above 2^31 are treated as unsigned
+        int big = 0xc0000000;
+        for (int i = 0; i < 1000; ++i)
+            assertTrue(Integer.compareUnsigned(rng.UniformUInt32(big), big) < 0);
+    }
+}
@@ -17,8 +17,13 @@ import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
 import org.pbrt.core.*;
+import org.pbrt.samplers.BlueNoiseSampler;
+import org.pbrt.samplers.HaltonSampler;
 import org.pbrt.samplers.MaxMinDistSampler;
+import org.pbrt.samplers.PaddedSobolSampler;
+import org.pbrt.samplers.RandomSampler;
 import org.pbrt.samplers.SobolSampler;
+import org.pbrt.samplers.StratifiedSampler;
 import org.pbrt.samplers.ZeroTwoSequence;
 
 public class SamplingTest {
@@ -39,9 +44,9 @@ public class SamplingTest {
             // Random permutation table
             final int base = LowDiscrepancy.Primes[dim];
 
-            Short[] perm = new Short[base];
+            short[] perm = new short[base];
             for (int i = 0; i < base; ++i) perm[i] = (short)(base - 1 - i);
-            Sampling.Shuffle(perm, 0, perm.length, 1, rng);
+            Sampling.ShuffleS(perm, 0, perm.length, 1, rng);
 
             int[] indices = {0, 1, 2, 1151, 32351, 4363211, 681122};
             for (int index : indices) {
@@ -89,6 +94,43 @@ public class SamplingTest {
         }
     }
 
+    @Test
+    public void testScrambledRadicalInverseTable() {
+        // Indexing the shared table at PrimeSums[dim] matches a per-base table
+        short[] perms = LowDiscrepancy.ComputeRadicalInversePermutations(new RNG(17));
+        for (int dim = 0; dim < LowDiscrepancy.PrimeTableSize; dim += 37) {
+            final int base = LowDiscrepancy.Primes[dim];
+            short[] perm = new short[base];
+            System.arraycopy(perms, LowDiscrepancy.PrimeSums[dim], perm, 0, base);
+            for (long index : new long[] {0, 1, 2, 1151, 32351, 4363211, 681122, 1L << 40}) {
+                assertEquals(LowDiscrepancy.ScrambledRadicalInverse(dim, index, perm),
+                        LowDiscrepancy.ScrambledRadicalInverse(dim, index, perms, LowDiscrepancy.PrimeSums[dim]), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testOwenScrambledRadicalInverse() {
+        // Owen scrambling preserves the stratification of the radical inverse:
+        // the first base^k points fall one in each interval of width base^-k.
+        for (int dim = 0; dim < 8; ++dim) {
+            final int base = LowDiscrepancy.Primes[dim];
+            int n = 1;
+            while (n * base <= 4096) n *= base;
+            for (int seed = 0; seed < 4; ++seed) {
+                float[] u = new float[n];
+                for (int i = 0; i < n; ++i) {
+                    u[i] = LowDiscrepancy.OwenScrambledRadicalInverse(dim, i, seed);
+                    assertTrue(u[i] >= 0 && u[i] < 1);
+                }
+                // Allow for float rounding at the interval boundaries
+                java.util.Arrays.sort(u);
+                for (int i = 0; i < n; ++i)
+                    assertEquals(i + 0.5, (double)u[i] * n, 0.5 + 1e-3);
+            }
+        }
+    }
+
     @Test
     public void testGeneratorMatrix() {
 
@@ -228,6 +270,8 @@ public class SamplingTest {
             checkSampler.check("MaxMinDistSampler", new MaxMinDistSampler(1 << logSamples, 2), logSamples);
             checkSampler.check("ZeroTwoSequence", new ZeroTwoSequence(1 << logSamples, 2), logSamples);
             checkSampler.check("SobolSampler", new SobolSampler(1 << logSamples, new Bounds2i(new Point2i(0, 0), new Point2i(10, 10))), logSamples);
+            checkSampler.check("PaddedSobolSampler", new PaddedSobolSampler(1 << logSamples, PaddedSobolSampler.Randomization.Owen, 0), logSamples);
+            checkSampler.check("BlueNoiseSampler", new BlueNoiseSampler(1 << logSamples, new Bounds2i(new Point2i(0, 0), new Point2i(10, 10)), 0), logSamples);
         }
     }
 
@@ -360,4 +404,229 @@ public class SamplingTest {
         cs = dist.SampleContinuous(1.0f);
         assertEquals(1.0, cs.sample, epsilon);
     }
+
+    @Test
+    public void testAliasDistribution1D() {
+        RNG rng = new RNG(11);
+        float[] func = new float[100];
+        for (int i = 0; i < func.length; ++i)
+            func[i] = (i % 5 == 0) ? 0 : rng.UniformFloat() * (i % 3 == 0 ? 100 : 1);
+        Distribution1D ref = new Distribution1D(func);
+        DiscreteDistribution1D dist = new AliasDistribution1D(func);
+        assertEquals(ref.Count(), dist.Count());
+        assertEquals(ref.Integral(), dist.Integral(), 1e-4f * ref.Integral());
+        for (int i = 0; i < func.length; ++i)
+            assertEquals(ref.DiscretePDF(i), dist.DiscretePDF(i), 1e-5f);
+
+        // Sample frequencies follow the PDF
+        int nSamples = 1000000;
+        int[] counts = new int[func.length];
+        for (int i = 0; i < nSamples; ++i) {
+            Distribution1D.DiscreteSample ds = dist.SampleDiscrete(rng.UniformFloat());
+            assertEquals(dist.DiscretePDF(ds.offset), ds.pdf, 1e-6f);
+            assertTrue(ds.uRemapped >= 0 && ds.uRemapped < 1);
+            ++counts[ds.offset];
+        }
+        for (int i = 0; i < func.length; ++i) {
+            float expected = dist.DiscretePDF(i) * nSamples;
+            if (expected == 0) assertEquals(0, counts[i]);
+            else assertTrue(Math.abs(counts[i] - expected) < 5 * Math.sqrt(expected));
+        }
+
+        // An all-zero function is sampled uniformly with zero PDF
+        DiscreteDistribution1D zero = new AliasDistribution1D(new float[4]);
+        Distribution1D.DiscreteSample ds = zero.SampleDiscrete(0.6f);
+        assertEquals(2, ds.offset);
+        assertEquals(0, ds.pdf, 0);
+    }
+
+    @Test
+    public void testHierarchicalDistribution2D() {
+        RNG rng = new RNG(3);
+        int nu = 16, nv = 8;
+        float[] func = new float[nu * nv];
+        for (int i = 0; i < func.length; ++i)
+            func[i] = (i % 7 == 0) ? 0 : rng.UniformFloat();
+        Distribution2D ref = new Distribution2D(func, nu, nv);
+        HierarchicalDistribution2D dist = new HierarchicalDistribution2D(func.clone(), nu, nv);
+
+        // Same PDF as Distribution2D
+        for (int v = 0; v < nv; ++v)
+            for (int u = 0; u < nu; ++u) {
+                Point2f p = new Point2f((u + .5f) / nu, (v + .5f) / nv);
+                assertEquals(ref.Pdf(p), dist.Pdf(p), 1e-4f);
+            }
+
+        // Samples land in the cell they report the PDF of, with frequencies
+        // following the PDF
+        int nSamples = 200000;
+        int[] counts = new int[nu * nv];
+        for (int i = 0; i < nSamples; ++i) {
+            Distribution2D.ContSample cs = dist.SampleContinuous(new Point2f(rng.UniformFloat(), rng.UniformFloat()));
+            assertTrue(cs.sample.x >= 0 && cs.sample.x < 1 && cs.sample.y >= 0 && cs.sample.y < 1);
+            assertEquals(dist.Pdf(cs.sample), cs.pdf, 1e-4f);
+            ++counts[(int)(cs.sample.y * nv) * nu + (int)(cs.sample.x * nu)];
+        }
+        for (int i = 0; i < nu * nv; ++i) {
+            float expected = dist.Pdf(new Point2f((i % nu + .5f) / nu, (i / nu + .5f) / nv)) / (nu * nv) * nSamples;
+            if (expected == 0) assertEquals(0, counts[i]);
+            else assertTrue(Math.abs(counts[i] - expected) < 5 * Math.sqrt(expected));
+        }
+    }
+
+    @Test
+    public void testSobolIntervalToIndex() {
+        // The index returned for a pixel must generate a first two dimensions
+        // that land in that pixel, including for 16K images at 4096 spp where
+        // the index no longer fits in 32 bits.
+        int[][] cases = { {3, 64}, {14, 4096} };
+        for (int[] c : cases) {
+            int m = c[0], res = 1 << m, frames = c[1];
+            for (int t = 0; t < 64; ++t) {
+                Point2i p = new Point2i((t * 7919) % res, (t * 104729) % res);
+                for (int frame = frames - 16; frame < frames; ++frame) {
+                    long index = LowDiscrepancy.SobolIntervalToIndex(m, frame, p);
+                    assertEquals(LowDiscrepancy.SobolFrameIndex(m, frame) ^ LowDiscrepancy.SobolPixelIndex(m, p.x, p.y), index);
+                    assertEquals(p.x, (int)(LowDiscrepancy.SobolSampleDouble(index, 0, 0) * res));
+                    assertEquals(p.y, (int)(LowDiscrepancy.SobolSampleDouble(index, 1, 0) * res));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOwenScrambledSobol() {
+        // Owen scrambling preserves the stratification of the first 2^k points
+        for (int seed = 0; seed < 8; ++seed) {
+            for (int dim = 0; dim < 4; ++dim) {
+                boolean[] seen = new boolean[256];
+                for (int i = 0; i < 256; ++i) {
+                    float v = LowDiscrepancy.SobolSampleOwen(i, dim, seed * 0x9e3779b9);
+                    int bucket = (int)(v * 256);
+                    assertTrue(!seen[bucket]);
+                    seen[bucket] = true;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGet2DInPlace() {
+        // Get2D(Point2f) must return exactly what Get2D() would, including
+        // when array samples take up some of the dimensions
+        Bounds2i bounds = new Bounds2i(new Point2i(0, 0), new Point2i(16, 16));
+        java.util.function.Supplier<?>[] makers = {
+                () -> new HaltonSampler(16, bounds),
+                () -> new HaltonSampler(16, bounds, false, HaltonSampler.Randomization.Owen),
+                () -> new SobolSampler(16, bounds),
+                () -> new SobolSampler(16, bounds, SobolSampler.Randomization.Owen, 7),
+                () -> new PaddedSobolSampler(16, PaddedSobolSampler.Randomization.Owen, 7),
+                () -> new BlueNoiseSampler(16, bounds, 7),
+                () -> new ZeroTwoSequence(16, 8),
+                () -> new MaxMinDistSampler(16, 8),
+                () -> new StratifiedSampler(4, 4, true, 8),
+                () -> new RandomSampler(16) };
+        final int nDims = 8;
+        for (java.util.function.Supplier<?> make : makers) {
+            Sampler single = (Sampler)make.get(), inPlace = (Sampler)make.get();
+            for (Sampler s : new Sampler[] { single, inPlace }) {
+                s.Request1DArray(4);
+                s.Request2DArray(4);
+            }
+            Point2i p = new Point2i(5, 11);
+            single.StartPixel(p);
+            inPlace.StartPixel(p);
+
+            Point2f p2 = new Point2f();
+            int sample = 0;
+            do {
+                for (int d = 0; d < nDims; ++d)
+                    assertEquals(single.Get1D(), inPlace.Get1D(), 0);
+                Point2f q = single.Get2D();
+                inPlace.Get2D(p2);
+                assertEquals(q.x, p2.x, 0);
+                assertEquals(q.y, p2.y, 0);
+                ++sample;
+                inPlace.StartNextSample();
+            } while (single.StartNextSample());
+            assertEquals(16, sample);
+        }
+    }
+
+    @Test
+    public void testBulkSamples() {
+        Bounds2i bounds = new Bounds2i(new Point2i(0, 0), new Point2i(16, 16));
+        java.util.function.Supplier<?>[] makers = {
+                () -> new HaltonSampler(16, bounds),
+                () -> new HaltonSampler(16, bounds, false, HaltonSampler.Randomization.Owen),
+                () -> new SobolSampler(16, bounds),
+                () -> new SobolSampler(16, bounds, SobolSampler.Randomization.Owen, 7),
+                () -> new PaddedSobolSampler(16, PaddedSobolSampler.Randomization.Owen, 7),
+                () -> new BlueNoiseSampler(16, bounds, 7),
+                () -> new ZeroTwoSequence(16, 8),
+                () -> new MaxMinDistSampler(16, 8),
+                () -> new StratifiedSampler(4, 4, true, 8),
+                () -> new RandomSampler(16) };
+        // Within the dimensions the pixel samplers precompute
+        final int nDims = 8, spp = 16;
+        Point2i p = new Point2i(5, 11);
+        for (java.util.function.Supplier<?> make : makers) {
+            Sampler bulk = (Sampler)make.get(), single = (Sampler)make.get();
+            for (Sampler s : new Sampler[] { bulk, single }) {
+                s.Request1DArray(4);
+                s.Request2DArray(4);
+                s.StartPixel(p);
+            }
+
+            // Get1D(float[]) returns what Get1D() would, before and after a
+            // 2D sample and across the dimensions taken by the arrays
+            float[] values = new float[nDims + 2];
+            int sample = 0;
+            do {
+                bulk.Get1D(values, 1, 3);
+                for (int d = 0; d < 3; ++d) assertEquals(single.Get1D(), values[1 + d], 0);
+                Point2f q = single.Get2D(), r = bulk.Get2D();
+                assertEquals(q.x, r.x, 0);
+                assertEquals(q.y, r.y, 0);
+                bulk.Get1D(values, 2, nDims - 3);
+                for (int d = 0; d < nDims - 3; ++d) assertEquals(single.Get1D(), values[2 + d], 0);
+                float[] a = single.Get1DArray(4), b = bulk.Get1DArray(4);
+                for (int i = 0; i < 4; ++i) assertEquals(a[i], b[i], 0);
+                ++sample;
+                bulk.StartNextSample();
+            } while (single.StartNextSample());
+            assertEquals(spp, sample);
+
+            // The array samples come from the batch kernel of the global
+            // samplers; they're the array's dimension for each sample index
+            if (bulk instanceof GlobalSampler) {
+                GlobalSampler g = (GlobalSampler)bulk;
+                g.StartPixel(p);
+                for (int s = 0; s < spp; ++s) {
+                    g.SetSampleNumber(s);
+                    float[] a = g.Get1DArray(4);
+                    for (int i = 0; i < 4; ++i)
+                        assertEquals(g.SampleDimension(g.GetIndexForSample(4 * s + i), 5), a[i], 0);
+                }
+            }
+
+            // GetSamples1D(d) returns the (d + 1)th Get1D() of each sample;
+            // all of RandomSampler's values are fresh random numbers
+            if (bulk instanceof RandomSampler) continue;
+            float[][] expected = new float[spp][nDims];
+            single.StartPixel(p);
+            for (int s = 0; s < spp; ++s, single.StartNextSample())
+                for (int d = 0; d < nDims; ++d) expected[s][d] = single.Get1D();
+            bulk.StartPixel(p);
+            float[] all = new float[spp], some = new float[10];
+            for (int d = 0; d < nDims; ++d) {
+                bulk.GetSamples1D(d, 0, spp, all, 0);
+                bulk.GetSamples1D(d, 5, 7, some, 2);
+                for (int s = 0; s < spp; ++s) assertEquals(expected[s][d], all[s], 0);
+                for (int i = 0; i < 7; ++i) assertEquals(expected[5 + i][d], some[2 + i], 0);
+            }
+            // The current sample is unchanged
+            assertEquals(expected[0][0], bulk.Get1D(), 0);
+        }
+    }
 }
@@ -20,6 +20,7 @@ import org.junit.Test;
 import org.pbrt.accelerators.BVHAccel;
 import org.pbrt.cameras.OrthographicCamera;
 import org.pbrt.cameras.PerspectiveCamera;
+import org.pbrt.core.AOV;
 import org.pbrt.core.AnimatedTransform;
 import org.pbrt.core.Api;
 import org.pbrt.core.AreaLight;
@@ -29,22 +30,28 @@ import org.pbrt.core.Camera;
 import org.pbrt.core.Film;
 import org.pbrt.core.Filter;
 import org.pbrt.core.GeometricPrimitive;
+import org.pbrt.core.IdentityMapping3D;
 import org.pbrt.core.Integrator;
 import org.pbrt.core.Light;
 import org.pbrt.core.Material;
+import org.pbrt.core.MemoryArena;
 import org.pbrt.core.MediumInterface;
 import org.pbrt.core.Options;
 import org.pbrt.core.Pbrt;
 import org.pbrt.core.Point2f;
 import org.pbrt.core.Point2i;
+import org.pbrt.core.Point3f;
 import org.pbrt.core.Primitive;
+import org.pbrt.core.RayDifferential;
 import org.pbrt.core.Sampler;
+import org.pbrt.core.Sampling;
 import org.pbrt.core.Scene;
 import org.pbrt.core.Shape;
 import org.pbrt.core.Spectrum;
 import org.pbrt.core.Texture;
 import org.pbrt.core.Transform;
 import org.pbrt.core.Vector2f;
+import org.pbrt.core.Vector3f;
 import org.pbrt.filters.BoxFilter;
 import org.pbrt.integrators.BDPTIntegrator;
 import org.pbrt.integrators.MLTIntegrator;
@@ -52,6 +59,7 @@ import org.pbrt.integrators.PathIntegrator;
 import org.pbrt.integrators.VolPathIntegrator;
 import org.pbrt.lights.DiffuseAreaLight;
 import org.pbrt.lights.PointLight;
+import org.pbrt.materials.GlassMaterial;
 import org.pbrt.materials.MatteMaterial;
 import org.pbrt.materials.UberMaterial;
 import org.pbrt.samplers.HaltonSampler;
@@ -64,6 +72,8 @@ import org.pbrt.core.TextureFloat;
 import org.pbrt.core.TextureSpectrum;
 import org.pbrt.textures.ConstantTextureFloat;
 import org.pbrt.textures.ConstantTextureSpectrum;
+import org.pbrt.textures.FBmTextureFloat;
+import org.pbrt.textures.MixTextureFloat;
 
 public class SceneTest {
 
@@ -118,6 +128,119 @@ public class SceneTest {
         Api.pbrtCleanup();
     }
 
+    @Test
+    public void testSpectralFurnace() {
+        Options options = new Options();
+        options.Quiet = true;
+        Api.pbrtInit(options);
+
+        // Inside a sphere with Kd = 0.5 and Le = 0.5, radiance is 1 everywhere
+        Scene matte = FurnaceScene(0.5f, 0.5f, null);
+        float[] L = FurnaceAverage(matte, 4096);
+        for (int c = 0; c < 3; ++c)
+            assertEquals(1, L[c], 0.03f);
+
+        // A lossless glass sphere inside a black emitter with Le = 1 keeps
+        // the radiance at 1, with or without dispersion
+        for (float cauchyB : new float[] { 0, 0.02f }) {
+            TextureSpectrum white = new ConstantTextureSpectrum(new Spectrum(1));
+            TextureFloat zero = new ConstantTextureFloat(0);
+            Material glass = new GlassMaterial(white, white, zero, zero, new ConstantTextureFloat(1.5f), null, true, cauchyB);
+            L = FurnaceAverage(FurnaceScene(0, 1, glass), 4096);
+            for (int c = 0; c < 3; ++c)
+                assertEquals(1, L[c], 0.02f);
+        }
+        Api.pbrtCleanup();
+    }
+
+    @Test
+    public void testSpectralAOVsLeaveImageUnchanged() {
+        Options options = new Options();
+        options.Quiet = true;
+        Api.pbrtInit(options);
+
+        // A bump-mapped matte sphere: recording the albedo must not apply the
+        // bump again or otherwise change the path, and the albedo is that of
+        // the spectral BSDF being traced
+        Material bumpy = new MatteMaterial(new ConstantTextureSpectrum(new Spectrum(0.5f)), new ConstantTextureFloat(0),
+                new MixTextureFloat(new ConstantTextureFloat(0), new FBmTextureFloat(new IdentityMapping3D(Transform.Scale(8, 8, 8)), 4, 0.5f),
+                        new ConstantTextureFloat(0.02f)));
+        Scene scene = FurnaceScene(0, 1, bumpy);
+        Film film = new Film(new Point2i(1, 1), new Bounds2f(new Point2f(0, 0), new Point2f(1, 1)), new BoxFilter(new Vector2f(0.5f, 0.5f)),
+                1, new String[] { "test.exr" }, new AOV[] { AOV.Albedo, AOV.Normal }, false, 1, Pbrt.Infinity);
+        AnimatedTransform identity = new AnimatedTransform(new Transform(), 0, new Transform(), 1);
+        Camera camera = new PerspectiveCamera(identity, new Bounds2f(new Point2f(-1, -1), new Point2f(1, 1)), 0, 1, 0, 10, 45, film, null);
+        int nSamples = 1024;
+        Sampler withAOVs = new RandomSampler(nSamples, 5), without = new RandomSampler(nSamples, 5);
+        PathIntegrator integrator = new PathIntegrator(8, camera, withAOVs, film.croppedPixelBounds, 1, "power", 0, true);
+        integrator.Preprocess(scene, withAOVs);
+
+        // Rays from between the spheres towards the inner one
+        Point3f o = new Point3f(0, 0, -1.5f);
+        MemoryArena arena = new MemoryArena();
+        AOV.Sample aovs = film.NewAOVSample();
+        float albedo = 0;
+        withAOVs.StartPixel(new Point2i(0, 0));
+        without.StartPixel(new Point2i(0, 0));
+        do {
+            Vector3f d = Vector3f.Normalize(new Vector3f(0.5f * (withAOVs.Get1D() - 0.5f), 0.5f * (withAOVs.Get1D() - 0.5f), 1));
+            without.Get1D();
+            without.Get1D();
+            aovs.Reset();
+            float[] L = integrator.Li(new RayDifferential(o, d), scene, withAOVs, arena, aovs).toRGB();
+            arena.Reset();
+            float[] expected = integrator.Li(new RayDifferential(o, d), scene, without, arena, 0).toRGB();
+            arena.Reset();
+            for (int c = 0; c < 3; ++c)
+                assertEquals(Float.floatToIntBits(expected[c]), Float.floatToIntBits(L[c]));
+            albedo += aovs.Get(AOV.Albedo, 1) / nSamples;
+            assertTrue(aovs.Get(AOV.Normal, 2) < 0);
+            without.StartNextSample();
+        } while (withAOVs.StartNextSample());
+        assertEquals(0.5f, albedo, 0.05f);
+        Api.pbrtCleanup();
+    }
+
+    // A radius 2 emitting sphere seen from inside, optionally around a unit
+    // sphere made of _inner_
+    private static Scene FurnaceScene(float Kd, float Le, Material inner) {
+        Transform id = new Transform();
+        Shape outer = new Sphere(id, id, true /* reverse orientation */, 2, -2, 2, 360);
+        Material material = new MatteMaterial(new ConstantTextureSpectrum(new Spectrum(Kd)), new ConstantTextureFloat(0), null);
+        AreaLight areaLight = new DiffuseAreaLight(new Transform(), null, new Spectrum(Le), 1, outer);
+        ArrayList<Light> lights = new ArrayList<>();
+        lights.add(areaLight);
+        ArrayList<Primitive> prims = new ArrayList<>();
+        prims.add(new GeometricPrimitive(outer, material, areaLight, new MediumInterface()));
+        if (inner != null)
+            prims.add(new GeometricPrimitive(new Sphere(id, id, false, 1, -1, 1, 360), inner, null, new MediumInterface()));
+        return new Scene(new BVHAccel(prims.toArray(new Primitive[0])), lights);
+    }
+
+    // Average spectral path traced RGB radiance over rays in all directions
+    // from a point between the spheres
+    private static float[] FurnaceAverage(Scene scene, int nSamples) {
+        Point2i resolution = new Point2i(1, 1);
+        Film film = new Film(resolution, new Bounds2f(new Point2f(0, 0), new Point2f(1, 1)), new BoxFilter(new Vector2f(0.5f, 0.5f)), 1, "test.exr", 1, Pbrt.Infinity);
+        AnimatedTransform identity = new AnimatedTransform(new Transform(), 0, new Transform(), 1);
+        Camera camera = new PerspectiveCamera(identity, new Bounds2f(new Point2f(-1, -1), new Point2f(1, 1)), 0, 1, 0, 10, 45, film, null);
+        Sampler sampler = new RandomSampler(nSamples);
+        PathIntegrator integrator = new PathIntegrator(64, camera, sampler, film.croppedPixelBounds, 1, "power", 0, true);
+        integrator.Preprocess(scene, sampler);
+
+        Point3f o = new Point3f(0, 0, -1.5f);
+        MemoryArena arena = new MemoryArena();
+        float[] sum = { 0, 0, 0 };
+        sampler.StartPixel(new Point2i(0, 0));
+        do {
+            Vector3f d = Sampling.UniformSampleSphere(sampler.Get2D());
+            float[] rgb = integrator.Li(new RayDifferential(o, d), scene, sampler, arena, 0).toRGB();
+            for (int c = 0; c < 3; ++c) sum[c] += rgb[c] / nSamples;
+            arena.Reset();
+        } while (sampler.StartNextSample());
+        return sum;
+    }
+
     static ArrayList<TestScene> GetScenes() {
         ArrayList<TestScene> scenes = new ArrayList<>();
 
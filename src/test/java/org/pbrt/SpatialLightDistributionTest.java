@@ -0,0 +1,148 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.accelerators.BVHAccel;
+import org.pbrt.cameras.PerspectiveCamera;
+import org.pbrt.core.*;
+import org.pbrt.filters.BoxFilter;
+import org.pbrt.lights.PointLight;
+import org.pbrt.shapes.Sphere;
+
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SpatialLightDistributionTest {
+
+    private static final int Resolution = 16, MaxVoxels = 8;
+
+    // A point light that counts how often it's sampled, slowly, so that
+    // lookups of a voxel being computed are likely to find it unfinished
+    private static class CountingPointLight extends PointLight {
+        CountingPointLight(Transform light2world, MediumInterface mediumInterface, Spectrum I) {
+            super(light2world, mediumInterface, I);
+        }
+
+        @Override
+        public LiResult Sample_Li(Interaction ref, Point2f u) {
+            nLightSamples.incrementAndGet();
+            Thread.onSpinWait();
+            return super.Sample_Li(ref, u);
+        }
+    }
+
+    private static final AtomicLong nLightSamples = new AtomicLong(0);
+
+    // A unit sphere lit by point lights of different intensities around it
+    private static Scene MakeScene() {
+        Pbrt.options = new Options();
+        Pbrt.options.Quiet = true;
+        Pbrt.options.NumThreads = 4;
+        MediumInterface mi = new MediumInterface();
+        ArrayList<Light> lights = new ArrayList<>();
+        RNG rng = new RNG(3);
+        for (int i = 0; i < 6; ++i) {
+            Vector3f t = new Vector3f(6 * rng.UniformFloat() - 3, 6 * rng.UniformFloat() - 3, 6 * rng.UniformFloat() - 3);
+            lights.add(new CountingPointLight(Transform.Translate(t), mi, new Spectrum(0.5f + 4 * rng.UniformFloat())));
+        }
+        Transform id = new Transform();
+        Primitive[] prims = { new GeometricPrimitive(new Sphere(id, id, false, 1, -1, 1, 360), null, null, mi) };
+        return new Scene(new BVHAccel(prims), lights);
+    }
+
+    private static Camera MakeCamera() {
+        Film film = new Film(new Point2i(Resolution, Resolution), new Bounds2f(new Point2f(0, 0), new Point2f(1, 1)),
+                new BoxFilter(new Vector2f(0.5f, 0.5f)), 35, "unused.exr", 1, Pbrt.Infinity);
+        Transform cameraToWorld = Transform.Translate(new Vector3f(0, 0, -3));
+        return new PerspectiveCamera(new AnimatedTransform(cameraToWorld, 0, cameraToWorld, 1),
+                new Bounds2f(new Point2f(-1, -1), new Point2f(1, 1)), 0, 1, 0, 10, 45, film, null);
+    }
+
+    private static void AssertSamePDFs(DiscreteDistribution1D expected, DiscreteDistribution1D actual) {
+        assertEquals(expected.Count(), actual.Count());
+        for (int i = 0; i < expected.Count(); ++i)
+            assertEquals(Float.floatToIntBits(expected.DiscretePDF(i)), Float.floatToIntBits(actual.DiscretePDF(i)));
+    }
+
+    // Of the threads that look up the same voxel at the same time, one
+    // computes its distribution and the others wait for it
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        Scene scene = MakeScene();
+        Point3f p = new Point3f(0.3f, -0.2f, 0.6f);
+        nLightSamples.set(0);
+        DiscreteDistribution1D expected = new SpatialLightDistribution(scene, MaxVoxels).Lookup(p);
+        long samplesPerDistribution = nLightSamples.get();
+        assertTrue(samplesPerDistribution > 0);
+        int nThreads = 8;
+        for (int trial = 0; trial < 50; ++trial) {
+            nLightSamples.set(0);
+            SpatialLightDistribution distrib = new SpatialLightDistribution(scene, MaxVoxels);
+            DiscreteDistribution1D[] found = new DiscreteDistribution1D[nThreads];
+            CyclicBarrier start = new CyclicBarrier(nThreads);
+            Thread[] threads = new Thread[nThreads];
+            for (int t = 0; t < nThreads; ++t) {
+                final int index = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    found[index] = distrib.Lookup(p);
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) thread.join();
+            for (int t = 0; t < nThreads; ++t) assertSame(found[0], found[t]);
+            AssertSamePDFs(expected, found[0]);
+            assertSame(found[0], distrib.Lookup(p));
+            assertEquals(1, distrib.NumDistributions());
+            assertEquals(samplesPerDistribution, nLightSamples.get());
+        }
+    }
+
+    // Prewarming computes the distributions of the voxels camera rays hit
+    // first, the same ones lookups during rendering would have computed
+    @Test
+    public void testPrewarm() {
+        Scene scene = MakeScene();
+        Camera camera = MakeCamera();
+        SpatialLightDistribution prewarmed = new SpatialLightDistribution(scene, MaxVoxels);
+        prewarmed.Prewarm(camera, 1);
+        int nPrewarmed = prewarmed.NumDistributions();
+        assertTrue(nPrewarmed > 0);
+
+        SpatialLightDistribution lazy = new SpatialLightDistribution(scene, MaxVoxels);
+        Camera.CameraSample cs = new Camera.CameraSample();
+        cs.time = 0.5f;
+        cs.pLens.x = cs.pLens.y = 0.5f;
+        int nHits = 0;
+        for (int y = 0; y < Resolution; ++y)
+            for (int x = 0; x < Resolution; ++x) {
+                cs.pFilm.x = x + 0.5f;
+                cs.pFilm.y = y + 0.5f;
+                SurfaceInteraction isect = scene.Intersect(camera.GenerateRay(cs).ray);
+                if (isect == null) continue;
+                ++nHits;
+                AssertSamePDFs(lazy.Lookup(isect.p), prewarmed.Lookup(isect.p));
+            }
+        assertTrue(nHits > 0);
+        // Every voxel was already there, and no other
+        assertEquals(nPrewarmed, prewarmed.NumDistributions());
+        assertEquals(nPrewarmed, lazy.NumDistributions());
+    }
+}
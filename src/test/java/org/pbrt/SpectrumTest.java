@@ -11,7 +11,13 @@ package org.pbrt;
 import org.junit.Test;
 
 import org.pbrt.core.*;
+import org.pbrt.textures.ConstantTextureSpectrum;
 
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class SpectrumTest {
@@ -53,4 +59,145 @@ public class SpectrumTest {
         }
     }
 
+    @Test
+    public void testInPlaceMatchesImmutable() {
+        Spectrum a = Spectrum.FromRGB(0.25f, 0.5f, 2.0f);
+        Spectrum f = Spectrum.FromRGB(0.8f, 0.1f, 0.3f);
+        float s = 0.7f;
+
+        // beta *= f * s
+        Spectrum expected = a.multiply(f.scale(s));
+        Spectrum beta = new Spectrum(a);
+        assertTrue(beta.mulScaleInPlace(f, s).equal(expected));
+
+        // L += beta * f
+        Spectrum L = new Spectrum(0.125f);
+        expected = L.add(a.multiply(f));
+        assertTrue(L.mulAdd(a, f).equal(expected));
+
+        // In-place operations leave their arguments untouched
+        assertTrue(a.equal(Spectrum.FromRGB(0.25f, 0.5f, 2.0f)));
+        assertTrue(f.equal(Spectrum.FromRGB(0.8f, 0.1f, 0.3f)));
+
+        Spectrum c = new Spectrum(a);
+        c.addInPlace(f).scaleInPlace(2).subtractInPlace(f);
+        assertTrue(c.equal(a.add(f).scale(2).subtract(f)));
+        for (int i = 0; i < Spectrum.nSamples; ++i)
+            assertTrue(c.at(i) == a.add(f).scale(2).subtract(f).at(i));
+    }
+
+    @Test
+    public void testSampledRoundTrip() {
+        // Averaged over many hero wavelengths, an RGB illuminant tabulated at
+        // load and converted back should return its RGB value.
+        float[] rgb = {0.9f, 0.6f, 0.3f};
+        TabulatedSpectrum light = TabulatedSpectrum.FromRGB(Spectrum.FromRGB(rgb), Spectrum.SpectrumType.Illuminant);
+        int n = 4096;
+        float[] sum = {0, 0, 0};
+        for (int j = 0; j < n; ++j) {
+            SampledWavelengths lambda = SampledWavelengths.SampleUniform((j + 0.5f) / n);
+            float[] c = lambda.ToRGB(light.Sample(lambda, new SampledSpectrum(0))).toRGB();
+            for (int k = 0; k < 3; ++k) sum[k] += c[k] / n;
+        }
+        for (int k = 0; k < 3; ++k)
+            assertTrue(Math.abs(sum[k] - rgb[k]) < 0.02f);
+    }
+
+    @Test
+    public void testPooledWavelengths() {
+        // Wavelengths handed out again by the arena are resampled exactly as
+        // fresh ones, including after the secondary ones were terminated
+        MemoryArena arena = new MemoryArena();
+        SampledWavelengths first = arena.AllocSampledWavelengths(0.3f);
+        first.TerminateSecondary();
+        arena.Reset();
+        SampledWavelengths pooled = arena.AllocSampledWavelengths(0.8f);
+        assertSame(first, pooled);
+        SampledWavelengths fresh = SampledWavelengths.SampleUniform(0.8f);
+        SampledSpectrum L = new SampledSpectrum(0);
+        for (int i = 0; i < SampledWavelengths.nSamples; ++i) {
+            assertEquals(fresh.Lambda(i), pooled.Lambda(i), 0);
+            assertEquals(fresh.Pdf(i), pooled.Pdf(i), 0);
+            L.set(i, i + 1);
+        }
+        float[] expected = fresh.ToRGB(L).toRGB(), rgb = pooled.ToRGB(L).toRGB();
+        for (int c = 0; c < 3; ++c) assertEquals(expected[c], rgb[c], 0);
+        Spectrum s = Spectrum.FromRGB(0.2f, 0.5f, 0.9f);
+        SampledSpectrum a = fresh.FromRGB(s, Spectrum.SpectrumType.Illuminant, new SampledSpectrum(0));
+        SampledSpectrum b = pooled.FromRGB(s, Spectrum.SpectrumType.Illuminant, new SampledSpectrum(0));
+        for (int i = 0; i < SampledWavelengths.nSamples; ++i) assertEquals(a.at(i), b.at(i), 0);
+    }
+
+    @Test
+    public void testFrConductor() {
+        // Without absorption a conductor is a dielectric, at any angle
+        for (float cosTheta = 0.05f; cosTheta <= 1; cosTheta += 0.05f) {
+            float expected = Reflection.FrDielectric(cosTheta, 1, 1.5f);
+            assertEquals(expected, Reflection.FrConductor(cosTheta, 1, 1.5f, 0), 1e-5f);
+            Spectrum F = Reflection.FrConductor(cosTheta, new Spectrum(1), new Spectrum(1.5f), new Spectrum(0));
+            for (int c = 0; c < 3; ++c) assertEquals(expected, F.at(c), 1e-5f);
+        }
+        // At normal incidence, ((n - 1)^2 + k^2) / ((n + 1)^2 + k^2), and the
+        // RGB version agrees with the single wavelength one at every angle
+        float n = 0.27f, k = 3.4f;
+        assertEquals(((n - 1) * (n - 1) + k * k) / ((n + 1) * (n + 1) + k * k), Reflection.FrConductor(1, 1, n, k), 1e-5f);
+        for (float cosTheta = 0.05f; cosTheta <= 1; cosTheta += 0.05f) {
+            Spectrum F = Reflection.FrConductor(cosTheta, new Spectrum(1), new Spectrum(n), new Spectrum(k));
+            assertEquals(Reflection.FrConductor(cosTheta, 1, n, k), F.at(0), 1e-5f);
+        }
+    }
+
+    @Test
+    public void testSpectralConductor() {
+        // With the same eta and k at every wavelength, the spectral conductor
+        // is the RGB one at each wavelength
+        float n = 1.2f, k = 2.6f;
+        MicrofacetDistribution distrib = new TrowbridgeReitzDistribution(0.3f, 0.3f, true);
+        BxDF rgb = new MicrofacetReflection(new Spectrum(1), distrib,
+                new FresnelConductor(new Spectrum(1), new Spectrum(n), new Spectrum(k)));
+        SpectralBxDF spectral = new SpectralMicrofacetConductor(distrib, 1, new SampledSpectrum(n), new SampledSpectrum(k));
+        RNG rng = new RNG(3);
+        SampledSpectrum f = new SampledSpectrum(0);
+        for (int j = 0; j < 100; ++j) {
+            Vector3f wo = Sampling.UniformSampleHemisphere(new Point2f(rng.UniformFloat(), rng.UniformFloat()));
+            Vector3f wi = Sampling.UniformSampleHemisphere(new Point2f(rng.UniformFloat(), rng.UniformFloat()));
+            float expected = rgb.f(wo, wi).at(0);
+            spectral.f(wo, wi, f);
+            for (int i = 0; i < SampledSpectrum.nSamples; ++i) assertEquals(expected, f.at(i), 1e-4f * Math.max(1, expected));
+            assertEquals(rgb.Pdf(wo, wi), spectral.Pdf(wo, wi), 1e-4f);
+
+            Point2f u = new Point2f(rng.UniformFloat(), rng.UniformFloat());
+            BxDF.BxDFSample bs = rgb.Sample_f(wo, u);
+            SpectralBxDF.SpectralSample ss = new SpectralBxDF.SpectralSample();
+            spectral.Sample_f(wo, u, ss);
+            assertEquals(bs.pdf, ss.pdf, 1e-4f * Math.max(1, bs.pdf));
+            if (bs.pdf > 0) assertEquals(bs.f.at(0), ss.f.at(0), 1e-4f * Math.max(1, bs.f.at(0)));
+        }
+    }
+
+    @Test
+    public void testMeasuredSpectrumParameter() {
+        // A spectrum parameter given as samples keeps them for spectral
+        // rendering; here, the value in nm / 100 averaged over each bin
+        ParamSet params = new ParamSet();
+        params.AddSampledSpectrum("eta", new Float[] { 300f, 3f, 800f, 8f });
+        TextureParams tp = new TextureParams(new ParamSet(), params, new HashMap<>(), new HashMap<>());
+        TextureSpectrum eta = tp.GetSpectrumTexture("eta", new Spectrum(1));
+        float binWidth = (Spectrum.sampledLambdaEnd - Spectrum.sampledLambdaStart) / Spectrum.nSpectralSamples;
+        for (float u = 0.05f; u < 1; u += 0.1f) {
+            SampledWavelengths lambda = SampledWavelengths.SampleUniform(u);
+            SampledSpectrum v = eta.Evaluate(null, lambda, new SampledSpectrum(0));
+            for (int i = 0; i < SampledWavelengths.nSamples; ++i)
+                assertEquals(lambda.Lambda(i) / 100, v.at(i), binWidth / 100);
+        }
+
+        // Other parameters and defaults don't have measurements, unless the
+        // default does; giving the parameter in RGB drops them
+        assertNull(tp.FindMeasuredSpectrum("k", null));
+        TabulatedSpectrum one = TabulatedSpectrum.Constant(1);
+        assertSame(one, tp.FindMeasuredSpectrum("k", one));
+        params.AddRGBSpectrum("eta", new Float[] { 1f, 1f, 1f });
+        assertNull(params.FindOneMeasuredSpectrum("eta"));
+        assertTrue(tp.GetSpectrumTexture("eta", new Spectrum(1)) instanceof ConstantTextureSpectrum);
+    }
 }
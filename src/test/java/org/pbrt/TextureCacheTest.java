@@ -0,0 +1,256 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.core.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TextureCacheTest {
+
+    // Procedural texture whose level-0 texels are a function of their
+    // coordinates; coarser levels are left to the cache.
+    private static class TestSource implements TextureCache.TileSource {
+        TestSource(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+        public int Channels() { return 3; }
+        public int Width() { return width; }
+        public int Height() { return height; }
+        public boolean ReadTile(int level, int tx, int ty, float[] tile) {
+            if (level != 0) return false;
+            nReads.incrementAndGet();
+            int tw = Math.min(TextureCache.TileSize, width), th = Math.min(TextureCache.TileSize, height);
+            for (int y = 0; y < th; ++y)
+                for (int x = 0; x < tw; ++x)
+                    for (int c = 0; c < 3; ++c)
+                        tile[(y * tw + x) * 3 + c] = Value(tx * tw + x, ty * th + y, c);
+            return true;
+        }
+        static float Value(int s, int t, int c) {
+            return (s * 7 + t * 13 + c * 5) % 17;
+        }
+        final int width, height;
+        final AtomicInteger nReads = new AtomicInteger(0);
+    }
+
+    // Box average of the level-0 texels under texel (s, t) of _level_
+    private static float Expected(int level, int s, int t, int c, int width, int height) {
+        int ns = width / Math.max(1, width >> level), nt = height / Math.max(1, height >> level);
+        float sum = 0;
+        for (int y = 0; y < nt; ++y)
+            for (int x = 0; x < ns; ++x)
+                sum += TestSource.Value(s * ns + x, t * nt + y, c);
+        return sum / (ns * nt);
+    }
+
+    @Test
+    public void testLevels() {
+        TextureCache cache = new TextureCache(64 << 20);
+        int width = 256, height = 64;
+        TextureCache.CachedTexture tex = cache.Register(new TestSource(width, height));
+        assertEquals(9, tex.Levels());
+        RNG rng = new RNG(3);
+        for (int level = 0; level < tex.Levels(); ++level) {
+            assertEquals(Math.max(1, width >> level), tex.Width(level));
+            assertEquals(Math.max(1, height >> level), tex.Height(level));
+            for (int i = 0; i < 50; ++i) {
+                int s = rng.UniformUInt32(tex.Width(level)), t = rng.UniformUInt32(tex.Height(level)), c = rng.UniformUInt32(3);
+                assertEquals(Expected(level, s, t, c, width, height), tex.Texel(level, s, t, c), 1e-3f);
+            }
+        }
+    }
+
+    @Test
+    public void testTiledTextureFile() throws java.io.IOException {
+        int width = 256, height = 64;
+        for (boolean half : new boolean[] { false, true }) {
+            java.io.File file = java.io.File.createTempFile("tiled", TiledTextureFile.Extension);
+            file.deleteOnExit();
+            assertTrue(TiledTextureFile.Write(file.getPath(), new TestSource(width, height), half, 1, false, Texture.ImageWrap.Clamp));
+            TiledTextureFile txp = TiledTextureFile.Open(file.getPath(), 2);
+            assertTrue(txp != null);
+            assertEquals(half, txp.IsHalf());
+            assertEquals(Texture.ImageWrap.Clamp, txp.WrapMode());
+
+            // Every level comes from the file, scaled as it is read
+            TextureCache cache = new TextureCache(64 << 20);
+            TextureCache.CachedTexture tex = cache.Register(txp);
+            assertEquals(9, tex.Levels());
+            long texelBytes = 0;
+            for (int level = 0; level < tex.Levels(); ++level) {
+                int nTiles = ((tex.Width(level) + 63) / 64) * ((tex.Height(level) + 63) / 64);
+                texelBytes += 16 * nTiles + (half ? 2 : 4) * 3L * tex.Width(level) * tex.Height(level);
+                for (int t = 0; t < tex.Height(level); ++t)
+                    for (int s = 0; s < tex.Width(level); ++s)
+                        for (int c = 0; c < 3; ++c)
+                            assertEquals(2 * Expected(level, s, t, c, width, height), tex.Texel(level, s, t, c), 1e-2f);
+            }
+            // Half texels stay half in the cache
+            assertEquals(texelBytes, cache.BytesResident());
+            assertEquals(half, tex.Tile(0, 0, 0).IsHalf());
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        // Room for a handful of 64x64 RGB tiles only
+        long budget = 4 * (16 + 4 * 64 * 64 * 3);
+        TextureCache cache = new TextureCache(budget);
+        TestSource source = new TestSource(512, 512);
+        TextureCache.CachedTexture tex = cache.Register(source);
+        RNG rng = new RNG(11);
+        for (int i = 0; i < 2000; ++i) {
+            int s = rng.UniformUInt32(512), t = rng.UniformUInt32(512);
+            assertEquals(TestSource.Value(s, t, 1), tex.Texel(0, s, t, 1), 0);
+            assertTrue(cache.BytesResident() <= budget);
+        }
+        // Tiles were evicted and read again
+        assertTrue(source.nReads.get() > 64);
+        assertTrue(cache.TileLookups() <= 2000);
+        assertEquals(cache.TileLookups() - source.nReads.get(), cache.TileHits());
+    }
+
+    // The texels of a filter footprint are found through the thread's
+    // cursor, which only goes to the cache for tiles it doesn't hold
+    @Test
+    public void testCursorLookups() {
+        TextureCache cache = new TextureCache(64 << 20);
+        TestSource source = new TestSource(256, 256);
+        TextureCache.CachedTexture tex = cache.Register(source);
+        MIPMapSpectrum mipmap = new MIPMapSpectrum(tex, true, 8, Texture.ImageWrap.Repeat, new Spectrum(0));
+        // Bilinear footprints of level 0: one inside tile (1, 1), then one
+        // across the corner it shares with three other tiles
+        mipmap.Lookup(new Point2f(96.f / 256, 96.f / 256));
+        assertEquals(1, cache.TileLookups());
+        Point2f corner = new Point2f(64.f / 256, 64.f / 256);
+        mipmap.Lookup(corner);
+        assertEquals(4, cache.TileLookups());
+        // The same footprint again needs no lookups at all
+        mipmap.Lookup(corner);
+        assertEquals(4, cache.TileLookups());
+        assertEquals(0, cache.TileHits());
+        assertEquals(4, source.nReads.get());
+    }
+
+    @Test
+    public void testImageTileSource() throws java.io.IOException {
+        // A 96x40 image, resampled to 128x64 and kept in the global cache
+        java.io.File file = java.io.File.createTempFile("image", ".png");
+        file.deleteOnExit();
+        java.awt.image.BufferedImage image = new java.awt.image.BufferedImage(96, 40, java.awt.image.BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 40; ++y)
+            for (int x = 0; x < 96; ++x) image.setRGB(x, y, (x * 0x020305 + y * 0x0b0701) & 0xffffff);
+        assertTrue(javax.imageio.ImageIO.write(image, "png", file));
+        Pbrt.options = new Options();
+        Pbrt.options.Quiet = true;
+        TextureCache.Reset();
+        try {
+            TextureCache.TileSource source = ImageTileSource.Create(file.getPath(), 3, 1, false, Texture.ImageWrap.Clamp);
+            assertEquals(128, source.Width());
+            assertEquals(64, source.Height());
+            long imageBytes = TextureCache.Global().BytesResident();
+            assertTrue(imageBytes >= 4L * 128 * 64 * 3);
+
+            // Reading a tile works from the cached image, and again once
+            // the image has been evicted
+            float[] tile = new float[64 * 64 * 3], again = new float[64 * 64 * 3];
+            assertTrue(source.ReadTile(0, 1, 0, tile));
+            TextureCache.Global().Clear();
+            assertEquals(0, TextureCache.Global().BytesResident());
+            assertTrue(source.ReadTile(0, 1, 0, again));
+            assertEquals(imageBytes, TextureCache.Global().BytesResident());
+            for (int i = 0; i < tile.length; ++i) assertEquals(tile[i], again[i], 0);
+        } finally {
+            TextureCache.Reset();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testThreadedRenderWithImageTexture() throws java.io.IOException {
+        // A large imagemap is still being loaded, with parallel loops of its
+        // own, when the scene is complete; rendering it with two threads
+        // must not leave the render workers waiting on the loader
+        java.io.File image = java.io.File.createTempFile("imagemap", ".png");
+        image.deleteOnExit();
+        java.awt.image.BufferedImage pixels = new java.awt.image.BufferedImage(1500, 1000, java.awt.image.BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 1000; ++y)
+            for (int x = 0; x < 1500; ++x) pixels.setRGB(x, y, (x * 0x010203 + y * 0x030201) & 0xffffff);
+        assertTrue(javax.imageio.ImageIO.write(pixels, "png", image));
+        java.io.File output = java.io.File.createTempFile("render", ".exr");
+        output.deleteOnExit();
+        java.io.File scene = java.io.File.createTempFile("scene", ".pbrt");
+        scene.deleteOnExit();
+        java.nio.file.Files.writeString(scene.toPath(),
+                "LookAt 0 0 -3  0 0 0  0 1 0\n" +
+                "Camera \"perspective\" \"float fov\" [ 45 ]\n" +
+                "Film \"image\" \"integer xresolution\" [ 64 ] \"integer yresolution\" [ 64 ]\n" +
+                "Sampler \"random\" \"integer pixelsamples\" [ 2 ]\n" +
+                "Integrator \"path\" \"integer maxdepth\" [ 1 ]\n" +
+                "WorldBegin\n" +
+                "AttributeBegin\n" +
+                "Translate 1 2 -3\n" +
+                "LightSource \"point\" \"rgb I\" [ 10 10 10 ]\n" +
+                "AttributeEnd\n" +
+                "Texture \"checks\" \"spectrum\" \"imagemap\" \"string filename\" \"" + image.getPath() + "\"\n" +
+                "Material \"matte\" \"texture Kd\" \"checks\"\n" +
+                "Shape \"sphere\"\n" +
+                "WorldEnd\n");
+
+        Options options = new Options();
+        options.Quiet = true;
+        options.NumThreads = 2;
+        options.ImageFile = output.getPath();
+        Api.pbrtInit(options);
+        try {
+            Api.pbrtParseFile(scene.getPath());
+        } finally {
+            Api.pbrtCleanup();
+            Pbrt.options = new Options();
+        }
+        // The sphere is textured and lit, so the image isn't black
+        ImageIO.SpectrumImage rendered = ImageIO.Read(output.getPath());
+        assertTrue(rendered != null);
+        float sum = 0;
+        for (Spectrum s : rendered.image) sum += s.y();
+        assertTrue(sum > 0);
+    }
+
+    @Test
+    public void testConcurrentLookups() throws InterruptedException {
+        TextureCache cache = new TextureCache(256 * (16 + 4 * 64 * 64 * 3));
+        int width = 1024, height = 512;
+        TextureCache.CachedTexture tex = cache.Register(new TestSource(width, height));
+        AtomicInteger nErrors = new AtomicInteger(0);
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            final int seed = i;
+            Thread thread = new Thread(() -> {
+                RNG rng = new RNG(seed);
+                for (int j = 0; j < 5000; ++j) {
+                    int level = rng.UniformUInt32(3);
+                    int s = rng.UniformUInt32(tex.Width(level)), t = rng.UniformUInt32(tex.Height(level));
+                    if (Math.abs(tex.Texel(level, s, t, 2) - Expected(level, s, t, 2, width, height)) > 1e-3f)
+                        nErrors.incrementAndGet();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(0, nErrors.get());
+    }
+}
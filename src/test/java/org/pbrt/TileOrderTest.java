@@ -0,0 +1,45 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.core.*;
+
+public class TileOrderTest {
+
+    @Test
+    public void testEachTileOnce() {
+        String[] orders = { TileOrder.RowMajor, TileOrder.Spiral, TileOrder.Morton, TileOrder.Hilbert };
+        Point2i[] grids = { new Point2i(1, 1), new Point2i(8, 8), new Point2i(10, 3), new Point2i(3, 17) };
+        for (String order : orders)
+            for (Point2i grid : grids) {
+                Point2i[] tiles = TileOrder.Create(order, grid);
+                assertEquals(grid.x * grid.y, tiles.length);
+                boolean[] seen = new boolean[grid.x * grid.y];
+                for (Point2i t : tiles) {
+                    assertTrue(t.x >= 0 && t.x < grid.x && t.y >= 0 && t.y < grid.y);
+                    assertFalse(seen[t.y * grid.x + t.x]);
+                    seen[t.y * grid.x + t.x] = true;
+                }
+            }
+    }
+
+    // On a power-of-two grid each step of the Hilbert curve is to a neighbor
+    @Test
+    public void testHilbertSteps() {
+        Point2i[] tiles = TileOrder.Create(TileOrder.Hilbert, new Point2i(16, 16));
+        for (int i = 1; i < tiles.length; ++i)
+            assertEquals(1, Math.abs(tiles[i].x - tiles[i - 1].x) + Math.abs(tiles[i].y - tiles[i - 1].y));
+    }
+}
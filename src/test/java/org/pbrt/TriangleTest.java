@@ -9,9 +9,14 @@
 
 package org.pbrt;
 
+import org.pbrt.core.AnimatedTransform;
+import org.pbrt.core.GeometricPrimitive;
+import org.pbrt.core.MediumInterface;
 import org.pbrt.core.Point3f;
 import org.pbrt.core.Ray;
 import org.pbrt.core.Shape;
+import org.pbrt.core.SurfaceInteraction;
+import org.pbrt.core.TransformedPrimitive;
 import org.pbrt.shapes.Triangle;
 
 import org.pbrt.core.Transform;
@@ -48,4 +53,30 @@ public class TriangleTest {
 
     }
 
+    // An instanced triangle's normals are rotated into world space once
+    @Test
+    public void testInstancedNormals() {
+        Transform identity = new Transform();
+        int[] indices = {0, 1, 2};
+        Point3f[] points = {new Point3f(-10, 10, 0), new Point3f(10, 10, 0), new Point3f(10, -10, 0)};
+        for (boolean reverse : new boolean[] { false, true }) {
+            ArrayList<Shape> tris = Triangle.CreateTriangleMesh(identity, identity, reverse, 1,
+                    indices, points.length, points, null, null, null, null, null);
+            Transform rotate = Transform.RotateX(90);
+            TransformedPrimitive instance = new TransformedPrimitive(
+                    new GeometricPrimitive(tris.get(0), null, null, new MediumInterface()),
+                    new AnimatedTransform(rotate, 0, rotate, 1));
+
+            // The triangle lies in the y = 0 plane in world space
+            SurfaceInteraction isect = instance.Intersect(new Ray(new Point3f(1, 5, 1), new Vector3f(0, -1, 0)));
+            assertTrue(isect != null);
+            assertEquals(0, isect.n.x, 1e-5f);
+            assertEquals(1, Math.abs(isect.n.y), 1e-5f);
+            assertEquals(0, isect.n.z, 1e-5f);
+            assertEquals(isect.n.x, isect.shading.n.x, 1e-5f);
+            assertEquals(isect.n.y, isect.shading.n.y, 1e-5f);
+            assertEquals(isect.n.z, isect.shading.n.z, 1e-5f);
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+/*
+ * PBrtJ -- Port of pbrt v3 to Java.
+ * Copyright (c) 2017 Rick Weyrauch.
+ *
+ * pbrt source code is Copyright(c) 1998-2016
+ * Matt Pharr, Greg Humphreys, and Wenzel Jakob.
+ *
+ */
+package org.pbrt.integrators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.pbrt.accelerators.BVHAccel;
+import org.pbrt.cameras.PerspectiveCamera;
+import org.pbrt.core.*;
+import org.pbrt.filters.BoxFilter;
+import org.pbrt.lights.DiffuseAreaLight;
+import org.pbrt.lights.PointLight;
+import org.pbrt.materials.GlassMaterial;
+import org.pbrt.materials.MatteMaterial;
+import org.pbrt.samplers.RandomSampler;
+import org.pbrt.shapes.Sphere;
+import org.pbrt.textures.ConstantTextureFloat;
+import org.pbrt.textures.ConstantTextureSpectrum;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Checks the incremental BDPT MIS weights against a direct O(n^2)
+// evaluation of the same balance heuristic.
+public class VertexTest {
+
+    @Test
+    public void testMISWeightMatchesReference() {
+        Pbrt.options = new Options();
+        Pbrt.options.Quiet = true;
+
+        // A closed matte room holding a glass sphere, a small emitting sphere
+        // and a point light, so subpaths have diffuse, specular and delta
+        // vertices and start from both kinds of light
+        Transform id = new Transform();
+        TextureSpectrum white = new ConstantTextureSpectrum(new Spectrum(1));
+        TextureFloat zero = new ConstantTextureFloat(0);
+        Material matte = new MatteMaterial(new ConstantTextureSpectrum(new Spectrum(0.5f)), zero, null);
+        Material glass = new GlassMaterial(white, white, zero, zero, new ConstantTextureFloat(1.5f), null, true);
+        Transform emitterToWorld = Transform.Translate(new Vector3f(1.5f, -1.5f, 0));
+        Shape emitter = new Sphere(emitterToWorld, Transform.Inverse(emitterToWorld), false, 0.5f, -0.5f, 0.5f, 360);
+        AreaLight areaLight = new DiffuseAreaLight(emitterToWorld, new MediumInterface(), new Spectrum(4), 1, emitter);
+        ArrayList<Light> lights = new ArrayList<>();
+        lights.add(areaLight);
+        lights.add(new PointLight(Transform.Translate(new Vector3f(0, 2, 0)), new MediumInterface(), new Spectrum(4)));
+        Primitive[] prims = {
+                new GeometricPrimitive(new Sphere(id, id, true /* reverse orientation */, 3, -3, 3, 360), matte, null, new MediumInterface()),
+                new GeometricPrimitive(emitter, matte, areaLight, new MediumInterface()),
+                new GeometricPrimitive(new Sphere(id, id, false, 1, -1, 1, 360), glass, null, new MediumInterface()) };
+        Scene scene = new Scene(new BVHAccel(prims), lights);
+
+        Point2i resolution = new Point2i(16, 16);
+        Film film = new Film(resolution, new Bounds2f(new Point2f(0, 0), new Point2f(1, 1)), new BoxFilter(new Vector2f(0.5f, 0.5f)), 1, "unused.exr", 1, Pbrt.Infinity);
+        Transform cameraToWorld = Transform.Translate(new Vector3f(0, 0, -2.5f));
+        Camera camera = new PerspectiveCamera(new AnimatedTransform(cameraToWorld, 0, cameraToWorld, 1),
+                new Bounds2f(new Point2f(-1, -1), new Point2f(1, 1)), 0, 1, 0, 10, 60, film, null);
+
+        DiscreteDistribution1D lightDistr = SamplerIntegrator.ComputeLightPowerDistribution(scene);
+        HashMap<Light, Integer> lightToIndex = new HashMap<>();
+        for (int i = 0; i < scene.lights.size(); ++i)
+            lightToIndex.put(scene.lights.get(i), i);
+
+        int maxDepth = 6;
+        Vertex.PathBuffers buffers = new Vertex.PathBuffers(maxDepth + 2);
+        Sampler sampler = new RandomSampler(4, 7);
+        MemoryArena arena = new MemoryArena();
+        float[] misWeight = new float[1];
+        Point2f[] pRaster = new Point2f[1];
+        int nCompared = 0;
+        for (int y = 0; y < resolution.y; ++y)
+        for (int x = 0; x < resolution.x; ++x) {
+            sampler.StartPixel(new Point2i(x, y));
+            do {
+                Point2f pFilm = new Point2f(x, y).add(sampler.Get2D());
+                int nCamera = Vertex.GenerateCameraSubpath(scene, sampler, arena, maxDepth + 2, camera, pFilm, buffers.cameraVertices);
+                int nLight = Vertex.GenerateLightSubpath(scene, sampler, arena, maxDepth + 1,
+                        buffers.cameraVertices[0].time(), lightDistr, lightToIndex, buffers.lightVertices);
+                buffers.Prepare(nCamera, nLight);
+                for (int t = 1; t <= nCamera; ++t) {
+                    for (int s = 0; s <= nLight; ++s) {
+                        int depth = t + s - 2;
+                        if ((s == 1 && t == 1) || depth < 0 || depth > maxDepth) continue;
+                        pRaster[0] = pFilm;
+                        misWeight[0] = 0;
+                        Vertex.ConnectBDPT(scene, buffers, s, t, lightDistr, lightToIndex, camera, sampler, pRaster, misWeight);
+                        if (misWeight[0] == 0) continue;
+                        float expected = ReferenceMISWeight(scene, buffers.lightVertices, buffers.cameraVertices,
+                                buffers.sampled, s, t, lightDistr, lightToIndex);
+                        assertEquals(String.format("s = %d, t = %d", s, t), expected, misWeight[0], 1e-4f * Math.max(1, expected));
+                        ++nCompared;
+                    }
+                }
+                arena.Reset();
+            } while (sampler.StartNextSample());
+        }
+        assertTrue(nCompared > 1000);
+    }
+
+    // The balance heuristic evaluated by walking both subpaths for every
+    // strategy, with the per-strategy densities substituted in copies of the
+    // vertex data, as in pbrt's original MISWeight()
+    private static float ReferenceMISWeight(Scene scene, Vertex[] lightVertices, Vertex[] cameraVertices, Vertex sampled,
+                                            int s, int t, DiscreteDistribution1D lightPdf, HashMap<Light, Integer> lightToIndex) {
+        if (s + t == 2) return 1;
+        Vertex[] light = new Vertex[s], cam = new Vertex[t];
+        System.arraycopy(lightVertices, 0, light, 0, s);
+        System.arraycopy(cameraVertices, 0, cam, 0, t);
+        if (s == 1) light[0] = sampled;
+        if (t == 1) cam[0] = sampled;
+        Vertex qs = s > 0 ? light[s - 1] : null, pt = cam[t - 1],
+                qsMinus = s > 1 ? light[s - 2] : null, ptMinus = t > 1 ? cam[t - 2] : null;
+
+        float[] lightRev = new float[s], camRev = new float[t];
+        boolean[] lightDelta = new boolean[s], camDelta = new boolean[t];
+        for (int i = 0; i < s; ++i) { lightRev[i] = light[i].pdfRev; lightDelta[i] = light[i].delta; }
+        for (int i = 0; i < t; ++i) { camRev[i] = cam[i].pdfRev; camDelta[i] = cam[i].delta; }
+
+        // Connection vertices are non-degenerate and get this strategy's
+        // reverse densities
+        camDelta[t - 1] = false;
+        if (s > 0) lightDelta[s - 1] = false;
+        camRev[t - 1] = s > 0 ? qs.Pdf(scene, qsMinus, pt) : pt.PdfLightOrigin(scene, ptMinus, lightPdf, lightToIndex);
+        if (t > 1) camRev[t - 2] = s > 0 ? pt.Pdf(scene, qs, ptMinus) : pt.PdfLight(scene, ptMinus);
+        if (s > 0) lightRev[s - 1] = pt.Pdf(scene, ptMinus, qs);
+        if (s > 1) lightRev[s - 2] = qs.Pdf(scene, pt, qsMinus);
+
+        float sumRi = 0, ri = 1;
+        for (int i = t - 1; i > 0; --i) {
+            ri *= Remap0(camRev[i]) / Remap0(cam[i].pdfFwd);
+            if (!camDelta[i] && !camDelta[i - 1]) sumRi += ri;
+        }
+        ri = 1;
+        for (int i = s - 1; i >= 0; --i) {
+            ri *= Remap0(lightRev[i]) / Remap0(light[i].pdfFwd);
+            boolean deltaLightvertex = i > 0 ? lightDelta[i - 1] : light[0].IsDeltaLight();
+            if (!lightDelta[i] && !deltaLightvertex) sumRi += ri;
+        }
+        return 1 / (1 + sumRi);
+    }
+
+    private static float Remap0(float f) {
+        return f != 0 ? f : 1;
+    }
+}